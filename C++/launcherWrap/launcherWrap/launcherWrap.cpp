@@ -36,7 +36,8 @@ const std::string default_jvm_params =
     "-XX:MinHeapFreeRatio=10 "
     "-Dsun.java2d.noddraw=true "
     "-XX:NewRatio=1 "
-    "-XX:+CompactStrings " +
+    "-XX:+CompactStrings "
+    "--add-modules=jdk.incubator.vector " +
     redirect_error_file_option;
 
 #ifndef TEST
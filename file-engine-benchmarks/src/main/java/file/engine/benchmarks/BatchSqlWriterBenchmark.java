@@ -0,0 +1,103 @@
+package file.engine.benchmarks;
+
+import file.engine.services.utils.StringUtf8SumUtil;
+import file.engine.services.utils.connection.BatchSqlWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 模拟一次大量文件变化（如git checkout），对比逐条执行拼接的sql与通过BatchSqlWriter批量执行的吞吐量
+ * 每次调用在一个事务中添加BURST_SIZE个文件再全部删除，记录分散在list0-list40中
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BatchSqlWriterBenchmark {
+    private static final int BURST_SIZE = 50_000;
+    private static final int MAX_TABLE_NUM = 40;
+
+    private Connection connection;
+    private String[] paths;
+    private int[] asciiSums;
+    private String[] tableNames;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Path dbFile = Files.createTempFile("file-engine-batch-benchmark", ".db");
+        dbFile.toFile().deleteOnExit();
+        connection = DriverManager.getConnection("jdbc:sqlite:" + dbFile.toAbsolutePath());
+        try (Statement stmt = connection.createStatement()) {
+            for (int i = 0; i <= MAX_TABLE_NUM; ++i) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS list" + i + "(ASCII INT, PATH TEXT, PRIORITY INT, PRIMARY KEY(\"ASCII\",\"PATH\",\"PRIORITY\"));");
+            }
+        }
+        Random random = new Random(42);
+        paths = new String[BURST_SIZE];
+        asciiSums = new int[BURST_SIZE];
+        tableNames = new String[BURST_SIZE];
+        for (int i = 0; i < BURST_SIZE; ++i) {
+            String path = SyntheticTable.randomPath(random, i);
+            int asciiSum = StringUtf8SumUtil.getStringSum(path.substring(path.lastIndexOf(File.separatorChar) + 1));
+            paths[i] = path;
+            asciiSums[i] = asciiSum;
+            tableNames[i] = "list" + Math.min(asciiSum / 100, MAX_TABLE_NUM);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST_SIZE * 2)
+    public int statementPerCommand() throws SQLException {
+        int updateCount = 0;
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("BEGIN;");
+            for (int i = 0; i < BURST_SIZE; ++i) {
+                stmt.execute(String.format("INSERT OR IGNORE INTO %s VALUES(%d, \"%s\", %d)", tableNames[i], asciiSums[i], paths[i], 0));
+                updateCount += stmt.getUpdateCount();
+            }
+            for (int i = 0; i < BURST_SIZE; ++i) {
+                stmt.execute(String.format("DELETE FROM %s where PATH=\"%s\";", tableNames[i], paths[i]));
+                updateCount += stmt.getUpdateCount();
+            }
+            stmt.execute("COMMIT;");
+        }
+        return updateCount;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST_SIZE * 2)
+    public int batchSqlWriter() throws SQLException {
+        int[] updateCount = new int[1];
+        try (Statement stmt = connection.createStatement();
+             BatchSqlWriter batchSqlWriter = new BatchSqlWriter(stmt, connection::prepareStatement)) {
+            stmt.execute("BEGIN;");
+            for (int i = 0; i < BURST_SIZE; ++i) {
+                batchSqlWriter.add("INSERT OR IGNORE INTO " + tableNames[i] + " VALUES(?, ?, ?);",
+                        new Object[]{asciiSums[i], paths[i], 0}, paths[i], count -> updateCount[0] += count);
+            }
+            for (int i = 0; i < BURST_SIZE; ++i) {
+                batchSqlWriter.add("DELETE FROM " + tableNames[i] + " WHERE PATH=?;",
+                        new Object[]{paths[i]}, paths[i], count -> updateCount[0] += count);
+            }
+            batchSqlWriter.flush();
+            stmt.execute("COMMIT;");
+        }
+        return updateCount[0];
+    }
+}
@@ -0,0 +1,115 @@
+package file.engine.benchmarks;
+
+import file.engine.services.utils.PathMatchUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 与DatabaseService.searchAndAddToTempResults相同的扫描方式：每次从ResultSet中读取batchSize条PATH，
+ * 再将这一批交给线程池匹配，读取下一批与匹配并行执行
+ * batchSize为1024时与DatabaseService中的MAX_TEMP_QUERY_RESULT_CACHE相同
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BatchedScanBenchmark {
+
+    @Param({"1000000"})
+    public int recordNum;
+
+    @Param({"256", "1024", "8192"})
+    public int batchSize;
+
+    @Param({"report", "final;invoice"})
+    public String searchText;
+
+    private Connection connection;
+    private ExecutorService executor;
+    private String[] keywords;
+    private String[] keywordsLowerCase;
+    private boolean[] isKeywordPath;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        connection = SyntheticTable.create(recordNum, 42);
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        keywords = searchText.split(";");
+        keywordsLowerCase = new String[keywords.length];
+        isKeywordPath = new boolean[keywords.length];
+        for (int i = 0; i < keywords.length; ++i) {
+            keywordsLowerCase[i] = keywords[i].toLowerCase();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        executor.shutdownNow();
+        connection.close();
+    }
+
+    @Benchmark
+    public int batchedScan(Blackhole blackhole) throws SQLException, InterruptedException, ExecutionException {
+        AtomicInteger matched = new AtomicInteger();
+        ArrayList<Future<?>> futures = new ArrayList<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery("SELECT PATH FROM list0 WHERE PRIORITY=0;")) {
+            boolean noMoreRecords = false;
+            while (!noMoreRecords) {
+                String[] batch = new String[batchSize];
+                int count = 0;
+                while (count < batchSize) {
+                    if (resultSet.next()) {
+                        batch[count++] = resultSet.getString("PATH");
+                    } else {
+                        noMoreRecords = true;
+                        break;
+                    }
+                }
+                final int batchCount = count;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < batchCount; ++i) {
+                        if (PathMatchUtil.check(batch[i], null, true, searchText, keywords, keywordsLowerCase, isKeywordPath)) {
+                            blackhole.consume(batch[i]);
+                            matched.getAndIncrement();
+                        }
+                    }
+                }));
+            }
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        return matched.get();
+    }
+
+    @Benchmark
+    public int sequentialScan(Blackhole blackhole) throws SQLException {
+        int matched = 0;
+        try (Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery("SELECT PATH FROM list0 WHERE PRIORITY=0;")) {
+            while (resultSet.next()) {
+                String path = resultSet.getString("PATH");
+                if (PathMatchUtil.check(path, null, true, searchText, keywords, keywordsLowerCase, isKeywordPath)) {
+                    blackhole.consume(path);
+                    ++matched;
+                }
+            }
+        }
+        return matched;
+    }
+}
@@ -1,11 +1,11 @@
-package file.engine.utils;
+package file.engine.benchmarks;
 
 import java.util.Arrays;
-import java.util.Objects;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * 大数位运算模块
+ * 从已删除的file.engine.utils.Bit中复制的大数位运算模块，只保留SearchTask完成检测用到的方法
+ * 仅作为SearchTaskCompletionBenchmark的对比基准使用，不要在主程序中使用
  */
 public class Bit {
 
@@ -51,57 +51,6 @@ public class Bit {
         throw new RuntimeException("bit value is null");
     }
 
-    /**
-     * 右移count位
-     *
-     * @param count 次数
-     * @return 当前bit对象
-     */
-    @SuppressWarnings({"unused", "UnusedReturnValue"})
-    public Bit shiftRight(int count) {
-        if (bytes.get().length <= count) {
-            bytes.set(zero);
-            return this;
-        } else {
-            byte[] originBytes;
-            while ((originBytes = bytes.get()) != null) {
-                byte[] newBytes = Arrays.copyOfRange(originBytes, 0, originBytes.length - count);
-                if (bytes.compareAndSet(originBytes, newBytes)) {
-                    return this;
-                }
-            }
-        }
-        throw new RuntimeException("bit value is null");
-    }
-
-    /**
-     * 与运算
-     *
-     * @param bytes1 bytes1
-     * @param bytes2 bytes2
-     * @return 结果 Bit
-     */
-    public static Bit and(byte[] bytes1, byte[] bytes2) {
-        boolean isBytes1Bigger = bytes1.length > bytes2.length;
-        byte[] bigger = isBytes1Bigger ? bytes1 : bytes2;
-        byte[] smaller = isBytes1Bigger ? bytes2 : bytes1;
-        int offset = Math.abs(bytes1.length - bytes2.length);
-        int minLength = smaller.length;
-        byte[] res = new byte[minLength];
-        for (int i = minLength - 1; i >= 0; i--) {
-            byte b1, b2;
-            b1 = smaller[i];
-            int index = i + offset;
-            if (index < bigger.length) {
-                b2 = bigger[index];
-            } else {
-                b2 = 0;
-            }
-            res[i] = (byte) (b1 & b2);
-        }
-        return new Bit(removeHighZero(res));
-    }
-
     /**
      * 或运算
      *
@@ -154,15 +103,6 @@ public class Bit {
         return zero;
     }
 
-    @Override
-    public String toString() {
-        StringBuilder builder = new StringBuilder();
-        for (int i = 0; i < this.bytes.get().length; i++) {
-            builder.append(this.bytes.get()[i]);
-        }
-        return builder.toString();
-    }
-
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof Bit tmp) {
@@ -173,12 +113,6 @@ public class Bit {
 
     @Override
     public int hashCode() {
-        int result = Objects.hash(bytes);
-        result = 31 * result + Arrays.hashCode(zero);
-        return result;
-    }
-
-    public int length() {
-        return this.bytes.get().length;
+        return Arrays.hashCode(this.bytes.get());
     }
 }
@@ -0,0 +1,254 @@
+package file.engine.benchmarks;
+
+import file.engine.services.utils.StringUtf8SumUtil;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 生成与fileSearcherUSN写入结果结构相同的 data/[disk].db，用于在没有大容量NTFS磁盘的机器上复现千万级文件的搜索性能
+ * <p>
+ * 使用与File-Engine相同的listN表结构和StringUtf8SumUtil分表规则，文件夹和没有后缀名的文件priority为-1，
+ * 其余文件按照默认的后缀优先级写入
+ * <p>
+ * 参数格式为 key=value，例如
+ * <pre>
+ * java -cp benchmarks.jar file.engine.benchmarks.CorpusGenerator count=10000000 depth=8 chineseRatio=0.2 ext=txt:20,exe:5,png:10
+ * </pre>
+ * <ul>
+ *     <li>count 文件数量，默认1000000</li>
+ *     <li>depth 最大文件夹深度，默认8</li>
+ *     <li>filesPerDir 每个文件夹平均文件数量，决定生成的文件夹数量，默认20</li>
+ *     <li>chineseRatio 中文文件名的比例，默认0.1</li>
+ *     <li>ext 后缀名及权重，以逗号分隔，后缀为空表示没有后缀名</li>
+ *     <li>disk 盘符，默认C，需要与运行SearchLatencyHarness的机器上存在的NTFS磁盘一致</li>
+ *     <li>root 根文件夹，设置后忽略disk，路径以root开头并使用当前系统的路径分隔符，数据库名称为root的第一个字符，
+ *     文件夹不存在时创建，用于在linux下运行SearchLatencyHarness，例如 root=/tmp/fe-corpus</li>
+ *     <li>out 输出文件夹，默认data</li>
+ *     <li>seed 随机数种子，默认42</li>
+ * </ul>
+ */
+public class CorpusGenerator {
+    private static final String[] NAME_PARTS = {"report", "final", "backup", "image", "test", "project", "readme",
+            "config", "setup", "data", "temp", "log", "invoice", "photo", "music", "video", "release", "build", "src",
+            "document", "archive", "draft", "summary", "client", "server", "module", "resource", "cache", "export", "old"};
+    private static final String[] CHINESE_NAME_PARTS = {"文件", "测试", "项目", "报告", "备份", "图片", "音乐", "视频",
+            "文档", "资料", "会议", "合同", "总结", "计划", "新建文件夹", "工作", "学习", "照片", "下载", "安装包"};
+    private static final String DEFAULT_EXTENSION_MIX = "txt:12,jpg:10,png:8,dll:8,js:6,html:4,xml:4,java:4,cpp:3,h:3," +
+            "docx:3,xlsx:2,pdf:3,exe:3,lnk:1,zip:2,rar:1,7z:1,mp3:2,mp4:1,json:4,log:3,ini:2,dat:3,:3";
+    private static final int MAX_TABLE_NUM = 40;
+    private static final int BATCH_SIZE = 10000;
+
+    // 与数据库初始化时写入cache.db的默认后缀优先级保持一致
+    private static final Map<String, Integer> SUFFIX_PRIORITY = new HashMap<>();
+
+    static {
+        int count = 10;
+        SUFFIX_PRIORITY.put("lnk", count--);
+        SUFFIX_PRIORITY.put("exe", count--);
+        SUFFIX_PRIORITY.put("bat", count--);
+        SUFFIX_PRIORITY.put("cmd", count--);
+        SUFFIX_PRIORITY.put("txt", count--);
+        SUFFIX_PRIORITY.put("docx", count--);
+        SUFFIX_PRIORITY.put("zip", count--);
+        SUFFIX_PRIORITY.put("rar", count--);
+        SUFFIX_PRIORITY.put("7z", count--);
+        SUFFIX_PRIORITY.put("html", count);
+    }
+
+    private final int fileCount;
+    private final int maxDepth;
+    private final int filesPerDir;
+    private final double chineseRatio;
+    private final String[] extensions;
+    private final int[] extensionWeights;
+    private final int totalWeight;
+    private final char disk;
+    private final String root;
+    private final char separator;
+    private final File outputDir;
+    private final Random random;
+
+    public CorpusGenerator(Map<String, String> options) {
+        fileCount = Integer.parseInt(options.getOrDefault("count", "1000000"));
+        maxDepth = Math.max(1, Integer.parseInt(options.getOrDefault("depth", "8")));
+        filesPerDir = Math.max(1, Integer.parseInt(options.getOrDefault("filesPerDir", "20")));
+        chineseRatio = Double.parseDouble(options.getOrDefault("chineseRatio", "0.1"));
+        if (options.containsKey("root")) {
+            String rootOption = options.get("root");
+            root = rootOption.length() > 1 && rootOption.endsWith(File.separator) ?
+                    rootOption.substring(0, rootOption.length() - 1) : rootOption;
+            disk = root.charAt(0);
+            separator = File.separatorChar;
+        } else {
+            disk = Character.toUpperCase(options.getOrDefault("disk", "C").charAt(0));
+            root = disk + ":";
+            separator = '\\';
+        }
+        outputDir = new File(options.getOrDefault("out", "data"));
+        random = new Random(Long.parseLong(options.getOrDefault("seed", "42")));
+        String[] extensionMix = options.getOrDefault("ext", DEFAULT_EXTENSION_MIX).split(",");
+        extensions = new String[extensionMix.length];
+        extensionWeights = new int[extensionMix.length];
+        int weight = 0;
+        for (int i = 0; i < extensionMix.length; ++i) {
+            String[] pair = extensionMix[i].split(":");
+            extensions[i] = pair[0].trim().toLowerCase();
+            weight += pair.length > 1 ? Integer.parseInt(pair[1].trim()) : 1;
+            extensionWeights[i] = weight;
+        }
+        totalWeight = weight;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index == -1) {
+                throw new IllegalArgumentException("参数格式错误，应为key=value: " + arg);
+            }
+            options.put(arg.substring(0, index), arg.substring(index + 1));
+        }
+        new CorpusGenerator(options).generate();
+    }
+
+    /**
+     * 生成数据库文件，已经存在的数据库会被覆盖
+     */
+    public void generate() throws Exception {
+        Files.createDirectories(outputDir.toPath());
+        if (!root.endsWith(":")) {
+            // SearchLatencyHarness只搜索存在的磁盘
+            Files.createDirectories(Path.of(root));
+        }
+        Path dbFile = new File(outputDir, disk + ".db").toPath();
+        Files.deleteIfExists(dbFile);
+        final long startTime = System.currentTimeMillis();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbFile.toAbsolutePath())) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("PRAGMA journal_mode=OFF;");
+                stmt.execute("PRAGMA synchronous=OFF;");
+                for (int i = 0; i <= MAX_TABLE_NUM; i++) {
+                    stmt.execute("CREATE TABLE IF NOT EXISTS list" + i + "(ASCII INT, PATH TEXT, PRIORITY INT, PRIMARY KEY(\"ASCII\",\"PATH\",\"PRIORITY\"));");
+                }
+                stmt.execute("BEGIN;");
+            }
+            PreparedStatement[] insertStatements = new PreparedStatement[MAX_TABLE_NUM + 1];
+            int[] batchCount = new int[MAX_TABLE_NUM + 1];
+            try {
+                for (int i = 0; i <= MAX_TABLE_NUM; i++) {
+                    insertStatements[i] = connection.prepareStatement("INSERT OR IGNORE INTO list" + i + " VALUES(?, ?, ?);");
+                }
+                ArrayList<String> dirs = generateDirs();
+                for (String dir : dirs) {
+                    insert(insertStatements, batchCount, dir, -1);
+                }
+                StringBuilder path = new StringBuilder();
+                for (int i = 0; i < fileCount; ++i) {
+                    path.setLength(0);
+                    path.append(dirs.get(random.nextInt(dirs.size()))).append(separator).append(randomName()).append(i);
+                    String extension = randomExtension();
+                    if (!extension.isEmpty()) {
+                        path.append('.').append(extension);
+                    }
+                    insert(insertStatements, batchCount, path.toString(), getPriority(extension));
+                    if (i % 1_000_000 == 0 && i != 0) {
+                        System.out.println("已生成 " + i + " 个文件");
+                    }
+                }
+                for (PreparedStatement each : insertStatements) {
+                    each.executeBatch();
+                }
+                System.out.println("文件夹数量: " + dirs.size() + " 文件数量: " + fileCount);
+            } finally {
+                for (PreparedStatement each : insertStatements) {
+                    if (each != null) {
+                        each.close();
+                    }
+                }
+            }
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("COMMIT;");
+            }
+        }
+        System.out.println("生成 " + dbFile.toAbsolutePath() + " 耗时: " + (System.currentTimeMillis() - startTime) + "ms");
+    }
+
+    /**
+     * 生成文件夹树，每个文件夹的父文件夹从已经生成的文件夹中随机选择，深度不超过maxDepth
+     *
+     * @return 所有文件夹路径，不以分隔符结尾
+     */
+    private ArrayList<String> generateDirs() {
+        final int dirCount = Math.max(1, fileCount / filesPerDir);
+        ArrayList<String> dirs = new ArrayList<>(dirCount);
+        ArrayList<Integer> depths = new ArrayList<>(dirCount);
+        for (int i = 0; i < dirCount; ++i) {
+            String parent = root;
+            int depth = 1;
+            if (!dirs.isEmpty() && random.nextInt(10) != 0) {
+                int parentIndex = random.nextInt(dirs.size());
+                if (depths.get(parentIndex) < maxDepth) {
+                    parent = dirs.get(parentIndex);
+                    depth = depths.get(parentIndex) + 1;
+                }
+            }
+            dirs.add(parent + separator + randomName() + i);
+            depths.add(depth);
+        }
+        return dirs;
+    }
+
+    private String randomName() {
+        String[] parts = random.nextDouble() < chineseRatio ? CHINESE_NAME_PARTS : NAME_PARTS;
+        String name = parts[random.nextInt(parts.length)];
+        if (random.nextBoolean()) {
+            name += '_' + parts[random.nextInt(parts.length)];
+        }
+        return name;
+    }
+
+    private String randomExtension() {
+        int value = random.nextInt(totalWeight);
+        for (int i = 0; i < extensionWeights.length; ++i) {
+            if (value < extensionWeights[i]) {
+                return extensions[i];
+            }
+        }
+        return extensions[extensions.length - 1];
+    }
+
+    /**
+     * 没有后缀名时DatabaseService截取到的后缀包含路径分隔符，与文件夹相同priority为-1
+     */
+    private static int getPriority(String extension) {
+        if (extension.isEmpty()) {
+            return -1;
+        }
+        return SUFFIX_PRIORITY.getOrDefault(extension, 0);
+    }
+
+    private void insert(PreparedStatement[] insertStatements, int[] batchCount, String path, int priority) throws SQLException {
+        int asciiSum = StringUtf8SumUtil.getStringSum(path.substring(path.lastIndexOf(separator) + 1));
+        int asciiGroup = Math.min(asciiSum / 100, MAX_TABLE_NUM);
+        PreparedStatement pStmt = insertStatements[asciiGroup];
+        pStmt.setInt(1, asciiSum);
+        pStmt.setString(2, path);
+        pStmt.setInt(3, priority);
+        pStmt.addBatch();
+        if (++batchCount[asciiGroup] % BATCH_SIZE == 0) {
+            pStmt.executeBatch();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package file.engine.benchmarks;
+
+import file.engine.services.utils.PathMatchUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PathMatchUtil.check的匹配耗时，覆盖ASCII关键字、中文关键字、拼音关键字、路径关键字以及case和full规则
+ * 不包含f和d规则，这两个规则需要访问文件系统
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PathMatchUtilBenchmark {
+
+    @Param({"100000"})
+    public int recordNum;
+
+    // 以;分隔，以/开头的关键字匹配父路径，ceshi通过拼音匹配"测试"
+    @Param({"report", "final;invoice;txt", "测试", "ceshi", "/project;data"})
+    public String searchText;
+
+    // 空字符串表示没有匹配规则
+    @Param({"", "case", "full"})
+    public String searchCase;
+
+    private String[] paths;
+    private String[] searchCases;
+    private boolean isIgnoreCase;
+    private String[] keywords;
+    private String[] keywordsLowerCase;
+    private boolean[] isKeywordPath;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        paths = new String[recordNum];
+        for (int i = 0; i < recordNum; ++i) {
+            paths[i] = SyntheticTable.randomPath(random, i);
+        }
+        searchCases = searchCase.isEmpty() ? null : new String[]{searchCase};
+        isIgnoreCase = !PathMatchUtil.SearchCase.CASE.equals(searchCase);
+        keywords = searchText.split(";");
+        keywordsLowerCase = new String[keywords.length];
+        isKeywordPath = new boolean[keywords.length];
+        for (int i = 0; i < keywords.length; ++i) {
+            if (keywords[i].startsWith("/")) {
+                isKeywordPath[i] = true;
+                keywords[i] = keywords[i].substring(1).replace('/', File.separatorChar);
+            }
+            keywordsLowerCase[i] = keywords[i].toLowerCase();
+        }
+    }
+
+    @Benchmark
+    public int check() {
+        int matched = 0;
+        for (String path : paths) {
+            if (PathMatchUtil.check(path, searchCases, isIgnoreCase, searchText, keywords, keywordsLowerCase, isKeywordPath)) {
+                ++matched;
+            }
+        }
+        return matched;
+    }
+}
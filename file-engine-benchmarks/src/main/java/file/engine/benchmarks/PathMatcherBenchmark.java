@@ -0,0 +1,78 @@
+package file.engine.benchmarks;
+
+import file.engine.services.utils.PathMatchUtil;
+import file.engine.services.utils.PathMatcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比PathMatchUtil与预编译的PathMatcher的匹配耗时和内存分配
+ * 使用 -prof gc 运行可以看到每次调用分配的字节数(gc.alloc.rate.norm)
+ * 只比较关键字匹配(checkKeywords)，不访问文件系统
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PathMatcherBenchmark {
+
+    @Param({"100000"})
+    public int recordNum;
+
+    // 以;分隔，以/开头的关键字匹配父路径
+    @Param({"report", "final;invoice;txt", "/project;data"})
+    public String searchText;
+
+    private String[] paths;
+    private String[] keywords;
+    private String[] keywordsLowerCase;
+    private boolean[] isKeywordPath;
+    private PathMatcher pathMatcher;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        paths = new String[recordNum];
+        for (int i = 0; i < recordNum; ++i) {
+            paths[i] = SyntheticTable.randomPath(random, i);
+        }
+        keywords = searchText.split(";");
+        keywordsLowerCase = new String[keywords.length];
+        isKeywordPath = new boolean[keywords.length];
+        for (int i = 0; i < keywords.length; ++i) {
+            if (keywords[i].startsWith("/")) {
+                isKeywordPath[i] = true;
+                keywords[i] = keywords[i].substring(1).replace('/', File.separatorChar);
+            }
+            keywordsLowerCase[i] = keywords[i].toLowerCase();
+        }
+        pathMatcher = PathMatcher.compile(null, true, searchText, keywords, keywordsLowerCase, isKeywordPath);
+    }
+
+    @Benchmark
+    public int pathMatchUtil() {
+        int matched = 0;
+        for (String path : paths) {
+            if (PathMatchUtil.checkKeywords(path, null, true, searchText, keywords, keywordsLowerCase, isKeywordPath)) {
+                ++matched;
+            }
+        }
+        return matched;
+    }
+
+    @Benchmark
+    public int pathMatcher() {
+        int matched = 0;
+        for (String path : paths) {
+            if (pathMatcher.checkKeywords(path)) {
+                ++matched;
+            }
+        }
+        return matched;
+    }
+}
@@ -0,0 +1,50 @@
+package file.engine.benchmarks;
+
+import file.engine.utils.RegexUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * RegexUtil.getPattern的耗时
+ * cacheHit每次获取同一个正则表达式，搜索时处理路径关键字就是这种情况
+ * cacheThrash轮流获取超过缓存数量的正则表达式，每次都需要重新编译
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RegexUtilBenchmark {
+    // 大于RegexUtil中的MAX_PATTERN_CACHE_NUM
+    private static final int PATTERN_NUM = 32;
+
+    private String[] patterns;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        patterns = new String[PATTERN_NUM];
+        for (int i = 0; i < PATTERN_NUM; ++i) {
+            patterns[i] = "pattern" + i + "\\d+";
+        }
+    }
+
+    @Benchmark
+    public Pattern cacheHit() {
+        return RegexUtil.getPattern("/", 0);
+    }
+
+    @Benchmark
+    public Pattern cacheThrash() {
+        index = (index + 1) % PATTERN_NUM;
+        return RegexUtil.getPattern(patterns[index], 0);
+    }
+
+    @Benchmark
+    public Pattern compile() {
+        return Pattern.compile("/", 0);
+    }
+}
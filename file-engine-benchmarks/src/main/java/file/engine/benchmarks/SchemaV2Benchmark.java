@@ -0,0 +1,76 @@
+package file.engine.benchmarks;
+
+import file.engine.services.utils.DirPathSqlFunction;
+import file.engine.services.utils.connection.SchemaUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比v1与v2数据库结构的文件大小和全表扫描listN的耗时，v2通过视图和DIR_PATH函数还原完整路径
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SchemaV2Benchmark {
+
+    @Param({"1000000"})
+    public int recordNum;
+
+    @Param({"v1", "v2"})
+    public String schema;
+
+    private Connection connection;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        connection = SyntheticTable.create(recordNum, 42);
+        DirPathSqlFunction.registerTo(connection);
+        try (Statement stmt = connection.createStatement()) {
+            // 与v2迁移后的状态保持一致，v1同样先整理一次
+            stmt.execute("VACUUM;");
+        }
+        long v1Size = getDatabaseSize();
+        if ("v2".equals(schema)) {
+            SchemaUtil.migrateToV2(connection);
+            System.out.println("数据库大小 v1: " + v1Size + " bytes, v2: " + getDatabaseSize() + " bytes");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Benchmark
+    public int scanTable(Blackhole blackhole) throws SQLException {
+        int count = 0;
+        try (Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery("SELECT PATH FROM list0 WHERE PRIORITY=0;")) {
+            while (resultSet.next()) {
+                blackhole.consume(resultSet.getString(1));
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    private long getDatabaseSize() throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet pageCount = stmt.executeQuery("PRAGMA page_count;")) {
+            long pages = pageCount.next() ? pageCount.getLong(1) : 0;
+            try (Statement sizeStmt = connection.createStatement();
+                 ResultSet pageSize = sizeStmt.executeQuery("PRAGMA page_size;")) {
+                return pageSize.next() ? pages * pageSize.getLong(1) : 0;
+            }
+        }
+    }
+}
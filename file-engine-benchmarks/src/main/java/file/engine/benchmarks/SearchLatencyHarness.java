@@ -0,0 +1,281 @@
+package file.engine.benchmarks;
+
+import file.engine.configs.AllConfigs;
+import file.engine.configs.ConfigEntity;
+import file.engine.event.handler.Event;
+import file.engine.event.handler.EventManagement;
+import file.engine.event.handler.impl.BootSystemEvent;
+import file.engine.event.handler.impl.configs.SetConfigsEvent;
+import file.engine.event.handler.impl.database.InitializeDatabaseEvent;
+import file.engine.event.handler.impl.database.PrepareSearchEvent;
+import file.engine.event.handler.impl.database.SearchDoneEvent;
+import file.engine.event.handler.impl.database.StartSearchEvent;
+import file.engine.services.DatabaseService;
+import file.engine.utils.RegexUtil;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 不显示界面的端到端搜索延迟测试
+ * <p>
+ * 只注册DatabaseService和AllConfigs的事件处理器，按照MainClass的顺序发出SetConfigsEvent，InitializeDatabaseEvent和BootSystemEvent，
+ * 之后依次回放查询，每个查询先发出PrepareSearchEvent再发出StartSearchEvent，统计从发出StartSearchEvent到
+ * 出现第一个结果以及收到SearchDoneEvent的耗时，输出p50 p95 p99
+ * <p>
+ * 文件变化使用WatchService监控，不需要USN日志和NTFS磁盘。在data文件夹所在的目录下运行（data中的数据库可以由CorpusGenerator生成），
+ * 非Windows系统上不加载任何dll，使用sqlite-jdbc自带的动态库，磁盘只检查是否存在，例如在linux下
+ * <pre>
+ * java -cp benchmarks.jar file.engine.benchmarks.CorpusGenerator count=10000000 root=/tmp/fe-corpus
+ * java -cp benchmarks.jar file.engine.benchmarks.SearchLatencyHarness disks=/tmp/fe-corpus queries=queries.txt rounds=5
+ * </pre>
+ * <ul>
+ *     <li>disks 搜索的磁盘，以逗号分隔，需要与CorpusGenerator的root一致，默认使用user/settings.json中的设置</li>
+ *     <li>native 是否加载user文件夹中的dll，Windows下默认为true，其他系统默认为false</li>
+ *     <li>queries 查询文件，每行一个查询，格式与搜索框输入相同（例如 test|f;full），#开头的行被忽略，默认使用内置查询</li>
+ *     <li>rounds 回放次数，默认5</li>
+ *     <li>warmup 预热次数，不计入统计，默认1</li>
+ *     <li>timeout 单次查询等待SearchDoneEvent的超时时间(ms)，默认10000</li>
+ * </ul>
+ * 10秒内重复的查询会直接复用已经完成的搜索任务，不会再次发出SearchDoneEvent，这类查询单独计数，不计入统计
+ */
+public class SearchLatencyHarness {
+    private static final String[] DEFAULT_QUERIES = {"report", "final;txt", "测试", "ceshi", "/project;data", "readme|f",
+            "backup|d", "config;ini", "invoice|full", "video;mp4", "文件;报告", "setup;exe"};
+    private static final long POLL_INTERVAL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final List<String> queries;
+    private final int rounds;
+    private final int warmupRounds;
+    private final long timeoutMills;
+    private final String disks;
+    private final boolean isNativeEnabled;
+    private volatile CompletableFuture<Long> searchDoneFuture = new CompletableFuture<>();
+    private final ArrayList<Long> firstResultNanos = new ArrayList<>();
+    private final ArrayList<Long> searchDoneNanos = new ArrayList<>();
+    private int noResultCount;
+    private int reusedCount;
+    private int timeoutCount;
+
+    public SearchLatencyHarness(Map<String, String> options) throws IOException {
+        String queryFile = options.get("queries");
+        if (queryFile == null) {
+            queries = Arrays.asList(DEFAULT_QUERIES);
+        } else {
+            queries = Files.readAllLines(Path.of(queryFile), StandardCharsets.UTF_8).stream()
+                    .filter(each -> !each.isBlank() && !each.startsWith("#"))
+                    .toList();
+        }
+        rounds = Integer.parseInt(options.getOrDefault("rounds", "5"));
+        warmupRounds = Integer.parseInt(options.getOrDefault("warmup", "1"));
+        timeoutMills = Long.parseLong(options.getOrDefault("timeout", "10000"));
+        disks = options.get("disks");
+        final boolean isWindows = System.getProperty("os.name").startsWith("Windows");
+        isNativeEnabled = Boolean.parseBoolean(options.getOrDefault("native", String.valueOf(isWindows)));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index == -1) {
+                throw new IllegalArgumentException("参数格式错误，应为key=value: " + arg);
+            }
+            options.put(arg.substring(0, index), arg.substring(index + 1));
+        }
+        SearchLatencyHarness harness = new SearchLatencyHarness(options);
+        harness.boot();
+        harness.run();
+        harness.report();
+        System.exit(0);
+    }
+
+    /**
+     * 与MainClass相同的启动顺序，不初始化界面，托盘和插件，文件变化来源固定为WatchService
+     */
+    private void boot() throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        System.setProperty("file.encoding", "UTF-8");
+        if (isNativeEnabled) {
+            System.setProperty("org.sqlite.lib.path", Path.of("user/").toAbsolutePath().toString());
+            System.setProperty("org.sqlite.lib.name", "sqliteJDBC.dll");
+        } else {
+            // 需要在加载任何File-Engine的类之前设置
+            System.setProperty("File_Engine_Disable_Native", "true");
+        }
+        Class.forName("org.sqlite.JDBC");
+        Files.createDirectories(Path.of("user"));
+
+        EventManagement eventManagement = EventManagement.getInstance();
+        final String databaseServiceName = DatabaseService.class.getName();
+        eventManagement.readClassList(className -> className.startsWith(databaseServiceName) ||
+                className.equals(AllConfigs.class.getName()));
+        eventManagement.registerAllHandler();
+        eventManagement.registerAllListener();
+        eventManagement.releaseClassesList();
+        eventManagement.registerPluginListener(SearchDoneEvent.class.getName(), "SearchLatencyHarness", "searchDone",
+                (c, event) -> searchDoneFuture.complete(System.nanoTime()));
+
+        final long startTime = System.currentTimeMillis();
+        sendAndWait(new SetConfigsEvent(null), "Set configs failed");
+        ConfigEntity configEntity = AllConfigs.getInstance().getConfigEntity();
+        configEntity.getAdvancedConfigEntity().setFileChangeSource("watchService");
+        if (disks != null) {
+            configEntity.setDisks(disks.endsWith(",") ? disks : disks + ",");
+        }
+        System.out.println("搜索磁盘: " + AllConfigs.getInstance().getAvailableDisks());
+        sendAndWait(new InitializeDatabaseEvent(), "Initialize database failed");
+        sendAndWait(new BootSystemEvent(), "Boot system failed");
+        System.out.println("启动耗时: " + (System.currentTimeMillis() - startTime) + "ms");
+    }
+
+    private static void sendAndWait(Event event, String errorInfo) {
+        EventManagement eventManagement = EventManagement.getInstance();
+        eventManagement.putEvent(event);
+        if (eventManagement.waitForEvent(event)) {
+            throw new RuntimeException(errorInfo);
+        }
+    }
+
+    private void run() throws Exception {
+        for (int i = 0; i < warmupRounds; ++i) {
+            for (String query : queries) {
+                search(query, false);
+            }
+        }
+        for (int i = 0; i < rounds; ++i) {
+            for (String query : queries) {
+                search(query, true);
+            }
+        }
+    }
+
+    /**
+     * 执行一次查询，等待SearchDoneEvent后返回
+     *
+     * @param query    搜索框输入
+     * @param isRecord 是否计入统计
+     */
+    private void search(String query, boolean isRecord) throws Exception {
+        final String searchText;
+        final String[] searchCase;
+        final int i = query.lastIndexOf('|');
+        if (i == -1) {
+            searchText = query;
+            searchCase = null;
+        } else {
+            searchText = query.substring(0, i);
+            var searchCaseStr = query.substring(i + 1);
+            searchCase = searchCaseStr.isEmpty() ? null :
+                    Arrays.stream(RegexUtil.semicolon.split(searchCaseStr)).map(String::trim).toArray(String[]::new);
+        }
+        final String[] keywords = RegexUtil.semicolon.split(searchText);
+
+        EventManagement eventManagement = EventManagement.getInstance();
+        PrepareSearchEvent prepareSearchEvent = new PrepareSearchEvent(() -> searchText, () -> searchCase, () -> keywords);
+        eventManagement.putEvent(prepareSearchEvent);
+        eventManagement.waitForEvent(prepareSearchEvent);
+
+        CompletableFuture<Long> doneFuture = new CompletableFuture<>();
+        searchDoneFuture = doneFuture;
+        StartSearchEvent startSearchEvent = new StartSearchEvent(() -> searchText, () -> searchCase, () -> keywords);
+        final long startTime = System.nanoTime();
+        eventManagement.putEvent(startSearchEvent);
+        if (eventManagement.waitForEvent(startSearchEvent)) {
+            System.err.println("搜索失败: " + query);
+            return;
+        }
+        Optional<DatabaseService.SearchTask> searchTaskOptional = startSearchEvent.getReturnValue();
+        if (searchTaskOptional.isEmpty()) {
+            System.err.println("搜索被取消: " + query);
+            return;
+        }
+        DatabaseService.SearchTask searchTask = searchTaskOptional.get();
+        if (searchTask.isSearchDone() && !doneFuture.isDone()) {
+            // 复用已经完成的任务，不会再发出SearchDoneEvent
+            if (isRecord) {
+                ++reusedCount;
+            }
+            return;
+        }
+        long firstResultTime = -1;
+        while (!doneFuture.isDone()) {
+            if (firstResultTime == -1 && hasResult(searchTask)) {
+                firstResultTime = System.nanoTime();
+            }
+            if (System.nanoTime() - startTime > TimeUnit.MILLISECONDS.toNanos(timeoutMills)) {
+                break;
+            }
+            LockSupport.parkNanos(POLL_INTERVAL_NANOS);
+        }
+        long searchDoneTime;
+        try {
+            searchDoneTime = doneFuture.get(0, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            System.err.println("等待SearchDoneEvent超时: " + query);
+            if (isRecord) {
+                ++timeoutCount;
+            }
+            return;
+        }
+        if (firstResultTime == -1 && hasResult(searchTask)) {
+            // 结果在最后一次检查之后才放入，以搜索完成时间为准
+            firstResultTime = searchDoneTime;
+        }
+        if (!isRecord) {
+            return;
+        }
+        searchDoneNanos.add(searchDoneTime - startTime);
+        if (firstResultTime == -1) {
+            ++noResultCount;
+        } else {
+            firstResultNanos.add(firstResultTime - startTime);
+        }
+    }
+
+    private static boolean hasResult(DatabaseService.SearchTask searchTask) {
+        return !searchTask.getTempResults().isEmpty() || !searchTask.getCacheAndPriorityResults().isEmpty();
+    }
+
+    private void report() {
+        System.out.println("查询数量: " + queries.size() + " 回放次数: " + rounds);
+        System.out.println("没有结果: " + noResultCount + " 复用已完成的任务: " + reusedCount + " 超时: " + timeoutCount);
+        printPercentiles("time-to-first-result", firstResultNanos);
+        printPercentiles("time-to-SearchDoneEvent", searchDoneNanos);
+    }
+
+    private static void printPercentiles(String name, List<Long> nanos) {
+        if (nanos.isEmpty()) {
+            System.out.println(name + ": 没有数据");
+            return;
+        }
+        long[] sorted = nanos.stream().mapToLong(Long::longValue).sorted().toArray();
+        System.out.printf("%s (%d): p50 %.2fms  p95 %.2fms  p99 %.2fms  max %.2fms%n",
+                name,
+                sorted.length,
+                percentile(sorted, 0.50) / 1_000_000.0,
+                percentile(sorted, 0.95) / 1_000_000.0,
+                percentile(sorted, 0.99) / 1_000_000.0,
+                sorted[sorted.length - 1] / 1_000_000.0);
+    }
+
+    /**
+     * nearest-rank百分位数
+     */
+    private static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
@@ -0,0 +1,97 @@
+package file.engine.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 比较DatabaseService.SearchTask两种检测所有任务完成的方式，从添加任务到waitForTasks返回的时间
+ * bitStatus为之前的方式：每个任务分配Bit中的一位，任务完成时CAS或运算到taskStatus，等待线程每1ms比较一次taskStatus和allTaskStatus
+ * counterFuture为现在的方式：remainingTaskNum计数，最后一个任务完成时完成allTasksDoneFuture，等待线程立即返回
+ * taskNum为41的倍数，与DatabaseService中每个磁盘每个priority生成的任务数量相同
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SearchTaskCompletionBenchmark {
+
+    @Param({"41", "410", "1640"})
+    public int taskNum;
+
+    /**
+     * 每个任务消耗的CPU，0表示任务立即完成，只测量完成检测本身的开销
+     */
+    @Param({"0", "1000"})
+    public int taskWork;
+
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public Bit bitStatus() throws InterruptedException {
+        Bit taskStatus = new Bit(new byte[]{0});
+        Bit allTaskStatus = new Bit(new byte[]{0});
+        Bit taskNumber = new Bit(new byte[]{1});
+        ArrayList<Runnable> tasks = new ArrayList<>(taskNum);
+        for (int i = 0; i < taskNum; ++i) {
+            taskNumber.shiftLeft(1);
+            Bit currentTaskNum = new Bit(taskNumber);
+            byte[] origin;
+            do {
+                origin = allTaskStatus.getBytes();
+            } while (!allTaskStatus.compareAndSet(origin, Bit.or(origin, currentTaskNum.getBytes())));
+            tasks.add(() -> {
+                Blackhole.consumeCPU(taskWork);
+                byte[] originalBytes;
+                do {
+                    originalBytes = taskStatus.getBytes();
+                } while (!taskStatus.compareAndSet(originalBytes, Bit.or(originalBytes, currentTaskNum.getBytes())));
+            });
+        }
+        tasks.forEach(executor::execute);
+        while (!taskStatus.equals(allTaskStatus)) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        return taskStatus;
+    }
+
+    @Benchmark
+    public int counterFuture() throws Exception {
+        AtomicInteger remainingTaskNum = new AtomicInteger();
+        CompletableFuture<Void> allTasksDoneFuture = new CompletableFuture<>();
+        ArrayList<Runnable> tasks = new ArrayList<>(taskNum);
+        for (int i = 0; i < taskNum; ++i) {
+            remainingTaskNum.incrementAndGet();
+            tasks.add(() -> {
+                try {
+                    Blackhole.consumeCPU(taskWork);
+                } finally {
+                    if (remainingTaskNum.decrementAndGet() == 0) {
+                        allTasksDoneFuture.complete(null);
+                    }
+                }
+            });
+        }
+        tasks.forEach(executor::execute);
+        allTasksDoneFuture.get();
+        return remainingTaskNum.get();
+    }
+}
@@ -0,0 +1,85 @@
+package file.engine.benchmarks;
+
+import file.engine.services.utils.PathMatchSqlFunction;
+import file.engine.services.utils.PathMatchUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比在Java中匹配（读取所有PATH后调用PathMatchUtil.check）与在SQLite中通过PATH_MATCH函数匹配的吞吐量
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SqliteMatchFunctionBenchmark {
+
+    @Param({"1000000"})
+    public int recordNum;
+
+    @Param({"report", "final;invoice", "xyz"})
+    public String searchText;
+
+    private Connection connection;
+    private String[] keywords;
+    private String[] keywordsLowerCase;
+    private boolean[] isKeywordPath;
+    private int matchId;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        connection = SyntheticTable.create(recordNum, 42);
+        PathMatchSqlFunction.registerTo(connection);
+        keywords = searchText.split(";");
+        keywordsLowerCase = new String[keywords.length];
+        isKeywordPath = new boolean[keywords.length];
+        for (int i = 0; i < keywords.length; ++i) {
+            keywordsLowerCase[i] = keywords[i].toLowerCase();
+        }
+        matchId = PathMatchSqlFunction.register(null, true, searchText, keywords, keywordsLowerCase, isKeywordPath);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        PathMatchSqlFunction.unregister(matchId);
+        connection.close();
+    }
+
+    @Benchmark
+    public int matchInJava(Blackhole blackhole) throws SQLException {
+        int matched = 0;
+        try (Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery("SELECT PATH FROM list0 WHERE PRIORITY=0;")) {
+            while (resultSet.next()) {
+                String path = resultSet.getString("PATH");
+                if (PathMatchUtil.checkKeywords(path, null, true, searchText, keywords, keywordsLowerCase, isKeywordPath)) {
+                    blackhole.consume(path);
+                    ++matched;
+                }
+            }
+        }
+        return matched;
+    }
+
+    @Benchmark
+    public int matchInDatabase(Blackhole blackhole) throws SQLException {
+        int matched = 0;
+        String sql = PathMatchSqlFunction.appendMatchCondition("SELECT PATH FROM list0 WHERE PRIORITY=0;", matchId);
+        try (Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery(sql)) {
+            while (resultSet.next()) {
+                blackhole.consume(resultSet.getString("PATH"));
+                ++matched;
+            }
+        }
+        return matched;
+    }
+}
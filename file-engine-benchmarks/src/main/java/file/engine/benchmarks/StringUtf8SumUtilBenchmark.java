@@ -0,0 +1,26 @@
+package file.engine.benchmarks;
+
+import file.engine.services.utils.StringUtf8SumUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StringUtf8SumUtil.getStringSum的耗时，每个文件的增删以及每次搜索的每个关键字都会调用一次
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StringUtf8SumUtilBenchmark {
+
+    @Param({"readme.txt", "project_backup_final_2023-11-05.zip", "测试报告.docx", "项目文件_final报告.pdf"})
+    public String fileName;
+
+    @Benchmark
+    public int getStringSum() {
+        return StringUtf8SumUtil.getStringSum(fileName);
+    }
+}
@@ -0,0 +1,81 @@
+package file.engine.benchmarks;
+
+import file.engine.services.utils.StringUtf8SumUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+/**
+ * 生成与File-Engine相同结构的listN表，用于基准测试
+ */
+public class SyntheticTable {
+    private static final String[] NAME_PARTS = {"report", "final", "backup", "image", "test", "project", "readme",
+            "config", "setup", "data", "temp", "log", "invoice", "photo", "music", "video", "文件", "测试", "项目", "报告"};
+    private static final String[] SUFFIXES = {"txt", "exe", "docx", "zip", "png", "jpg", "mp3", "java", "cpp", "lnk"};
+
+    /**
+     * 创建数据库并向list0写入recordNum条记录，所有记录都放在list0中以模拟最大的表
+     *
+     * @param recordNum 记录数量
+     * @param seed      随机数种子
+     * @return 数据库连接
+     */
+    public static Connection create(int recordNum, long seed) throws SQLException, IOException {
+        Path dbFile = Files.createTempFile("file-engine-benchmark", ".db");
+        dbFile.toFile().deleteOnExit();
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbFile.toAbsolutePath());
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS list0(ASCII INT, PATH TEXT, PRIORITY INT, PRIMARY KEY(\"ASCII\",\"PATH\",\"PRIORITY\"));");
+            stmt.execute("BEGIN;");
+        }
+        Random random = new Random(seed);
+        try (PreparedStatement pStmt = connection.prepareStatement("INSERT OR IGNORE INTO list0 VALUES(?, ?, ?);")) {
+            for (int i = 0; i < recordNum; ++i) {
+                String path = randomPath(random, i);
+                pStmt.setInt(1, StringUtf8SumUtil.getStringSum(path.substring(path.lastIndexOf(File.separatorChar) + 1)));
+                pStmt.setString(2, path);
+                pStmt.setInt(3, 0);
+                pStmt.addBatch();
+                if (i % 10000 == 0) {
+                    pStmt.executeBatch();
+                }
+            }
+            pStmt.executeBatch();
+        }
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("COMMIT;");
+        }
+        return connection;
+    }
+
+    /**
+     * 生成一个随机路径，例如 C:\project\data\report_final12.txt
+     *
+     * @param random 随机数
+     * @param index  序号，保证路径唯一
+     * @return 路径
+     */
+    public static String randomPath(Random random, int index) {
+        StringBuilder path = new StringBuilder("C:");
+        int depth = 2 + random.nextInt(6);
+        for (int i = 0; i < depth; ++i) {
+            path.append(File.separatorChar).append(NAME_PARTS[random.nextInt(NAME_PARTS.length)]);
+        }
+        path.append(File.separatorChar)
+                .append(NAME_PARTS[random.nextInt(NAME_PARTS.length)])
+                .append('_')
+                .append(NAME_PARTS[random.nextInt(NAME_PARTS.length)])
+                .append(index)
+                .append('.')
+                .append(SUFFIXES[random.nextInt(SUFFIXES.length)]);
+        return path.toString();
+    }
+}
@@ -0,0 +1,74 @@
+package file.engine.benchmarks;
+
+import file.engine.services.utils.monitor.WatchServiceFileChangeSource;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 测量WatchServiceFileChangeSource从创建文件到可以被读取的延迟，可以在Linux上无界面运行
+ * 每次调用创建fileNum个文件，直到全部从pollAddedFile读取后结束，结果为一批文件的总延迟
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WatchServiceIngestBenchmark {
+    private static final long TIMEOUT_MILLS = 30_000;
+
+    @Param({"1000", "10000"})
+    public int fileNum;
+
+    private Path root;
+    private WatchServiceFileChangeSource fileChangeSource;
+    private int round;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        root = Files.createTempDirectory("file-engine-watch-benchmark");
+        fileChangeSource = new WatchServiceFileChangeSource();
+        fileChangeSource.startMonitor(root.toString());
+        // 等待监控线程注册完成
+        TimeUnit.MILLISECONDS.sleep(500);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fileChangeSource.stopMonitor(root.toString());
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void drainDeletedFiles() {
+        //noinspection StatementWithEmptyBody
+        while (fileChangeSource.pollDeletedFile() != null) {
+        }
+    }
+
+    @Benchmark
+    public int createAndIngest() throws IOException, InterruptedException {
+        ++round;
+        for (int i = 0; i < fileNum; ++i) {
+            Files.createFile(root.resolve("file_" + round + "_" + i + ".txt"));
+        }
+        int received = 0;
+        final long start = System.currentTimeMillis();
+        while (received < fileNum && System.currentTimeMillis() - start < TIMEOUT_MILLS) {
+            if (fileChangeSource.pollAddedFile() != null) {
+                ++received;
+            } else {
+                TimeUnit.MICROSECONDS.sleep(100);
+            }
+        }
+        return received;
+    }
+}
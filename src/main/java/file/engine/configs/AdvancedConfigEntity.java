@@ -20,4 +20,22 @@ public class AdvancedConfigEntity {
     private boolean isDeleteUsnOnExit;
 
     private long restartMonitorDiskThreadTimeoutInMills;
+
+    private boolean isMatchInDatabase;
+
+    private boolean isEnableOffHeapIndex;
+
+    private String fileChangeSource;
+
+    private boolean isEnableSchemaV2;
+
+    private String shardFunction;
+
+    private int shardCount;
+
+    private int tableCacheSizeInMB;
+
+    private int prefetchBudgetInMB;
+
+    private long prefetchIntervalInMills;
 }
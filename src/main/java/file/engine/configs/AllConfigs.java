@@ -29,6 +29,7 @@ import file.engine.services.download.DownloadManager;
 import file.engine.utils.RegexUtil;
 import file.engine.utils.gson.GsonUtil;
 import file.engine.utils.system.properties.IsDebug;
+import file.engine.utils.system.properties.IsNativeDisabled;
 import lombok.Getter;
 
 import javax.swing.*;
@@ -170,12 +171,12 @@ public class AllConfigs {
     }
 
     /**
-     * 判断磁盘是否存在且为NTFS文件系统
+     * 判断磁盘是否存在且为NTFS文件系统，不加载dll时只判断是否存在
      * @param root 磁盘路径，C:\  D:\
      * @return true如果存在且是NTFS磁盘
      */
-    private boolean isDiskAvailable(String root) {
-        return Files.exists(Path.of(root)) && IsLocalDisk.INSTANCE.isDiskNTFS(root);
+    public boolean isDiskAvailable(String root) {
+        return Files.exists(Path.of(root)) && (IsNativeDisabled.isNativeDisabled() || IsLocalDisk.INSTANCE.isDiskNTFS(root));
     }
 
     /**
@@ -253,7 +254,8 @@ public class AllConfigs {
         StringBuilder stringBuilder = new StringBuilder();
         for (File each : files) {
             diskName = each.getAbsolutePath();
-            if (IsLocalDisk.INSTANCE.isDiskNTFS(diskName) && IsLocalDisk.INSTANCE.isLocalDisk(diskName)) {
+            if (IsNativeDisabled.isNativeDisabled() ||
+                    (IsLocalDisk.INSTANCE.isDiskNTFS(diskName) && IsLocalDisk.INSTANCE.isLocalDisk(diskName))) {
                 stringBuilder.append(each.getAbsolutePath()).append(",");
             }
         }
@@ -277,8 +279,9 @@ public class AllConfigs {
 
     private void readIsEnableGpuAccelerate(Map<String, Object> settingsInJson) {
         boolean isEnableGpuAccelerate = getFromJson(settingsInJson, "isEnableGpuAccelerate", true);
-        if (isEnableGpuAccelerate) {
-            configEntity.setEnableGpuAccelerate(GPUAccelerator.INSTANCE.isGPUAvailableOnSystem());
+        if (isEnableGpuAccelerate && !IsNativeDisabled.isNativeDisabled()) {
+            // 没有GPU时只有明确选择了CPU设备才启用
+            configEntity.setEnableGpuAccelerate(GPUAccelerator.INSTANCE.isDeviceAvailableOnSystem(getFromJson(settingsInJson, "gpuDevice", "")));
         } else {
             configEntity.setEnableGpuAccelerate(false);
         }
@@ -286,6 +289,10 @@ public class AllConfigs {
 
     private void readGpuDevice(Map<String, Object> settingsInJson) {
         String deviceNumber = getFromJson(settingsInJson, "gpuDevice", "");
+        if (IsNativeDisabled.isNativeDisabled()) {
+            configEntity.setGpuDevice("");
+            return;
+        }
         Map<String, String> devices = GPUAccelerator.INSTANCE.getDevices();
         if (!deviceNumber.isEmpty() && devices.containsValue(deviceNumber)) {
             configEntity.setGpuDevice(deviceNumber);
@@ -323,7 +330,10 @@ public class AllConfigs {
     }
 
     private void readIgnorePath(Map<String, Object> settingsInJson) {
-        String defaultIgnore = "C:\\Windows," + GetWindowsKnownFolder.INSTANCE.getKnownFolder("{AE50C081-EBD2-438A-8655-8A092E34987A}") + ",";
+        String defaultIgnore = "C:\\Windows,";
+        if (!IsNativeDisabled.isNativeDisabled()) {
+            defaultIgnore += GetWindowsKnownFolder.INSTANCE.getKnownFolder("{AE50C081-EBD2-438A-8655-8A092E34987A}") + ",";
+        }
         configEntity.setIgnorePath(getFromJson(settingsInJson, "ignorePath", defaultIgnore));
     }
 
@@ -465,13 +475,31 @@ public class AllConfigs {
         long clearIconCacheTimeoutInMills = Long.parseLong(getFromJson(advancedConfigs, "clearIconCacheTimeoutInMills", (long) 60 * 1000).toString());
         boolean isDeleteUsnOnExit = Boolean.parseBoolean(getFromJson(advancedConfigs, "isDeleteUsnOnExit", false).toString());
         long restartMonitorDiskThreadTimeoutInMills = Long.parseLong(getFromJson(advancedConfigs, "restartMonitorDiskThreadTimeoutInMills", (long) 10 * 60 * 1000).toString());
+        boolean isMatchInDatabase = Boolean.parseBoolean(getFromJson(advancedConfigs, "isMatchInDatabase", false).toString());
+        boolean isEnableOffHeapIndex = Boolean.parseBoolean(getFromJson(advancedConfigs, "isEnableOffHeapIndex", false).toString());
+        String fileChangeSource = getFromJson(advancedConfigs, "fileChangeSource", "usn").toString();
+        boolean isEnableSchemaV2 = Boolean.parseBoolean(getFromJson(advancedConfigs, "isEnableSchemaV2", false).toString());
+        String shardFunction = getFromJson(advancedConfigs, "shardFunction", "utf8sum").toString();
+        int shardCount = Integer.parseInt(getFromJson(advancedConfigs, "shardCount", Constants.MAX_TABLE_NUM + 1).toString());
+        int tableCacheSizeInMB = Integer.parseInt(getFromJson(advancedConfigs, "tableCacheSizeInMB", 64).toString());
+        int prefetchBudgetInMB = Integer.parseInt(getFromJson(advancedConfigs, "prefetchBudgetInMB", 32).toString());
+        long prefetchIntervalInMills = Long.parseLong(getFromJson(advancedConfigs, "prefetchIntervalInMills", (long) 5 * 60 * 1000).toString());
         configEntity.setAdvancedConfigEntity(new AdvancedConfigEntity(searchWarmupTimeoutInMills,
                 waitForInputAndPrepareSearchTimeoutInMills,
                 waitForInputAndStartSearchTimeoutInMills,
                 waitForSearchTasksTimeoutInMills,
                 clearIconCacheTimeoutInMills,
                 isDeleteUsnOnExit,
-                restartMonitorDiskThreadTimeoutInMills));
+                restartMonitorDiskThreadTimeoutInMills,
+                isMatchInDatabase,
+                isEnableOffHeapIndex,
+                fileChangeSource,
+                isEnableSchemaV2,
+                shardFunction,
+                shardCount,
+                tableCacheSizeInMB,
+                prefetchBudgetInMB,
+                prefetchIntervalInMills));
     }
 
     private void readSearchThreadNumber(Map<String, Object> settingsInJson) {
@@ -722,7 +750,8 @@ public class AllConfigs {
      */
     private void correctInvalidConfigs(ConfigEntity config) {
         if (config.isEnableGpuAccelerate()) {
-            config.setEnableGpuAccelerate(GPUAccelerator.INSTANCE.isGPUAvailableOnSystem());
+            config.setEnableGpuAccelerate(!IsNativeDisabled.isNativeDisabled() &&
+                    GPUAccelerator.INSTANCE.isDeviceAvailableOnSystem(config.getGpuDevice()));
         }
         int availableProcessors = Runtime.getRuntime().availableProcessors();
         int maxThreadNumber = availableProcessors * 2;
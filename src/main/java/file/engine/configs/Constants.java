@@ -2,6 +2,7 @@ package file.engine.configs;
 
 import file.engine.dllInterface.SystemThemeInfo;
 import file.engine.utils.system.properties.IsDebug;
+import file.engine.utils.system.properties.IsNativeDisabled;
 import lombok.NoArgsConstructor;
 
 import java.io.IOException;
@@ -172,7 +173,7 @@ public class Constants {
         }
 
         public static SearchBarColor getDefaultSearchBarColor() {
-            if (SystemThemeInfo.INSTANCE.isDarkThemeEnabled()) {
+            if (!IsNativeDisabled.isNativeDisabled() && SystemThemeInfo.INSTANCE.isDarkThemeEnabled()) {
                 return dark;
             }
             return light;
@@ -0,0 +1,475 @@
+package file.engine.dllInterface.gpu;
+
+import file.engine.services.utils.PathMatcher;
+import file.engine.utils.ThreadPoolUtil;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * 没有CUDA和OpenCL设备时使用CPU代替GPU进行加速
+ * 每个缓存的记录以UTF-8编码连续保存在堆外内存块中，匹配时每个内存块作为一个任务，由所有CPU核心并行处理
+ * ASCII记录使用jdk.incubator.vector查找关键字，只有通过的记录才会转换为String并交给PathMatcher做最终判断
+ * 包含非ASCII字符的记录（如中文文件名需要匹配拼音）直接交给PathMatcher
+ * <p>
+ * 记录格式：[记录长度(2字节)][文件名偏移(2字节)][标志(1字节)][路径UTF-8字节]
+ *
+ * @see VectorMatcher
+ */
+enum CpuAccelerator implements IGPUAccelerator {
+    INSTANCE;
+
+    private static final int RECORD_HEADER_SIZE = 5;
+    private static final int MAX_RECORD_LENGTH = 0xFFFF;
+    private static final int MIN_CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_CHUNK_SIZE = 1024 * 1024;
+    private static final byte FLAG_NON_ASCII = 1;
+    private static final byte FLAG_DELETED = 1 << 1;
+    private static final byte SEPARATOR = (byte) File.separatorChar;
+    // 每匹配多少条记录检查一次是否需要停止
+    private static final int CHECK_STOP_INTERVAL = 256;
+    private static final ThreadLocal<byte[]> chunkCopy = ThreadLocal.withInitial(() -> new byte[MAX_CHUNK_SIZE]);
+
+    private final ConcurrentHashMap<String, RecordArena> arenaMap = new ConcurrentHashMap<>();
+    private final AtomicLong usedMemory = new AtomicLong();
+    // 堆外内存上限，direct memory默认上限与堆内存上限相同，只使用其中一半
+    private final long maxMemory = Math.min(Runtime.getRuntime().maxMemory() / 2, 1024L * 1024 * 1024);
+    private final boolean isVectorModuleLoaded = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    private volatile boolean isStopCollect;
+
+    @Override
+    public void resetAllResultStatus() {
+        isStopCollect = false;
+        arenaMap.values().forEach(RecordArena::resetResultStatus);
+    }
+
+    /**
+     * resultCollectThreadNum不使用，匹配和收集结果在同一个线程中进行，线程数为CPU核心数
+     */
+    @Override
+    public void match(String[] searchCase,
+                      boolean isIgnoreCase,
+                      String searchText,
+                      String[] keywords,
+                      String[] keywordsLowerCase,
+                      boolean[] isKeywordPath,
+                      int maxResultNumber,
+                      int resultCollectThreadNum,
+                      BiConsumer<String, String> resultCollector) {
+        MatchInfo matchInfo = new MatchInfo(searchCase,
+                isIgnoreCase,
+                searchText,
+                keywords,
+                keywordsLowerCase,
+                isKeywordPath,
+                getAsciiKeywords(isIgnoreCase, keywords, keywordsLowerCase),
+                PathMatcher.compile(searchCase, isIgnoreCase, searchText, keywords, keywordsLowerCase, isKeywordPath),
+                maxResultNumber,
+                new AtomicInteger(),
+                resultCollector);
+        ConcurrentLinkedQueue<ChunkTask> taskQueue = new ConcurrentLinkedQueue<>();
+        arenaMap.forEach((key, arena) -> {
+            ArrayList<Chunk> chunks = new ArrayList<>(arena.chunks);
+            if (chunks.isEmpty()) {
+                arena.isMatchDone = true;
+                return;
+            }
+            AtomicInteger remainingChunks = new AtomicInteger(chunks.size());
+            for (Chunk chunk : chunks) {
+                taskQueue.add(new ChunkTask(key, arena, chunk, remainingChunks));
+            }
+        });
+        ThreadPoolUtil threadPoolUtil = ThreadPoolUtil.getInstance();
+        if (taskQueue.isEmpty() || threadPoolUtil.isShutdown()) {
+            return;
+        }
+        final int threadNum = Math.min(Runtime.getRuntime().availableProcessors(), taskQueue.size());
+        CountDownLatch countDownLatch = new CountDownLatch(threadNum);
+        for (int i = 0; i < threadNum; ++i) {
+            threadPoolUtil.executeTask(() -> {
+                try {
+                    ChunkTask task;
+                    while ((task = taskQueue.poll()) != null) {
+                        if (!matchChunk(task, matchInfo)) {
+                            break;
+                        }
+                        if (task.remainingChunks.decrementAndGet() == 0) {
+                            task.arena.isMatchDone = true;
+                        }
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    countDownLatch.countDown();
+                }
+            }, false);
+        }
+        try {
+            countDownLatch.await();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 匹配一个内存块中的所有记录
+     *
+     * @return false如果搜索被停止或已经达到最大结果数量
+     */
+    private boolean matchChunk(ChunkTask task, MatchInfo matchInfo) {
+        byte[] data = chunkCopy.get();
+        final int used = task.chunk.copyTo(data);
+        int pos = 0;
+        int count = 0;
+        while (pos < used) {
+            if (++count % CHECK_STOP_INTERVAL == 0 && isMatchStopped(matchInfo)) {
+                return false;
+            }
+            final int length = readUnsignedShort(data, pos);
+            final int nameOffset = readUnsignedShort(data, pos + 2);
+            final byte flag = data[pos + 4];
+            final int start = pos + RECORD_HEADER_SIZE;
+            pos = start + length;
+            if ((flag & FLAG_DELETED) != 0) {
+                continue;
+            }
+            if (matchInfo.asciiKeywords != null && (flag & FLAG_NON_ASCII) == 0 &&
+                    !isAsciiRecordMatched(data, start, nameOffset, length, matchInfo)) {
+                continue;
+            }
+            String path = new String(data, start, length, StandardCharsets.UTF_8);
+            if (matchInfo.pathMatcher.check(path)) {
+                task.arena.matchedNumber.incrementAndGet();
+                matchInfo.resultCounter.incrementAndGet();
+                matchInfo.resultCollector.accept(task.key, path);
+            }
+        }
+        return !isMatchStopped(matchInfo);
+    }
+
+    private boolean isMatchStopped(MatchInfo matchInfo) {
+        return isStopCollect || matchInfo.resultCounter.get() >= matchInfo.maxResultNumber;
+    }
+
+    /**
+     * 与PathMatchUtil中的关键字规则相同，路径关键字匹配父路径，文件名关键字匹配文件名
+     */
+    private static boolean isAsciiRecordMatched(byte[] data, int start, int nameOffset, int length, MatchInfo matchInfo) {
+        final byte[][] asciiKeywords = matchInfo.asciiKeywords;
+        for (int i = 0; i < asciiKeywords.length; ++i) {
+            byte[] keyword = asciiKeywords[i];
+            if (keyword == null) {
+                continue;
+            }
+            boolean isMatched;
+            if (matchInfo.isKeywordPath[i]) {
+                isMatched = nameOffset > 0 &&
+                        VectorMatcher.contains(data, start, start + nameOffset - 1, keyword, matchInfo.isIgnoreCase);
+            } else {
+                isMatched = VectorMatcher.contains(data, start + nameOffset, start + length, keyword, matchInfo.isIgnoreCase);
+            }
+            if (!isMatched) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 将关键字转换为ASCII字节
+     *
+     * @return 若有关键字包含非ASCII字符则返回null，此时所有记录都交给PathMatchUtil匹配
+     */
+    private static byte[][] getAsciiKeywords(boolean isIgnoreCase, String[] keywords, String[] keywordsLowerCase) {
+        byte[][] asciiKeywords = new byte[keywords.length][];
+        for (int i = 0; i < keywords.length; ++i) {
+            String keyword = isIgnoreCase ? keywordsLowerCase[i] : keywords[i];
+            if (keyword == null || keyword.isEmpty()) {
+                continue;
+            }
+            byte[] bytes = keyword.getBytes(StandardCharsets.UTF_8);
+            if (!VectorMatcher.isAscii(bytes)) {
+                return null;
+            }
+            asciiKeywords[i] = bytes;
+        }
+        return asciiKeywords;
+    }
+
+    private static int readUnsignedShort(byte[] data, int pos) {
+        return ((data[pos] & 0xFF) << 8) | (data[pos + 1] & 0xFF);
+    }
+
+    @Override
+    public boolean isGPUAvailableOnSystem() {
+        return isVectorModuleLoaded;
+    }
+
+    @Override
+    public boolean isMatchDone(String key) {
+        RecordArena arena = arenaMap.get(key);
+        return arena != null && arena.isMatchDone;
+    }
+
+    @Override
+    public int matchedNumber(String key) {
+        RecordArena arena = arenaMap.get(key);
+        return arena == null ? 0 : arena.matchedNumber.get();
+    }
+
+    @Override
+    public void stopCollectResults() {
+        isStopCollect = true;
+    }
+
+    @Override
+    public boolean hasCache() {
+        return !arenaMap.isEmpty();
+    }
+
+    @Override
+    public boolean isCacheExist(String key) {
+        return arenaMap.containsKey(key);
+    }
+
+    @Override
+    public void initCache(String key, Supplier<String> recordSupplier) {
+        if (arenaMap.containsKey(key)) {
+            return;
+        }
+        RecordArena arena = new RecordArena();
+        String record;
+        while ((record = recordSupplier.get()) != null) {
+            if (!arena.append(record)) {
+                // 内存不足，不保存不完整的缓存
+                arena.release();
+                return;
+            }
+        }
+        if (arenaMap.putIfAbsent(key, arena) != null) {
+            arena.release();
+        }
+    }
+
+    @Override
+    public void addRecordsToCache(String key, Object[] records) {
+        RecordArena arena = arenaMap.get(key);
+        if (arena == null) {
+            return;
+        }
+        for (Object record : records) {
+            if (!arena.append((String) record)) {
+                arena.isValid = false;
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void removeRecordsFromCache(String key, Object[] records) {
+        RecordArena arena = arenaMap.get(key);
+        if (arena == null) {
+            return;
+        }
+        HashSet<String> recordSet = new HashSet<>();
+        for (Object record : records) {
+            recordSet.add((String) record);
+        }
+        arena.remove(recordSet);
+    }
+
+    @Override
+    public void clearCache(String key) {
+        RecordArena arena = arenaMap.remove(key);
+        if (arena != null) {
+            arena.release();
+        }
+    }
+
+    @Override
+    public void clearAllCache() {
+        for (String key : new ArrayList<>(arenaMap.keySet())) {
+            clearCache(key);
+        }
+    }
+
+    @Override
+    public boolean isCacheValid(String key) {
+        RecordArena arena = arenaMap.get(key);
+        return arena != null && arena.isValid;
+    }
+
+    @Override
+    public int getGPUMemUsage() {
+        return (int) Math.min(100, usedMemory.get() * 100 / maxMemory);
+    }
+
+    @Override
+    public void initialize() {
+        if (isVectorModuleLoaded) {
+            System.out.println("使用CPU加速，向量宽度：" + VectorMatcher.vectorBitSize() + " bit");
+        }
+    }
+
+    @Override
+    public void release() {
+        stopCollectResults();
+        clearAllCache();
+    }
+
+    @Override
+    public String[] getDevices() {
+        if (!isVectorModuleLoaded) {
+            return new String[0];
+        }
+        return new String[]{"CPU (" + Runtime.getRuntime().availableProcessors() + " threads, " +
+                VectorMatcher.vectorBitSize() + "-bit SIMD)"};
+    }
+
+    @Override
+    public boolean setDevice(int deviceNum) {
+        return isVectorModuleLoaded && deviceNum == 0;
+    }
+
+    private record ChunkTask(String key, RecordArena arena, Chunk chunk, AtomicInteger remainingChunks) {
+    }
+
+    private record MatchInfo(String[] searchCase,
+                             boolean isIgnoreCase,
+                             String searchText,
+                             String[] keywords,
+                             String[] keywordsLowerCase,
+                             boolean[] isKeywordPath,
+                             byte[][] asciiKeywords,
+                             PathMatcher pathMatcher,
+                             int maxResultNumber,
+                             AtomicInteger resultCounter,
+                             BiConsumer<String, String> resultCollector) {
+    }
+
+    /**
+     * 一块堆外内存，记录只追加不移动，删除时只设置标志位
+     */
+    private static class Chunk {
+        private final ByteBuffer buffer;
+        private volatile int used;
+
+        private Chunk(int capacity) {
+            this.buffer = ByteBuffer.allocateDirect(capacity);
+        }
+
+        private int remaining() {
+            return buffer.capacity() - used;
+        }
+
+        private int copyTo(byte[] data) {
+            final int usedBytes = used;
+            buffer.get(0, data, 0, usedBytes);
+            return usedBytes;
+        }
+    }
+
+    /**
+     * 一个缓存key对应的所有内存块
+     */
+    private class RecordArena {
+        private final CopyOnWriteArrayList<Chunk> chunks = new CopyOnWriteArrayList<>();
+        private final AtomicInteger matchedNumber = new AtomicInteger();
+        private volatile boolean isMatchDone;
+        private volatile boolean isValid = true;
+        private long allocatedMemory;
+
+        private void resetResultStatus() {
+            isMatchDone = false;
+            matchedNumber.set(0);
+        }
+
+        /**
+         * 添加一条记录
+         *
+         * @param record 文件路径
+         * @return false如果内存已达上限
+         */
+        private synchronized boolean append(String record) {
+            byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+            final int length = bytes.length;
+            if (length > MAX_RECORD_LENGTH) {
+                // 不可能出现的超长路径，忽略
+                return true;
+            }
+            final int recordSize = length + RECORD_HEADER_SIZE;
+            Chunk chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+            if (chunk == null || chunk.remaining() < recordSize) {
+                int capacity = chunk == null ? MIN_CHUNK_SIZE : Math.min(MAX_CHUNK_SIZE, chunk.buffer.capacity() * 2);
+                capacity = Math.max(capacity, recordSize);
+                if (usedMemory.addAndGet(capacity) > maxMemory) {
+                    usedMemory.addAndGet(-capacity);
+                    return false;
+                }
+                allocatedMemory += capacity;
+                chunk = new Chunk(capacity);
+                chunks.add(chunk);
+            }
+            int nameOffset = 0;
+            for (int i = length - 1; i >= 0; --i) {
+                if (bytes[i] == SEPARATOR) {
+                    nameOffset = i + 1;
+                    break;
+                }
+            }
+            final int pos = chunk.used;
+            ByteBuffer buffer = chunk.buffer;
+            buffer.putShort(pos, (short) length);
+            buffer.putShort(pos + 2, (short) nameOffset);
+            buffer.put(pos + 4, VectorMatcher.isAscii(bytes) ? 0 : FLAG_NON_ASCII);
+            buffer.put(pos + RECORD_HEADER_SIZE, bytes);
+            // 写入完成后再更新used，匹配线程读取到的记录都是完整的
+            chunk.used = pos + recordSize;
+            return true;
+        }
+
+        /**
+         * 将记录标记为删除
+         *
+         * @param recordSet 需要删除的文件路径
+         */
+        private synchronized void remove(HashSet<String> recordSet) {
+            HashSet<Integer> lengthSet = new HashSet<>();
+            for (String record : recordSet) {
+                lengthSet.add(record.getBytes(StandardCharsets.UTF_8).length);
+            }
+            byte[] data = chunkCopy.get();
+            for (Chunk chunk : chunks) {
+                final int used = chunk.copyTo(data);
+                int pos = 0;
+                while (pos < used) {
+                    final int length = readUnsignedShort(data, pos);
+                    final byte flag = data[pos + 4];
+                    final int start = pos + RECORD_HEADER_SIZE;
+                    if ((flag & FLAG_DELETED) == 0 && lengthSet.contains(length) &&
+                            recordSet.contains(new String(data, start, length, StandardCharsets.UTF_8))) {
+                        chunk.buffer.put(pos + 4, (byte) (flag | FLAG_DELETED));
+                    }
+                    pos = start + length;
+                }
+            }
+        }
+
+        private synchronized void release() {
+            chunks.clear();
+            usedMemory.addAndGet(-allocatedMemory);
+            allocatedMemory = 0;
+        }
+    }
+}
@@ -117,12 +117,39 @@ public enum GPUAccelerator {
     }
 
     /**
-     * GPU加速是否可用
+     * GPU加速是否可用，CPU向量指令会占用较多的直接内存，不计算在内
      *
      * @return true如果GPU加速可用，CUDA或者OpenCL
      */
     public boolean isGPUAvailableOnSystem() {
-        return CudaAccelerator.INSTANCE.isGPUAvailableOnSystem() || OpenclAccelerator.INSTANCE.isGPUAvailableOnSystem();
+        return CudaAccelerator.INSTANCE.isGPUAvailableOnSystem() ||
+                OpenclAccelerator.INSTANCE.isGPUAvailableOnSystem();
+    }
+
+    /**
+     * 是否有可以选择的加速设备，包括CPU向量指令，用于设置界面
+     *
+     * @return true如果有GPU或者CPU向量指令可用
+     */
+    public boolean isAnyDeviceAvailableOnSystem() {
+        return isGPUAvailableOnSystem() || CpuAccelerator.INSTANCE.isGPUAvailableOnSystem();
+    }
+
+    /**
+     * 选择的设备是否可以启用加速，CPU设备只有在明确选择时才会启用
+     *
+     * @param deviceCategoryAndId 设备类型及id，如cuda;0，为空时自动选择GPU
+     * @return true如果可以启用加速
+     */
+    public boolean isDeviceAvailableOnSystem(String deviceCategoryAndId) {
+        if (isGPUAvailableOnSystem()) {
+            return true;
+        }
+        if (deviceCategoryAndId == null || deviceCategoryAndId.isEmpty()) {
+            return false;
+        }
+        return GPUApiCategory.categoryFromString(RegexUtil.semicolon.split(deviceCategoryAndId)[0]) == GPUApiCategory.CPU &&
+                CpuAccelerator.INSTANCE.isGPUAvailableOnSystem();
     }
 
     /**
@@ -243,7 +270,7 @@ public enum GPUAccelerator {
     /**
      * TODO 添加其他API
      * key: 设备名
-     * value: [设备种类(cuda, opencl)];[设备id]
+     * value: [设备种类(cuda, opencl, cpu)];[设备id]
      *
      * @return map
      */
@@ -251,6 +278,7 @@ public enum GPUAccelerator {
         LinkedHashMap<String, String> deviceMap = new LinkedHashMap<>();
         getDeviceToMap(CudaAccelerator.INSTANCE, deviceMap, GPUApiCategory.CUDA);
         getDeviceToMap(OpenclAccelerator.INSTANCE, deviceMap, GPUApiCategory.OPENCL);
+        getDeviceToMap(CpuAccelerator.INSTANCE, deviceMap, GPUApiCategory.CPU);
         return deviceMap;
     }
 
@@ -305,6 +333,7 @@ public enum GPUAccelerator {
                     return true;
                 }
             }
+            // CPU设备只有选择cpu;0时才会使用，不自动选择
             return false;
         }
         String[] info = RegexUtil.semicolon.split(deviceCategoryAndId);
@@ -331,6 +360,15 @@ public enum GPUAccelerator {
                         }
                     }
                 }
+                case CPU -> {
+                    if (CpuAccelerator.INSTANCE.isGPUAvailableOnSystem()) {
+                        CpuAccelerator.INSTANCE.initialize();
+                        if (CpuAccelerator.INSTANCE.setDevice(id)) {
+                            gpuAccelerator = CpuAccelerator.INSTANCE;
+                            return true;
+                        }
+                    }
+                }
             }
         }
         return false;
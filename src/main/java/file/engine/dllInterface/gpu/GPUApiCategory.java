@@ -4,7 +4,7 @@ package file.engine.dllInterface.gpu;
  * TODO 添加其他API
  */
 enum GPUApiCategory {
-    CUDA("cuda"), OPENCL("opencl");
+    CUDA("cuda"), OPENCL("opencl"), CPU("cpu");
     final String category;
 
     GPUApiCategory(String category) {
@@ -20,6 +20,7 @@ enum GPUApiCategory {
         return switch (c) {
             case "cuda" -> CUDA;
             case "opencl" -> OPENCL;
+            case "cpu" -> CPU;
             default -> null;
         };
     }
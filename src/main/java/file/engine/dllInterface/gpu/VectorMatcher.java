@@ -0,0 +1,108 @@
+package file.engine.dllInterface.gpu;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * 使用jdk.incubator.vector实现的字节串查找，只处理ASCII字符
+ * 该类只能在jdk.incubator.vector模块存在时加载，由CpuAccelerator检查
+ *
+ * @see CpuAccelerator
+ */
+final class VectorMatcher {
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+    private static final byte LOWER_CASE_BIT = 0x20;
+
+    private VectorMatcher() {
+    }
+
+    /**
+     * 向量宽度，用于显示设备名
+     *
+     * @return 向量位数
+     */
+    static int vectorBitSize() {
+        return SPECIES.vectorBitSize();
+    }
+
+    /**
+     * 判断bytes中是否全部为ASCII字符
+     *
+     * @param bytes 字节数组
+     * @return true如果不包含非ASCII字符
+     */
+    static boolean isAscii(byte[] bytes) {
+        int i = 0;
+        final int upperBound = SPECIES.loopBound(bytes.length);
+        for (; i < upperBound; i += SPECIES.length()) {
+            if (ByteVector.fromArray(SPECIES, bytes, i).lt((byte) 0).anyTrue()) {
+                return false;
+            }
+        }
+        for (; i < bytes.length; ++i) {
+            if (bytes[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 在data的[from, to)区间中查找keyword，先使用向量比较找出首字母的位置，再逐字节比较
+     *
+     * @param data         数据
+     * @param from         起始位置
+     * @param to           结束位置（不包含）
+     * @param keyword      ASCII关键字，忽略大小写时必须为小写
+     * @param isIgnoreCase 是否忽略大小写
+     * @return true如果找到
+     */
+    static boolean contains(byte[] data, int from, int to, byte[] keyword, boolean isIgnoreCase) {
+        final int keywordLength = keyword.length;
+        // 最后一个可能的起始位置
+        final int lastStart = to - keywordLength;
+        if (lastStart < from) {
+            return false;
+        }
+        final byte first = keyword[0];
+        // 小写字母与对应的大写字母只相差0x20，将数据与0x20按位或之后即可同时比较大小写
+        final boolean isFoldFirst = isIgnoreCase && first >= 'a' && first <= 'z';
+        final int laneCount = SPECIES.length();
+        final int upperBound = from + SPECIES.loopBound(lastStart - from + 1);
+        int i = from;
+        for (; i < upperBound; i += laneCount) {
+            ByteVector vector = ByteVector.fromArray(SPECIES, data, i);
+            if (isFoldFirst) {
+                vector = vector.or(LOWER_CASE_BIT);
+            }
+            long candidates = vector.eq(first).toLong();
+            while (candidates != 0) {
+                int lane = Long.numberOfTrailingZeros(candidates);
+                if (regionMatches(data, i + lane, keyword, isIgnoreCase)) {
+                    return true;
+                }
+                candidates &= candidates - 1;
+            }
+        }
+        for (; i <= lastStart; ++i) {
+            if (regionMatches(data, i, keyword, isIgnoreCase)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean regionMatches(byte[] data, int start, byte[] keyword, boolean isIgnoreCase) {
+        final int keywordLength = keyword.length;
+        for (int j = 0; j < keywordLength; ++j) {
+            byte b = data[start + j];
+            if (isIgnoreCase && b >= 'A' && b <= 'Z') {
+                b |= LOWER_CASE_BIT;
+            }
+            if (b != keyword[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -30,6 +30,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public class EventManagement {
     private static volatile EventManagement instance = null;
@@ -485,6 +486,15 @@ public class EventManagement {
     }
 
     public void readClassList() {
+        readClassList(className -> true);
+    }
+
+    /**
+     * 读取需要注册事件的类，只保留filter返回true的类，用于不显示界面的基准测试
+     *
+     * @param filter 类名过滤器
+     */
+    public void readClassList(Predicate<String> filter) {
         try (var reader = new BufferedReader(
                 new InputStreamReader(
                         Objects.requireNonNull(EventManagement.class.getResourceAsStream("/classes.list")),
@@ -492,7 +502,7 @@ public class EventManagement {
                 ))) {
             String line;
             while ((line = reader.readLine()) != null) {
-                if (!line.isBlank()) {
+                if (!line.isBlank() && filter.test(line)) {
                     classesList.add(line);
                 }
             }
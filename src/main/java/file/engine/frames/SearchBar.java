@@ -2046,6 +2046,7 @@ public class SearchBar {
                 showResultsWrapMethod(listResultsTemp, size, currentResultCount.get() - 2, label6, false, showResultOnLabelMethod);
                 showResultsWrapMethod(listResultsTemp, size, currentResultCount.get() - 1, label7, false, showResultOnLabelMethod);
                 showResultsWrapMethod(listResultsTemp, size, currentResultCount.get(), label8, true, showResultOnLabelMethod);
+                validateShowingResults(listResultsTemp, size, currentResultCount.get() - 7);
             } catch (ArrayIndexOutOfBoundsException e) {
                 e.printStackTrace();
             }
@@ -2264,11 +2265,37 @@ public class SearchBar {
                 path = listResultsTemp.get(currentResultCount.get() + 7).result();
                 showResultOnLabel(path, label8, isLabelChosenFunc.test(label8));
             }
+            validateShowingResults(listResultsTemp, size, currentResultCount.get());
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * 检查正在显示的结果是否存在，搜索时不再检查，不存在的结果在mergeResults中移除
+     *
+     * @param listResultsTemp 结果列表
+     * @param size            结果数量
+     * @param start           第一个label显示的结果位置
+     */
+    private void validateShowingResults(ArrayList<ResultWrap> listResultsTemp, int size, int start) {
+        start = Math.max(0, start);
+        final int end = Math.min(size, start + 8);
+        DatabaseService.SearchTask searchTask = null;
+        ArrayList<String> showingResults = new ArrayList<>(8);
+        for (int i = start; i < end; ++i) {
+            ResultWrap resultWrap = listResultsTemp.get(i);
+            if (resultWrap.searchTask() == null || resultWrap.result().startsWith("plugin")) {
+                continue;
+            }
+            searchTask = resultWrap.searchTask();
+            showingResults.add(resultWrap.result());
+        }
+        if (searchTask != null) {
+            DatabaseService.getInstance().validateResults(searchTask, showingResults);
+        }
+    }
+
     private void moveUpward(int position) {
         if (menu.isVisible()) {
             return;
@@ -3442,11 +3469,23 @@ public class SearchBar {
         var allPlugins = pluginService.getAllPlugins();
         var eventManagement = EventManagement.getInstance();
         var listSet = new HashSet<>();
+        var staleResults = new HashSet<String>();
         while (listResultsTemp == listResults && eventManagement.notMainExit() && !shouldExitMergeResultThread) {
             if (getSearchBarText().isEmpty()) {
                 listResultsTemp.clear();
             } else if (runningMode == RunningMode.NORMAL_MODE) {
                 if (currentSearchTask != null) {
+                    // 移除显示时发现已经不存在的结果，并重新显示所有label
+                    String staleResult;
+                    while ((staleResult = currentSearchTask.pollStaleResult()) != null) {
+                        staleResults.add(staleResult);
+                    }
+                    if (!staleResults.isEmpty()) {
+                        listResultsTemp.removeIf(e -> staleResults.contains(e.result()));
+                        staleResults.clear();
+                        labelRefreshFlag.set(0);
+                    }
+
                     for (String each : currentSearchTask.getCacheAndPriorityResults()) {
                         if (listSet.add(each)) {
                             ResultWrap resultWrap = new ResultWrap(currentSearchTask, each);
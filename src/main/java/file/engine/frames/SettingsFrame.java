@@ -2774,7 +2774,7 @@ public class SettingsFrame {
         var configs = allConfigs.getConfigEntity();
         comboBoxSearchThread.setModel(new DefaultComboBoxModel<>(new Vector<>(threads)));
         comboBoxSearchThread.setSelectedItem(configs.getSearchThreadNumber());
-        boolean cudaAvailableOnSystem = GPUAccelerator.INSTANCE.isGPUAvailableOnSystem();
+        boolean cudaAvailableOnSystem = GPUAccelerator.INSTANCE.isAnyDeviceAvailableOnSystem();
         comboBoxCudaDevice.setEnabled(cudaAvailableOnSystem);
         if (cudaAvailableOnSystem) {
             cudaDeviceMap = GPUAccelerator.INSTANCE.getDevices();
@@ -2807,7 +2807,7 @@ public class SettingsFrame {
         checkBoxCheckUpdate.setSelected(configs.isCheckUpdateStartup());
         checkBoxIsAttachExplorer.setSelected(configs.isAttachExplorer());
         checkBoxEnableCuda.setSelected(configs.isEnableGpuAccelerate());
-        checkBoxEnableCuda.setEnabled(GPUAccelerator.INSTANCE.isGPUAvailableOnSystem());
+        checkBoxEnableCuda.setEnabled(GPUAccelerator.INSTANCE.isAnyDeviceAvailableOnSystem());
     }
 
     /**
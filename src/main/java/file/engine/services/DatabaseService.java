@@ -5,10 +5,8 @@ import file.engine.annotation.EventListener;
 import file.engine.annotation.EventRegister;
 import file.engine.configs.AllConfigs;
 import file.engine.configs.Constants;
-import file.engine.dllInterface.FileMonitor;
 import file.engine.dllInterface.GetHandle;
 import file.engine.dllInterface.GetWindowsKnownFolder;
-import file.engine.dllInterface.IsLocalDisk;
 import file.engine.dllInterface.gpu.GPUAccelerator;
 import file.engine.event.handler.Event;
 import file.engine.event.handler.EventManagement;
@@ -23,24 +21,52 @@ import file.engine.event.handler.impl.frame.searchBar.SearchBarReadyEvent;
 import file.engine.event.handler.impl.monitor.disk.StartMonitorDiskEvent;
 import file.engine.event.handler.impl.stop.RestartEvent;
 import file.engine.event.handler.impl.taskbar.ShowTaskBarMessageEvent;
-import file.engine.services.utils.AdminUtil;
+import file.engine.services.utils.CacheSnapshot;
+import file.engine.services.utils.ChangeJournal;
+import file.engine.services.utils.ChunkedPathStore;
+import file.engine.services.utils.DirPathSqlFunction;
+import file.engine.services.utils.FileChangePipeline;
+import file.engine.services.utils.FileTypeIndex;
+import file.engine.services.utils.GramSummaryIndex;
+import file.engine.services.utils.NGramUtil;
+import file.engine.services.utils.OffHeapIndex;
+import file.engine.services.utils.PagePrefetcher;
+import file.engine.services.utils.PathMatchSqlFunction;
 import file.engine.services.utils.PathMatchUtil;
+import file.engine.services.utils.QueryTelemetry;
+import file.engine.services.utils.PathMatcher;
 import file.engine.services.utils.StringUtf8SumUtil;
 import file.engine.services.utils.SystemInfoUtil;
+import file.engine.services.utils.TableCacheGovernor;
+import file.engine.services.utils.TableStats;
+import file.engine.services.utils.connection.BatchSqlWriter;
+import file.engine.services.utils.connection.DirectoryIdResolver;
 import file.engine.services.utils.connection.SQLiteUtil;
-import file.engine.utils.Bit;
+import file.engine.services.utils.connection.SchemaUtil;
+import file.engine.services.utils.monitor.FileChangeSource;
+import file.engine.services.utils.monitor.UsnFileChangeSource;
+import file.engine.services.utils.monitor.WatchServiceFileChangeSource;
+import file.engine.services.utils.shard.ShardDistribution;
+import file.engine.services.utils.shard.ShardLayout;
+import file.engine.services.utils.shard.ShardRouter;
+import file.engine.services.utils.transliteration.Transliteration;
+import file.engine.services.utils.transliteration.TransliterationIndex;
 import file.engine.utils.ProcessUtil;
 import file.engine.utils.RegexUtil;
 import file.engine.utils.ThreadPoolUtil;
 import file.engine.utils.file.FileUtil;
 import file.engine.utils.gson.GsonUtil;
 import file.engine.utils.system.properties.IsDebug;
+import file.engine.utils.system.properties.IsNativeDisabled;
 import lombok.*;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -49,7 +75,9 @@ import java.time.Period;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 import java.util.function.Supplier;
 import java.util.regex.Matcher;
 
@@ -60,24 +88,64 @@ public class DatabaseService {
     // 发送StartSearchEvent后将会先寻找预搜索任务，成功找到则直接添加进入searchTasksQueue中，不重新创建搜索任务。
     private static final ConcurrentHashMap<SearchInfo, SearchTask> prepareTasksMap = new ConcurrentHashMap<>();
     private final ConcurrentLinkedQueue<SQLWithTaskId> sqlCommandQueue = new ConcurrentLinkedQueue<>();
+    // 文件记录的增删任务，key为 数据库,文件路径，同一个文件只保留最后一次操作
+    private final ConcurrentHashMap<String, SQLWithTaskId> pendingFileCommands = new ConcurrentHashMap<>();
     //保存每个key所对应的结果数量，数量为0的则直接跳过搜索，不执行SQL查找数据库
     private final ConcurrentHashMap<String, AtomicInteger> databaseResultsCount = new ConcurrentHashMap<>();
+    // 保存每个key所有路径的长度之和，与databaseResultsCount一起保存在table_stats中
+    private final ConcurrentHashMap<String, AtomicLong> databaseResultsBytes = new ConcurrentHashMap<>();
+    // table_stats中的统计准确的盘符，统计不准确时不保存
+    private final Set<String> tableStatsReadyDisks = ConcurrentHashMap.newKeySet();
     private final AtomicReference<Constants.Enums.DatabaseStatus> status = new AtomicReference<>(Constants.Enums.DatabaseStatus.NORMAL);
-    // 保存从0-40数据库的表，使用频率和名字对应，使经常使用的表最快被搜索到
-    private final Set<TableNameWeightInfo> tableSet = ConcurrentHashMap.newKeySet();
+    // 保存从0-40数据库的表，key为表名，使用频率和名字对应，使经常使用的表最快被搜索到
+    private final ConcurrentHashMap<String, TableNameWeightInfo> tableWeightMap = new ConcurrentHashMap<>();
+    // 搜索记录，用于决定缓存和预读哪些表，与表权重一起定期写入weight数据库
+    private final QueryTelemetry queryTelemetry = new QueryTelemetry();
     private final AtomicBoolean isDatabaseUpdated = new AtomicBoolean(false);
     private final AtomicBoolean isCheckUnavailableDiskThreadNotExist = new AtomicBoolean(false);
     private final ConcurrentLinkedQueue<SuffixPriorityPair> priorityMap = new ConcurrentLinkedQueue<>();
     //tableCache 数据表缓存，在初始化时将会放入所有的key和一个空的cache，后续需要缓存直接放入空的cache中，不再创建新的cache实例
     private final ConcurrentHashMap<String, Cache> tableCache = new ConcurrentHashMap<>();
-    private final AtomicInteger tableCacheCount = new AtomicInteger();
+    // 所有数据表缓存占用的内存字节数
+    private final AtomicLong tableCacheBytes = new AtomicLong();
+    // 决定哪些表需要缓存，统计缓存命中率
+    private final TableCacheGovernor tableCacheGovernor = new TableCacheGovernor();
+    // 定期预读常用的表，记录预读的数据在页缓存中驻留的时间
+    private final PagePrefetcher pagePrefetcher = new PagePrefetcher();
     // 对数据库cache表的缓存，保存常用的应用
     private final ConcurrentSkipListSet<String> databaseCacheSet = new ConcurrentSkipListSet<>();
+    // ngram索引已经建立完成的表，key为[盘符, 表名]，例如 [C,list10]，未建立完成的表搜索时回退到全表扫描
+    private final Set<String> ngramIndexReadySet = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean isNGramIndexBuilding = new AtomicBoolean(false);
+    private final AtomicBoolean isShardMigrating = new AtomicBoolean(false);
+    private final AtomicBoolean isGramSummaryBuilding = new AtomicBoolean(false);
+    // 堆外文件名索引，启用后已经加载完成的盘符不再查询SQLite
+    private final OffHeapIndex offHeapIndex = new OffHeapIndex();
+    private volatile FileChangePipeline fileChangePipeline;
+    private FileChangeSource fileChangeSource;
+    // 文件变化日志，打开失败时为null，此时文件变化只保存在内存中
+    private volatile ChangeJournal changeJournal;
+    // pendingFileCommands已满时文件变化只保存在日志中，执行sql时需要重放日志
+    private final AtomicBoolean isJournalSpilled = new AtomicBoolean(false);
+    // 使用v2数据库结构的盘符，文件记录的增删需要先查找文件夹id
+    private final Set<String> schemaV2Disks = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, DirectoryIdResolver> dirIdResolvers = new ConcurrentHashMap<>();
+    private volatile boolean isEnableOffHeapIndex = false;
+    private final AtomicBoolean isOffHeapIndexLoading = new AtomicBoolean(false);
     private final AtomicInteger searchThreadCount = new AtomicInteger(0);
     private static final int MAX_TEMP_QUERY_RESULT_CACHE = 1024;
-    private static final int MAX_CACHED_RECORD_NUM = 10240 * 5;
+    // 系统内存或堆内存使用超过该比例时缩小数据表缓存
+    private static final double MEMORY_PRESSURE_THRESHOLD = 0.9;
+    private static final double HEAP_PRESSURE_THRESHOLD = 0.8;
+    // CPU使用率超过该比例时跳过预读
+    private static final double PREFETCH_CPU_LOAD_THRESHOLD = 0.5;
     private static final int MAX_SQL_NUM = 5000;
+    private static final int CHANGE_JOURNAL_CAPACITY = 64 * 1024 * 1024;
+    // 重放日志时每次执行的最大任务数量
+    private static final int MAX_REPLAY_COMMANDS = 50000;
     private static final int MAX_RESULTS = 200;
+    // 迁移分表方式时每个事务读取的记录数量
+    private static final int SHARD_MIGRATE_BATCH_SIZE = 5000;
 
     private static volatile DatabaseService INSTANCE = null;
 
@@ -110,9 +178,21 @@ public class DatabaseService {
         eventManagement.waitForEvent(gpuClearCacheEvent, 60_000);
         tableCache.values().forEach(each -> {
             each.isCached.set(false);
-            each.data = null;
+            releaseCache(each);
         });
-        tableCacheCount.set(0);
+    }
+
+    /**
+     * 释放缓存的记录，同一个缓存被多个线程同时释放时只会减去一次占用的内存
+     *
+     * @param cache 缓存
+     */
+    private void releaseCache(Cache cache) {
+        ChunkedPathStore data = cache.data;
+        cache.data = null;
+        if (data != null) {
+            tableCacheBytes.addAndGet(data.close());
+        }
     }
 
     /**
@@ -122,16 +202,11 @@ public class DatabaseService {
      * @return 权重信息
      */
     private TableNameWeightInfo getInfoByName(String tableName) {
-        for (TableNameWeightInfo each : tableSet) {
-            if (each.tableName.equals(tableName)) {
-                return each;
-            }
-        }
-        return null;
+        return tableWeightMap.get(tableName);
     }
 
     /**
-     * 更新权重信息
+     * 更新权重信息，只修改内存中的计数，由flushWeightDatabase定期写入数据库
      *
      * @param tableName 表名
      * @param weight    权重
@@ -141,11 +216,9 @@ public class DatabaseService {
         if (origin == null) {
             return;
         }
-        origin.weight.addAndGet(weight);
-        String format = String.format("UPDATE weight SET TABLE_WEIGHT=%d WHERE TABLE_NAME=\"%s\"", origin.weight.get(), tableName);
-        addToCommandQueue(new SQLWithTaskId(format, SqlTaskIds.UPDATE_WEIGHT, "weight"));
+        origin.weight.add(weight);
         if (IsDebug.isDebug()) {
-            System.err.println("已更新" + tableName + "权重, 之前为" + origin + "***增加了" + weight);
+            System.err.println("已更新" + tableName + "权重, 当前为" + origin.getWeight() + "***增加了" + weight);
         }
     }
 
@@ -158,23 +231,12 @@ public class DatabaseService {
         var translateService = TranslateService.getInstance();
         var allConfigs = AllConfigs.getInstance();
         var databaseService = getInstance();
-        if (AdminUtil.isAdmin()) {
+        var fileChangeSource = databaseService.getFileChangeSource();
+        if (fileChangeSource.isAvailable()) {
             String disks = allConfigs.getAvailableDisks();
             String[] splitDisks = RegexUtil.comma.split(disks);
             for (String root : splitDisks) {
-                FileMonitor.INSTANCE.stop_monitor(root);
-                while (!FileMonitor.INSTANCE.is_monitor_stopped(root)) {
-                    try {
-                        TimeUnit.MILLISECONDS.sleep(100);
-                    } catch (InterruptedException e) {
-                        throw new RuntimeException(e);
-                    }
-                    FileMonitor.INSTANCE.stop_monitor(root);
-                }
-                threadPoolUtil.executeTask(() -> {
-                    FileMonitor.INSTANCE.monitor(root);
-                    System.out.println("停止监听 " + root + " 的文件变化");
-                }, false);
+                fileChangeSource.startMonitor(root);
             }
             var isCheckUnavailableDiskThreadNotExist = databaseService.isCheckUnavailableDiskThreadNotExist;
             if (isCheckUnavailableDiskThreadNotExist.compareAndSet(false, true)) {
@@ -183,21 +245,8 @@ public class DatabaseService {
                     while (eventManagement.notMainExit()) {
                         if (!unAvailableDiskSet.isEmpty()) {
                             for (String unAvailableDisk : unAvailableDiskSet) {
-                                if (Files.exists(Path.of(unAvailableDisk)) &&
-                                        IsLocalDisk.INSTANCE.isDiskNTFS(unAvailableDisk)) {
-                                    FileMonitor.INSTANCE.stop_monitor(unAvailableDisk);
-                                    while (!FileMonitor.INSTANCE.is_monitor_stopped(unAvailableDisk)) {
-                                        try {
-                                            TimeUnit.MILLISECONDS.sleep(100);
-                                        } catch (InterruptedException e) {
-                                            throw new RuntimeException(e);
-                                        }
-                                        FileMonitor.INSTANCE.stop_monitor(unAvailableDisk);
-                                    }
-                                    threadPoolUtil.executeTask(() -> {
-                                        FileMonitor.INSTANCE.monitor(unAvailableDisk);
-                                        System.out.println("停止监听 " + unAvailableDisk + " 的文件变化");
-                                    }, false);
+                                if (allConfigs.isDiskAvailable(unAvailableDisk)) {
+                                    fileChangeSource.startMonitor(unAvailableDisk);
                                     unAvailableDiskSet.remove(unAvailableDisk);
                                 }
                             }
@@ -264,7 +313,7 @@ public class DatabaseService {
     }
 
     /**
-     * 返回满足数据在minRecordNum-maxRecordNum之间的表可以被缓存的表
+     * 返回满足数据在minRecordNum-maxRecordNum之间的表可以被缓存的表，由表统计得到，不查询数据库
      *
      * @param disks                硬盘盘符
      * @param tableQueueByPriority 后缀优先级表，从高到低优先级逐渐降低
@@ -285,52 +334,39 @@ public class DatabaseService {
         LinkedHashMap<String, Integer> tableNeedCache = new LinkedHashMap<>();
         for (String diskPath : disks) {
             String disk = String.valueOf(diskPath.charAt(0));
-            try (Statement stmt = SQLiteUtil.getStatement(disk)) {
-                for (String tableName : tableQueueByPriority) {
-                    for (SuffixPriorityPair suffixPriorityPair : priorityMap) {
-                        if (isStopCreateCache.get()) {
-                            return tableNeedCache;
-                        }
-                        boolean canBeCached;
-                        try (ResultSet resultCount = stmt.executeQuery(
-                                "SELECT COUNT(*) as total_num FROM " + tableName + " WHERE PRIORITY=" + suffixPriorityPair.priority)) {
-                            if (resultCount.next()) {
-                                final int num = resultCount.getInt("total_num");
-                                canBeCached = num >= minRecordNum && num <= maxRecordNum;
-                                databaseResultsCount.put(disk + "," + tableName + "," + suffixPriorityPair.priority, new AtomicInteger(num));
-                            } else {
-                                canBeCached = false;
-                            }
-                        }
-                        if (!canBeCached) {
-                            continue;
-                        }
-                        try (ResultSet resultsLength = stmt.executeQuery(
-                                "SELECT SUM(LENGTH(PATH)) as total_bytes FROM " + tableName + " WHERE PRIORITY=" + suffixPriorityPair.priority)) {
-                            if (resultsLength.next()) {
-                                final int resultsBytes = resultsLength.getInt("total_bytes");
-                                tableNeedCache.put(disk + "," + tableName + "," + suffixPriorityPair.priority, resultsBytes);
-                            }
-                        }
+            for (String tableName : tableQueueByPriority) {
+                for (SuffixPriorityPair suffixPriorityPair : priorityMap) {
+                    if (isStopCreateCache.get()) {
+                        return tableNeedCache;
+                    }
+                    String key = disk + "," + tableName + "," + suffixPriorityPair.priority;
+                    AtomicInteger recordNum = databaseResultsCount.get(key);
+                    AtomicLong pathBytes = databaseResultsBytes.get(key);
+                    if (recordNum == null || pathBytes == null) {
+                        continue;
+                    }
+                    final int num = recordNum.get();
+                    if (num >= minRecordNum && num <= maxRecordNum) {
+                        tableNeedCache.put(key, (int) Math.min(pathBytes.get(), Integer.MAX_VALUE));
                     }
                 }
-            } catch (SQLException e) {
-                e.printStackTrace();
             }
         }
         return tableNeedCache;
     }
 
     /**
-     * 扫描数据库并添加缓存
+     * 定期添加GPU缓存，数据表缓存由tableCacheGovernor逐步调整
      */
     private void saveTableCacheThread() {
         ThreadPoolUtil.getInstance().executeTask(() -> {
             EventManagement eventManagement = EventManagement.getInstance();
             final int checkTimeInterval = 10 * 60 * 1000; // 10 min
+            final int governInterval = 30 * 1000; // 30s
             final int startUpLatency = 10 * 1000; // 10s
             var startCheckInfo = new Object() {
                 long startCheckTimeMills = System.currentTimeMillis() - checkTimeInterval + startUpLatency;
+                long lastGovernTimeMills = System.currentTimeMillis() - governInterval + startUpLatency;
             };
             final Supplier<Boolean> isStopCreateCache =
                     () -> !eventManagement.notMainExit() ||
@@ -339,7 +375,7 @@ public class DatabaseService {
             final Supplier<Boolean> isStartSaveCache =
                     () -> (System.currentTimeMillis() - startCheckInfo.startCheckTimeMills > checkTimeInterval &&
                             status.get() == Constants.Enums.DatabaseStatus.NORMAL &&
-                            !GetHandle.INSTANCE.isForegroundFullscreen()) ||
+                            !isForegroundFullscreen()) ||
                             (isDatabaseUpdated.get());
             final int createMemoryThreshold = 70;
             final int createGPUCacheThreshold = 50;
@@ -356,10 +392,6 @@ public class DatabaseService {
                             createGpuCache(isStopCreateCache, createGPUCacheThreshold);
                         }
                     }
-                    final double memoryUsage = SystemInfoUtil.getMemoryUsage();
-                    if (memoryUsage * 100 < createMemoryThreshold) {
-                        createMemoryCache(isStopCreateCache);
-                    }
                 } else {
                     if (isEnableGPUAccelerate) {
                         final int gpuMemUsage = GPUAccelerator.INSTANCE.getGPUMemUsage();
@@ -375,6 +407,12 @@ public class DatabaseService {
                         }
                     }
                 }
+                if (System.currentTimeMillis() - startCheckInfo.lastGovernTimeMills > governInterval &&
+                        status.get() == Constants.Enums.DatabaseStatus.NORMAL &&
+                        !isForegroundFullscreen()) {
+                    startCheckInfo.lastGovernTimeMills = System.currentTimeMillis();
+                    governTableCache(isStopCreateCache, SystemInfoUtil.getMemoryUsage() * 100 < createMemoryThreshold);
+                }
                 try {
                     TimeUnit.SECONDS.sleep(1);
                 } catch (InterruptedException e) {
@@ -384,19 +422,68 @@ public class DatabaseService {
         });
     }
 
-    private void createMemoryCache(Supplier<Boolean> isStopCreateCache) {
-        System.out.println("添加缓存");
-        String availableDisks = AllConfigs.getInstance().getAvailableDisks();
-        ConcurrentLinkedQueue<String> tableQueueByPriority = initTableQueueByPriority();
-        // 系统内存使用少于70%
-        String[] disks = RegexUtil.comma.split(availableDisks);
-        LinkedHashMap<String, Integer> tableNeedCache = scanDatabaseAndSelectCacheTable(disks,
-                tableQueueByPriority,
-                isStopCreateCache,
-                100,
-                5000);
-        saveTableCache(isStopCreateCache, tableNeedCache);
-        System.out.println("添加完成");
+    /**
+     * 按照tableCacheGovernor的计划释放和加入数据表缓存
+     *
+     * @param isStopCreateCache 是否停止
+     * @param isAllowGrow       系统内存是否充足，不充足时缓存不会继续增大，只会替换为分数更高的表
+     */
+    private void governTableCache(Supplier<Boolean> isStopCreateCache, boolean isAllowGrow) {
+        HashMap<String, Long> cachedBytes = new HashMap<>();
+        tableCache.forEach((key, cache) -> {
+            ChunkedPathStore data = cache.data;
+            if (data == null) {
+                return;
+            }
+            if (cache.isCacheValid()) {
+                cachedBytes.put(key, data.getAllocatedBytes());
+            } else {
+                // 写入时超出预算而失效的缓存，释放后由tableCacheGovernor决定是否重新加入
+                cache.isCached.set(false);
+                releaseCache(cache);
+            }
+        });
+        HashMap<String, Long> tableWeights = new HashMap<>();
+        for (TableNameWeightInfo each : tableWeightMap.values()) {
+            tableWeights.put(each.tableName, each.getWeight());
+        }
+        final long budget = isAllowGrow ? getTableCacheBudget() : Math.min(getTableCacheBudget(), tableCacheBytes.get());
+        var plan = tableCacheGovernor.plan(cachedBytes, budget, isMemoryUnderPressure(), tableWeights);
+        for (String key : plan.evict()) {
+            Cache cache = tableCache.get(key);
+            if (cache != null) {
+                cache.isCached.set(false);
+                releaseCache(cache);
+                tableCacheGovernor.recordEviction();
+            }
+        }
+        for (String key : plan.admit()) {
+            if (isStopCreateCache.get()) {
+                break;
+            }
+            Cache cache = tableCache.get(key);
+            if (cache != null && loadTableCache(key, cache, isStopCreateCache)) {
+                tableCacheGovernor.recordAdmission();
+            }
+        }
+        if (IsDebug.isDebug() && !(plan.evict().isEmpty() && plan.admit().isEmpty())) {
+            System.out.println("数据表缓存占用" + tableCacheBytes.get() / 1024 + "KB，释放" + plan.evict().size() + "个表，加入" +
+                    plan.admit().size() + "个表，" + tableCacheGovernor);
+        }
+    }
+
+    /**
+     * 系统内存或堆内存紧张时缓存需要缩小
+     */
+    private static boolean isMemoryUnderPressure() {
+        Runtime runtime = Runtime.getRuntime();
+        final long usedHeap = runtime.totalMemory() - runtime.freeMemory();
+        return SystemInfoUtil.getMemoryUsage() > MEMORY_PRESSURE_THRESHOLD ||
+                usedHeap > runtime.maxMemory() * HEAP_PRESSURE_THRESHOLD;
+    }
+
+    private static long getTableCacheBudget() {
+        return AllConfigs.getInstance().getConfigEntity().getAdvancedConfigEntity().getTableCacheSizeInMB() * 1024L * 1024;
     }
 
     @SuppressWarnings("SameParameterValue")
@@ -459,50 +546,105 @@ public class DatabaseService {
     }
 
     /**
-     * 缓存数据表
+     * 读取表中的所有记录放入缓存
      *
+     * @param key               缓存key，例如 [C,list10,-1]
+     * @param cache             缓存
      * @param isStopCreateCache 是否停止
-     * @param tableNeedCache    需要缓存的表
+     * @return false如果读取被中断
      */
-    private void saveTableCache(Supplier<Boolean> isStopCreateCache, LinkedHashMap<String, Integer> tableNeedCache) {
-        //开始缓存数据库表
-        out:
-        for (Map.Entry<String, Cache> entry : tableCache.entrySet()) {
-            String key = entry.getKey();
-            Cache cache = entry.getValue();
-            if (tableNeedCache.containsKey(key)) {
-                final int vacancy = 1000;
-                //当前表可以被缓存
-                if (tableCacheCount.get() + tableNeedCache.get(key) < MAX_CACHED_RECORD_NUM - vacancy && !cache.isCacheValid()) {
-                    cache.data = new CopyOnWriteArrayList<>();
-                    String[] info = RegexUtil.comma.split(key);
-                    try (Statement stmt = SQLiteUtil.getStatement(info[0]);
-                         ResultSet resultSet = stmt.executeQuery("SELECT PATH FROM " + info[1] + " " + "WHERE PRIORITY=" + info[2])) {
-                        while (resultSet.next()) {
-                            if (isStopCreateCache.get()) {
-                                break out;
-                            }
-                            cache.data.add(resultSet.getString("PATH"));
-                            tableCacheCount.incrementAndGet();
-                        }
-                    } catch (SQLException e) {
-                        e.printStackTrace();
-                    }
-                    cache.isCached.set(true);
-                    cache.isFileLost.set(false);
-                }
-            } else {
-                if (cache.isCached.get()) {
-                    cache.isCached.set(false);
-                    int num = cache.data.size();
-                    int tableCacheCountVal = tableCacheCount.get();
-                    while (!tableCacheCount.compareAndSet(tableCacheCountVal, tableCacheCountVal - num)) {
-                        tableCacheCountVal = tableCacheCount.get();
-                        Thread.onSpinWait();
-                    }
-                    cache.data = null;
+    private boolean loadTableCache(String key, Cache cache, Supplier<Boolean> isStopCreateCache) {
+        ChunkedPathStore data = new ChunkedPathStore();
+        String[] info = RegexUtil.comma.split(key);
+        try (Statement stmt = SQLiteUtil.getStatement(info[0]);
+             ResultSet resultSet = stmt.executeQuery("SELECT PATH FROM " + info[1] + " " + "WHERE PRIORITY=" + info[2])) {
+            while (resultSet.next()) {
+                if (isStopCreateCache.get()) {
+                    tableCacheBytes.addAndGet(data.close());
+                    return false;
                 }
+                tableCacheBytes.addAndGet(data.add(resultSet.getString("PATH")));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        cache.data = data;
+        cache.isFileLost.set(false);
+        cache.isCached.set(true);
+        return true;
+    }
+
+    /**
+     * 读取上次退出时保存的缓存快照，需要在数据库被修改之前调用
+     *
+     * @return 快照，没有有效的快照时返回null
+     */
+    private static CacheSnapshot.Snapshot openCacheSnapshot() {
+        ArrayList<String> databases = new ArrayList<>();
+        for (String eachDisk : RegexUtil.comma.split(AllConfigs.getInstance().getAvailableDisks())) {
+            databases.add(String.valueOf(eachDisk.charAt(0)));
+        }
+        databases.add(CacheSnapshot.DATABASE_CACHE_KEY);
+        return CacheSnapshot.open(databases);
+    }
+
+    /**
+     * 从快照中恢复数据表缓存，启动后不需要等待tableCacheGovernor逐步读取数据库
+     *
+     * @param snapshot 上次退出时保存的快照，可以为null
+     */
+    private void loadTableCacheFromSnapshot(CacheSnapshot.Snapshot snapshot) {
+        if (snapshot == null || isMemoryUnderPressure()) {
+            return;
+        }
+        final long startTime = System.currentTimeMillis();
+        final long budget = getTableCacheBudget();
+        int loadedNum = 0;
+        for (String key : snapshot.getTableKeys()) {
+            Cache cache = tableCache.get(key);
+            // 后缀优先级已经被删除或者正在迁移分表方式的表不恢复
+            if (cache == null || ShardRouter.getInstance().isMigrating(key.substring(0, key.indexOf(',')))) {
+                continue;
+            }
+            if (tableCacheBytes.get() + snapshot.getPathBytes(key) > budget) {
+                continue;
             }
+            ChunkedPathStore data = new ChunkedPathStore();
+            tableCacheBytes.addAndGet(snapshot.load(key, data));
+            cache.data = data;
+            cache.isFileLost.set(false);
+            cache.isCached.set(true);
+            tableCacheGovernor.recordAdmission();
+            ++loadedNum;
+        }
+        if (IsDebug.isDebug()) {
+            System.out.println("从快照中恢复" + loadedNum + "个数据表缓存，占用" + tableCacheBytes.get() / 1024 + "KB，耗时" +
+                    (System.currentTimeMillis() - startTime) + "ms");
+        }
+    }
+
+    /**
+     * 退出时保存数据表缓存和cache中的文件，需要在所有sql执行完成之后，关闭数据库之前调用
+     */
+    private void saveCacheSnapshot() {
+        if (status.get() != Constants.Enums.DatabaseStatus.NORMAL) {
+            return;
+        }
+        final long startTime = System.currentTimeMillis();
+        HashMap<String, ChunkedPathStore> tables = new HashMap<>();
+        tableCache.forEach((key, cache) -> {
+            ChunkedPathStore data = cache.data;
+            if (data != null && cache.isCacheValid() && !ShardRouter.getInstance().isMigrating(key.substring(0, key.indexOf(',')))) {
+                tables.put(key, data);
+            }
+        });
+        try {
+            CacheSnapshot.save(tables, databaseCacheSet);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (IsDebug.isDebug()) {
+            System.out.println("保存缓存快照，" + tables.size() + "个数据表缓存，耗时" + (System.currentTimeMillis() - startTime) + "ms");
         }
     }
 
@@ -518,120 +660,962 @@ public class DatabaseService {
                     startTime = System.currentTimeMillis();
                     eventManagement.putEvent(new StartMonitorDiskEvent());
                 }
-                try {
-                    TimeUnit.MILLISECONDS.sleep(10);
-                } catch (InterruptedException e) {
-                    throw new RuntimeException(e);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(10);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    private void syncFileChangesThread() {
+        var eventManagement = EventManagement.getInstance();
+        String tempPath = System.getProperty("java.io.tmpdir");
+        var fileChangeSource = getFileChangeSource();
+        fileChangePipeline = new FileChangePipeline(
+                fileChangeSource::pollChange,
+                path -> !path.contains(tempPath),
+                this::addFileToDatabase,
+                (path, isDirectory) -> {
+                    if (isDirectory) {
+                        removeDirectoryFromDatabase(path);
+                    } else {
+                        removeFileFromDatabase(path, false);
+                    }
+                },
+                eventManagement::notMainExit,
+                () -> getStatus() == Constants.Enums.DatabaseStatus.MANUAL_UPDATE ? null : changeJournal,
+                this::executeAllCommands);
+        fileChangePipeline.start();
+    }
+
+    /**
+     * 根据设置获取文件变化来源，默认使用NTFS USN日志，设置为watchService时使用java.nio.file.WatchService
+     *
+     * @return 文件变化来源
+     */
+    private synchronized FileChangeSource getFileChangeSource() {
+        if (fileChangeSource == null) {
+            String sourceName = AllConfigs.getInstance().getConfigEntity().getAdvancedConfigEntity().getFileChangeSource();
+            if ("watchService".equals(sourceName)) {
+                fileChangeSource = new WatchServiceFileChangeSource();
+            } else {
+                fileChangeSource = new UsnFileChangeSource();
+            }
+        }
+        return fileChangeSource;
+    }
+
+    /**
+     * 停止文件变化处理流水线并等待所有阶段退出
+     *
+     * @return true如果流水线未启动或已经全部退出
+     */
+    private boolean stopFileChangePipeline() {
+        FileChangePipeline pipeline = fileChangePipeline;
+        if (pipeline == null) {
+            return true;
+        }
+        try {
+            return pipeline.stop(5000);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * 流水线停止并执行完所有sql之后调用，判断日志中是否还有需要重放的变化
+     *
+     * @return true如果所有文件变化都已经提交到数据库
+     */
+    private boolean isFileChangesCommitted() {
+        if (isJournalSpilled.get()) {
+            return false;
+        }
+        FileChangePipeline pipeline = fileChangePipeline;
+        return pipeline == null || !pipeline.hasPendingChanges();
+    }
+
+    /**
+     * 获取文件变化处理流水线每个阶段的统计信息
+     *
+     * @return 每个阶段的处理速度和队列长度，流水线未启动时为空
+     */
+    public List<FileChangePipeline.StageMetrics> getFileChangeMetrics() {
+        FileChangePipeline pipeline = fileChangePipeline;
+        return pipeline == null ? List.of() : pipeline.getMetrics();
+    }
+
+    /**
+     * 定期预读最常搜索但没有缓存的表，使搜索时需要的数据库页保持在页缓存中，机器繁忙时跳过
+     */
+    private void prefetchThread() {
+        ThreadPoolUtil.getInstance().executeTask(() -> {
+            EventManagement eventManagement = EventManagement.getInstance();
+            long startTime = System.currentTimeMillis();
+            final Supplier<Boolean> isStopPrefetch = () -> !eventManagement.notMainExit() ||
+                    status.get() != Constants.Enums.DatabaseStatus.NORMAL ||
+                    searchThreadCount.get() > 0;
+            while (eventManagement.notMainExit()) {
+                var advancedConfigs = AllConfigs.getInstance().getConfigEntity().getAdvancedConfigEntity();
+                if (System.currentTimeMillis() - startTime > advancedConfigs.getPrefetchIntervalInMills()) {
+                    startTime = System.currentTimeMillis();
+                    if (isMachineBusy() || isStopPrefetch.get()) {
+                        pagePrefetcher.recordSkippedRun();
+                    } else {
+                        final long prefetchStartTime = System.currentTimeMillis();
+                        final long readBytes = pagePrefetcher.prefetch(rankPrefetchKeys(),
+                                advancedConfigs.getPrefetchBudgetInMB() * 1024L * 1024,
+                                prefetchReader,
+                                isStopPrefetch);
+                        if (IsDebug.isDebug()) {
+                            System.out.println("预读" + readBytes / 1024 + "KB，耗时" + (System.currentTimeMillis() - prefetchStartTime) +
+                                    "ms，" + pagePrefetcher);
+                        }
+                    }
+                }
+                try {
+                    TimeUnit.MILLISECONDS.sleep(100);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 前台是否有全屏的窗口，不加载dll时总是返回false
+     */
+    private static boolean isForegroundFullscreen() {
+        return !IsNativeDisabled.isNativeDisabled() && GetHandle.INSTANCE.isForegroundFullscreen();
+    }
+
+    private static boolean isMachineBusy() {
+        return isForegroundFullscreen() ||
+                SystemInfoUtil.getCpuLoad() > PREFETCH_CPU_LOAD_THRESHOLD ||
+                isMemoryUnderPressure();
+    }
+
+    /**
+     * 按照搜索记录（本次运行的访问次数和保存的搜索记录）和表权重排列需要预读的表，已经缓存、没有记录以及由堆外索引搜索的key不需要预读
+     * 预读按rowid顺序读取整个表，同一个表的多个priority合并为一个，使用其中最高的分数
+     *
+     * @return 从高到低排列的磁盘和表名，例如 [C,list10]
+     */
+    private List<String> rankPrefetchKeys() {
+        HashMap<String, Long> tableWeights = new HashMap<>();
+        long maxWeight = 0;
+        for (TableNameWeightInfo each : tableWeightMap.values()) {
+            final long weight = each.getWeight();
+            tableWeights.put(each.tableName, weight);
+            maxWeight = Math.max(maxWeight, weight);
+        }
+        Map<String, Double> telemetryScores = queryTelemetry.getKeyScores();
+        HashMap<String, Double> scores = new HashMap<>();
+        for (var entry : databaseResultsCount.entrySet()) {
+            final String key = entry.getKey();
+            if (entry.getValue().get() <= 0) {
+                continue;
+            }
+            String[] info = RegexUtil.comma.split(key);
+            Cache cache = tableCache.get(key);
+            if ((cache != null && cache.isCacheValid()) ||
+                    (isEnableOffHeapIndex && offHeapIndex.isReady(info[0])) ||
+                    ShardRouter.getInstance().isMigrating(info[0])) {
+                continue;
+            }
+            // 权重只用于区分搜索次数相同的表
+            final double score = tableCacheGovernor.getAccessFrequency(key) + telemetryScores.getOrDefault(key, 0.0) +
+                    tableWeights.getOrDefault(info[1], 0L) / (maxWeight + 1.0);
+            if (score > 0) {
+                scores.merge(info[0] + "," + info[1], score, Math::max);
+            }
+        }
+        ArrayList<String> keys = new ArrayList<>(scores.keySet());
+        keys.sort(Comparator.comparingDouble((String key) -> scores.get(key)).reversed());
+        return keys;
+    }
+
+    /**
+     * 不使用PRIORITY索引，按rowid顺序读取表，读取的数据库页在文件中是连续的，并且包含所有priority的记录
+     * key为磁盘和表名，例如 [C,list10]
+     */
+    @SuppressWarnings("SqlNoDataSourceInspection")
+    private final PagePrefetcher.PageReader prefetchReader = new PagePrefetcher.PageReader() {
+        @Override
+        public long[] getRowIdRange(String key) throws SQLException {
+            String[] info = RegexUtil.comma.split(key);
+            try (Statement stmt = SQLiteUtil.getStatement(info[0]);
+                 ResultSet resultSet = stmt.executeQuery("SELECT MIN(rowid), MAX(rowid) FROM " + getPrefetchTableName(info) + ";")) {
+                if (resultSet.next() && resultSet.getObject(1) != null) {
+                    return new long[]{resultSet.getLong(1), resultSet.getLong(2)};
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public long read(String key, long fromRowId, long toRowId, long maxBytes) throws SQLException {
+            String[] info = RegexUtil.comma.split(key);
+            final boolean isV2 = schemaV2Disks.contains(info[0]);
+            final String sql = "SELECT " + (isV2 ? "NAME" : "PATH") + " FROM " + getPrefetchTableName(info) +
+                    " NOT INDEXED WHERE rowid>=" + fromRowId + " AND rowid<" + toRowId + ";";
+            long readBytes = 0;
+            try (Statement stmt = SQLiteUtil.getStatement(info[0]);
+                 ResultSet resultSet = stmt.executeQuery(sql)) {
+                while (readBytes < maxBytes && resultSet.next()) {
+                    // TEXT列的getBytes直接返回数据库中的UTF-8字节，不需要解码为String
+                    byte[] bytes = resultSet.getBytes(1);
+                    if (bytes != null) {
+                        readBytes += bytes.length;
+                    }
+                }
+            }
+            return readBytes;
+        }
+
+        private String getPrefetchTableName(String[] info) {
+            return schemaV2Disks.contains(info[0]) ? SchemaUtil.getFilesTableName(info[1]) : info[1];
+        }
+    };
+
+    public Set<String> getCache() {
+        return new LinkedHashSet<>(databaseCacheSet);
+    }
+
+    /**
+     * 打开文件变化日志，上次运行未写入数据库的变化将在第一次执行sql时重放
+     */
+    private void openChangeJournal() {
+        try {
+            changeJournal = new ChangeJournal(Path.of("data", "changeJournal.dat"), CHANGE_JOURNAL_CAPACITY);
+            if (changeJournal.hasPendingRecords()) {
+                System.out.println("发现未写入数据库的文件变化，开始重放");
+                isJournalSpilled.set(true);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 启用v2数据库结构时将v1数据库迁移到v2，并记录每个盘符使用的结构版本
+     * fileSearcherUSN只能写入v1结构，所以每次重建数据库后都需要重新迁移
+     */
+    private void migrateSchemaIfNeeded() {
+        final boolean isEnableSchemaV2 = AllConfigs.getInstance().getConfigEntity().getAdvancedConfigEntity().isEnableSchemaV2();
+        schemaV2Disks.clear();
+        dirIdResolvers.values().forEach(DirectoryIdResolver::clear);
+        for (String eachDisk : RegexUtil.comma.split(AllConfigs.getInstance().getAvailableDisks())) {
+            String disk = String.valueOf(eachDisk.charAt(0));
+            try (Statement stmt = SQLiteUtil.getStatement(disk)) {
+                if (isEnableSchemaV2 && SchemaUtil.getVersion(stmt) < SchemaUtil.VERSION_2) {
+                    System.out.println("开始迁移数据库 " + disk + " 到v2结构");
+                    final long startTime = System.currentTimeMillis();
+                    SchemaUtil.migrateToV2(stmt.getConnection());
+                    System.out.println("迁移数据库 " + disk + " 完成，耗时 " + (System.currentTimeMillis() - startTime) + "ms");
+                }
+                if (SchemaUtil.getVersion(stmt) >= SchemaUtil.VERSION_2) {
+                    schemaV2Disks.add(disk);
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 读取已经建立完成的ngram索引
+     */
+    private void initNGramIndexReadySet() {
+        ngramIndexReadySet.clear();
+        for (String eachDisk : RegexUtil.comma.split(AllConfigs.getInstance().getAvailableDisks())) {
+            String disk = String.valueOf(eachDisk.charAt(0));
+            try (Statement stmt = SQLiteUtil.getStatement(disk);
+                 ResultSet resultSet = stmt.executeQuery("SELECT TABLE_NAME FROM ngram_meta WHERE IS_READY=1;")) {
+                while (resultSet.next()) {
+                    ngramIndexReadySet.add(disk + "," + resultSet.getString("TABLE_NAME"));
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 数据库被fileSearcherUSN重新写入后，之前建立的ngram索引已经失效，需要重新建立
+     */
+    private void invalidateNGramIndex() {
+        ngramIndexReadySet.clear();
+        for (String eachDisk : RegexUtil.comma.split(AllConfigs.getInstance().getAvailableDisks())) {
+            try (Statement stmt = SQLiteUtil.getStatement(String.valueOf(eachDisk.charAt(0)))) {
+                stmt.execute("UPDATE ngram_meta SET IS_READY=0;");
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 迁移分表方式前将该磁盘的ngram索引标记为未建立，移动后的记录没有ngram索引，文件类型索引不受影响
+     *
+     * @param disk 盘符
+     */
+    @SuppressWarnings("SqlNoDataSourceInspection")
+    private void invalidateNGramIndex(String disk) {
+        ngramIndexReadySet.removeIf(each -> each.startsWith(disk + ","));
+        try (Statement stmt = SQLiteUtil.getStatement(disk)) {
+            stmt.execute("UPDATE ngram_meta SET IS_READY=0 WHERE TABLE_NAME LIKE 'list%';");
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 读取设置中的分表方式和每个数据库当前的分表方式，设置修改后重启生效
+     */
+    private void initShardLayouts() {
+        var advancedConfigEntity = AllConfigs.getInstance().getConfigEntity().getAdvancedConfigEntity();
+        ShardRouter shardRouter = ShardRouter.getInstance();
+        shardRouter.setTargetLayout(ShardLayout.of(advancedConfigEntity.getShardFunction(), advancedConfigEntity.getShardCount()));
+        for (String eachDisk : RegexUtil.comma.split(AllConfigs.getInstance().getAvailableDisks())) {
+            String disk = String.valueOf(eachDisk.charAt(0));
+            try (Statement stmt = SQLiteUtil.getStatement(disk)) {
+                ShardLayout layout = shardRouter.load(disk, stmt);
+                if (shardRouter.isMigrating(disk)) {
+                    System.out.println("数据库 " + disk + " 的分表方式为 " + layout + "，需要迁移到 " + shardRouter.getTargetLayout());
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 数据库的分表方式与设置不同时，在后台将记录移动到新的表中
+     * 每次只在一个事务中移动一批记录，与写入文件变化互斥，迁移期间搜索可以继续进行，但结果可能暂时不完整
+     */
+    private void migrateShardsThread() {
+        if (!isShardMigrating.compareAndSet(false, true)) {
+            return;
+        }
+        ThreadPoolUtil.getInstance().executeTask(() -> {
+            boolean isMigrated = false;
+            try {
+                for (String eachDisk : RegexUtil.comma.split(AllConfigs.getInstance().getAvailableDisks())) {
+                    String disk = String.valueOf(eachDisk.charAt(0));
+                    if (!ShardRouter.getInstance().isMigrating(disk)) {
+                        continue;
+                    }
+                    if (!migrateShards(disk)) {
+                        return;
+                    }
+                    isMigrated = true;
+                }
+            } finally {
+                isShardMigrating.set(false);
+            }
+            if (!isMigrated) {
+                return;
+            }
+            // 记录所在的表已经改变，按照表缓存的内容全部失效
+            invalidateAllCache();
+            offHeapIndex.clear();
+            loadOffHeapIndexThread();
+            try {
+                while (isNGramIndexBuilding.get() || isGramSummaryBuilding.get()) {
+                    TimeUnit.MILLISECONDS.sleep(100);
+                }
+            } catch (InterruptedException ignored) {
+                // ignore interrupt exception
+            }
+            buildNGramIndexThread();
+            buildGramSummaryThread();
+        });
+    }
+
+    /**
+     * 迁移一个磁盘的分表方式，完成后保存新的分表方式
+     *
+     * @param disk 盘符
+     * @return false如果迁移被中断
+     */
+    private boolean migrateShards(String disk) {
+        final ShardRouter shardRouter = ShardRouter.getInstance();
+        final ShardLayout target = shardRouter.getTargetLayout();
+        final boolean isV2 = schemaV2Disks.contains(disk);
+        final long startTime = System.currentTimeMillis();
+        EventManagement eventManagement = EventManagement.getInstance();
+        System.out.println("开始迁移数据库 " + disk + " 的分表方式 " + shardRouter.getLayout(disk) + " -> " + target);
+        invalidateNGramIndex(disk);
+        GramSummaryIndex.getInstance().clear(disk);
+        pagePrefetcher.clear();
+        queryTelemetry.clearMatchedKeys();
+        // 迁移期间每个表的记录数量不准确，不能用于跳过搜索
+        tableStatsReadyDisks.remove(disk);
+        databaseResultsCount.keySet().removeIf(each -> each.startsWith(disk + ","));
+        databaseResultsBytes.keySet().removeIf(each -> each.startsWith(disk + ","));
+        long movedCount = 0;
+        try (Statement stmt = SQLiteUtil.getStatement(disk)) {
+            TableStats.invalidate(stmt);
+            System.out.println("迁移前记录分布: " + ShardRouter.countRecords(stmt, isV2));
+            for (int i = 0; i <= Constants.MAX_TABLE_NUM; i++) {
+                long lastRowId = 0;
+                ShardRouter.MigrateResult result;
+                do {
+                    if (!eventManagement.notMainExit() || getStatus() != Constants.Enums.DatabaseStatus.NORMAL) {
+                        System.out.println("迁移数据库 " + disk + " 的分表方式被中断");
+                        return false;
+                    }
+                    // 与executeAllCommands互斥，避免迁移时读取的记录被同时删除
+                    synchronized (this) {
+                        stmt.execute("BEGIN;");
+                        try {
+                            result = ShardRouter.migrateBatch(stmt.getConnection(), target, i, isV2, lastRowId, SHARD_MIGRATE_BATCH_SIZE);
+                        } finally {
+                            stmt.execute("COMMIT;");
+                        }
+                    }
+                    movedCount += result.moved();
+                    lastRowId = result.lastRowId();
+                } while (result.scanned() == SHARD_MIGRATE_BATCH_SIZE);
+            }
+            shardRouter.save(disk, stmt, target);
+            ShardDistribution distribution = ShardRouter.countRecords(stmt, isV2);
+            System.out.println("迁移后记录分布: " + distribution);
+            rebuildTableStats(disk, stmt);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+        System.out.println("迁移数据库 " + disk + " 的分表方式完成，移动" + movedCount + "条记录，耗时" + (System.currentTimeMillis() - startTime) + "ms");
+        return true;
+    }
+
+    /**
+     * 读取每个磁盘保存的表统计，统计不准确的磁盘在后台重新统计
+     */
+    private void initTableStats() {
+        boolean isNeedRebuild = false;
+        for (String eachDisk : RegexUtil.comma.split(AllConfigs.getInstance().getAvailableDisks())) {
+            String disk = String.valueOf(eachDisk.charAt(0));
+            // 迁移完成后重新统计
+            if (ShardRouter.getInstance().isMigrating(disk)) {
+                continue;
+            }
+            try (Statement stmt = SQLiteUtil.getStatement(disk)) {
+                if (TableStats.isReady(stmt)) {
+                    applyTableStats(disk, TableStats.load(stmt));
+                    tableStatsReadyDisks.add(disk);
+                } else {
+                    isNeedRebuild = true;
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        if (isNeedRebuild) {
+            rebuildTableStatsThread();
+        }
+    }
+
+    /**
+     * 重新统计所有统计不准确的磁盘，只在数据库被重新写入或统计丢失时执行
+     */
+    private void rebuildTableStatsThread() {
+        ThreadPoolUtil.getInstance().executeTask(() -> {
+            for (String eachDisk : RegexUtil.comma.split(AllConfigs.getInstance().getAvailableDisks())) {
+                String disk = String.valueOf(eachDisk.charAt(0));
+                if (tableStatsReadyDisks.contains(disk) || ShardRouter.getInstance().isMigrating(disk)) {
+                    continue;
+                }
+                try (Statement stmt = SQLiteUtil.getStatement(disk)) {
+                    rebuildTableStats(disk, stmt);
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * 重新统计磁盘中每个表每个优先级的记录数量和路径长度之和并保存，与executeAllCommands互斥，统计期间不会写入记录
+     *
+     * @param disk 盘符
+     * @param stmt 该磁盘数据库的statement
+     */
+    private void rebuildTableStats(String disk, Statement stmt) throws SQLException {
+        final long startTime = System.currentTimeMillis();
+        synchronized (this) {
+            applyTableStats(disk, TableStats.rebuild(stmt));
+            tableStatsReadyDisks.add(disk);
+        }
+        if (IsDebug.isDebug()) {
+            System.out.println("重新统计数据库 " + disk + " 的表，耗时" + (System.currentTimeMillis() - startTime) + "ms");
+        }
+    }
+
+    /**
+     * 使用表统计替换磁盘之前的记录数量，没有记录的优先级数量为0
+     *
+     * @param disk  盘符
+     * @param stats key为 [表名,优先级]，例如 [list10,-1]
+     */
+    private void applyTableStats(String disk, Map<String, TableStats.Stat> stats) {
+        HashMap<String, TableStats.Stat> statsOfDisk = new HashMap<>();
+        for (int i = 0; i <= Constants.MAX_TABLE_NUM; i++) {
+            for (SuffixPriorityPair suffixPriorityPair : priorityMap) {
+                statsOfDisk.put(disk + ",list" + i + "," + suffixPriorityPair.priority, new TableStats.Stat(0, 0));
+            }
+        }
+        stats.forEach((tableAndPriority, stat) -> statsOfDisk.put(disk + "," + tableAndPriority, stat));
+        databaseResultsCount.keySet().removeIf(each -> each.startsWith(disk + ","));
+        databaseResultsBytes.keySet().removeIf(each -> each.startsWith(disk + ","));
+        statsOfDisk.forEach((key, stat) -> {
+            databaseResultsCount.put(key, new AtomicInteger(stat.recordNum()));
+            databaseResultsBytes.put(key, new AtomicLong(stat.pathBytes()));
+            tableCacheGovernor.updateTableSize(key, stat.recordNum(), stat.pathBytes());
+        });
+    }
+
+    /**
+     * 在写入记录的事务中保存变化的表统计，统计不准确的磁盘不保存
+     *
+     * @param disk        盘符
+     * @param changedKeys 统计发生变化的key
+     */
+    private void saveTableStats(String disk, Set<String> changedKeys) throws SQLException {
+        if (changedKeys.isEmpty() || !tableStatsReadyDisks.contains(disk)) {
+            return;
+        }
+        try (PreparedStatement pStmt = SQLiteUtil.getPreparedStatement(TableStats.getUpsertSql(), disk)) {
+            for (String key : changedKeys) {
+                AtomicInteger recordNum = databaseResultsCount.get(key);
+                AtomicLong pathBytes = databaseResultsBytes.get(key);
+                if (recordNum == null || pathBytes == null) {
+                    continue;
+                }
+                String[] info = RegexUtil.comma.split(key);
+                TableStats.setParams(pStmt, info[1], Integer.parseInt(info[2]), new TableStats.Stat(recordNum.get(), pathBytes.get()));
+                pStmt.addBatch();
+            }
+            pStmt.executeBatch();
+        }
+    }
+
+    /**
+     * 获取每个磁盘中每个表的记录数量，由缓存数据库时统计的数量得到，不查询数据库
+     *
+     * @return key为盘符，value为记录分布，还未统计过的磁盘不包含在内
+     */
+    public Map<String, ShardDistribution> getShardDistribution() {
+        HashMap<String, long[]> countsByDisk = new HashMap<>();
+        databaseResultsCount.forEach((key, count) -> {
+            String[] info = RegexUtil.comma.split(key);
+            long[] counts = countsByDisk.computeIfAbsent(info[0], k -> new long[Constants.MAX_TABLE_NUM + 1]);
+            counts[Integer.parseInt(info[1].substring("list".length()))] += count.get();
+        });
+        HashMap<String, ShardDistribution> distributions = new HashMap<>();
+        countsByDisk.forEach((disk, counts) -> distributions.put(disk, new ShardDistribution(counts)));
+        return distributions;
+    }
+
+    /**
+     * 从数据库中加载文件类型索引，在建立索引的线程启动前完成，否则已经建立完成的索引会被重新建立
+     */
+    private void loadFileTypeIndex() {
+        final long startTime = System.currentTimeMillis();
+        int count = 0;
+        for (String eachDisk : RegexUtil.comma.split(AllConfigs.getInstance().getAvailableDisks())) {
+            String disk = String.valueOf(eachDisk.charAt(0));
+            try (Statement stmt = SQLiteUtil.getStatement(disk)) {
+                count += FileTypeIndex.getInstance().load(disk, stmt);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        if (IsDebug.isDebug()) {
+            System.out.println("已加载" + count + "个文件夹记录，耗时" + (System.currentTimeMillis() - startTime) + "ms");
+        }
+    }
+
+    /**
+     * 数据库被fileSearcherUSN重新写入后，清空文件类型索引，由buildNGramIndexThread重新建立
+     */
+    private void invalidateFileTypeIndex() {
+        for (String eachDisk : RegexUtil.comma.split(AllConfigs.getInstance().getAvailableDisks())) {
+            String disk = String.valueOf(eachDisk.charAt(0));
+            FileTypeIndex.getInstance().clear(disk);
+            try (Statement stmt = SQLiteUtil.getStatement(disk)) {
+                stmt.execute("DELETE FROM " + FileTypeIndex.TABLE_NAME + ";");
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 从数据库中加载文件名的转写结果，未加载完成时匹配会在使用时计算
+     */
+    private void loadTransliterationIndexThread() {
+        ThreadPoolUtil.getInstance().executeTask(() -> {
+            final long startTime = System.currentTimeMillis();
+            int count = 0;
+            for (String eachDisk : RegexUtil.comma.split(AllConfigs.getInstance().getAvailableDisks())) {
+                try (Statement stmt = SQLiteUtil.getStatement(String.valueOf(eachDisk.charAt(0)))) {
+                    count += TransliterationIndex.getInstance().load(stmt);
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (IsDebug.isDebug()) {
+                System.out.println("已加载" + count + "个文件名的转写结果，耗时" + (System.currentTimeMillis() - startTime) + "ms");
+            }
+        });
+    }
+
+    /**
+     * 清理数据库中已经不存在的文件名的转写结果，与executeAllCommands互斥，清理期间不会写入记录
+     * 迁移分表方式的磁盘跳过，在下一次VACUUM或重新写入数据库后清理
+     */
+    private void pruneTransliterationsThread() {
+        ThreadPoolUtil.getInstance().executeTask(() -> {
+            for (String eachDisk : RegexUtil.comma.split(AllConfigs.getInstance().getAvailableDisks())) {
+                String disk = String.valueOf(eachDisk.charAt(0));
+                if (ShardRouter.getInstance().isMigrating(disk)) {
+                    continue;
+                }
+                final long startTime = System.currentTimeMillis();
+                try (Statement stmt = SQLiteUtil.getStatement(disk)) {
+                    final int count;
+                    synchronized (this) {
+                        count = TransliterationIndex.prune(stmt, schemaV2Disks.contains(disk));
+                    }
+                    if (IsDebug.isDebug()) {
+                        System.out.println("清理数据库 " + disk + " 中" + count + "个已经不存在的文件名的转写结果，耗时" +
+                                (System.currentTimeMillis() - startTime) + "ms");
+                    }
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * 为还未建立ngram索引的表建立索引，每次只处理一个表，处理完成后该表的搜索将只查询候选记录
+     */
+    private void buildNGramIndexThread() {
+        if (!isNGramIndexBuilding.compareAndSet(false, true)) {
+            return;
+        }
+        ThreadPoolUtil.getInstance().executeTask(() -> {
+            EventManagement eventManagement = EventManagement.getInstance();
+            try {
+                for (String eachDisk : RegexUtil.comma.split(AllConfigs.getInstance().getAvailableDisks())) {
+                    String disk = String.valueOf(eachDisk.charAt(0));
+                    // 迁移分表方式时记录会在表之间移动，迁移完成后再建立
+                    if (ShardRouter.getInstance().isMigrating(disk)) {
+                        continue;
+                    }
+                    if (!FileTypeIndex.getInstance().isReady(disk)) {
+                        buildFileTypeIndex(disk);
+                    }
+                    for (int i = 0; i <= Constants.MAX_TABLE_NUM; i++) {
+                        if (!eventManagement.notMainExit() || getStatus() != Constants.Enums.DatabaseStatus.NORMAL) {
+                            return;
+                        }
+                        String tableName = "list" + i;
+                        if (ngramIndexReadySet.contains(disk + "," + tableName)) {
+                            continue;
+                        }
+                        buildNGramIndex(disk, tableName);
+                    }
+                }
+            } finally {
+                isNGramIndexBuilding.set(false);
+            }
+        });
+    }
+
+    /**
+     * 重新建立所有表的gram摘要，在启动，数据库被重新写入，迁移分表方式和VACUUM之后执行
+     * 重新建立时会清除已经删除的记录留下的gram，每次只处理一个表，处理完成后该表的摘要才会用于跳过
+     */
+    private void buildGramSummaryThread() {
+        if (!isGramSummaryBuilding.compareAndSet(false, true)) {
+            return;
+        }
+        ThreadPoolUtil.getInstance().executeTask(() -> {
+            EventManagement eventManagement = EventManagement.getInstance();
+            final long startTime = System.currentTimeMillis();
+            try {
+                for (String eachDisk : RegexUtil.comma.split(AllConfigs.getInstance().getAvailableDisks())) {
+                    String disk = String.valueOf(eachDisk.charAt(0));
+                    if (ShardRouter.getInstance().isMigrating(disk)) {
+                        continue;
+                    }
+                    try (Statement stmt = SQLiteUtil.getStatement(disk)) {
+                        for (int i = 0; i <= Constants.MAX_TABLE_NUM; i++) {
+                            if (!eventManagement.notMainExit() || getStatus() != Constants.Enums.DatabaseStatus.NORMAL) {
+                                return;
+                            }
+                            buildGramSummary(disk, "list" + i, stmt);
+                        }
+                    } catch (SQLException e) {
+                        e.printStackTrace();
+                    }
+                }
+            } finally {
+                isGramSummaryBuilding.set(false);
+            }
+            if (IsDebug.isDebug()) {
+                System.out.println("gram摘要建立完成，耗时" + (System.currentTimeMillis() - startTime) + "ms");
+            }
+        });
+    }
+
+    /**
+     * 建立一个表的gram摘要
+     *
+     * @param disk      盘符
+     * @param tableName 表名 listN
+     * @param stmt      该磁盘数据库的statement
+     */
+    @SuppressWarnings("SqlNoDataSourceInspection")
+    private void buildGramSummary(String disk, String tableName, Statement stmt) throws SQLException {
+        final boolean isV2 = schemaV2Disks.contains(disk);
+        final String dataTableName = isV2 ? SchemaUtil.getFilesTableName(tableName) : tableName;
+        HashMap<Integer, Integer> countByPriority = new HashMap<>();
+        try (ResultSet resultSet = stmt.executeQuery("SELECT PRIORITY, COUNT(*) FROM " + dataTableName + " GROUP BY PRIORITY;")) {
+            while (resultSet.next()) {
+                countByPriority.put(resultSet.getInt(1), resultSet.getInt(2));
+            }
+        }
+        Set<Integer> priorities = new HashSet<>(countByPriority.keySet());
+        for (SuffixPriorityPair suffixPriorityPair : priorityMap) {
+            priorities.add(suffixPriorityPair.priority);
+        }
+        Map<Integer, GramSummaryIndex.Summary> summaries;
+        // 与executeAllCommands互斥，替换摘要之前写入的记录都已经提交，之后写入的记录会直接写入新的摘要
+        synchronized (this) {
+            summaries = GramSummaryIndex.getInstance().rebuild(disk, tableName, countByPriority, priorities);
+        }
+        // v2结构直接读取文件名，不需要拼接路径
+        try (ResultSet resultSet = stmt.executeQuery("SELECT " + (isV2 ? "NAME" : "PATH") + ", PRIORITY FROM " + dataTableName + ";")) {
+            while (resultSet.next()) {
+                GramSummaryIndex.Summary summary = summaries.get(resultSet.getInt(2));
+                if (summary == null) {
+                    continue;
+                }
+                String name = isV2 ? resultSet.getString(1) : FileUtil.getFileName(resultSet.getString(1));
+                for (long gram : NGramUtil.getGrams(name)) {
+                    summary.add(gram);
+                }
+            }
+        }
+        summaries.values().forEach(GramSummaryIndex.Summary::ready);
+    }
+
+    /**
+     * 遍历磁盘的所有记录建立文件类型索引
+     * 所有记录的父路径都是文件夹，遍历完成后只有没有子记录且没有后缀名（priority为-1）的记录需要访问文件系统
+     * 有后缀名且没有子记录的记录视为文件，带后缀名的空文件夹（如v1.2）在显示结果时由validateResults发现并记录
+     *
+     * @param disk 盘符
+     */
+    @SuppressWarnings("SqlNoDataSourceInspection")
+    private void buildFileTypeIndex(String disk) {
+        final long startTime = System.currentTimeMillis();
+        final FileTypeIndex fileTypeIndex = FileTypeIndex.getInstance();
+        EventManagement eventManagement = EventManagement.getInstance();
+        try (Statement stmt = SQLiteUtil.getStatement(disk)) {
+            for (int i = 0; i <= Constants.MAX_TABLE_NUM; i++) {
+                if (!eventManagement.notMainExit() || getStatus() != Constants.Enums.DatabaseStatus.NORMAL) {
+                    return;
+                }
+                try (ResultSet resultSet = stmt.executeQuery("SELECT PATH FROM list" + i + ";")) {
+                    while (resultSet.next()) {
+                        String path = resultSet.getString(1);
+                        // 根目录（例如 C:）不在数据库中，父路径已经记录过时更上层的路径也一定记录过
+                        int index = path.lastIndexOf(File.separatorChar);
+                        while (index > 2 && fileTypeIndex.addDirectory(path, index)) {
+                            index = path.lastIndexOf(File.separatorChar, index - 1);
+                        }
+                    }
+                }
+            }
+            int statCount = 0;
+            for (int i = 0; i <= Constants.MAX_TABLE_NUM; i++) {
+                if (!eventManagement.notMainExit() || getStatus() != Constants.Enums.DatabaseStatus.NORMAL) {
+                    return;
+                }
+                try (ResultSet resultSet = stmt.executeQuery("SELECT PATH FROM list" + i + " WHERE PRIORITY=-1;")) {
+                    while (resultSet.next()) {
+                        String path = resultSet.getString(1);
+                        if (!fileTypeIndex.isDirectoryRecorded(path)) {
+                            ++statCount;
+                            if (FileUtil.isDir(path)) {
+                                fileTypeIndex.addDirectory(path);
+                            }
+                        }
+                    }
                 }
             }
-        });
+            saveFileTypeIndex(disk);
+            if (IsDebug.isDebug()) {
+                System.out.println("已建立" + disk + "盘的文件类型索引，访问文件系统" + statCount + "次，耗时" + (System.currentTimeMillis() - startTime) + "ms");
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
     }
 
-    private void syncFileChangesThread() {
-        ThreadPoolUtil.getInstance().executeTask(() -> {
+    /**
+     * 将建立完成的文件类型索引写入数据库，与executeAllCommands使用同一把锁，防止事务交错
+     *
+     * @param disk 盘符
+     */
+    @SuppressWarnings("SqlNoDataSourceInspection")
+    private synchronized void saveFileTypeIndex(String disk) throws SQLException {
+        final int batchSize = 10000;
+        try (Statement stmt = SQLiteUtil.getStatement(disk);
+             PreparedStatement pStmt = SQLiteUtil.getPreparedStatement(FileTypeIndex.getInsertSql(), disk)) {
+            stmt.execute("BEGIN;");
             try {
-                addFileChangesRecords();
-            } catch (Exception e) {
-                e.printStackTrace();
+                int[] batchCount = new int[1];
+                FileTypeIndex.getInstance().forEachDirectoryHash(disk, hash -> {
+                    pStmt.setLong(1, hash);
+                    pStmt.addBatch();
+                    if (++batchCount[0] >= batchSize) {
+                        pStmt.executeBatch();
+                        batchCount[0] = 0;
+                    }
+                });
+                pStmt.executeBatch();
+                stmt.execute("INSERT OR REPLACE INTO ngram_meta VALUES(\"" + FileTypeIndex.TABLE_NAME + "\", 1);");
+            } finally {
+                stmt.execute("COMMIT;");
             }
-        });
-    }
-
-    @SuppressWarnings("SameParameterValue")
-    private static String getRandomString(int length) {
-        String str = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
-        Random random = new Random();
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < length; i++) {
-            int number = random.nextInt(str.length());
-            sb.append(str.charAt(number));
         }
-        return sb.toString();
+        FileTypeIndex.getInstance().setReady(disk);
     }
 
-    private void warmupSearchThread() {
-        ThreadPoolUtil.getInstance().executeTask(() -> {
-            EventManagement eventManagement = EventManagement.getInstance();
-            long startTime = System.currentTimeMillis();
-            String[] searchCaseTemp = {PathMatchUtil.SearchCase.D, PathMatchUtil.SearchCase.F, PathMatchUtil.SearchCase.FULL, PathMatchUtil.SearchCase.CASE};
-            Random random = new Random();
-            while (eventManagement.notMainExit()) {
-                if (System.currentTimeMillis() - startTime > AllConfigs.getInstance()
-                        .getConfigEntity()
-                        .getAdvancedConfigEntity()
-                        .getSearchWarmupTimeoutInMills()) {
-                    if (!GetHandle.INSTANCE.isForegroundFullscreen()) {
-                        String keywordsTemp = getRandomString(2) + ";" +
-                                getRandomString(2) + ";" +
-                                getRandomString(2);
-                        String[] warmupKeywords = RegexUtil.semicolon.split(keywordsTemp);
-                        startTime = System.currentTimeMillis();
-                        int randomSearchCase = random.nextInt(searchCaseTemp.length);
-                        eventManagement.putEvent(new StartSearchEvent(() -> warmupKeywords[0],
-                                () -> new String[]{searchCaseTemp[randomSearchCase]},
-                                () -> warmupKeywords));
+    /**
+     * 建立一个表的ngram索引，与executeAllCommands使用同一把锁，防止事务交错
+     *
+     * @param disk      盘符
+     * @param tableName 表名
+     */
+    private synchronized void buildNGramIndex(String disk, String tableName) {
+        final long startTime = System.currentTimeMillis();
+        final int batchSize = 10000;
+        final TransliterationIndex transliterationIndex = TransliterationIndex.getInstance();
+        try (Statement stmt = SQLiteUtil.getStatement(disk);
+             PreparedStatement pStmt = SQLiteUtil.getPreparedStatement("INSERT OR IGNORE INTO ngram_" + tableName + " VALUES(?, ?);", disk);
+             PreparedStatement transliterationStmt = SQLiteUtil.getPreparedStatement(TransliterationIndex.getInsertSql(), disk)) {
+            stmt.execute("BEGIN;");
+            try {
+                stmt.execute("DELETE FROM ngram_" + tableName + ";");
+                int batchCount = 0;
+                try (ResultSet resultSet = stmt.executeQuery("SELECT rowid, PATH FROM " + tableName + ";")) {
+                    while (resultSet.next()) {
+                        long rowId = resultSet.getLong(1);
+                        String fileName = FileUtil.getFileName(resultSet.getString(2));
+                        for (long gram : NGramUtil.getGrams(fileName)) {
+                            pStmt.setLong(1, gram);
+                            pStmt.setLong(2, rowId);
+                            pStmt.addBatch();
+                            if (++batchCount >= batchSize) {
+                                pStmt.executeBatch();
+                                transliterationStmt.executeBatch();
+                                batchCount = 0;
+                            }
+                        }
+                        // 计算gram时已经完成转写，同时保存转写结果
+                        for (Transliteration transliteration : transliterationIndex.get(fileName)) {
+                            Object[] params = TransliterationIndex.getInsertParams(fileName, transliteration);
+                            for (int i = 0; i < params.length; ++i) {
+                                transliterationStmt.setObject(i + 1, params[i]);
+                            }
+                            transliterationStmt.addBatch();
+                        }
                     }
                 }
-                try {
-                    TimeUnit.MILLISECONDS.sleep(100);
-                } catch (InterruptedException e) {
-                    throw new RuntimeException(e);
-                }
+                pStmt.executeBatch();
+                transliterationStmt.executeBatch();
+                stmt.execute("INSERT OR REPLACE INTO ngram_meta VALUES(\"" + tableName + "\", 1);");
+            } finally {
+                stmt.execute("COMMIT;");
             }
-        });
+            ngramIndexReadySet.add(disk + "," + tableName);
+            if (IsDebug.isDebug()) {
+                System.out.println("已建立" + disk + "盘" + tableName + "的ngram索引，耗时" + (System.currentTimeMillis() - startTime) + "ms");
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
     }
 
-    private void addFileChangesRecords() {
-        var eventManagement = EventManagement.getInstance();
-        String tempPath = System.getProperty("java.io.tmpdir");
-        while (eventManagement.notMainExit()) {
-            String addFilePath = FileMonitor.INSTANCE.pop_add_file();
-            String deleteFilePath = FileMonitor.INSTANCE.pop_del_file();
-            if (addFilePath != null && !addFilePath.contains(tempPath)) {
-                File addFile = new File(addFilePath);
-                var dirs = new ArrayDeque<File>();
-                if (addFile.isDirectory()) {
-                    dirs.add(addFile);
-                }
-                do {
-                    if (addFile.getParentFile() != null) {
-                        addFileToDatabase(addFile.getAbsolutePath());
+    /**
+     * 将所有盘符的记录加载到堆外索引中，每个盘符加载完成后该盘符的搜索将只扫描索引
+     */
+    private void loadOffHeapIndexThread() {
+        if (!isEnableOffHeapIndex || !isOffHeapIndexLoading.compareAndSet(false, true)) {
+            return;
+        }
+        ThreadPoolUtil.getInstance().executeTask(() -> {
+            EventManagement eventManagement = EventManagement.getInstance();
+            try {
+                for (String eachDisk : RegexUtil.comma.split(AllConfigs.getInstance().getAvailableDisks())) {
+                    String disk = String.valueOf(eachDisk.charAt(0));
+                    final long startTime = System.currentTimeMillis();
+                    // 之后的文件变化在加载完成后重放，之前还没有写入数据库的变化先写入，加载时可以读取到
+                    offHeapIndex.beginLoad(disk);
+                    executeAllCommands();
+                    try (Statement stmt = SQLiteUtil.getStatement(disk)) {
+                        for (int i = 0; i <= Constants.MAX_TABLE_NUM; i++) {
+                            if (!eventManagement.notMainExit() || getStatus() != Constants.Enums.DatabaseStatus.NORMAL) {
+                                offHeapIndex.abortLoad(disk);
+                                return;
+                            }
+                            String tableName = "list" + i;
+                            try (ResultSet resultSet = stmt.executeQuery("SELECT PATH, PRIORITY FROM " + tableName + ";")) {
+                                while (resultSet.next()) {
+                                    String key = disk + "," + tableName + "," + resultSet.getInt("PRIORITY");
+                                    offHeapIndex.load(key, resultSet.getString("PATH"));
+                                }
+                            }
+                        }
+                    } catch (SQLException e) {
+                        e.printStackTrace();
+                        offHeapIndex.abortLoad(disk);
+                        continue;
                     }
-                } while ((addFile = addFile.getParentFile()) != null);
-                File remain;
-                while ((remain = dirs.poll()) != null) {
-                    addFileToDatabase(remain.getAbsolutePath());
-                    File[] subFiles = remain.listFiles();
-                    if (subFiles == null) {
+                    if (!offHeapIndex.finishLoad(disk)) {
                         continue;
                     }
-                    Arrays.stream(subFiles).forEach(eachFile -> {
-                        addFileToDatabase(eachFile.getAbsolutePath());
-                        if (eachFile.isDirectory()) {
-                            dirs.add(eachFile);
-                        }
-                    });
+                    System.out.println("已加载" + disk + "盘堆外索引，耗时" + (System.currentTimeMillis() - startTime) +
+                            "ms，映射内存" + offHeapIndex.getMappedBytes() / 1024 / 1024 + "MB");
                 }
+            } finally {
+                isOffHeapIndexLoading.set(false);
             }
-            if (deleteFilePath != null && !deleteFilePath.contains(tempPath)) {
-                removeFileFromDatabase(deleteFilePath);
-            }
-            try {
-                TimeUnit.MILLISECONDS.sleep(1);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
-        }
-    }
-
-    public Set<String> getCache() {
-        return new LinkedHashSet<>(databaseCacheSet);
+        });
     }
 
     /**
-     * 将缓存中的文件保存到cacheSet中
+     * 将缓存中的文件保存到cacheSet中，快照有效时直接从快照中读取
+     *
+     * @param snapshot 上次退出时保存的快照，可以为null
      */
-    private void prepareDatabaseCache() {
+    private void prepareDatabaseCache(CacheSnapshot.Snapshot snapshot) {
+        if (snapshot != null && snapshot.hasDatabaseCache()) {
+            snapshot.forEachDatabaseCache(databaseCacheSet::add);
+            return;
+        }
         String eachLine;
         try (Statement statement = SQLiteUtil.getStatement("cache");
              ResultSet resultSet = statement.executeQuery("SELECT PATH FROM cache;")) {
@@ -648,18 +1632,15 @@ public class DatabaseService {
      * 从缓存中搜索结果并将匹配的放入listResults
      */
     private void searchCache(SearchTask searchTask) {
-        var eventManagement = EventManagement.getInstance();
+        FileTypeIndex fileTypeIndex = FileTypeIndex.getInstance();
         HashSet<String> dirs = new HashSet<>();
         for (String each : databaseCacheSet) {
-            if (FileUtil.isFileNotExist(each)) {
-                eventManagement.putEvent(new DeleteFromCacheEvent(each));
+            // 文件是否存在在显示时检查，不存在的缓存在validateResults中删除
+            if (fileTypeIndex.isDirectory(each)) {
+                dirs.add(each);
             } else {
-                if (FileUtil.isDir(each)) {
-                    dirs.add(each);
-                } else {
-                    if (checkIsMatchedAndAddToList(each, searchTask)) {
-                        searchTask.cacheAndPriorityResults.add(each);
-                    }
+                if (checkIsMatchedAndAddToList(each, searchTask)) {
+                    searchTask.cacheAndPriorityResults.add(each);
                 }
             }
             if (searchTask.shouldStopSearch()) {
@@ -667,12 +1648,8 @@ public class DatabaseService {
             }
         }
         for (String each : dirs) {
-            if (FileUtil.isFileNotExist(each)) {
-                eventManagement.putEvent(new DeleteFromCacheEvent(each));
-            } else {
-                if (checkIsMatchedAndAddToList(each, searchTask)) {
-                    searchTask.cacheAndPriorityResults.add(each);
-                }
+            if (checkIsMatchedAndAddToList(each, searchTask)) {
+                searchTask.cacheAndPriorityResults.add(each);
             }
             if (searchTask.shouldStopSearch()) {
                 return;
@@ -688,26 +1665,124 @@ public class DatabaseService {
      */
     private boolean checkIsMatchedAndAddToList(String path,
                                                SearchTask searchTask) {
+        return checkIsMatchedAndAddToList(path, searchTask, null);
+    }
+
+    /**
+     * 检查文件路径是否匹配然后加入到列表，同时记录结果来自哪个表，用于增量搜索时重新统计每个表的结果数量
+     *
+     * @param path 文件路径
+     * @param key  查询key，例如 [C,list10,-1]，结果不是来自数据库时为null
+     * @return true如果匹配成功
+     */
+    private boolean checkIsMatchedAndAddToList(String path,
+                                               SearchTask searchTask,
+                                               String key) {
         boolean ret = false;
-        if (PathMatchUtil.check(path,
-                searchTask.searchInfo.searchCase,
-                searchTask.searchInfo.isIgnoreCase,
-                searchTask.searchInfo.searchText,
-                searchTask.searchInfo.keywords,
-                searchTask.searchInfo.keywordsLowerCase,
-                searchTask.searchInfo.isKeywordPath)) {
-            //字符串匹配通过
-            if (FileUtil.isFileNotExist(path)) {
-                removeFileFromDatabase(path);
-            } else if (searchTask.tempResultsSet.add(path)) {
-                searchTask.resultCounter.getAndIncrement();
-                ret = true;
-                searchTask.tempResults.add(path);
+        // 文件是否存在不在这里检查，只有显示的结果才会检查
+        if (searchTask.pathMatcher.check(path) && searchTask.tempResultsSet.add(path)) {
+            searchTask.increaseResultCount();
+            ret = true;
+            if (key != null) {
+                searchTask.resultKeys.put(path, key);
             }
+            searchTask.tempResults.add(path);
         }
         return ret;
     }
 
+    /**
+     * 检查正在显示的结果是否存在，在线程池中执行，每个结果只检查一次
+     * 搜索时不再检查文件是否存在，只有实际显示的结果才会访问文件系统
+     * 不存在的结果从搜索任务中移除并放入staleResults，同时批量从数据库和缓存中删除
+     * 同时检查是否为文件类型索引中没有记录的文件夹（带后缀名的空文件夹），记录后不再匹配f规则的结果也从搜索任务中移除
+     *
+     * @param searchTask 结果所属的搜索任务
+     * @param paths      正在显示的结果
+     */
+    public void validateResults(SearchTask searchTask, Collection<String> paths) {
+        ArrayList<String> toValidate = new ArrayList<>(paths.size());
+        for (String each : paths) {
+            if (searchTask.validatedResults.add(each)) {
+                toValidate.add(each);
+            }
+        }
+        if (toValidate.isEmpty()) {
+            return;
+        }
+        ThreadPoolUtil.getInstance().executeTask(() -> {
+            ArrayList<String> staleResults = new ArrayList<>();
+            ArrayList<String> mismatchedResults = new ArrayList<>();
+            FileTypeIndex fileTypeIndex = FileTypeIndex.getInstance();
+            for (String each : toValidate) {
+                final boolean isDirectory;
+                try {
+                    // 一次访问文件系统同时得到是否存在和是否为文件夹
+                    isDirectory = Files.readAttributes(Path.of(each), BasicFileAttributes.class).isDirectory();
+                } catch (IOException | InvalidPathException e) {
+                    staleResults.add(each);
+                    continue;
+                }
+                if (isDirectory && !fileTypeIndex.isDirectoryRecorded(each)) {
+                    addDirectoryToFileTypeIndex(each);
+                    if (!searchTask.pathMatcher.check(each)) {
+                        mismatchedResults.add(each);
+                    }
+                }
+            }
+            for (String each : staleResults) {
+                removeResult(searchTask, each);
+            }
+            for (String each : mismatchedResults) {
+                removeResult(searchTask, each);
+            }
+            if (!staleResults.isEmpty()) {
+                removeFilesFromDatabase(staleResults);
+            }
+        });
+    }
+
+    /**
+     * 从搜索任务中移除结果，由显示结果的线程通过pollStaleResult取出后从显示列表中移除
+     */
+    private static void removeResult(SearchTask searchTask, String path) {
+        if (searchTask.tempResults.remove(path)) {
+            searchTask.resultCounter.decrementAndGet();
+        }
+        searchTask.cacheAndPriorityResults.remove(path);
+        searchTask.resultKeys.remove(path);
+        searchTask.staleResults.add(path);
+    }
+
+    /**
+     * 记录建立文件类型索引时被当作文件的文件夹，同时写入数据库
+     *
+     * @param path 文件夹路径
+     */
+    private void addDirectoryToFileTypeIndex(String path) {
+        FileTypeIndex.getInstance().addDirectory(path);
+        addToCommandQueue(new SQLWithTaskId("INSERT OR IGNORE INTO " + FileTypeIndex.TABLE_NAME + " VALUES(" + FileTypeIndex.hash(path, path.length()) + ");",
+                SqlTaskIds.INSERT_TO_DIR_HASH, String.valueOf(path.charAt(0))));
+    }
+
+    /**
+     * 批量删除已经不存在的记录，同时删除缓存中的记录
+     *
+     * @param paths 文件路径
+     */
+    private void removeFilesFromDatabase(Collection<String> paths) {
+        var eventManagement = EventManagement.getInstance();
+        for (String each : paths) {
+            removeFileFromDatabase(each, true);
+            if (databaseCacheSet.contains(each)) {
+                eventManagement.putEvent(new DeleteFromCacheEvent(each));
+            }
+        }
+        if (IsDebug.isDebug()) {
+            System.out.println("删除" + paths.size() + "个已经不存在的结果");
+        }
+    }
+
     /**
      * 搜索数据库并加入到tempQueue中
      *
@@ -754,7 +1829,7 @@ public class DatabaseService {
                 final int realResultCount1 = realResultCount;
                 Future<Void> taskFuture = ThreadPoolUtil.getInstance().executeTask(() -> {
                     for (int j = 0; j < realResultCount1; ++j) {
-                        if (checkIsMatchedAndAddToList(tmpQueryResultsCache[j], searchTask)) {
+                        if (checkIsMatchedAndAddToList(tmpQueryResultsCache[j], searchTask, key)) {
                             matchedResultCount.getAndIncrement();
                         }
                         if (searchTask.shouldStopSearch()) {
@@ -788,12 +1863,12 @@ public class DatabaseService {
      */
     private ConcurrentLinkedQueue<String> initTableQueueByPriority() {
         ConcurrentLinkedQueue<String> tableQueue = new ConcurrentLinkedQueue<>();
-        ArrayList<TableNameWeightInfo> tmpCommandList = new ArrayList<>(tableSet);
-        //将tableSet通过权重排序
-        tmpCommandList.sort((o1, o2) -> Long.compare(o2.weight.get(), o1.weight.get()));
+        ArrayList<TableNameWeightInfo> tmpCommandList = new ArrayList<>(tableWeightMap.values());
+        //将所有表通过权重排序
+        tmpCommandList.sort((o1, o2) -> Long.compare(o2.getWeight(), o1.getWeight()));
         for (TableNameWeightInfo each : tmpCommandList) {
             if (IsDebug.isDebug()) {
-                System.out.println("已添加表" + each.tableName + "----权重" + each.weight.get());
+                System.out.println("已添加表" + each.tableName + "----权重" + each.getWeight());
             }
             tableQueue.add(each.tableName);
         }
@@ -816,33 +1891,98 @@ public class DatabaseService {
                 if (weight > 100_000_000) {
                     isNeedSubtract = true;
                 }
-                tableSet.add(new TableNameWeightInfo("list" + i, weight));
+                tableWeightMap.put("list" + i, new TableNameWeightInfo("list" + i, weight));
             }
         } else {
             for (int i = 0; i <= Constants.MAX_TABLE_NUM; i++) {
-                tableSet.add(new TableNameWeightInfo("list" + i, 0));
+                tableWeightMap.put("list" + i, new TableNameWeightInfo("list" + i, 0));
             }
         }
         if (isNeedSubtract) {
-            tableSet.forEach(tableNameWeightInfo -> tableNameWeightInfo.weight.set(tableNameWeightInfo.weight.get() / 2));
+            // 减半后的权重在下一次flushWeightDatabase时写入
+            tableWeightMap.values().forEach(tableNameWeightInfo -> {
+                final long weight = tableNameWeightInfo.getWeight();
+                tableNameWeightInfo.weight.add(weight / 2 - weight);
+            });
+        }
+    }
+
+    /**
+     * 读取搜索记录，搜索记录中经常有结果的表在第一次调整缓存时就可以被加入缓存
+     */
+    private void loadQueryTelemetry() {
+        try (Statement stmt = SQLiteUtil.getStatement("weight")) {
+            queryTelemetry.load(stmt);
+        } catch (SQLException e) {
+            e.printStackTrace();
         }
+        tableCacheGovernor.seedAccessFrequency(queryTelemetry.getKeyScores());
     }
 
     /**
-     * 根据上面分配的位信息，从第二位开始，与taskStatus做与运算，并向右偏移，若结果为1，则表示该任务完成
+     * 将内存中修改的表权重和搜索记录在一个事务中写入weight数据库
+     */
+    @SuppressWarnings("SqlNoDataSourceInspection")
+    private void flushWeightDatabase() {
+        ArrayList<TableNameWeightInfo> changed = new ArrayList<>();
+        for (TableNameWeightInfo each : tableWeightMap.values()) {
+            if (each.getWeight() != each.savedWeight) {
+                changed.add(each);
+            }
+        }
+        if (changed.isEmpty() && !queryTelemetry.hasChanges()) {
+            return;
+        }
+        // 写入的权重，提交成功之后才更新savedWeight，失败时下次重新写入
+        final long[] weights = new long[changed.size()];
+        try (Statement stmt = SQLiteUtil.getStatement("weight")) {
+            stmt.execute("BEGIN;");
+            try {
+                if (!changed.isEmpty()) {
+                    try (PreparedStatement pStmt = SQLiteUtil.getPreparedStatement("UPDATE weight SET TABLE_WEIGHT=? WHERE TABLE_NAME=?;", "weight")) {
+                        for (int i = 0; i < weights.length; ++i) {
+                            TableNameWeightInfo each = changed.get(i);
+                            weights[i] = each.getWeight();
+                            pStmt.setLong(1, weights[i]);
+                            pStmt.setString(2, each.tableName);
+                            pStmt.addBatch();
+                        }
+                        pStmt.executeBatch();
+                    }
+                }
+                queryTelemetry.save(stmt);
+            } catch (SQLException | RuntimeException e) {
+                stmt.execute("ROLLBACK;");
+                throw e;
+            }
+            stmt.execute("COMMIT;");
+            for (int i = 0; i < weights.length; ++i) {
+                changed.get(i).savedWeight = weights[i];
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 等待最后一个任务完成，最后一个任务完成时allTasksDoneFuture会立即完成
      */
     private void waitForTasks(SearchTask searchTask) {
         try {
             var eventManagement = EventManagement.getInstance();
             final long startWaiting = System.currentTimeMillis();
-            AllConfigs allConfigs = AllConfigs.getInstance();
-            while (!searchTask.taskStatus.equals(searchTask.allTaskStatus) &&
-                    eventManagement.notMainExit() &&
-                    System.currentTimeMillis() - startWaiting < allConfigs
-                            .getConfigEntity()
-                            .getAdvancedConfigEntity()
-                            .getWaitForSearchTasksTimeoutInMills()) {
-                TimeUnit.MILLISECONDS.sleep(1);
+            final long timeout = AllConfigs.getInstance()
+                    .getConfigEntity()
+                    .getAdvancedConfigEntity()
+                    .getWaitForSearchTasksTimeoutInMills();
+            final long checkExitInterval = 100;
+            while (eventManagement.notMainExit() && System.currentTimeMillis() - startWaiting < timeout) {
+                try {
+                    searchTask.allTasksDoneFuture.get(checkExitInterval, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException ignored) {
+                    // 检查是否退出
+                }
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -852,12 +1992,30 @@ public class DatabaseService {
     }
 
     private void searchDone(SearchTask searchTask) {
+        if (searchTask.sqlMatchId != -1) {
+            PathMatchSqlFunction.unregister(searchTask.sqlMatchId);
+        }
         EventManagement eventManagement = EventManagement.getInstance();
         eventManagement.putEvent(new SearchDoneEvent(new ConcurrentLinkedQueue<>(searchTask.tempResults)));
         if (isEnableGPUAccelerate && eventManagement.notMainExit()) {
             GPUAccelerator.INSTANCE.stopCollectResults();
         }
+        // GPU加速的结果在searchDone之后仍可能继续写入，不能作为增量搜索的来源，达到过MAX_RESULTS的结果被截断，也不能使用
+        searchTask.isResultsComplete = !isEnableGPUAccelerate &&
+                searchTask.isPriorityFoldersSearched &&
+                searchTask.allTasksDoneFuture.isDone() &&
+                !searchTask.shouldStopSearch();
         searchTask.searchDoneFlag = true;
+        if (searchTask.searchStartTimeMills != 0 && !searchTask.isRefined && !searchTask.shouldStopSearch()) {
+            queryTelemetry.record(String.join(";", searchTask.searchInfo.keywordsLowerCase),
+                    new HashSet<>(searchTask.resultKeys.values()),
+                    System.currentTimeMillis() - searchTask.searchStartTimeMills);
+        }
+        if (IsDebug.isDebug()) {
+            System.out.println("搜索 " + searchTask.searchInfo.searchText + " 通过gram摘要跳过表 " + searchTask.summarySkippedNum.get() +
+                    "/" + searchTask.summaryCheckedNum.get() + String.format(" (%.1f%%)", searchTask.getSummarySkipRatio() * 100));
+        }
+        searchTask.completeFuture.complete(searchTask);
     }
 
     /**
@@ -879,14 +2037,12 @@ public class DatabaseService {
      * nonFormattedSql将会生成从list0-40，根据priority从高到低排序的SQL语句，第一个map中key保存未格式化的sql，value保存表名称
      * 生成任务顺序会根据list的权重和priority来生成
      * <p>
-     * taskStatus      用于保存任务信息，这是一个通用变量，从第二个位开始，每一个位代表一个任务，当任务完成，该位将被置为1，否则为0，例如第一个和第三个任务完成，第二个未完成，则为1010
-     * allTaskStatus   所有的任务信息，从第二位开始，只要有任务被创建，该位就为1，例如三个任务被创建，则为1110
-     * taskMap         任务
+     * remainingTaskNum 未完成的任务数量，创建任务时加一，任务完成时减一，减到0时完成allTasksDoneFuture
+     * taskMap          任务
      *
      * @param nonFormattedSql 未格式化搜索字段的SQL
      */
     private void addSearchTasks(ArrayList<LinkedHashMap<String, String>> nonFormattedSql, SearchTask searchTask) {
-        Bit taskNumber = new Bit(new byte[]{1});
         AllConfigs allConfigs = AllConfigs.getInstance();
         String availableDisks = allConfigs.getAvailableDisks();
         for (String eachDisk : RegexUtil.comma.split(availableDisks)) {
@@ -894,75 +2050,84 @@ public class DatabaseService {
             searchTask.taskMap.put(eachDisk, tasks);
             //向任务队列tasks添加任务
             for (var commandsMap : nonFormattedSql) {
-                //为每个任务分配的位，不断左移以不断进行分配
-                taskNumber.shiftLeft(1);
-                Bit currentTaskNum = new Bit(taskNumber);
-                //记录当前任务信息到allTaskStatus
-                byte[] origin;
-                do {
-                    origin = searchTask.allTaskStatus.getBytes();
-                } while (!searchTask.allTaskStatus.compareAndSet(origin, Bit.or(origin, currentTaskNum.getBytes())));
+                searchTask.remainingTaskNum.incrementAndGet();
                 //每一个任务负责查询一个priority和list0-list40生成的41个SQL
-                addTaskForDatabase0(eachDisk, tasks, commandsMap, currentTaskNum, searchTask);
+                addTaskForDatabase0(eachDisk, tasks, commandsMap, searchTask);
             }
         }
+        if (searchTask.remainingTaskNum.get() == 0) {
+            searchTask.allTasksDoneFuture.complete(null);
+        }
     }
 
     private void addTaskForDatabase0(String diskChar,
                                      ConcurrentLinkedQueue<Runnable> tasks,
                                      LinkedHashMap<String, String> sqlToExecute,
-                                     Bit currentTaskNum,
                                      SearchTask searchTask) {
         tasks.add(() -> {
             Statement stmt = null;
-            for (var sqlAndTableName : sqlToExecute.entrySet()) {
-                String diskStr = String.valueOf(diskChar.charAt(0));
-                String eachSql = sqlAndTableName.getKey();
-                String tableName = sqlAndTableName.getValue();
-                String priority = getPriorityFromSelectSql(eachSql);
-                String key = diskStr + "," + tableName + "," + priority;
-                long matchedNum = 0;
-                boolean fallbackFlag = !isEnableGPUAccelerate;
-                if (isEnableGPUAccelerate) {
-                    if (GPUAccelerator.INSTANCE.isMatchDone(key)) {
-                        matchedNum = GPUAccelerator.INSTANCE.matchedNumber(key);
-                    } else {
-                        fallbackFlag = true;
+            try {
+                for (var sqlAndTableName : sqlToExecute.entrySet()) {
+                    String diskStr = String.valueOf(diskChar.charAt(0));
+                    String eachSql = sqlAndTableName.getKey();
+                    String tableName = sqlAndTableName.getValue();
+                    String priority = getPriorityFromSelectSql(eachSql);
+                    String key = diskStr + "," + tableName + "," + priority;
+                    searchTask.summaryCheckedNum.incrementAndGet();
+                    if (!GramSummaryIndex.getInstance().mayContain(key, searchTask.summaryGrams)) {
+                        // 表中没有文件名包含关键字的记录
+                        searchTask.summarySkippedNum.incrementAndGet();
+                        continue;
                     }
-                }
-                if (fallbackFlag) {
-                    int recordsNum = 1;
-                    if (databaseResultsCount.containsKey(key)) {
-                        recordsNum = databaseResultsCount.get(key).get();
+                    long matchedNum = 0;
+                    boolean fallbackFlag = !isEnableGPUAccelerate;
+                    if (searchTask.offHeapIndexQuery != null && offHeapIndex.isReady(diskStr)) {
+                        matchedNum = offHeapIndex.search(key,
+                                searchTask.offHeapIndexQuery,
+                                path -> checkIsMatchedAndAddToList(path, searchTask, key),
+                                searchTask::shouldStopSearch);
+                        fallbackFlag = false;
+                    } else if (isEnableGPUAccelerate) {
+                        if (GPUAccelerator.INSTANCE.isMatchDone(key)) {
+                            matchedNum = GPUAccelerator.INSTANCE.matchedNumber(key);
+                        } else {
+                            fallbackFlag = true;
+                        }
                     }
-                    if (recordsNum != 0) {
-                        if (stmt == null) {
-                            try {
-                                stmt = SQLiteUtil.getStatement(diskStr);
-                            } catch (SQLException e) {
-                                e.printStackTrace();
-                                throw new RuntimeException(e);
+                    if (fallbackFlag) {
+                        int recordsNum = 1;
+                        if (databaseResultsCount.containsKey(key)) {
+                            recordsNum = databaseResultsCount.get(key).get();
+                        }
+                        if (recordsNum != 0) {
+                            if (stmt == null) {
+                                try {
+                                    stmt = SQLiteUtil.getStatement(diskStr);
+                                } catch (SQLException e) {
+                                    e.printStackTrace();
+                                    throw new RuntimeException(e);
+                                }
                             }
+                            matchedNum = fallbackToSearchDatabase(searchTask, stmt, eachSql, key);
                         }
-                        matchedNum = fallbackToSearchDatabase(searchTask, stmt, eachSql, key);
+                    }
+                    final long weight = Math.min(matchedNum, 5);
+                    if (weight != 0L) {
+                        //更新表的权重，每次搜索将会按照各个表的权重排序
+                        updateTableWeight(tableName, weight);
                     }
                 }
-                final long weight = Math.min(matchedNum, 5);
-                if (weight != 0L) {
-                    //更新表的权重，每次搜索将会按照各个表的权重排序
-                    updateTableWeight(tableName, weight);
+            } finally {
+                if (stmt != null) {
+                    try {
+                        stmt.close();
+                    } catch (SQLException e) {
+                        e.printStackTrace();
+                    }
                 }
-            }
-            //执行完后将对应的线程flag设为1
-            byte[] originalBytes;
-            do {
-                originalBytes = searchTask.taskStatus.getBytes();
-            } while (!searchTask.taskStatus.compareAndSet(originalBytes, Bit.or(originalBytes, currentTaskNum.getBytes())));
-            if (stmt != null) {
-                try {
-                    stmt.close();
-                } catch (SQLException e) {
-                    e.printStackTrace();
+                //执行完后未完成任务数量减一，最后一个任务完成时立即通知waitForTasks
+                if (searchTask.remainingTaskNum.decrementAndGet() == 0) {
+                    searchTask.allTasksDoneFuture.complete(null);
                 }
             }
         });
@@ -986,14 +2151,34 @@ public class DatabaseService {
         }
         long matchedNum;
         Cache cache = tableCache.get(key);
-        if (cache != null && cache.isCacheValid()) {
+        ChunkedPathStore cacheData = cache == null ? null : cache.data;
+        if (cacheData != null && cache.isCacheValid()) {
             if (IsDebug.isDebug()) {
                 System.out.println("从缓存中读取 " + key);
             }
-            matchedNum = cache.data.parallelStream().filter(s -> checkIsMatchedAndAddToList(s, searchTask)).count();
+            tableCacheGovernor.recordHit(key);
+            matchedNum = cacheData.count(searchTask.pathMatcher::mayMatch, s -> checkIsMatchedAndAddToList(s, searchTask, key));
         } else {
-            //格式化是为了以后的拓展性
-            String formattedSql = String.format(sql, "PATH");
+            if (cache != null) {
+                tableCacheGovernor.recordMiss(key);
+            }
+            String[] info = RegexUtil.comma.split(key);
+            String formattedSql = null;
+            if (ngramIndexReadySet.contains(info[0] + "," + info[1])) {
+                // 通过ngram索引只查询候选记录
+                formattedSql = NGramUtil.getCandidateSql(info[1],
+                        info[2],
+                        searchTask.searchInfo.keywordsLowerCase,
+                        searchTask.searchInfo.isKeywordPath);
+            }
+            if (formattedSql == null) {
+                //格式化是为了以后的拓展性
+                formattedSql = String.format(sql, "PATH");
+            }
+            if (searchTask.sqlMatchId != -1) {
+                // 在数据库中进行匹配，只有匹配的记录才会被读取
+                formattedSql = PathMatchSqlFunction.appendMatchCondition(formattedSql, searchTask.sqlMatchId);
+            }
             //当前数据库表中有多少个结果匹配成功
             matchedNum = searchAndAddToTempResults(formattedSql, stmt, searchTask, key);
         }
@@ -1012,18 +2197,9 @@ public class DatabaseService {
             return sqlColumnMap;
         }
         ConcurrentLinkedQueue<String> tableQueue = initTableQueueByPriority();
-        int asciiSum = 0;
-        if (searchInfo.keywords != null) {
-            for (String keyword : searchInfo.keywords) {
-                int ascII = StringUtf8SumUtil.getStringSum(keyword); //其实是utf8编码的值
-                asciiSum += Math.max(ascII, 0);
-            }
-        }
-        int asciiGroup = asciiSum / 100;
-        if (asciiGroup > Constants.MAX_TABLE_NUM) {
-            asciiGroup = Constants.MAX_TABLE_NUM;
-        }
-        String firstTableName = "list" + asciiGroup;
+        // 关键字与文件名完全相同时记录所在的表最先搜索
+        String firstTableName = "list" + ShardRouter.getInstance().getTableIndex(
+                searchInfo.keywords == null ? "" : String.join("", searchInfo.keywords));
         // 有d代表只需要搜索文件夹，文件夹的priority为-1
         if (searchInfo.searchCase != null && Arrays.asList(searchInfo.searchCase).contains("d")) {
             //首先根据输入的keywords找到对应的list
@@ -1060,8 +2236,25 @@ public class DatabaseService {
      * 添加sql语句，并开始搜索
      */
     private void startSearch(SearchTask searchTask) {
+        searchTask.searchStartTimeMills = System.currentTimeMillis();
         var eventManagement = EventManagement.getInstance();
         var threadPoolUtil = ThreadPoolUtil.getInstance();
+        if (AllConfigs.getInstance().getConfigEntity().getAdvancedConfigEntity().isMatchInDatabase()) {
+            var searchInfo = searchTask.searchInfo;
+            searchTask.sqlMatchId = PathMatchSqlFunction.register(searchInfo.searchCase,
+                    searchInfo.isIgnoreCase,
+                    searchInfo.searchText,
+                    searchInfo.keywords,
+                    searchInfo.keywordsLowerCase,
+                    searchInfo.isKeywordPath);
+        }
+        if (isEnableOffHeapIndex) {
+            var searchInfo = searchTask.searchInfo;
+            searchTask.offHeapIndexQuery = OffHeapIndex.newQuery(searchInfo.isIgnoreCase,
+                    searchInfo.keywords,
+                    searchInfo.keywordsLowerCase,
+                    searchInfo.isKeywordPath);
+        }
         Consumer<ConcurrentLinkedQueue<Runnable>> taskHandler = (taskQueue) -> {
             while (!taskQueue.isEmpty() && eventManagement.notMainExit()) {
                 var runnable = taskQueue.poll();
@@ -1125,84 +2318,175 @@ public class DatabaseService {
      * @param path     文件路径
      */
     private void addDeleteSqlCommandByAscii(int asciiSum, String path) {
-        String command;
-        int asciiGroup = asciiSum / 100;
-        asciiGroup = Math.min(asciiGroup, Constants.MAX_TABLE_NUM);
-        String sql = "DELETE FROM %s where PATH=\"%s\";";
-        command = String.format(sql, "list" + asciiGroup, path);
-        if (command != null && isCommandNotRepeat(command)) {
-            String disk = String.valueOf(path.charAt(0));
-            SQLWithTaskId sqlWithTaskId = new SQLWithTaskId(command, SqlTaskIds.DELETE_FROM_LIST, disk);
-            sqlWithTaskId.key = disk + "," + "list" + asciiGroup + "," + getPriorityBySuffix(getSuffixByPath(path));
-            addToCommandQueue(sqlWithTaskId);
+        addToPendingFileCommands(createDeleteSqlCommand(asciiSum, path));
+    }
+
+    private SQLWithTaskId createDeleteSqlCommand(int asciiSum, String path) {
+        String tableName = "list" + ShardRouter.getInstance().getTableIndex(FileUtil.getFileName(path));
+        String disk = String.valueOf(path.charAt(0));
+        SQLWithTaskId sqlWithTaskId = new SQLWithTaskId("DELETE FROM " + tableName + " WHERE PATH=?;", SqlTaskIds.DELETE_FROM_LIST, disk);
+        sqlWithTaskId.fileRecord = new FileRecord(tableName, asciiSum, path, 0);
+        sqlWithTaskId.key = disk + "," + tableName + "," + getPriorityBySuffix(getSuffixByPath(path));
+        return sqlWithTaskId;
+    }
+
+    /**
+     * 生成添加记录sql
+     *
+     * @param asciiSum ascii
+     * @param path     文件路径
+     * @param priority 优先级
+     */
+    private void addAddSqlCommandByAscii(int asciiSum, String path, int priority) {
+        // ngram索引在执行时随插入记录一起写入，删除记录时由触发器自动删除索引
+        addToPendingFileCommands(createAddSqlCommand(asciiSum, path, priority));
+    }
+
+    private SQLWithTaskId createAddSqlCommand(int asciiSum, String path, int priority) {
+        String tableName = "list" + ShardRouter.getInstance().getTableIndex(FileUtil.getFileName(path));
+        String disk = String.valueOf(path.charAt(0));
+        SQLWithTaskId sqlWithTaskId = new SQLWithTaskId("INSERT OR IGNORE INTO " + tableName + " VALUES(?, ?, ?);", SqlTaskIds.INSERT_TO_LIST, disk);
+        sqlWithTaskId.fileRecord = new FileRecord(tableName, asciiSum, path, priority);
+        sqlWithTaskId.key = disk + "," + tableName + "," + getPriorityBySuffix(getSuffixByPath(path));
+        return sqlWithTaskId;
+    }
+
+    /**
+     * 从数据库中删除记录
+     *
+     * @param path        文件路径
+     * @param isJournaled 是否需要写入文件变化日志，文件变化流水线在取出变化时已经写入
+     */
+    private void removeFileFromDatabase(String path, boolean isJournaled) {
+        if (path == null || path.isEmpty()) {
+            return;
+        }
+        final String fileName = FileUtil.getFileName(path);
+        int asciiSum = StringUtf8SumUtil.getStringSum(fileName);
+        // 文件刚添加还未写入数据库时，删除任务会与添加任务相互抵消
+        if (isJournaled) {
+            addFileChange(ChangeJournal.OP_DELETE, path, () -> addDeleteSqlCommandByAscii(asciiSum, path));
+        } else {
+            addDeleteSqlCommandByAscii(asciiSum, path);
+        }
+        FileTypeIndex.getInstance().remove(path);
+        int priorityBySuffix = getPriorityBySuffix(getSuffixByPath(path));
+        String tableName = "list" + ShardRouter.getInstance().getTableIndex(fileName);
+        String key = path.charAt(0) + "," + tableName + "," + priorityBySuffix;
+        final int previousTableIndex = ShardRouter.getInstance().getPreviousTableIndex(String.valueOf(path.charAt(0)), fileName);
+        if (previousTableIndex != -1) {
+            // 迁移分表方式时缓存中的记录可能还在旧的表中
+            Cache previousCache = tableCache.get(path.charAt(0) + ",list" + previousTableIndex + "," + priorityBySuffix);
+            ChunkedPathStore previousData = previousCache == null ? null : previousCache.data;
+            if (previousData != null) {
+                tableCacheBytes.addAndGet(previousData.remove(path));
+            }
+        }
+        if (isEnableGPUAccelerate) {
+            EventManagement.getInstance().putEvent(new GPURemoveRecordEvent(key, path));
+        }
+        if (isEnableOffHeapIndex) {
+            offHeapIndex.remove(key, path);
+        }
+        Cache cache = tableCache.get(key);
+        ChunkedPathStore data = cache == null ? null : cache.data;
+        if (data != null) {
+            tableCacheBytes.addAndGet(data.remove(path));
+        }
+    }
+
+    /**
+     * 删除文件夹以及该文件夹下的所有记录，文件夹被删除或移动时文件监控只会产生文件夹本身的变化
+     * 文件变化流水线在取出变化时已经写入日志，这里不再写入
+     *
+     * @param dirPath 文件夹路径
+     */
+    private void removeDirectoryFromDatabase(String dirPath) {
+        if (dirPath == null || dirPath.isEmpty()) {
+            return;
+        }
+        removeFileFromDatabase(dirPath, false);
+        final String prefix = dirPath.endsWith(File.separator) ? dirPath : dirPath + File.separator;
+        LinkedHashSet<String> paths = new LinkedHashSet<>(getRecordsUnderDirectory(dirPath));
+        // 还没有写入数据库的新增记录
+        final String pendingKeyPrefix = dirPath.charAt(0) + "," + prefix;
+        for (String key : pendingFileCommands.keySet()) {
+            if (key.startsWith(pendingKeyPrefix)) {
+                paths.add(key.substring(2));
+            }
+        }
+        for (String each : paths) {
+            removeFileFromDatabase(each, false);
+        }
+        if (IsDebug.isDebug()) {
+            System.out.println("删除文件夹 " + dirPath + " 下的" + paths.size() + "个记录");
         }
     }
 
     /**
-     * 生成添加记录sql
+     * 查询数据库中文件夹下的所有记录，分表迁移期间旧的表中的记录也会返回
      *
-     * @param asciiSum ascii
-     * @param path     文件路径
-     * @param priority 优先级
+     * @param dirPath 文件夹路径
+     * @return 文件路径
      */
-    private void addAddSqlCommandByAscii(int asciiSum, String path, int priority) {
-        String commandTemplate = "INSERT OR IGNORE INTO %s VALUES(%d, \"%s\", %d)";
-        int asciiGroup = asciiSum / 100;
-        asciiGroup = Math.min(asciiGroup, Constants.MAX_TABLE_NUM);
-        String columnName = "list" + asciiGroup;
-        String command = String.format(commandTemplate, columnName, asciiSum, path, priority);
-        if (command != null && isCommandNotRepeat(command)) {
-            String disk = String.valueOf(path.charAt(0));
-            SQLWithTaskId sqlWithTaskId = new SQLWithTaskId(command, SqlTaskIds.INSERT_TO_LIST, String.valueOf(path.charAt(0)));
-            sqlWithTaskId.key = disk + "," + "list" + asciiGroup + "," + getPriorityBySuffix(getSuffixByPath(path));
-            addToCommandQueue(sqlWithTaskId);
+    @SuppressWarnings("SqlNoDataSourceInspection")
+    private List<String> getRecordsUnderDirectory(String dirPath) {
+        final String prefix = dirPath.endsWith(File.separator) ? dirPath : dirPath + File.separator;
+        final String disk = String.valueOf(dirPath.charAt(0));
+        ArrayList<String> paths = new ArrayList<>();
+        // 与executeAllCommands互斥，正在执行的sql提交之后再读取
+        synchronized (this) {
+            try {
+                if (schemaV2Disks.contains(disk)) {
+                    getRecordsUnderDirectoryV2(disk, prefix, paths);
+                } else {
+                    getRecordsUnderDirectoryV1(disk, prefix, paths);
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
         }
+        return paths;
     }
 
     /**
-     * 检查要删除的文件是否还未添加
-     * 防止文件刚添加就被删除
-     *
-     * @param path 待删除文件路径
-     * @return true如果待删除文件已经在任务队列中
+     * v1数据库通过listN(PATH)上的索引按前缀范围查询
      */
-    private boolean isRemoveFileInCommandQueue(String path, SQLWithTaskId[] sqlWithTaskId) {
-        for (SQLWithTaskId each : sqlCommandQueue) {
-            if (each.taskId == SqlTaskIds.INSERT_TO_LIST && each.sql.contains(path)) {
-                sqlWithTaskId[0] = each;
-                return true;
+    @SuppressWarnings("SqlNoDataSourceInspection")
+    private void getRecordsUnderDirectoryV1(String disk, String prefix, ArrayList<String> paths) throws SQLException {
+        // 以分隔符结尾的前缀之后的所有字符串都小于将分隔符加一得到的字符串
+        final String upperBound = prefix.substring(0, prefix.length() - 1) + (char) (File.separatorChar + 1);
+        for (int i = 0; i <= Constants.MAX_TABLE_NUM; i++) {
+            try (PreparedStatement pStmt = SQLiteUtil.getPreparedStatement("SELECT PATH FROM list" + i + " WHERE PATH >= ? AND PATH < ?;", disk)) {
+                pStmt.setString(1, prefix);
+                pStmt.setString(2, upperBound);
+                try (ResultSet resultSet = pStmt.executeQuery()) {
+                    while (resultSet.next()) {
+                        paths.add(resultSet.getString(1));
+                    }
+                }
             }
         }
-        return false;
     }
 
     /**
-     * 从数据库中删除记录
-     *
-     * @param path 文件路径
+     * v2数据库先在dirs中找到文件夹id，再按DIR_ID查询子文件夹中的记录，不需要对每条记录计算DIR_PATH
      */
-    private void removeFileFromDatabase(String path) {
-        if (path == null || path.isEmpty()) {
+    private void getRecordsUnderDirectoryV2(String disk, String prefix, ArrayList<String> paths) throws SQLException {
+        final int dirId;
+        try (PreparedStatement selectDir = SQLiteUtil.getPreparedStatement(SchemaUtil.getSelectDirIdSql(), disk)) {
+            dirId = SchemaUtil.findDirId(selectDir, prefix);
+        }
+        if (dirId <= 0) {
             return;
         }
-        int asciiSum = StringUtf8SumUtil.getStringSum(FileUtil.getFileName(path));
-        SQLWithTaskId[] sqlWithTaskId = new SQLWithTaskId[1];
-        if (isRemoveFileInCommandQueue(path, sqlWithTaskId)) {
-            sqlCommandQueue.remove(sqlWithTaskId[0]);
-        } else {
-            addDeleteSqlCommandByAscii(asciiSum, path);
-            int priorityBySuffix = getPriorityBySuffix(getSuffixByPath(path));
-            int asciiGroup = asciiSum / 100;
-            asciiGroup = Math.min(asciiGroup, Constants.MAX_TABLE_NUM);
-            String tableName = "list" + asciiGroup;
-            String key = path.charAt(0) + "," + tableName + "," + priorityBySuffix;
-            if (isEnableGPUAccelerate) {
-                EventManagement.getInstance().putEvent(new GPURemoveRecordEvent(key, path));
-            }
-            Cache cache = tableCache.get(key);
-            if (cache != null && cache.isCached.get()) {
-                if (cache.data.remove(path)) {
-                    tableCacheCount.decrementAndGet();
+        for (int i = 0; i <= Constants.MAX_TABLE_NUM; i++) {
+            try (PreparedStatement pStmt = SQLiteUtil.getPreparedStatement(SchemaUtil.getSelectPathsUnderDirSql("list" + i), disk)) {
+                pStmt.setInt(1, dirId);
+                try (ResultSet resultSet = pStmt.executeQuery()) {
+                    while (resultSet.next()) {
+                        paths.add(resultSet.getString(1));
+                    }
                 }
             }
         }
@@ -1267,25 +2551,39 @@ public class DatabaseService {
         return path.substring(path.lastIndexOf('.') + 1).toLowerCase();
     }
 
-    private void addFileToDatabase(String path) {
+    /**
+     * 添加文件记录，文件变化流水线在取出变化时已经写入日志，这里不再写入
+     *
+     * @param path        文件路径
+     * @param isDirectory 是否为文件夹，由文件变化流水线判断，写入时同时记录到文件类型索引
+     */
+    private void addFileToDatabase(String path, boolean isDirectory) {
         if (path == null || path.isEmpty()) {
             return;
         }
-        int asciiSum = StringUtf8SumUtil.getStringSum(FileUtil.getFileName(path));
+        if (isDirectory) {
+            FileTypeIndex.getInstance().addDirectory(path);
+        }
+        final String fileName = FileUtil.getFileName(path);
+        int asciiSum = StringUtf8SumUtil.getStringSum(fileName);
         int priorityBySuffix = getPriorityBySuffix(getSuffixByPath(path));
         addAddSqlCommandByAscii(asciiSum, path, priorityBySuffix);
-        int asciiGroup = asciiSum / 100;
-        asciiGroup = Math.min(asciiGroup, Constants.MAX_TABLE_NUM);
-        String tableName = "list" + asciiGroup;
+        String tableName = "list" + ShardRouter.getInstance().getTableIndex(fileName);
         String key = path.charAt(0) + "," + tableName + "," + priorityBySuffix;
         if (isEnableGPUAccelerate) {
             EventManagement.getInstance().putEvent(new GPUAddRecordEvent(key, path));
         }
+        if (isEnableOffHeapIndex) {
+            offHeapIndex.add(key, path);
+        }
+        // 缓存和堆外索引中立即可以搜索到，gram摘要也需要立即更新，否则在sql执行之前会被跳过
+        // 执行sql时会再添加一次，覆盖执行期间重新建立的摘要
+        GramSummaryIndex.getInstance().add(key, fileName);
         Cache cache = tableCache.get(key);
         if (cache != null && cache.isCacheValid()) {
-            if (tableCacheCount.get() < MAX_CACHED_RECORD_NUM) {
-                cache.data.add(path);
-                tableCacheCount.incrementAndGet();
+            ChunkedPathStore data = cache.data;
+            if (data != null && tableCacheBytes.get() < getTableCacheBudget()) {
+                tableCacheBytes.addAndGet(data.add(path));
             } else {
                 cache.isFileLost.set(true);
             }
@@ -1293,75 +2591,387 @@ public class DatabaseService {
     }
 
     private void addFileToCache(String path) {
-        String command = "INSERT OR IGNORE INTO cache(PATH) VALUES(\"" + path + "\");";
-        if (isCommandNotRepeat(command)) {
-            addToCommandQueue(new SQLWithTaskId(command, SqlTaskIds.INSERT_TO_CACHE, "cache"));
-            if (IsDebug.isDebug()) {
-                System.out.println("添加" + path + "到缓存");
-            }
+        SQLWithTaskId sqlWithTaskId = new SQLWithTaskId("INSERT OR IGNORE INTO cache(PATH) VALUES(?);", SqlTaskIds.INSERT_TO_CACHE, "cache");
+        sqlWithTaskId.fileRecord = new FileRecord("cache", 0, path, 0);
+        addToPendingFileCommands(sqlWithTaskId);
+        if (IsDebug.isDebug()) {
+            System.out.println("添加" + path + "到缓存");
         }
     }
 
     private void removeFileFromCache(String path) {
-        String command = "DELETE from cache where PATH=" + "\"" + path + "\";";
-        if (isCommandNotRepeat(command)) {
-            addToCommandQueue(new SQLWithTaskId(command, SqlTaskIds.DELETE_FROM_CACHE, "cache"));
-            if (IsDebug.isDebug()) {
-                System.out.println("删除" + path + "到缓存");
-            }
+        SQLWithTaskId sqlWithTaskId = new SQLWithTaskId("DELETE FROM cache WHERE PATH=?;", SqlTaskIds.DELETE_FROM_CACHE, "cache");
+        sqlWithTaskId.fileRecord = new FileRecord("cache", 0, path, 0);
+        addToPendingFileCommands(sqlWithTaskId);
+        if (IsDebug.isDebug()) {
+            System.out.println("删除" + path + "到缓存");
         }
     }
 
     /**
-     * 执行sql
+     * 执行sql，每个数据库在各自的线程中以一个事务批量执行
      */
-    @SuppressWarnings("SqlNoDataSourceInspection")
     private synchronized void executeAllCommands() {
-        if (!sqlCommandQueue.isEmpty()) {
+        long journalPosition = 0;
+        boolean isReplayJournal = false;
+        boolean isCommitted = true;
+        ChangeJournal journal = changeJournal;
+        if (journal != null) {
+            long replayPosition;
+            // 与addFileChange和文件变化流水线使用同一把锁，检查点之前的变化要么已经在pendingFileCommands中，要么已经标记为溢出
+            synchronized (journal) {
+                replayPosition = journal.getWritePosition();
+                FileChangePipeline pipeline = fileChangePipeline;
+                journalPosition = pipeline == null ? replayPosition : pipeline.getCheckpointPosition(replayPosition);
+                isReplayJournal = isJournalSpilled.getAndSet(false);
+            }
+            if (isReplayJournal) {
+                // 溢出的变化可能在还未完成的变化之后，重放到写入位置，重复执行不会产生错误的结果
+                isCommitted = replayJournal(journal, replayPosition);
+            }
+        }
+        if (!sqlCommandQueue.isEmpty() || !pendingFileCommands.isEmpty()) {
             LinkedHashSet<SQLWithTaskId> tempCommandSet = new LinkedHashSet<>(sqlCommandQueue);
-            HashMap<String, Statement> statementHashMap = new HashMap<>();
-
+            LinkedHashMap<String, ArrayList<SQLWithTaskId>> commandsByDisk = new LinkedHashMap<>();
             for (var sqlWithTaskId : tempCommandSet) {
-                Statement stmt;
-                try {
-                    if (statementHashMap.containsKey(sqlWithTaskId.diskStr)) {
-                        stmt = statementHashMap.get(sqlWithTaskId.diskStr);
-                    } else {
-                        stmt = SQLiteUtil.getStatement(sqlWithTaskId.diskStr);
-                        statementHashMap.put(sqlWithTaskId.diskStr, stmt);
-                        stmt.execute("BEGIN;");
+                commandsByDisk.computeIfAbsent(sqlWithTaskId.diskStr, k -> new ArrayList<>()).add(sqlWithTaskId);
+            }
+            // 文件记录任务在取出时就从map中移除，执行期间到达的删除任务不会再与已取出的添加任务抵消
+            for (var entry : pendingFileCommands.entrySet()) {
+                SQLWithTaskId sqlWithTaskId = entry.getValue();
+                if (pendingFileCommands.remove(entry.getKey(), sqlWithTaskId)) {
+                    commandsByDisk.computeIfAbsent(sqlWithTaskId.diskStr, k -> new ArrayList<>()).add(sqlWithTaskId);
+                }
+            }
+            isCommitted &= executeCommands(commandsByDisk);
+            sqlCommandQueue.removeAll(tempCommandSet);
+        }
+        if (journal != null) {
+            if (isCommitted) {
+                journal.checkpoint(journalPosition);
+            } else {
+                // 有数据库回滚，检查点之后的变化下次执行时从日志中重放
+                System.err.println("写入数据库失败，文件变化将从日志中重放");
+                isJournalSpilled.set(true);
+            }
+        }
+        flushWeightDatabase();
+    }
+
+    /**
+     * 每个数据库在各自的线程中执行，等待全部执行完成
+     *
+     * @param commandsByDisk 按数据库分组的任务
+     * @return true如果所有数据库的事务都已经提交
+     */
+    private boolean executeCommands(LinkedHashMap<String, ArrayList<SQLWithTaskId>> commandsByDisk) {
+        if (commandsByDisk.size() == 1) {
+            var entry = commandsByDisk.entrySet().iterator().next();
+            return executeCommandsOfDisk(entry.getKey(), entry.getValue());
+        }
+        ArrayList<Future<Boolean>> futures = new ArrayList<>(commandsByDisk.size());
+        commandsByDisk.forEach((diskStr, commands) -> futures.add(ThreadPoolUtil.getInstance().executeTask(() ->
+                executeCommandsOfDisk(diskStr, commands), false)));
+        boolean isCommitted = true;
+        for (Future<Boolean> future : futures) {
+            try {
+                isCommitted &= future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                e.printStackTrace();
+                isCommitted = false;
+            }
+        }
+        return isCommitted;
+    }
+
+    /**
+     * 将日志中检查点之后的文件变化重新写入数据库，sql均为INSERT OR IGNORE和DELETE，重复执行不会产生错误的结果
+     * 日志中只有文件监控产生的原始变化，与文件变化流水线相同，新增时同时添加父文件夹并遍历新增的文件夹
+     *
+     * @param journal         日志
+     * @param journalPosition 重放的结束位置
+     * @return true如果所有数据库的事务都已经提交
+     */
+    private boolean replayJournal(ChangeJournal journal, long journalPosition) {
+        LinkedHashMap<String, ArrayList<SQLWithTaskId>> commandsByDisk = new LinkedHashMap<>();
+        HashSet<String> addedParents = new HashSet<>();
+        int[] commandNum = new int[1];
+        boolean[] isCommitted = {true};
+        Consumer<SQLWithTaskId> addCommand = sqlWithTaskId -> {
+            commandsByDisk.computeIfAbsent(sqlWithTaskId.diskStr, k -> new ArrayList<>()).add(sqlWithTaskId);
+            if (++commandNum[0] >= MAX_REPLAY_COMMANDS) {
+                isCommitted[0] &= executeCommands(commandsByDisk);
+                commandsByDisk.clear();
+                commandNum[0] = 0;
+            }
+        };
+        BiConsumer<String, Boolean> addFile = (path, isDirectory) -> {
+            if (isDirectory) {
+                FileTypeIndex.getInstance().addDirectory(path);
+            }
+            addCommand.accept(createAddSqlCommand(StringUtf8SumUtil.getStringSum(FileUtil.getFileName(path)), path, getPriorityBySuffix(getSuffixByPath(path))));
+        };
+        journal.replay(journalPosition, (op, path) -> {
+            if (op != ChangeJournal.OP_ADD) {
+                addedParents.clear();
+                addCommand.accept(createDeleteSqlCommand(StringUtf8SumUtil.getStringSum(FileUtil.getFileName(path)), path));
+                if (op == ChangeJournal.OP_DELETE_DIRECTORY) {
+                    // 先执行之前的变化，文件夹下的记录才是重放到该位置时的记录
+                    isCommitted[0] &= executeCommands(commandsByDisk);
+                    commandsByDisk.clear();
+                    commandNum[0] = 0;
+                    for (String each : getRecordsUnderDirectory(path)) {
+                        addCommand.accept(createDeleteSqlCommand(StringUtf8SumUtil.getStringSum(FileUtil.getFileName(each)), each));
+                    }
+                }
+                return;
+            }
+            // 日志中没有保存文件类型，重放新增记录时访问一次文件系统
+            File file = new File(path);
+            final boolean isDirectory = file.isDirectory();
+            for (File parent = file.getParentFile(); parent != null && parent.getParentFile() != null; parent = parent.getParentFile()) {
+                if (!addedParents.add(parent.getAbsolutePath())) {
+                    break;
+                }
+                addFile.accept(parent.getAbsolutePath(), true);
+            }
+            addFile.accept(path, isDirectory);
+            if (!isDirectory) {
+                return;
+            }
+            ArrayDeque<File> dirs = new ArrayDeque<>();
+            dirs.add(file);
+            File remain;
+            while ((remain = dirs.poll()) != null) {
+                File[] subFiles = remain.listFiles();
+                if (subFiles == null) {
+                    continue;
+                }
+                for (File eachFile : subFiles) {
+                    final boolean isSubDirectory = eachFile.isDirectory();
+                    addFile.accept(eachFile.getAbsolutePath(), isSubDirectory);
+                    if (isSubDirectory) {
+                        dirs.add(eachFile);
                     }
+                }
+            }
+        });
+        isCommitted[0] &= executeCommands(commandsByDisk);
+        return isCommitted[0];
+    }
+
+    /**
+     * 将文件变化写入日志并添加对应的sql任务
+     * 写入日志与添加任务在日志锁内完成，日志已满时先执行所有sql移动检查点
+     *
+     * @param op            ChangeJournal.OP_ADD、ChangeJournal.OP_DELETE或ChangeJournal.OP_DELETE_DIRECTORY
+     * @param path          文件路径
+     * @param addSqlCommand 添加sql任务
+     */
+    private void addFileChange(byte op, String path, Runnable addSqlCommand) {
+        ChangeJournal journal = changeJournal;
+        if (journal == null || getStatus() == Constants.Enums.DatabaseStatus.MANUAL_UPDATE) {
+            addSqlCommand.run();
+            return;
+        }
+        for (int i = 0; i < 2; ++i) {
+            synchronized (journal) {
+                if (journal.append(op, path)) {
+                    addSqlCommand.run();
+                    return;
+                }
+            }
+            // 不能在持有日志锁时执行，executeAllCommands会先获取this再获取日志锁
+            executeAllCommands();
+        }
+        System.err.println("写入文件变化日志失败 " + path);
+        addSqlCommand.run();
+    }
+
+    /**
+     * 在一个事务中执行同一个数据库的sql，文件记录的增删通过PreparedStatement批量执行，任意一条执行失败时回滚整个事务
+     *
+     * @param diskStr  数据库
+     * @param commands 任务
+     * @return true如果事务已经提交
+     */
+    @SuppressWarnings("SqlNoDataSourceInspection")
+    private boolean executeCommandsOfDisk(String diskStr, ArrayList<SQLWithTaskId> commands) {
+        final DirectoryIdResolver dirIdResolver = schemaV2Disks.contains(diskStr) ?
+                dirIdResolvers.computeIfAbsent(diskStr, k -> new DirectoryIdResolver()) : null;
+        try (Statement stmt = SQLiteUtil.getStatement(diskStr);
+             BatchSqlWriter batchSqlWriter = new BatchSqlWriter(stmt, sql -> SQLiteUtil.getPreparedStatement(sql, diskStr))) {
+            HashSet<String> changedStatsKeys = new HashSet<>();
+            stmt.execute("BEGIN;");
+            try {
+                for (var sqlWithTaskId : commands) {
                     if (IsDebug.isDebug()) {
                         System.out.println("----------------------------------------------");
-                        System.out.println("执行SQL命令--" + sqlWithTaskId.sql);
+                        System.out.println("执行SQL命令--" + sqlWithTaskId.sql + (sqlWithTaskId.fileRecord == null ? "" : " " + sqlWithTaskId.fileRecord.path()));
                         System.out.println("----------------------------------------------");
                     }
-                    if (!stmt.execute(sqlWithTaskId.sql)) {
-                        int updateCount = stmt.getUpdateCount();
-                        if (sqlWithTaskId.key != null && updateCount != -1 && updateCount != 0) {
-                            if (databaseResultsCount.containsKey(sqlWithTaskId.key)) {
-                                var recordsNumber = databaseResultsCount.get(sqlWithTaskId.key);
-                                updateCount = sqlWithTaskId.taskId == SqlTaskIds.INSERT_TO_LIST ?
-                                        updateCount : -updateCount;
-                                recordsNumber.addAndGet(updateCount);
+                    IntConsumer updateCounter = sqlWithTaskId.key == null ? null :
+                            updateCount -> updateDatabaseResultsCount(sqlWithTaskId, updateCount, changedStatsKeys);
+                    try {
+                        FileRecord fileRecord = sqlWithTaskId.fileRecord;
+                        if (fileRecord == null) {
+                            batchSqlWriter.execute(sqlWithTaskId.sql, updateCounter);
+                            continue;
+                        }
+                        if (sqlWithTaskId.taskId == SqlTaskIds.INSERT_TO_LIST) {
+                            GramSummaryIndex.getInstance().add(diskStr + "," + fileRecord.tableName() + "," + fileRecord.priority(),
+                                    FileUtil.getFileName(fileRecord.path()));
+                        }
+                        if (dirIdResolver != null) {
+                            addFileRecordV2(batchSqlWriter, dirIdResolver, sqlWithTaskId, updateCounter);
+                            continue;
+                        }
+                        batchSqlWriter.add(sqlWithTaskId.sql, sqlWithTaskId.getParams(), fileRecord.path(), updateCounter);
+                        if (sqlWithTaskId.taskId == SqlTaskIds.DELETE_FROM_LIST) {
+                            final int previousTableIndex = ShardRouter.getInstance().getPreviousTableIndex(diskStr, FileUtil.getFileName(fileRecord.path()));
+                            if (previousTableIndex != -1) {
+                                batchSqlWriter.add("DELETE FROM list" + previousTableIndex + " WHERE PATH=?;", sqlWithTaskId.getParams(), fileRecord.path(), null);
+                            }
+                        }
+                        addDirectoryHash(batchSqlWriter, sqlWithTaskId);
+                        if (sqlWithTaskId.taskId == SqlTaskIds.INSERT_TO_LIST) {
+                            // 更新ngram索引，必须在插入记录之后执行
+                            String ngramSql = NGramUtil.getInsertSql(fileRecord.tableName());
+                            for (long gram : NGramUtil.getGrams(FileUtil.getFileName(fileRecord.path()))) {
+                                batchSqlWriter.addDependent(ngramSql, new Object[]{gram, fileRecord.asciiSum(), fileRecord.path(), fileRecord.priority()});
                             }
+                            addTransliterations(batchSqlWriter, fileRecord.path());
                         }
+                    } catch (SQLException e) {
+                        // 批量执行时失败的可能是之前添加的其他任务，无法只跳过这一条
+                        System.err.println("执行sql失败 " + sqlWithTaskId.sql);
+                        throw e;
                     }
-                } catch (SQLException e) {
-                    e.printStackTrace();
                 }
-            }
-            for (var entry : statementHashMap.entrySet()) {
-                Statement v = entry.getValue();
-                try {
-                    v.execute("COMMIT;");
-                    v.close();
-                } catch (SQLException e) {
-                    e.printStackTrace();
+                batchSqlWriter.flush();
+                saveTableStats(diskStr, changedStatsKeys);
+            } catch (SQLException | RuntimeException e) {
+                stmt.execute("ROLLBACK;");
+                // 回滚后内存中的记录数量与数据库不一致，重新统计
+                tableStatsReadyDisks.remove(diskStr);
+                rebuildTableStatsThread();
+                // 事务中新增的文件夹已经撤销，dirs.ID没有AUTOINCREMENT，缓存的id可能不存在或者被其他文件夹使用
+                if (dirIdResolver != null) {
+                    dirIdResolver.clear();
+                    DirPathSqlFunction.clearAllCaches();
                 }
+                throw e;
             }
-            sqlCommandQueue.removeAll(tempCommandSet);
+            stmt.execute("COMMIT;");
+            return true;
+        } catch (SQLException | RuntimeException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (dirIdResolver != null) {
+                dirIdResolver.closeStatements();
+            }
+        }
+    }
+
+    /**
+     * 将文件记录的增删转换为v2结构的sql，删除时文件夹不存在说明记录也不存在，直接跳过
+     *
+     * @param batchSqlWriter batchSqlWriter
+     * @param dirIdResolver  当前数据库的文件夹id
+     * @param sqlWithTaskId  文件记录任务
+     * @param updateCounter  影响行数回调
+     */
+    private void addFileRecordV2(BatchSqlWriter batchSqlWriter,
+                                 DirectoryIdResolver dirIdResolver,
+                                 SQLWithTaskId sqlWithTaskId,
+                                 IntConsumer updateCounter) throws SQLException {
+        FileRecord fileRecord = sqlWithTaskId.fileRecord;
+        final boolean isInsert = sqlWithTaskId.taskId == SqlTaskIds.INSERT_TO_LIST;
+        addDirectoryHash(batchSqlWriter, sqlWithTaskId);
+        final int dirId = dirIdResolver.getDirId(SchemaUtil.getDirPath(fileRecord.path()), isInsert,
+                sql -> SQLiteUtil.getPreparedStatement(sql, sqlWithTaskId.diskStr));
+        if (dirId == -1) {
+            return;
+        }
+        final String name = SchemaUtil.getName(fileRecord.path());
+        if (!isInsert) {
+            batchSqlWriter.add(SchemaUtil.getDeleteSql(fileRecord.tableName()), new Object[]{dirId, name}, fileRecord.path(), updateCounter);
+            final int previousTableIndex = ShardRouter.getInstance().getPreviousTableIndex(sqlWithTaskId.diskStr, name);
+            if (previousTableIndex != -1) {
+                batchSqlWriter.add(SchemaUtil.getDeleteSql("list" + previousTableIndex), new Object[]{dirId, name}, fileRecord.path(), null);
+            }
+            return;
+        }
+        batchSqlWriter.add(SchemaUtil.getInsertSql(fileRecord.tableName()),
+                new Object[]{dirId, name, fileRecord.priority(), fileRecord.asciiSum()}, fileRecord.path(), updateCounter);
+        String ngramSql = SchemaUtil.getNGramInsertSql(fileRecord.tableName());
+        for (long gram : NGramUtil.getGrams(FileUtil.getFileName(fileRecord.path()))) {
+            batchSqlWriter.addDependent(ngramSql, new Object[]{gram, dirId, name, fileRecord.priority()});
+        }
+        addTransliterations(batchSqlWriter, fileRecord.path());
+    }
+
+    /**
+     * 同步文件类型索引，新增的文件夹记录hash，删除记录时同时删除hash，不是文件夹时不影响任何记录
+     *
+     * @param batchSqlWriter batchSqlWriter
+     * @param sqlWithTaskId  文件记录任务
+     */
+    private void addDirectoryHash(BatchSqlWriter batchSqlWriter, SQLWithTaskId sqlWithTaskId) throws SQLException {
+        final String path = sqlWithTaskId.fileRecord.path();
+        if (sqlWithTaskId.taskId == SqlTaskIds.DELETE_FROM_LIST) {
+            batchSqlWriter.addDependent(FileTypeIndex.getDeleteSql(), new Object[]{FileTypeIndex.hash(path, path.length())});
+        } else if (sqlWithTaskId.taskId == SqlTaskIds.INSERT_TO_LIST && FileTypeIndex.getInstance().isDirectoryRecorded(path)) {
+            batchSqlWriter.addDependent(FileTypeIndex.getInsertSql(), new Object[]{FileTypeIndex.hash(path, path.length())});
+        }
+    }
+
+    /**
+     * 保存文件名的转写结果，计算ngram时已经转写过，这里直接从TransliterationIndex中读取
+     *
+     * @param batchSqlWriter batchSqlWriter
+     * @param path           文件路径
+     */
+    private void addTransliterations(BatchSqlWriter batchSqlWriter, String path) throws SQLException {
+        String fileName = FileUtil.getFileName(path);
+        for (Transliteration transliteration : TransliterationIndex.getInstance().get(fileName)) {
+            batchSqlWriter.addDependent(TransliterationIndex.getInsertSql(), TransliterationIndex.getInsertParams(fileName, transliteration));
+        }
+    }
+
+    /**
+     * 根据sql影响的行数更新表中的记录数量和路径长度之和
+     *
+     * @param sqlWithTaskId 任务
+     * @param updateCount   影响的行数
+     * @param changedKeys   统计发生变化的key，在事务提交前保存到table_stats中
+     */
+    private void updateDatabaseResultsCount(SQLWithTaskId sqlWithTaskId, int updateCount, Set<String> changedKeys) {
+        if (updateCount <= 0) {
+            return;
+        }
+        final String key = sqlWithTaskId.key;
+        AtomicInteger recordsNumber;
+        AtomicLong pathBytes;
+        if (tableStatsReadyDisks.contains(sqlWithTaskId.diskStr)) {
+            // 统计准确时不存在的key表示没有记录，例如新添加的后缀优先级
+            recordsNumber = databaseResultsCount.computeIfAbsent(key, k -> new AtomicInteger());
+            pathBytes = databaseResultsBytes.computeIfAbsent(key, k -> new AtomicLong());
+        } else {
+            recordsNumber = databaseResultsCount.get(key);
+            pathBytes = databaseResultsBytes.get(key);
+        }
+        if (recordsNumber == null) {
+            return;
+        }
+        final int sign = sqlWithTaskId.taskId == SqlTaskIds.INSERT_TO_LIST ? 1 : -1;
+        final int num = recordsNumber.addAndGet(sign * updateCount);
+        if (pathBytes != null && sqlWithTaskId.fileRecord != null) {
+            final long bytes = pathBytes.addAndGet((long) sign * updateCount * sqlWithTaskId.fileRecord.path().length());
+            tableCacheGovernor.updateTableSize(key, num, bytes);
         }
+        changedKeys.add(key);
     }
 
     /**
@@ -1383,18 +2993,46 @@ public class DatabaseService {
     }
 
     /**
-     * 检查任务是否重复
+     * 添加文件记录的增删任务，同一个文件的任务会合并
+     * 重复的添加或删除只保留最后一个，添加之后的删除与添加相互抵消，删除之后的添加会替换删除
+     * MAX_SQL_NUM限制的是不同文件的数量
      *
-     * @param sql 任务
-     * @return boolean
+     * @param sqlWithTaskId 任务
      */
-    private boolean isCommandNotRepeat(String sql) {
-        for (SQLWithTaskId each : sqlCommandQueue) {
-            if (each.sql.equals(sql)) {
-                return false;
-            }
+    private void addToPendingFileCommands(SQLWithTaskId sqlWithTaskId) {
+        if (getStatus() == Constants.Enums.DatabaseStatus.MANUAL_UPDATE) {
+            return;
         }
-        return true;
+        final boolean isDelete = isDeleteTask(sqlWithTaskId.taskId);
+        pendingFileCommands.compute(sqlWithTaskId.diskStr + "," + sqlWithTaskId.fileRecord.path(), (k, pending) -> {
+            if (pending == null) {
+                if (pendingFileCommands.size() >= MAX_SQL_NUM) {
+                    if (changeJournal != null && (sqlWithTaskId.taskId == SqlTaskIds.INSERT_TO_LIST || sqlWithTaskId.taskId == SqlTaskIds.DELETE_FROM_LIST)) {
+                        // 文件变化已经写入日志，执行sql时从日志中重放
+                        isJournalSpilled.set(true);
+                    } else if (IsDebug.isDebug()) {
+                        System.err.println("添加sql语句" + sqlWithTaskId + "失败，已达到最大上限");
+                    }
+                    return null;
+                }
+                return sqlWithTaskId;
+            }
+            if (isDeleteTask(pending.taskId)) {
+                // 删除后添加，执行添加即可，但添加被抵消时需要恢复删除
+                sqlWithTaskId.isAfterDelete = !isDelete;
+                return sqlWithTaskId;
+            }
+            if (isDelete) {
+                // 添加后删除，若添加之前数据库中已经有该记录则仍然需要删除
+                return pending.isAfterDelete ? sqlWithTaskId : null;
+            }
+            sqlWithTaskId.isAfterDelete = pending.isAfterDelete;
+            return sqlWithTaskId;
+        });
+    }
+
+    private static boolean isDeleteTask(SqlTaskIds taskId) {
+        return taskId == SqlTaskIds.DELETE_FROM_LIST || taskId == SqlTaskIds.DELETE_FROM_CACHE;
     }
 
     /**
@@ -1429,9 +3067,16 @@ public class DatabaseService {
     private void createAllIndex() {
         sqlCommandQueue.add(new SQLWithTaskId("CREATE INDEX IF NOT EXISTS cache_index ON cache(PATH);", SqlTaskIds.CREATE_INDEX, "cache"));
         for (String each : RegexUtil.comma.split(AllConfigs.getInstance().getAvailableDisks())) {
+            // v2数据库中listN为视图，索引在迁移时已经建立在files_listN上
+            if (schemaV2Disks.contains(String.valueOf(each.charAt(0)))) {
+                continue;
+            }
             for (int i = 0; i <= Constants.MAX_TABLE_NUM; ++i) {
                 String createIndex = "CREATE INDEX IF NOT EXISTS list" + i + "_index ON list" + i + "(PRIORITY);";
                 sqlCommandQueue.add(new SQLWithTaskId(createIndex, SqlTaskIds.CREATE_INDEX, String.valueOf(each.charAt(0))));
+                // 主键以ASCII开头，删除文件夹时按路径前缀查询子文件需要PATH上的索引
+                String createPathIndex = "CREATE INDEX IF NOT EXISTS list" + i + "_path_index ON list" + i + "(PATH);";
+                sqlCommandQueue.add(new SQLWithTaskId(createPathIndex, SqlTaskIds.CREATE_INDEX, String.valueOf(each.charAt(0))));
             }
         }
     }
@@ -1506,7 +3151,10 @@ public class DatabaseService {
             try {
                 Path diskDatabaseFile = Path.of("data/" + name);
                 long length = Files.size(diskDatabaseFile);
+                // fileSearcherUSN只能按照默认分表方式写入v1结构，v2数据库和已经迁移分表方式的数据库需要删除后重建
                 if (length > maxDatabaseSize ||
+                        SchemaUtil.getVersion(diskDatabaseFile) >= SchemaUtil.VERSION_2 ||
+                        !ShardLayout.LEGACY.equals(ShardRouter.readLayout(diskDatabaseFile)) ||
                         Period.between(LocalDate.parse(databaseCreateTimeMap.get(eachDisk)), now).getDays() > 5 ||
                         isDropPrevious) {
                     if (IsDebug.isDebug()) {
@@ -1533,7 +3181,7 @@ public class DatabaseService {
         final long time = System.currentTimeMillis();
         // 将在队列中的sql全部执行并等待搜索线程全部完成
         System.out.println("等待所有sql执行完成，并且退出搜索");
-        while (searchThreadCount.get() != 0 || !sqlCommandQueue.isEmpty()) {
+        while (searchThreadCount.get() != 0 || !sqlCommandQueue.isEmpty() || !pendingFileCommands.isEmpty()) {
             executeAllCommands();
             TimeUnit.MILLISECONDS.sleep(10);
             if (System.currentTimeMillis() - time > timeoutMills) {
@@ -1574,15 +3222,37 @@ public class DatabaseService {
         SQLiteUtil.closeAll();
         invalidateAllCache();
         SQLiteUtil.initAllConnections();
+        migrateSchemaIfNeeded();
+        initShardLayouts();
         createAllIndex();
         ThreadPoolUtil.getInstance().executeTask(this::executeAllCommands);
         waitForCommandSet(SqlTaskIds.CREATE_INDEX);
+        invalidateNGramIndex();
+        invalidateFileTypeIndex();
+        GramSummaryIndex.getInstance().clearAll();
+        pagePrefetcher.clear();
+        queryTelemetry.clearMatchedKeys();
+        // table_stats与ngram索引一起失效，重新统计之前不跳过任何表
+        tableStatsReadyDisks.clear();
+        databaseResultsCount.clear();
+        databaseResultsBytes.clear();
+        tableCacheGovernor.clearTableSize();
+        offHeapIndex.clear();
+        if (changeJournal != null) {
+            changeJournal.clear();
+        }
         // 搜索完成，更新isDatabaseUpdated标志
         isDatabaseUpdated.set(true);
         //重新初始化priority
         initPriority();
         casSetStatus(this.status.get(), Constants.Enums.DatabaseStatus.NORMAL);
+        rebuildTableStatsThread();
+        pruneTransliterationsThread();
         startMonitorDisks();
+        buildNGramIndexThread();
+        buildGramSummaryThread();
+        loadOffHeapIndexThread();
+        migrateShardsThread();
     }
 
     private static void readSearchUsnOutput(Process searchByUsn) {
@@ -1607,11 +3277,12 @@ public class DatabaseService {
     private static synchronized void stopMonitorDisks(boolean isDeleteUsn) {
         String availableDisks = AllConfigs.getInstance().getAvailableDisks();
         String[] disks = RegexUtil.comma.split(availableDisks);
+        var fileChangeSource = getInstance().getFileChangeSource();
         for (String disk : disks) {
             if (isDeleteUsn) {
-                FileMonitor.INSTANCE.delete_usn_on_exit(disk);
+                fileChangeSource.deleteChangeLogOnExit(disk);
             }
-            FileMonitor.INSTANCE.stop_monitor(disk);
+            fileChangeSource.stopMonitor(disk);
         }
     }
 
@@ -1744,7 +3415,7 @@ public class DatabaseService {
             while (eventManagement.notMainExit()) {
                 final long updateTimeLimit = allConfigs.getConfigEntity().getUpdateTimeLimit() * 1000L;
                 boolean isTooManySQLsToExecute =
-                        getStatus() == Constants.Enums.DatabaseStatus.NORMAL && sqlCommandQueue.size() > 100;
+                        getStatus() == Constants.Enums.DatabaseStatus.NORMAL && sqlCommandQueue.size() + pendingFileCommands.size() > 100;
                 if (isTooManySQLsToExecute || System.currentTimeMillis() - checkTime >= updateTimeLimit) {
                     checkTime = System.currentTimeMillis();
                     executeAllCommands();
@@ -1895,7 +3566,11 @@ public class DatabaseService {
             prepareTasksMap.put(searchInfo, searchTask);
         }
         if (!searchTask.searchDoneFlag) {
-            databaseService.startSearchInThreadPool(searchTask);
+            if (searchTask.isRefined) {
+                databaseService.searchDone(searchTask);
+            } else {
+                databaseService.startSearchInThreadPool(searchTask);
+            }
         }
         event.setReturnValue(searchTask);
     }
@@ -1907,6 +3582,10 @@ public class DatabaseService {
      */
     private static SearchTask prepareSearch(SearchInfo searchInfo) {
         var databaseService = getInstance();
+        var refinableTask = findRefinableTask(searchInfo);
+        if (refinableTask != null) {
+            return databaseService.refineSearch(refinableTask, searchInfo);
+        }
         var searchTask = new SearchTask(searchInfo);
 
         var threadPoolUtil = ThreadPoolUtil.getInstance();
@@ -1917,6 +3596,10 @@ public class DatabaseService {
             countDownLatch.countDown();
         });
         threadPoolUtil.executeTask(() -> {
+            if (IsNativeDisabled.isNativeDisabled()) {
+                countDownLatch.countDown();
+                return;
+            }
             // start menu
             String startMenu = GetWindowsKnownFolder.INSTANCE.getKnownFolder("{A4115719-D62E-491D-AA7C-E74B8BE3B067}");
             databaseService.searchFolder(startMenu, searchTask);
@@ -1925,6 +3608,10 @@ public class DatabaseService {
             countDownLatch.countDown();
         });
         threadPoolUtil.executeTask(() -> {
+            if (IsNativeDisabled.isNativeDisabled()) {
+                countDownLatch.countDown();
+                return;
+            }
             // desktop
             String desktop = GetWindowsKnownFolder.INSTANCE.getKnownFolder("{B4BFCC3A-DB2C-424C-B029-7FE99A87C641}");
             databaseService.searchFolder(desktop, searchTask);
@@ -1961,12 +3648,8 @@ public class DatabaseService {
                         MAX_RESULTS,
                         Math.max(2, AllConfigs.getInstance().getConfigEntity().getSearchThreadNumber() / 4),
                         (key, path) -> {
-                            if (FileUtil.isFileNotExist(path)) {
-                                databaseService.removeFileFromDatabase(path);
-                                return;
-                            }
                             if (searchTask.tempResultsSet.add(path)) {
-                                searchTask.resultCounter.getAndIncrement();
+                                searchTask.increaseResultCount();
                                 searchTask.tempResults.add(path);
                             }
                         });
@@ -1974,7 +3657,9 @@ public class DatabaseService {
             }, false);
         }
         try {
-            if (!countDownLatch.await(5, TimeUnit.SECONDS)) {
+            if (countDownLatch.await(5, TimeUnit.SECONDS)) {
+                searchTask.isPriorityFoldersSearched = true;
+            } else {
                 System.out.println("等待优先搜索文件夹超时");
             }
         } catch (InterruptedException e) {
@@ -1983,6 +3668,63 @@ public class DatabaseService {
         return searchTask;
     }
 
+    /**
+     * 查找可以用于增量搜索的任务：结果完整（没有达到MAX_RESULTS，没有超时或被停止）且新的关键字是其关键字的延伸
+     * 有多个时选择结果最少的任务
+     *
+     * @param searchInfo 新的搜索条件
+     * @return 可以直接过滤结果的任务，没有则返回null
+     */
+    private static SearchTask findRefinableTask(SearchInfo searchInfo) {
+        SearchTask refinableTask = null;
+        for (var eachTask : prepareTasksMap.entrySet()) {
+            SearchTask searchTask = eachTask.getValue();
+            if (!searchTask.isResultsComplete ||
+                    System.currentTimeMillis() - searchTask.taskCreateTimeMills > SearchTask.maxTaskValidThreshold ||
+                    !searchInfo.isRefinementOf(eachTask.getKey())) {
+                continue;
+            }
+            if (refinableTask == null || searchTask.resultCounter.get() < refinableTask.resultCounter.get()) {
+                refinableTask = searchTask;
+            }
+        }
+        return refinableTask;
+    }
+
+    /**
+     * 增量搜索，新的结果一定是之前结果的子集，所以只需要过滤之前的结果，不再查询数据库
+     * 之前没有结果时直接返回空结果
+     *
+     * @param previousTask 结果完整的上一次搜索
+     * @param searchInfo   新的搜索条件
+     * @return 所有结果已经准备好的任务，开始搜索时直接完成
+     */
+    private SearchTask refineSearch(SearchTask previousTask, SearchInfo searchInfo) {
+        var searchTask = new SearchTask(searchInfo);
+        searchTask.isRefined = true;
+        searchTask.isPriorityFoldersSearched = true;
+        HashMap<String, Integer> matchedNumByKey = new HashMap<>();
+        for (String path : previousTask.tempResults) {
+            String key = previousTask.resultKeys.get(path);
+            if (!checkIsMatchedAndAddToList(path, searchTask, key)) {
+                continue;
+            }
+            if (previousTask.cacheAndPriorityResults.contains(path)) {
+                searchTask.cacheAndPriorityResults.add(path);
+            }
+            if (key != null) {
+                matchedNumByKey.merge(key, 1, Integer::sum);
+            }
+        }
+        // 与查询数据库时相同，按照每个表的结果数量更新权重
+        matchedNumByKey.forEach((key, matchedNum) -> updateTableWeight(RegexUtil.comma.split(key)[1], Math.min(matchedNum, 5)));
+        searchTask.allTasksDoneFuture.complete(null);
+        if (IsDebug.isDebug()) {
+            System.out.println("增量搜索，从 " + previousTask.resultCounter.get() + " 个结果中过滤出 " + searchTask.resultCounter.get() + " 个结果");
+        }
+        return searchTask;
+    }
+
     @EventRegister(registerClass = StopSearchEvent.class)
     @EventListener(listenClass = SearchBarCloseEvent.class)
     private static void stopSearchEvent(Event event) {
@@ -1993,10 +3735,20 @@ public class DatabaseService {
     @EventListener(listenClass = BootSystemEvent.class)
     private static void databaseServiceInit(Event event) {
         DatabaseService databaseService = getInstance();
+        var cacheSnapshot = openCacheSnapshot();
+        databaseService.migrateSchemaIfNeeded();
+        databaseService.initShardLayouts();
         databaseService.initPriority();
+        databaseService.initTableStats();
         databaseService.initTableMap();
-        databaseService.prepareDatabaseCache();
+        databaseService.loadQueryTelemetry();
+        databaseService.prepareDatabaseCache(cacheSnapshot);
+        databaseService.initNGramIndexReadySet();
+        databaseService.loadFileTypeIndex();
+        databaseService.openChangeJournal();
+        databaseService.loadTransliterationIndexThread();
         var allConfigs = AllConfigs.getInstance();
+        databaseService.isEnableOffHeapIndex = allConfigs.getConfigEntity().getAdvancedConfigEntity().isEnableOffHeapIndex();
         for (String diskPath : RegexUtil.comma.split(allConfigs.getAvailableDisks())) {
             for (int i = 0; i <= Constants.MAX_TABLE_NUM; i++) {
                 for (var suffixPriorityPair : databaseService.priorityMap) {
@@ -2004,12 +3756,17 @@ public class DatabaseService {
                 }
             }
         }
+        databaseService.loadTableCacheFromSnapshot(cacheSnapshot);
         databaseService.syncFileChangesThread();
         databaseService.checkTimeAndSendExecuteSqlSignalThread();
         databaseService.executeAllCommands();
+        databaseService.migrateShardsThread();
         databaseService.saveTableCacheThread();
-        databaseService.warmupSearchThread();
+        databaseService.prefetchThread();
         databaseService.addRestartMonitorThread();
+        databaseService.buildNGramIndexThread();
+        databaseService.buildGramSummaryThread();
+        databaseService.loadOffHeapIndexThread();
     }
 
     @EventRegister(registerClass = AddToCacheEvent.class)
@@ -2070,9 +3827,24 @@ public class DatabaseService {
                 }
             }
         }
+        // listN的主键不是INTEGER PRIMARY KEY，VACUUM可能重新分配rowid，ngram索引中保存的rowid已经失效
+        databaseService.invalidateNGramIndex();
         if (databaseService.casSetStatus(Constants.Enums.DatabaseStatus.VACUUM, Constants.Enums.DatabaseStatus.NORMAL)) {
             throw new RuntimeException("databaseService status从VACUUM修改为NORMAL失败");
         }
+        // 重新建立ngram索引和gram摘要，清除已经删除的记录，等待VACUUM之前开始的建立任务退出
+        ThreadPoolUtil.getInstance().executeTask(() -> {
+            try {
+                while (databaseService.isNGramIndexBuilding.get() || databaseService.isGramSummaryBuilding.get()) {
+                    TimeUnit.MILLISECONDS.sleep(100);
+                }
+            } catch (InterruptedException ignored) {
+                // ignore interrupt exception
+            }
+            databaseService.pruneTransliterationsThread();
+            databaseService.buildNGramIndexThread();
+            databaseService.buildGramSummaryThread();
+        });
     }
 
     @EventRegister(registerClass = AddToSuffixPriorityMapEvent.class)
@@ -2136,7 +3908,17 @@ public class DatabaseService {
                 getAdvancedConfigEntity().
                 isDeleteUsnOnExit());
         var databaseService = getInstance();
+        // write阶段会继续产生sql，必须先停止流水线，否则快照中会缺少之后写入数据库的变化
+        final boolean isPipelineStopped = databaseService.stopFileChangePipeline();
         databaseService.executeAllCommands();
+        if (isPipelineStopped && databaseService.isFileChangesCommitted()) {
+            databaseService.saveCacheSnapshot();
+        } else {
+            System.err.println("文件变化没有全部写入数据库，下次启动时需要从日志中重放，不保存缓存快照");
+        }
+        if (databaseService.changeJournal != null) {
+            databaseService.changeJournal.close();
+        }
         databaseService.stopAllSearch();
         SQLiteUtil.closeAll();
         if (isEnableGPUAccelerate) {
@@ -2152,11 +3934,25 @@ public class DatabaseService {
         private final SqlTaskIds taskId;
         private final String diskStr;
         private volatile String key;
+        // 文件记录的增删使用PreparedStatement，sql为模板，参数由fileRecord生成
+        private volatile FileRecord fileRecord;
+        // 添加任务是否替换了同一文件的删除任务
+        private volatile boolean isAfterDelete;
+
+        private Object[] getParams() {
+            return switch (taskId) {
+                case INSERT_TO_LIST -> new Object[]{fileRecord.asciiSum(), fileRecord.path(), fileRecord.priority()};
+                default -> new Object[]{fileRecord.path()};
+            };
+        }
+    }
+
+    private record FileRecord(String tableName, int asciiSum, String path, int priority) {
     }
 
     private enum SqlTaskIds {
         DELETE_FROM_LIST, DELETE_FROM_CACHE, INSERT_TO_LIST, INSERT_TO_CACHE,
-        CREATE_INDEX, CREATE_TABLE, DROP_TABLE, DROP_INDEX, UPDATE_SUFFIX, UPDATE_WEIGHT
+        CREATE_INDEX, CREATE_TABLE, DROP_TABLE, DROP_INDEX, UPDATE_SUFFIX, INSERT_TO_DIR_HASH
     }
 
     @SuppressWarnings("unused")
@@ -2173,7 +3969,7 @@ public class DatabaseService {
                 long startCheckInvalidCacheTime = System.currentTimeMillis();
                 final long checkInterval = 10 * 60 * 1000; // 10min
                 while (eventManagement.notMainExit()) {
-                    if (System.currentTimeMillis() - startCheckInvalidCacheTime > checkInterval && !GetHandle.INSTANCE.isForegroundFullscreen()) {
+                    if (System.currentTimeMillis() - startCheckInvalidCacheTime > checkInterval && !isForegroundFullscreen()) {
                         startCheckInvalidCacheTime = System.currentTimeMillis();
                         HashSet<String> keysToRemove = new HashSet<>(invalidCacheKeys);
                         for (var eachKey : keysToRemove) {
@@ -2200,7 +3996,7 @@ public class DatabaseService {
                 final int removeRecordsThreshold = 100;
                 while (eventManagement.notMainExit()) {
                     if (databaseService.getStatus() == Constants.Enums.DatabaseStatus.NORMAL &&
-                            !GetHandle.INSTANCE.isForegroundFullscreen() &&
+                            !isForegroundFullscreen() &&
                             (!recordsToAdd.isEmpty() || !recordsToRemove.isEmpty())) {
                         for (var entry : recordsToAdd.entrySet()) {
                             String k = entry.getKey();
@@ -2307,7 +4103,7 @@ public class DatabaseService {
     private static class Cache {
         private final AtomicBoolean isCached = new AtomicBoolean(false);
         private final AtomicBoolean isFileLost = new AtomicBoolean(false);
-        private CopyOnWriteArrayList<String> data = null;
+        private volatile ChunkedPathStore data = null;
 
         private boolean isCacheValid() {
             return isCached.get() && !isFileLost.get();
@@ -2316,11 +4112,19 @@ public class DatabaseService {
 
     private static class TableNameWeightInfo {
         private final String tableName;
-        private final AtomicLong weight;
+        // 每个搜索线程都会增加权重，使用LongAdder减少竞争
+        private final LongAdder weight = new LongAdder();
+        // 上次写入数据库的权重，只由flushWeightDatabase修改
+        private volatile long savedWeight;
 
         private TableNameWeightInfo(String tableName, int weight) {
             this.tableName = tableName;
-            this.weight = new AtomicLong(weight);
+            this.weight.add(weight);
+            this.savedWeight = weight;
+        }
+
+        private long getWeight() {
+            return weight.sum();
         }
     }
 
@@ -2334,35 +4138,99 @@ public class DatabaseService {
      * 搜索结果将会被暂存到priorityContainer中，key为后缀优先级，value为该后缀的文件路径，同时也会存入tempResultsSet中用于去重
      * 在等待搜索完成时，priorityContainer中的数据会被不断转存到tempResults中，按照后缀优先级降序排列，优先级高的文件将会先转存
      * <p>
-     * taskStatus和allTaskStatus是每个任务的标志，每个任务分配一个位，当某一个任务完成，在taskStatus上该任务的位将会被设置为1
-     * 当taskstauts和allTaskStatus相等则表示任务全部完成
+     * remainingTaskNum为未完成的任务数量，最后一个任务完成时allTasksDoneFuture完成，waitForTasks立即返回并调用searchDone
      * @see #waitForTasks(SearchTask)
      */
-    @RequiredArgsConstructor
     public static class SearchTask {
         //taskMap任务队列，key为磁盘盘符，value为任务
         private final ConcurrentHashMap<String, ConcurrentLinkedQueue<Runnable>> taskMap = new ConcurrentHashMap<>();
-        private final Bit taskStatus = new Bit(new byte[]{0});
-        private final Bit allTaskStatus = new Bit(new byte[]{0});
+        // 未完成的任务数量，减到0时完成allTasksDoneFuture
+        private final AtomicInteger remainingTaskNum = new AtomicInteger();
+        private final CompletableFuture<Void> allTasksDoneFuture = new CompletableFuture<>();
+        // searchDone完成后触发，此时所有结果都已经放入tempResults
+        private final CompletableFuture<SearchTask> completeFuture = new CompletableFuture<>();
         private final SearchInfo searchInfo;
+        // 由searchInfo编译的匹配器，所有结果都通过该匹配器检查
+        private final PathMatcher pathMatcher;
         @Getter
         private final ConcurrentLinkedQueue<String> tempResults = new ConcurrentLinkedQueue<>();
         @Getter
         private final ConcurrentLinkedQueue<String> cacheAndPriorityResults = new ConcurrentLinkedQueue<>();
         private final Set<String> tempResultsSet = ConcurrentHashMap.newKeySet();
         private final AtomicInteger resultCounter = new AtomicInteger();
+        // 结果数量曾经超过MAX_RESULTS，之后删除不存在的结果使数量减少，结果仍然是不完整的
+        private volatile boolean isTruncated = false;
         private volatile boolean searchDoneFlag = false;
         private volatile long taskCreateTimeMills = System.currentTimeMillis();
+        // 开始搜索的时间，0表示没有查询数据库（增量搜索）
+        private volatile long searchStartTimeMills = 0;
         private volatile boolean shouldStopSearchFlag = false;
+        // 在数据库中进行匹配时注册的matchId，-1表示在Java中进行匹配
+        private volatile int sqlMatchId = -1;
+        // 堆外索引的查询条件，null表示未启用堆外索引
+        private volatile OffHeapIndex.Query offHeapIndexQuery;
+        // 数据库中的结果来自哪个表，key为文件路径，value为查询key，例如 [C,list10,-1]
+        private final ConcurrentHashMap<String, String> resultKeys = new ConcurrentHashMap<>();
+        private volatile boolean isPriorityFoldersSearched = false;
+        // 搜索完成时结果是否完整，完整的结果可以用于增量搜索
+        private volatile boolean isResultsComplete = false;
+        // 是否由上一次搜索的结果过滤得到
+        private volatile boolean isRefined = false;
+        // 已经检查过是否存在的结果，每个结果只检查一次
+        private final Set<String> validatedResults = ConcurrentHashMap.newKeySet();
+        // 检查时已经不存在或者不再匹配的结果，已经从tempResults中移除，由显示结果的线程取出后从显示列表中移除
+        private final ConcurrentLinkedQueue<String> staleResults = new ConcurrentLinkedQueue<>();
+        // 所有关键字的gram，用于通过表的gram摘要跳过不可能有结果的表
+        private final long[] summaryGrams;
+        private final AtomicInteger summaryCheckedNum = new AtomicInteger();
+        private final AtomicInteger summarySkippedNum = new AtomicInteger();
 
 
         private static final AtomicBoolean isGpuThreadRunning = new AtomicBoolean();
         private static final long maxTaskValidThreshold = 10_000;
 
+        public SearchTask(SearchInfo searchInfo) {
+            this.searchInfo = searchInfo;
+            this.pathMatcher = PathMatcher.compile(searchInfo.searchCase,
+                    searchInfo.isIgnoreCase,
+                    searchInfo.searchText,
+                    searchInfo.keywords,
+                    searchInfo.keywordsLowerCase,
+                    searchInfo.isKeywordPath);
+            this.summaryGrams = NGramUtil.getQueryGrams(searchInfo.keywordsLowerCase, searchInfo.isKeywordPath);
+        }
+
+        /**
+         * 通过gram摘要跳过的表占所有表的比例
+         */
+        public double getSummarySkipRatio() {
+            final int checkedNum = summaryCheckedNum.get();
+            return checkedNum == 0 ? 0 : (double) summarySkippedNum.get() / checkedNum;
+        }
+
         public boolean isSearchDone() {
             return searchDoneFlag;
         }
 
+        /**
+         * 注册搜索完成的回调，所有任务完成或等待超时后调用，若搜索已经完成则立即在当前线程调用
+         *
+         * @param callback 回调，参数为当前搜索任务
+         */
+        public void onComplete(Consumer<SearchTask> callback) {
+            completeFuture.thenAccept(callback);
+        }
+
+        /**
+         * 取出一个已经不存在的结果
+         *
+         * @return 没有时返回null
+         * @see DatabaseService#validateResults(SearchTask, Collection)
+         */
+        public String pollStaleResult() {
+            return staleResults.poll();
+        }
+
         public void updateTaskCreateTimeMills() {
             taskCreateTimeMills = System.currentTimeMillis();
         }
@@ -2371,8 +4239,14 @@ public class DatabaseService {
             shouldStopSearchFlag = true;
         }
 
+        private void increaseResultCount() {
+            if (resultCounter.incrementAndGet() > MAX_RESULTS) {
+                isTruncated = true;
+            }
+        }
+
         private boolean shouldStopSearch() {
-            return resultCounter.get() > MAX_RESULTS || shouldStopSearchFlag;
+            return isTruncated || shouldStopSearchFlag;
         }
     }
 
@@ -2389,6 +4263,37 @@ public class DatabaseService {
         private final String[] keywords;
         private final String[] keywordsLowerCase;
         private final boolean[] isKeywordPath;
+
+        /**
+         * 判断当前搜索条件的结果是否一定是previous结果的子集
+         * 关键字为子字符串匹配（拼音和拼音首字母同样为子字符串匹配），所以每个关键字包含之前的关键字，或者在末尾增加关键字时结果只会变少
+         * 全字匹配的结果不满足该条件
+         *
+         * @param previous 之前的搜索条件
+         * @return true如果可以通过过滤previous的结果得到当前结果
+         */
+        private boolean isRefinementOf(SearchInfo previous) {
+            if (this.equals(previous) ||
+                    isIgnoreCase != previous.isIgnoreCase ||
+                    !Arrays.equals(searchCase, previous.searchCase) ||
+                    keywords.length < previous.keywords.length) {
+                return false;
+            }
+            if (searchCase != null && Arrays.asList(searchCase).contains(PathMatchUtil.SearchCase.FULL)) {
+                return false;
+            }
+            for (int i = 0; i < previous.keywords.length; ++i) {
+                if (isKeywordPath[i] != previous.isKeywordPath[i]) {
+                    return false;
+                }
+                String keyword = isIgnoreCase ? keywordsLowerCase[i] : keywords[i];
+                String previousKeyword = isIgnoreCase ? previous.keywordsLowerCase[i] : previous.keywords[i];
+                if (!keyword.contains(previousKeyword)) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 }
 
@@ -0,0 +1,390 @@
+package file.engine.services.utils;
+
+import file.engine.services.utils.connection.SQLiteUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * 数据表缓存和cache中的文件的快照，程序退出时写入，下次启动时通过内存映射读取，启动后立即可以使用缓存搜索
+ * <p>
+ * 文件格式：MAGIC(int) VERSION(int) GENERATION(long) section数量(int)，之后为每个section，最后为END_MAGIC(int)
+ * 每个section为 key长度(int) key(UTF-8) 记录数量(int) 记录字节数(long)，之后为每条记录 路径长度(int) 路径(UTF-8)
+ * key与DatabaseService中的缓存key相同，例如 [C,list10,-1]，cache中的文件的key为DATABASE_CACHE_KEY
+ * <p>
+ * 快照写入完成后在每个数据库的cache_snapshot表中保存GENERATION，启动时读取后立即删除该表，只有GENERATION相同的数据库对应的section有效
+ * 数据库被重新写入或者上次没有正常退出时GENERATION不存在，快照只会被使用一次
+ */
+public class CacheSnapshot {
+    // cache中的文件的section key，同时也是cache数据库的key
+    public static final String DATABASE_CACHE_KEY = "cache";
+    private static final String SNAPSHOT_DIR = "data/cacheSnapshot";
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String GENERATION_TABLE = "cache_snapshot";
+    private static final int MAGIC = 0x46455343;
+    private static final int END_MAGIC = 0x454E4421;
+    private static final int VERSION = 1;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 写入快照，写入完成后保存每个数据库的GENERATION，调用者需要保证写入期间缓存和数据库都不会被修改
+     *
+     * @param tables        需要保存的数据表缓存
+     * @param databaseCache cache中的文件
+     */
+    public static void save(Map<String, ChunkedPathStore> tables, Collection<String> databaseCache) throws IOException {
+        final long generation = newGeneration();
+        Path snapshotDir = Path.of(SNAPSHOT_DIR);
+        Files.createDirectories(snapshotDir);
+        Path tempFile = snapshotDir.resolve(Long.toHexString(generation) + TEMP_SUFFIX);
+        HashSet<String> databases = new HashSet<>();
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            SnapshotWriter writer = new SnapshotWriter(channel);
+            writer.putInt(MAGIC);
+            writer.putInt(VERSION);
+            writer.putLong(generation);
+            writer.putInt(tables.size() + 1);
+            writer.beginSection(DATABASE_CACHE_KEY);
+            databaseCache.forEach(writer::putRecord);
+            writer.endSection();
+            databases.add(DATABASE_CACHE_KEY);
+            for (var entry : tables.entrySet()) {
+                String key = entry.getKey();
+                writer.beginSection(key);
+                entry.getValue().forEach(writer::putRecord);
+                writer.endSection();
+                databases.add(key.substring(0, key.indexOf(',')));
+            }
+            writer.putInt(END_MAGIC);
+            writer.flush();
+            channel.force(false);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Files.move(tempFile, snapshotDir.resolve(System.currentTimeMillis() + SNAPSHOT_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+        for (String database : databases) {
+            saveGeneration(database, generation);
+        }
+    }
+
+    /**
+     * 读取上次退出时写入的快照，并删除所有数据库中保存的GENERATION，需要在数据库被修改之前调用
+     *
+     * @param databases 所有数据库的key，盘符和DATABASE_CACHE_KEY
+     * @return 快照，没有有效的快照时返回null
+     */
+    public static Snapshot open(Collection<String> databases) {
+        HashMap<String, Long> generations = new HashMap<>();
+        for (String database : databases) {
+            generations.put(database, consumeGeneration(database));
+        }
+        File snapshotFile = null;
+        File[] files = new File(SNAPSHOT_DIR).listFiles();
+        if (files != null) {
+            for (File each : files) {
+                if (each.getName().endsWith(SNAPSHOT_SUFFIX) &&
+                        (snapshotFile == null || each.lastModified() > snapshotFile.lastModified())) {
+                    snapshotFile = each;
+                }
+            }
+            // 快照只会被使用一次，其他快照和没有写入完成的文件直接删除，Windows下映射中的文件无法删除，只能在下次启动时删除
+            for (File each : files) {
+                if (each != snapshotFile && !each.delete()) {
+                    System.err.println("删除旧缓存快照失败 " + each.getAbsolutePath());
+                }
+            }
+        }
+        if (snapshotFile == null || snapshotFile.length() > Integer.MAX_VALUE) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return Snapshot.parse(buffer, generations);
+        } catch (IOException | IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException e) {
+            System.err.println("读取缓存快照失败 " + snapshotFile.getAbsolutePath());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static long newGeneration() {
+        long generation;
+        do {
+            generation = ThreadLocalRandom.current().nextLong();
+        } while (generation == 0);
+        return generation;
+    }
+
+    @SuppressWarnings("SqlNoDataSourceInspection")
+    private static void saveGeneration(String database, long generation) {
+        try (Statement stmt = SQLiteUtil.getStatement(database)) {
+            stmt.execute("BEGIN;");
+            try {
+                stmt.execute("CREATE TABLE IF NOT EXISTS " + GENERATION_TABLE + "(GENERATION INT);");
+                stmt.execute("DELETE FROM " + GENERATION_TABLE + ";");
+                stmt.execute("INSERT INTO " + GENERATION_TABLE + " VALUES(" + generation + ");");
+            } finally {
+                stmt.execute("COMMIT;");
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 读取并删除数据库中保存的GENERATION
+     *
+     * @return GENERATION，不存在或删除失败时返回0
+     */
+    @SuppressWarnings("SqlNoDataSourceInspection")
+    private static long consumeGeneration(String database) {
+        long generation = 0;
+        try (Statement stmt = SQLiteUtil.getStatement(database)) {
+            try (ResultSet resultSet = stmt.executeQuery("SELECT GENERATION FROM " + GENERATION_TABLE + ";")) {
+                if (resultSet.next()) {
+                    generation = resultSet.getLong(1);
+                }
+            } catch (SQLException ignored) {
+                // 上次没有写入快照
+            }
+            stmt.execute("DROP TABLE IF EXISTS " + GENERATION_TABLE + ";");
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return 0;
+        }
+        return generation;
+    }
+
+    /**
+     * 已经映射的快照，只保存有效的section的位置，读取时才复制记录
+     */
+    public static class Snapshot {
+        private final MappedByteBuffer buffer;
+        private final LinkedHashMap<String, Section> sections;
+
+        private Snapshot(MappedByteBuffer buffer, LinkedHashMap<String, Section> sections) {
+            this.buffer = buffer;
+            this.sections = sections;
+        }
+
+        private static Snapshot parse(MappedByteBuffer buffer, Map<String, Long> generations) {
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IllegalArgumentException("cache snapshot format error");
+            }
+            final long generation = buffer.getLong(8);
+            final int sectionNum = buffer.getInt(16);
+            int position = 20;
+            LinkedHashMap<String, Section> sections = new LinkedHashMap<>();
+            for (int i = 0; i < sectionNum; ++i) {
+                final int keyLength = buffer.getInt(position);
+                if (keyLength < 0 || keyLength > buffer.limit()) {
+                    throw new IllegalArgumentException("cache snapshot key out of range");
+                }
+                byte[] keyBytes = new byte[keyLength];
+                buffer.get(position + 4, keyBytes);
+                String key = new String(keyBytes, StandardCharsets.UTF_8);
+                position += 4 + keyLength;
+                final int recordNum = buffer.getInt(position);
+                final long length = buffer.getLong(position + 4);
+                position += 12;
+                if (length < 0 || position + length > buffer.limit()) {
+                    throw new IllegalArgumentException("cache snapshot section out of range");
+                }
+                String database = key.equals(DATABASE_CACHE_KEY) ? key : key.substring(0, key.indexOf(','));
+                if (generations.getOrDefault(database, 0L) == generation) {
+                    sections.put(key, new Section(recordNum, position, (int) length));
+                }
+                position += (int) length;
+            }
+            if (buffer.getInt(position) != END_MAGIC) {
+                throw new IllegalArgumentException("cache snapshot is incomplete");
+            }
+            return new Snapshot(buffer, sections);
+        }
+
+        /**
+         * 有效的数据表缓存key
+         */
+        public Set<String> getTableKeys() {
+            HashSet<String> keys = new HashSet<>(sections.keySet());
+            keys.remove(DATABASE_CACHE_KEY);
+            return keys;
+        }
+
+        public boolean hasDatabaseCache() {
+            return sections.containsKey(DATABASE_CACHE_KEY);
+        }
+
+        /**
+         * 读取cache中的文件
+         */
+        public void forEachDatabaseCache(Consumer<String> consumer) {
+            Section section = sections.get(DATABASE_CACHE_KEY);
+            if (section == null) {
+                return;
+            }
+            forEachRecord(section, bytes -> consumer.accept(new String(bytes, StandardCharsets.UTF_8)));
+        }
+
+        /**
+         * section中所有路径的字节数，用于在读取前判断缓存大小是否超过预算
+         */
+        public long getPathBytes(String key) {
+            Section section = sections.get(key);
+            return section == null ? 0 : section.length - (long) section.recordNum * Integer.BYTES;
+        }
+
+        /**
+         * 将一个数据表缓存的所有记录加入store
+         *
+         * @param key   缓存key
+         * @param store 缓存
+         * @return 占用内存的变化量
+         */
+        public long load(String key, ChunkedPathStore store) {
+            Section section = sections.get(key);
+            if (section == null) {
+                return 0;
+            }
+            final long[] allocatedBytes = {0};
+            forEachRecord(section, bytes -> allocatedBytes[0] += store.add(bytes));
+            return allocatedBytes[0];
+        }
+
+        private void forEachRecord(Section section, Consumer<byte[]> consumer) {
+            int position = section.position;
+            final int end = section.position + section.length;
+            for (int i = 0; i < section.recordNum && position < end; ++i) {
+                final int length = buffer.getInt(position);
+                byte[] bytes = new byte[length];
+                buffer.get(position + 4, bytes);
+                consumer.accept(bytes);
+                position += 4 + length;
+            }
+        }
+    }
+
+    /**
+     * @param recordNum 记录数量
+     * @param position  第一条记录在文件中的位置
+     * @param length    所有记录的字节数
+     */
+    private record Section(int recordNum, int position, int length) {
+    }
+
+    /**
+     * 通过缓冲区顺序写入文件，section的记录数量和字节数在section写入完成后回填
+     */
+    private static class SnapshotWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        private long position;
+        private long sectionHeaderPosition;
+        private int sectionRecordNum;
+
+        private SnapshotWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void putInt(int value) {
+            ensureRemaining(Integer.BYTES);
+            buffer.putInt(value);
+            position += Integer.BYTES;
+        }
+
+        private void putLong(long value) {
+            ensureRemaining(Long.BYTES);
+            buffer.putLong(value);
+            position += Long.BYTES;
+        }
+
+        private void putBytes(byte[] bytes) {
+            if (bytes.length > buffer.capacity()) {
+                flush();
+                writeFully(ByteBuffer.wrap(bytes), -1);
+            } else {
+                ensureRemaining(bytes.length);
+                buffer.put(bytes);
+            }
+            position += bytes.length;
+        }
+
+        private void beginSection(String key) {
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            putInt(keyBytes.length);
+            putBytes(keyBytes);
+            sectionHeaderPosition = position;
+            sectionRecordNum = 0;
+            putInt(0);
+            putLong(0);
+        }
+
+        private void putRecord(String path) {
+            byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            putBytes(bytes);
+            ++sectionRecordNum;
+        }
+
+        private void endSection() {
+            flush();
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES + Long.BYTES);
+            header.putInt(sectionRecordNum);
+            header.putLong(position - sectionHeaderPosition - header.capacity());
+            header.flip();
+            writeFully(header, sectionHeaderPosition);
+        }
+
+        private void ensureRemaining(int size) {
+            if (buffer.remaining() < size) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            buffer.flip();
+            writeFully(buffer, -1);
+            buffer.clear();
+        }
+
+        /**
+         * @param filePosition 写入的位置，-1表示写入到当前位置
+         */
+        private void writeFully(ByteBuffer src, long filePosition) {
+            try {
+                long writePosition = filePosition;
+                while (src.hasRemaining()) {
+                    if (filePosition == -1) {
+                        channel.write(src);
+                    } else {
+                        writePosition += channel.write(src, writePosition);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package file.engine.services.utils;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 文件变化日志，使用内存映射的环形文件保存还未写入数据库的文件变化，程序崩溃后下次启动时重放
+ * 文件头保存 魔数 版本 写入位置 检查点，位置为逻辑位置，只增不减，对容量取余得到在环中的偏移
+ * 每条记录为 路径长度(int) 操作(byte) 路径的UTF-8字节，环的剩余空间放不下一条记录时写入填充标记并从环的开头继续写入
+ * 检查点之前的记录已经写入数据库，写入位置追上检查点一圈时日志已满，需要先执行sql并移动检查点
+ */
+public class ChangeJournal {
+    public static final byte OP_ADD = 1;
+    public static final byte OP_DELETE = 2;
+    // 删除文件夹以及文件夹下的所有记录
+    public static final byte OP_DELETE_DIRECTORY = 3;
+    private static final int MAGIC = 0x46454A4C;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int WRITE_POSITION_OFFSET = 8;
+    private static final int CHECKPOINT_OFFSET = 16;
+    // 路径长度 + 操作
+    private static final int RECORD_HEADER_SIZE = 4 + 1;
+    private static final int PADDING = -1;
+
+    private final FileChannel fileChannel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private long writePosition;
+    private long checkpoint;
+
+    @FunctionalInterface
+    public interface RecordConsumer {
+        void accept(byte op, String path);
+    }
+
+    /**
+     * 打开日志文件，文件不存在或已损坏时重新创建
+     *
+     * @param file     日志文件
+     * @param capacity 环的容量
+     * @throws IOException 打开失败
+     */
+    public ChangeJournal(Path file, int capacity) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.capacity = capacity;
+        this.fileChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final boolean isNewFile = fileChannel.size() != (long) HEADER_SIZE + capacity;
+        this.buffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, (long) HEADER_SIZE + capacity);
+        writePosition = buffer.getLong(WRITE_POSITION_OFFSET);
+        checkpoint = buffer.getLong(CHECKPOINT_OFFSET);
+        if (isNewFile || buffer.getInt(MAGIC_OFFSET) != MAGIC || buffer.getInt(VERSION_OFFSET) != VERSION ||
+                checkpoint < 0 || writePosition < checkpoint || writePosition - checkpoint > capacity) {
+            if (!isNewFile) {
+                System.err.println("文件变化日志已损坏，重新创建 " + file);
+            }
+            writePosition = 0;
+            checkpoint = 0;
+            buffer.putInt(MAGIC_OFFSET, MAGIC);
+            buffer.putInt(VERSION_OFFSET, VERSION);
+            buffer.putLong(WRITE_POSITION_OFFSET, writePosition);
+            buffer.putLong(CHECKPOINT_OFFSET, checkpoint);
+            buffer.force();
+        }
+    }
+
+    /**
+     * 写入一条记录
+     *
+     * @param op   OP_ADD、OP_DELETE或OP_DELETE_DIRECTORY
+     * @param path 文件路径
+     * @return false如果日志已满
+     */
+    public synchronized boolean append(byte op, String path) {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        final int recordSize = RECORD_HEADER_SIZE + bytes.length;
+        long position = writePosition;
+        int offset = (int) (position % capacity);
+        final int remain = capacity - offset;
+        final long needed = remain < recordSize ? remain + recordSize : recordSize;
+        if (position + needed - checkpoint > capacity) {
+            return false;
+        }
+        if (remain < recordSize) {
+            if (remain >= 4) {
+                buffer.putInt(HEADER_SIZE + offset, PADDING);
+            }
+            position += remain;
+            offset = 0;
+        }
+        buffer.putInt(HEADER_SIZE + offset, bytes.length);
+        buffer.put(HEADER_SIZE + offset + 4, op);
+        buffer.put(HEADER_SIZE + offset + RECORD_HEADER_SIZE, bytes);
+        // 记录写入完成之后再更新写入位置，崩溃时最多丢失正在写入的一条记录
+        writePosition = position + recordSize;
+        buffer.putLong(WRITE_POSITION_OFFSET, writePosition);
+        return true;
+    }
+
+    public synchronized long getWritePosition() {
+        return writePosition;
+    }
+
+    /**
+     * 是否有还未写入数据库的记录
+     *
+     * @return true如果检查点落后于写入位置
+     */
+    public synchronized boolean hasPendingRecords() {
+        return checkpoint < writePosition;
+    }
+
+    /**
+     * 按顺序读取检查点到指定位置之间的所有记录，不移动检查点
+     * 该区间内的数据在检查点移动之前不会被覆盖，所以读取时不需要持有锁
+     *
+     * @param to       结束位置，通常为执行sql前的getWritePosition()
+     * @param consumer 记录处理
+     */
+    public void replay(long to, RecordConsumer consumer) {
+        long position;
+        synchronized (this) {
+            position = checkpoint;
+            to = Math.min(to, writePosition);
+        }
+        while (position < to) {
+            final int offset = (int) (position % capacity);
+            final int remain = capacity - offset;
+            if (remain < 4) {
+                position += remain;
+                continue;
+            }
+            final int length = buffer.getInt(HEADER_SIZE + offset);
+            if (length == PADDING) {
+                position += remain;
+                continue;
+            }
+            if (length < 0 || length + RECORD_HEADER_SIZE > remain) {
+                System.err.println("文件变化日志记录已损坏，停止重放，位置 " + position);
+                return;
+            }
+            final byte op = buffer.get(HEADER_SIZE + offset + 4);
+            byte[] bytes = new byte[length];
+            buffer.get(HEADER_SIZE + offset + RECORD_HEADER_SIZE, bytes);
+            consumer.accept(op, new String(bytes, StandardCharsets.UTF_8));
+            position += RECORD_HEADER_SIZE + length;
+        }
+    }
+
+    /**
+     * 设置检查点，position之前的记录已经写入数据库
+     *
+     * @param position 位置
+     */
+    public synchronized void checkpoint(long position) {
+        position = Math.min(position, writePosition);
+        if (position <= checkpoint) {
+            return;
+        }
+        checkpoint = position;
+        buffer.putLong(CHECKPOINT_OFFSET, checkpoint);
+        buffer.force();
+    }
+
+    /**
+     * 丢弃所有记录，数据库重建后之前的变化已经没有意义
+     */
+    public synchronized void clear() {
+        checkpoint(writePosition);
+    }
+
+    public synchronized void close() {
+        buffer.force();
+        try {
+            fileChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
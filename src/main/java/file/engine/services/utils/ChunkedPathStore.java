@@ -0,0 +1,382 @@
+package file.engine.services.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * 数据表缓存的存储，路径以UTF-8字节的形式追加写入到多个块中，不保存String对象
+ * <p>
+ * 写入和删除由synchronized互斥，删除只将记录标记为墓碑，墓碑超过记录数量的1/4时整理到新的块中
+ * 读取不加锁，每个块写入完成后才更新记录数量，读取时只读取已经写入完成的记录，多个块并行扫描
+ * 扫描时先在UTF-8字节上预先过滤，只有通过的记录才解码为String
+ * 路径的hash保存在开放寻址的索引中，添加时去重，删除时不需要遍历所有记录
+ * <p>
+ * 占用的内存按照已经分配的数组大小统计，增删记录返回占用内存的变化量，由调用者累加到总的缓存大小中
+ */
+public class ChunkedPathStore {
+    private static final int MIN_CHUNK_BYTES = 4 * 1024;
+    private static final int MAX_CHUNK_BYTES = 64 * 1024;
+    // 估算每个块的记录数量
+    private static final int AVERAGE_PATH_BYTES = 48;
+    // 块的位置保存在int中，低SLOT_BITS位为块中的序号
+    private static final int SLOT_BITS = 14;
+    private static final int MAX_CHUNK_RECORDS = 1 << SLOT_BITS;
+    private static final int MIN_INDEX_CAPACITY = 16;
+    // 墓碑数量超过总数的1/COMPACT_RATIO时整理
+    private static final int COMPACT_RATIO = 4;
+    private static final int MIN_COMPACT_TOMBSTONES = 64;
+
+    private volatile Chunk[] chunks = new Chunk[0];
+    // 路径hash，0表示空位，添加第一条记录时分配
+    private int[] indexHashes = new int[0];
+    // 记录位置，块序号 << SLOT_BITS | 块中的序号
+    private int[] indexPositions = new int[0];
+    private int liveNum;
+    private int tombstoneNum;
+    private long allocatedBytes = 0;
+    private boolean isClosed = false;
+
+    /**
+     * 添加记录，已经存在的记录不会重复添加
+     *
+     * @param path 文件路径
+     * @return 占用内存的变化量，已经关闭或记录已经存在时为0
+     */
+    public long add(String path) {
+        return add(path.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 添加UTF-8编码的记录，已经存在的记录不会重复添加
+     *
+     * @param bytes 文件路径的UTF-8字节
+     * @return 占用内存的变化量，已经关闭或记录已经存在时为0
+     */
+    public synchronized long add(byte[] bytes) {
+        if (isClosed) {
+            return 0;
+        }
+        final int hash = hash(bytes);
+        if (indexOf(bytes, hash) >= 0) {
+            return 0;
+        }
+        final long before = allocatedBytes;
+        final int position = append(bytes);
+        putIndex(hash, position);
+        ++liveNum;
+        return allocatedBytes - before;
+    }
+
+    /**
+     * 将记录标记为墓碑，墓碑过多时整理
+     *
+     * @param path 文件路径
+     * @return 占用内存的变化量，整理后为负数，没有整理时为0
+     */
+    public synchronized long remove(String path) {
+        if (isClosed) {
+            return 0;
+        }
+        final byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        final int index = indexOf(bytes, hash(bytes));
+        if (index < 0) {
+            return 0;
+        }
+        final int position = indexPositions[index];
+        chunks[position >>> SLOT_BITS].deleted[position & (MAX_CHUNK_RECORDS - 1)] = 1;
+        removeIndex(index);
+        --liveNum;
+        ++tombstoneNum;
+        if (tombstoneNum >= MIN_COMPACT_TOMBSTONES && tombstoneNum * COMPACT_RATIO > liveNum + tombstoneNum) {
+            return compact();
+        }
+        return 0;
+    }
+
+    public synchronized boolean contains(String path) {
+        final byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        return indexOf(bytes, hash(bytes)) >= 0;
+    }
+
+    /**
+     * 释放所有记录，关闭后添加和删除都不会生效，正在进行的读取不受影响
+     *
+     * @return 占用内存的变化量，为负数
+     */
+    public synchronized long close() {
+        if (isClosed) {
+            return 0;
+        }
+        isClosed = true;
+        final long freed = allocatedBytes;
+        chunks = new Chunk[0];
+        indexHashes = new int[0];
+        indexPositions = new int[0];
+        liveNum = 0;
+        tombstoneNum = 0;
+        allocatedBytes = 0;
+        return -freed;
+    }
+
+    public synchronized int size() {
+        return liveNum;
+    }
+
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * 在记录的UTF-8字节上判断，不解码
+     */
+    @FunctionalInterface
+    public interface BytesPredicate {
+        /**
+         * @param bytes 块中的数据
+         * @param from  记录的起始位置，包含
+         * @param to    记录的结束位置，不包含
+         * @return 是否满足条件
+         */
+        boolean test(byte[] bytes, int from, int to);
+    }
+
+    /**
+     * 并行扫描所有记录，不加锁，扫描期间写入的记录可能不会被读取
+     *
+     * @param predicate 过滤条件
+     * @return 满足条件的记录数量
+     */
+    public long count(Predicate<String> predicate) {
+        return count(null, predicate);
+    }
+
+    /**
+     * 并行扫描所有记录，不加锁，扫描期间写入的记录可能不会被读取
+     * 只有满足prefilter的记录才会解码并交给predicate判断
+     *
+     * @param prefilter 字节上的预先过滤条件，为null时所有记录都会解码
+     * @param predicate 过滤条件
+     * @return 同时满足两个条件的记录数量
+     */
+    public long count(BytesPredicate prefilter, Predicate<String> predicate) {
+        final Chunk[] current = chunks;
+        if (current.length <= 1) {
+            return current.length == 0 ? 0 : current[0].count(prefilter, predicate);
+        }
+        return Arrays.stream(current).parallel().mapToLong(chunk -> chunk.count(prefilter, predicate)).sum();
+    }
+
+    /**
+     * 顺序遍历所有记录，不加锁
+     *
+     * @param consumer 回调
+     */
+    public void forEach(Consumer<String> consumer) {
+        for (Chunk chunk : chunks) {
+            chunk.count(null, path -> {
+                consumer.accept(path);
+                return false;
+            });
+        }
+    }
+
+    /**
+     * 追加到最后一个块，空间不足时分配新的块，新块的大小为上一个块的两倍，不超过MAX_CHUNK_BYTES
+     *
+     * @return 记录位置
+     */
+    private int append(byte[] bytes) {
+        Chunk[] current = chunks;
+        Chunk chunk = current.length == 0 ? null : current[current.length - 1];
+        if (chunk == null || !chunk.hasRoom(bytes.length)) {
+            int capacity = chunk == null ? MIN_CHUNK_BYTES : Math.min(MAX_CHUNK_BYTES, chunk.data.length * 2);
+            chunk = new Chunk(Math.max(capacity, bytes.length));
+            allocatedBytes += chunk.getAllocatedBytes();
+            current = Arrays.copyOf(current, current.length + 1);
+            current[current.length - 1] = chunk;
+            // 新的块加入之后才发布，读取线程读取到的块都已经初始化完成
+            chunks = current;
+        }
+        return ((current.length - 1) << SLOT_BITS) | chunk.append(bytes);
+    }
+
+    /**
+     * 将所有未删除的记录复制到新的块中，重新建立索引，复制完成后才替换块，整理期间读取线程仍然读取旧的块
+     *
+     * @return 占用内存的变化量
+     */
+    private long compact() {
+        final long before = allocatedBytes;
+        ChunkedPathStore compacted = new ChunkedPathStore();
+        for (Chunk chunk : chunks) {
+            final int size = chunk.size;
+            for (int i = 0; i < size; ++i) {
+                if (chunk.deleted[i] != 0) {
+                    continue;
+                }
+                byte[] bytes = Arrays.copyOfRange(chunk.data, chunk.offsets[i], chunk.offsets[i + 1]);
+                compacted.putIndex(hash(bytes), compacted.append(bytes));
+                ++compacted.liveNum;
+            }
+        }
+        indexHashes = compacted.indexHashes;
+        indexPositions = compacted.indexPositions;
+        liveNum = compacted.liveNum;
+        tombstoneNum = 0;
+        allocatedBytes = compacted.allocatedBytes;
+        chunks = compacted.chunks;
+        return allocatedBytes - before;
+    }
+
+    private int indexOf(byte[] bytes, int hash) {
+        final int mask = indexHashes.length - 1;
+        if (mask < 0) {
+            return -1;
+        }
+        int index = hash & mask;
+        while (indexHashes[index] != 0) {
+            if (indexHashes[index] == hash) {
+                final int position = indexPositions[index];
+                final Chunk chunk = chunks[position >>> SLOT_BITS];
+                final int slot = position & (MAX_CHUNK_RECORDS - 1);
+                if (Arrays.equals(chunk.data, chunk.offsets[slot], chunk.offsets[slot + 1], bytes, 0, bytes.length)) {
+                    return index;
+                }
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void putIndex(int hash, int position) {
+        // 负载因子不超过0.5
+        if ((liveNum + 1) * 2 > indexHashes.length) {
+            resizeIndex();
+        }
+        final int mask = indexHashes.length - 1;
+        int index = hash & mask;
+        while (indexHashes[index] != 0) {
+            index = (index + 1) & mask;
+        }
+        indexHashes[index] = hash;
+        indexPositions[index] = position;
+    }
+
+    /**
+     * 删除索引中的记录，将后面同一探测链上的元素前移，不使用墓碑
+     */
+    private void removeIndex(int index) {
+        final int mask = indexHashes.length - 1;
+        int hole = index;
+        int next = (hole + 1) & mask;
+        while (indexHashes[next] != 0) {
+            int home = indexHashes[next] & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                indexHashes[hole] = indexHashes[next];
+                indexPositions[hole] = indexPositions[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        indexHashes[hole] = 0;
+    }
+
+    private void resizeIndex() {
+        final int[] oldHashes = indexHashes;
+        final int[] oldPositions = indexPositions;
+        final int capacity = Math.max(MIN_INDEX_CAPACITY, oldHashes.length * 2);
+        indexHashes = new int[capacity];
+        indexPositions = new int[capacity];
+        allocatedBytes += indexBytes(capacity) - indexBytes(oldHashes.length);
+        final int mask = capacity - 1;
+        for (int i = 0; i < oldHashes.length; ++i) {
+            if (oldHashes[i] == 0) {
+                continue;
+            }
+            int index = oldHashes[i] & mask;
+            while (indexHashes[index] != 0) {
+                index = (index + 1) & mask;
+            }
+            indexHashes[index] = oldHashes[i];
+            indexPositions[index] = oldPositions[i];
+        }
+    }
+
+    private static long indexBytes(int capacity) {
+        return (long) capacity * Integer.BYTES * 2;
+    }
+
+    /**
+     * FNV-1a，结果不会为0
+     */
+    private static int hash(byte[] bytes) {
+        int h = 0x811c9dc5;
+        for (byte each : bytes) {
+            h ^= each;
+            h *= 0x01000193;
+        }
+        // murmur3 fmix32，使低位分布均匀
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * 一个内存块，offsets[i]到offsets[i + 1]为第i条记录
+     * 写入完成后再更新size，读取线程读取到的记录都是完整的
+     */
+    private static class Chunk {
+        private final byte[] data;
+        private final int[] offsets;
+        private final byte[] deleted;
+        private volatile int size;
+
+        private Chunk(int capacity) {
+            data = new byte[capacity];
+            final int maxRecords = Math.min(MAX_CHUNK_RECORDS, Math.max(1, capacity / AVERAGE_PATH_BYTES * 2));
+            offsets = new int[maxRecords + 1];
+            deleted = new byte[maxRecords];
+        }
+
+        private boolean hasRoom(int length) {
+            return size < deleted.length && data.length - offsets[size] >= length;
+        }
+
+        private int append(byte[] bytes) {
+            final int slot = size;
+            final int start = offsets[slot];
+            System.arraycopy(bytes, 0, data, start, bytes.length);
+            offsets[slot + 1] = start + bytes.length;
+            size = slot + 1;
+            return slot;
+        }
+
+        private long count(BytesPredicate prefilter, Predicate<String> predicate) {
+            final int currentSize = size;
+            long count = 0;
+            for (int i = 0; i < currentSize; ++i) {
+                if (deleted[i] != 0) {
+                    continue;
+                }
+                final int start = offsets[i];
+                final int end = offsets[i + 1];
+                if (prefilter != null && !prefilter.test(data, start, end)) {
+                    continue;
+                }
+                if (predicate.test(new String(data, start, end - start, StandardCharsets.UTF_8))) {
+                    ++count;
+                }
+            }
+            return count;
+        }
+
+        private long getAllocatedBytes() {
+            return data.length + (long) offsets.length * Integer.BYTES + deleted.length;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package file.engine.services.utils;
+
+import file.engine.services.utils.connection.SchemaUtil;
+import org.sqlite.Function;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 注册到SQLite中的文件夹路径函数，用法为 DIR_PATH(DIR_ID)，返回以分隔符结尾的文件夹完整路径
+ * v2数据库的listN视图通过该函数还原完整路径，每个连接注册一个实例，最近使用的文件夹路径缓存在实例中
+ * 文件夹记录只会新增不会修改，但是事务回滚后新增的文件夹id会被撤销并可能分配给其他文件夹，此时需要调用clearAllCaches
+ *
+ * @see SchemaUtil
+ */
+public class DirPathSqlFunction extends Function {
+    public static final String FUNCTION_NAME = "DIR_PATH";
+    private static final int MAX_CACHED_DIRS = 64 * 1024;
+    // 每次clearAllCaches增加，实例在下次调用时发现版本变化后清空缓存
+    private static final AtomicInteger cacheVersion = new AtomicInteger();
+    private final Connection connection;
+    private final LinkedHashMap<Integer, String> dirPathCache = new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+            return size() > MAX_CACHED_DIRS;
+        }
+    };
+    private PreparedStatement selectDir;
+    private int currentCacheVersion = cacheVersion.get();
+
+    private DirPathSqlFunction(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * 注册到数据库连接，连接重新打开后需要重新注册
+     *
+     * @param connection 数据库连接
+     * @throws SQLException 失败
+     */
+    public static void registerTo(Connection connection) throws SQLException {
+        Function.create(connection, FUNCTION_NAME, new DirPathSqlFunction(connection), 1, Function.FLAG_DETERMINISTIC);
+    }
+
+    /**
+     * 清空所有连接中缓存的文件夹路径，写入文件夹的事务回滚后调用
+     */
+    public static void clearAllCaches() {
+        cacheVersion.incrementAndGet();
+    }
+
+    @Override
+    protected synchronized void xFunc() throws SQLException {
+        if (args() != 1) {
+            throw new SQLException(FUNCTION_NAME + "(DIR_ID)");
+        }
+        final int version = cacheVersion.get();
+        if (version != currentCacheVersion) {
+            dirPathCache.clear();
+            currentCacheVersion = version;
+        }
+        result(getDirPath(value_int(0)));
+    }
+
+    private String getDirPath(int dirId) throws SQLException {
+        if (dirId == 0) {
+            return "";
+        }
+        String dirPath = dirPathCache.get(dirId);
+        if (dirPath != null) {
+            return dirPath;
+        }
+        if (selectDir == null) {
+            selectDir = connection.prepareStatement("SELECT PARENT_ID, NAME FROM dirs WHERE ID=?;");
+        }
+        int parentId;
+        String dirName;
+        selectDir.setInt(1, dirId);
+        try (ResultSet resultSet = selectDir.executeQuery()) {
+            if (!resultSet.next()) {
+                return "";
+            }
+            parentId = resultSet.getInt(1);
+            dirName = resultSet.getString(2);
+        }
+        dirPath = SchemaUtil.joinDirPath(getDirPath(parentId), dirName);
+        dirPathCache.put(dirId, dirPath);
+        return dirPath;
+    }
+}
@@ -0,0 +1,458 @@
+package file.engine.services.utils;
+
+import file.engine.services.utils.monitor.FileChangeSource;
+import file.engine.utils.ThreadPoolUtil;
+import file.engine.utils.system.properties.IsDebug;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 文件变化处理流水线
+ * drain：批量从文件监控中取出变化 -> normalize：过滤并展开父文件夹 -> expand：在线程池中遍历新增文件夹的子文件 -> write：写入数据库
+ * 每个阶段之间使用有界队列，下游处理不过来时上游阻塞，不会无限占用内存
+ * <p>
+ * drain阶段取出变化时就写入文件变化日志，日志中只保存文件监控产生的原始变化，父文件夹和展开的子文件在重放时重新生成
+ * 每条原始变化在它以及由它产生的所有变化都交给write阶段之前保持未完成，数据库只能将检查点移动到最早的未完成变化之前
+ * <p>
+ * 退出前调用stop等待所有阶段退出，之后不会再产生新的sql，队列中没有处理的变化保持未完成，下次启动时从日志中重放
+ */
+public class FileChangePipeline {
+    private static final int DRAIN_BATCH_SIZE = 4096;
+    private static final int NORMALIZE_QUEUE_CAPACITY = 16 * 1024;
+    private static final int EXPAND_QUEUE_CAPACITY = 1024;
+    private static final int WRITE_QUEUE_CAPACITY = 64 * 1024;
+    private static final int WRITE_BATCH_SIZE = 4096;
+    private static final int EXPAND_WORKER_NUM = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    private static final long METRICS_INTERVAL_MILLS = 1000;
+    private static final long METRICS_PRINT_INTERVAL_MILLS = 10_000;
+
+    private final Supplier<FileChangeSource.Change> changeSource;
+    private final Predicate<String> filter;
+    private final BiConsumer<String, Boolean> addHandler;
+    private final BiConsumer<String, Boolean> deleteHandler;
+    private final BooleanSupplier isRunning;
+    private final Supplier<ChangeJournal> journalSource;
+    private final Runnable journalFullHandler;
+    // key为原始变化在日志中的位置
+    private final ConcurrentSkipListMap<Long, PendingChange> pendingChanges = new ConcurrentSkipListMap<>();
+
+    private final BlockingQueue<FileChange> normalizeQueue = new ArrayBlockingQueue<>(NORMALIZE_QUEUE_CAPACITY);
+    private final BlockingQueue<FileChange> expandQueue = new ArrayBlockingQueue<>(EXPAND_QUEUE_CAPACITY);
+    private final BlockingQueue<FileChange> writeQueue = new ArrayBlockingQueue<>(WRITE_QUEUE_CAPACITY);
+    private final Stage drainStage = new Stage("drain", null);
+    private final Stage normalizeStage = new Stage("normalize", normalizeQueue);
+    private final Stage expandStage = new Stage("expand", expandQueue);
+    private final Stage writeStage = new Stage("write", writeQueue);
+    private final List<Stage> stages = List.of(drainStage, normalizeStage, expandStage, writeStage);
+    // drain normalize write以及所有expand线程退出时计数
+    private final CountDownLatch exitLatch = new CountDownLatch(3 + EXPAND_WORKER_NUM);
+    private volatile boolean isStopped = false;
+
+    /**
+     * @param isDirectory 新增的路径是否为文件夹，在normalize和expand阶段判断，删除时由文件变化来源给出
+     * @param isExpanded  是否为expand阶段遍历文件夹得到的新增，写入前文件可能已经被删除
+     * @param pending     产生该变化的原始变化，没有写入日志时为null
+     */
+    private record FileChange(String path, boolean isAdd, boolean isDirectory, boolean isExpanded, PendingChange pending) {
+    }
+
+    /**
+     * 已经写入日志但还没有全部交给write阶段的原始变化，引用计数为0时完成
+     */
+    private class PendingChange {
+        private final long journalPosition;
+        private final AtomicInteger refCount = new AtomicInteger(1);
+
+        private PendingChange(long journalPosition) {
+            this.journalPosition = journalPosition;
+        }
+
+        private void retain() {
+            refCount.incrementAndGet();
+        }
+
+        private void release() {
+            if (refCount.decrementAndGet() == 0) {
+                pendingChanges.remove(journalPosition, this);
+            }
+        }
+    }
+
+    /**
+     * 阶段统计信息
+     *
+     * @param name            阶段名
+     * @param queueDepth      输入队列中等待处理的数量，没有输入队列时为-1
+     * @param queueCapacity   输入队列容量，没有输入队列时为-1
+     * @param eventsPerSecond 最近一秒处理的数量
+     * @param totalEvents     总处理数量
+     */
+    public record StageMetrics(String name, int queueDepth, int queueCapacity, long eventsPerSecond, long totalEvents) {
+    }
+
+    /**
+     * @param changeSource       按发生顺序返回文件变化，没有新的变化时返回null
+     * @param filter             返回false的路径将被忽略
+     * @param addHandler         写入新增文件，参数为文件路径以及是否为文件夹
+     * @param deleteHandler      写入删除文件，参数为文件路径以及是否为文件夹
+     * @param isRunning          返回false时所有阶段退出，与调用stop的效果相同
+     * @param journalSource      文件变化日志，返回null时不写入日志
+     * @param journalFullHandler 日志已满时调用，用于执行sql移动检查点，调用时不持有日志锁
+     */
+    public FileChangePipeline(Supplier<FileChangeSource.Change> changeSource,
+                              Predicate<String> filter,
+                              BiConsumer<String, Boolean> addHandler,
+                              BiConsumer<String, Boolean> deleteHandler,
+                              BooleanSupplier isRunning,
+                              Supplier<ChangeJournal> journalSource,
+                              Runnable journalFullHandler) {
+        this.changeSource = changeSource;
+        this.filter = filter;
+        this.addHandler = addHandler;
+        this.deleteHandler = deleteHandler;
+        this.isRunning = isRunning;
+        this.journalSource = journalSource;
+        this.journalFullHandler = journalFullHandler;
+    }
+
+    /**
+     * 启动所有阶段
+     */
+    public void start() {
+        ThreadPoolUtil threadPoolUtil = ThreadPoolUtil.getInstance();
+        // 文件监控通过JNA调用，使用平台线程
+        threadPoolUtil.executeTask(() -> runStage(this::drain), false);
+        threadPoolUtil.executeTask(() -> runStage(this::normalize));
+        for (int i = 0; i < EXPAND_WORKER_NUM; ++i) {
+            threadPoolUtil.executeTask(() -> runStage(this::expand));
+        }
+        threadPoolUtil.executeTask(() -> runStage(this::write));
+        threadPoolUtil.executeTask(this::updateMetrics);
+    }
+
+    /**
+     * 停止所有阶段并等待退出，退出之后write阶段不会再调用addHandler和deleteHandler
+     *
+     * @param timeoutMills 最长等待时间
+     * @return true如果所有阶段都已经退出
+     */
+    public boolean stop(long timeoutMills) throws InterruptedException {
+        isStopped = true;
+        return exitLatch.await(timeoutMills, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return true如果还有已经写入日志但没有交给write阶段处理完成的变化
+     */
+    public boolean hasPendingChanges() {
+        return !pendingChanges.isEmpty();
+    }
+
+    private void runStage(Runnable stage) {
+        try {
+            stage.run();
+        } finally {
+            exitLatch.countDown();
+        }
+    }
+
+    private boolean isRunning() {
+        return !isStopped && isRunning.getAsBoolean();
+    }
+
+    public List<StageMetrics> getMetrics() {
+        ArrayList<StageMetrics> metrics = new ArrayList<>(stages.size());
+        for (Stage stage : stages) {
+            metrics.add(stage.toMetrics());
+        }
+        return metrics;
+    }
+
+    /**
+     * 获取可以移动到的检查点，必须在持有日志锁时调用，保证与drain阶段写入日志的顺序一致
+     *
+     * @param writePosition 日志当前的写入位置
+     * @return 最早的未完成变化在日志中的位置，没有未完成的变化时为writePosition
+     */
+    public long getCheckpointPosition(long writePosition) {
+        var oldest = pendingChanges.firstEntry();
+        return oldest == null ? writePosition : Math.min(writePosition, oldest.getKey());
+    }
+
+    private void drain() {
+        try {
+            while (isRunning()) {
+                int drained = 0;
+                while (drained < DRAIN_BATCH_SIZE) {
+                    FileChangeSource.Change change = changeSource.get();
+                    if (change == null) {
+                        break;
+                    }
+                    String path = change.path();
+                    final byte op = change.isAdd() ? ChangeJournal.OP_ADD :
+                            change.isDirectory() ? ChangeJournal.OP_DELETE_DIRECTORY : ChangeJournal.OP_DELETE;
+                    put(normalizeQueue, new FileChange(path, change.isAdd(), !change.isAdd() && change.isDirectory(), false,
+                            path == null ? null : appendJournal(op, path)));
+                    ++drained;
+                }
+                drainStage.processed.add(drained);
+                if (drained == 0) {
+                    TimeUnit.MILLISECONDS.sleep(1);
+                }
+            }
+        } catch (InterruptedException ignored) {
+            // ignore interrupt exception
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 将原始变化写入日志，日志已满时先执行sql移动检查点再重试一次
+     *
+     * @return 未完成的变化，日志不可用或写入失败时为null
+     */
+    private PendingChange appendJournal(byte op, String path) {
+        if (path.isEmpty()) {
+            return null;
+        }
+        for (int i = 0; i < 2; ++i) {
+            ChangeJournal journal = journalSource.get();
+            if (journal == null) {
+                return null;
+            }
+            synchronized (journal) {
+                final long position = journal.getWritePosition();
+                if (journal.append(op, path)) {
+                    PendingChange pendingChange = new PendingChange(position);
+                    pendingChanges.put(position, pendingChange);
+                    return pendingChange;
+                }
+            }
+            // 不能在持有日志锁时执行，执行sql时会先获取数据库的锁再获取日志锁
+            journalFullHandler.run();
+        }
+        System.err.println("写入文件变化日志失败 " + path);
+        return null;
+    }
+
+    private static void release(FileChange fileChange) {
+        if (fileChange.pending != null) {
+            fileChange.pending.release();
+        }
+    }
+
+    /**
+     * 过滤变化，新增文件时同时添加所有父文件夹，同一批中的父文件夹只添加一次，新增的文件夹交给expand阶段遍历
+     * 删除和新增按照原始顺序进入write阶段，删除之后同一批中的父文件夹需要重新添加
+     */
+    private void normalize() {
+        ArrayList<FileChange> batch = new ArrayList<>(DRAIN_BATCH_SIZE);
+        HashSet<String> addedParents = new HashSet<>();
+        try {
+            while (isRunning()) {
+                if (!drainBatch(normalizeQueue, batch, DRAIN_BATCH_SIZE)) {
+                    continue;
+                }
+                for (FileChange fileChange : batch) {
+                    String path = fileChange.path;
+                    if (path == null || path.isEmpty() || !filter.test(path)) {
+                        release(fileChange);
+                        continue;
+                    }
+                    if (!fileChange.isAdd) {
+                        // 被删除的可能是已经添加过的父文件夹
+                        addedParents.clear();
+                        put(writeQueue, fileChange);
+                        continue;
+                    }
+                    File file = new File(path);
+                    boolean isDirectory = file.isDirectory();
+                    if (isDirectory) {
+                        if (fileChange.pending != null) {
+                            fileChange.pending.retain();
+                        }
+                        put(expandQueue, new FileChange(file.getAbsolutePath(), true, true, false, fileChange.pending));
+                    }
+                    // 根目录不添加，父路径一定是文件夹，原始变化随第一个写入的路径交给write阶段
+                    PendingChange pending = fileChange.pending;
+                    for (; file.getParentFile() != null; file = file.getParentFile(), isDirectory = true) {
+                        String eachPath = file.getAbsolutePath();
+                        if (!addedParents.add(eachPath)) {
+                            break;
+                        }
+                        put(writeQueue, new FileChange(eachPath, true, isDirectory, false, pending));
+                        pending = null;
+                    }
+                    if (pending != null) {
+                        pending.release();
+                    }
+                }
+                normalizeStage.processed.add(batch.size());
+                batch.clear();
+                addedParents.clear();
+            }
+        } catch (InterruptedException ignored) {
+            // ignore interrupt exception
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void expand() {
+        ArrayDeque<File> dirs = new ArrayDeque<>();
+        try {
+            while (isRunning()) {
+                FileChange dir = expandQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (dir == null) {
+                    continue;
+                }
+                final PendingChange pending = dir.pending;
+                dirs.add(new File(dir.path));
+                File remain;
+                while ((remain = dirs.poll()) != null && isRunning()) {
+                    File[] subFiles = remain.listFiles();
+                    if (subFiles == null) {
+                        continue;
+                    }
+                    for (File eachFile : subFiles) {
+                        boolean isDirectory = eachFile.isDirectory();
+                        if (pending != null) {
+                            pending.retain();
+                        }
+                        put(writeQueue, new FileChange(eachFile.getAbsolutePath(), true, isDirectory, true, pending));
+                        if (isDirectory) {
+                            dirs.add(eachFile);
+                        }
+                    }
+                    expandStage.processed.add(subFiles.length);
+                }
+                dirs.clear();
+                // 流水线停止时没有遍历完成，原始变化保持未完成，下次启动时重放
+                if (isRunning()) {
+                    release(dir);
+                }
+            }
+        } catch (InterruptedException ignored) {
+            // ignore interrupt exception
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void write() {
+        ArrayList<FileChange> batch = new ArrayList<>(WRITE_BATCH_SIZE);
+        try {
+            while (isRunning()) {
+                if (!drainBatch(writeQueue, batch, WRITE_BATCH_SIZE)) {
+                    continue;
+                }
+                for (FileChange fileChange : batch) {
+                    try {
+                        if (fileChange.isAdd) {
+                            // 遍历之后文件被删除时，删除可能已经先于遍历结果写入，此时不能再添加
+                            if (!fileChange.isExpanded || new File(fileChange.path).exists()) {
+                                addHandler.accept(fileChange.path, fileChange.isDirectory);
+                            }
+                        } else {
+                            deleteHandler.accept(fileChange.path, fileChange.isDirectory);
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                    // 处理完成后才能释放，检查点之前的变化都已经进入待执行的sql
+                    release(fileChange);
+                }
+                writeStage.processed.add(batch.size());
+                batch.clear();
+            }
+        } catch (InterruptedException ignored) {
+            // ignore interrupt exception
+        }
+    }
+
+    private void updateMetrics() {
+        long lastPrintTime = System.currentTimeMillis();
+        try {
+            while (isRunning()) {
+                TimeUnit.MILLISECONDS.sleep(METRICS_INTERVAL_MILLS);
+                for (Stage stage : stages) {
+                    stage.updateRate();
+                }
+                if (IsDebug.isDebug() && System.currentTimeMillis() - lastPrintTime > METRICS_PRINT_INTERVAL_MILLS) {
+                    lastPrintTime = System.currentTimeMillis();
+                    getMetrics().forEach(metrics -> System.out.println("文件变化处理 " + metrics));
+                }
+            }
+        } catch (InterruptedException ignored) {
+            // ignore interrupt exception
+        }
+    }
+
+    /**
+     * 等待第一个元素后取出队列中剩余的元素
+     *
+     * @return false如果等待超时
+     */
+    private static <T> boolean drainBatch(BlockingQueue<T> queue, ArrayList<T> batch, int maxSize) throws InterruptedException {
+        T first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return false;
+        }
+        batch.add(first);
+        queue.drainTo(batch, maxSize - 1);
+        return true;
+    }
+
+    /**
+     * 队列已满时阻塞，直到下游取出元素或流水线停止
+     */
+    private <T> void put(BlockingQueue<T> queue, T item) throws InterruptedException {
+        while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+            if (!isRunning()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    private static class Stage {
+        private final String name;
+        private final BlockingQueue<?> inputQueue;
+        private final LongAdder processed = new LongAdder();
+        private long lastProcessed;
+        private volatile long eventsPerSecond;
+
+        private Stage(String name, BlockingQueue<?> inputQueue) {
+            this.name = name;
+            this.inputQueue = inputQueue;
+        }
+
+        private void updateRate() {
+            long current = processed.sum();
+            eventsPerSecond = (current - lastProcessed) * 1000 / METRICS_INTERVAL_MILLS;
+            lastProcessed = current;
+        }
+
+        private StageMetrics toMetrics() {
+            if (inputQueue == null) {
+                return new StageMetrics(name, -1, -1, eventsPerSecond, processed.sum());
+            }
+            return new StageMetrics(name, inputQueue.size(), inputQueue.size() + inputQueue.remainingCapacity(), eventsPerSecond, processed.sum());
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package file.engine.services.utils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 文件类型索引，记录索引中哪些路径是文件夹，f和d搜索规则直接通过该索引判断，不再访问文件系统
+ * 每个磁盘保存所有文件夹路径的64位hash，同时保存到数据库的dir_hash表中，启动时重新加载
+ * <p>
+ * 文件夹记录来源：
+ * 1. 文件监控写入记录时已经知道是否为文件夹，写入时同时记录
+ * 2. fileSearcherUSN重新写入数据库后，由DatabaseService遍历所有记录重新建立：所有记录的父路径都是文件夹，
+ * 没有子记录且没有后缀名（priority为-1）的记录访问一次文件系统判断
+ * 3. 带后缀名的空文件夹（如v1.2）在重新建立时被当作文件，结果显示前检查文件是否存在时发现后记录
+ * <p>
+ * 索引中只有文件夹，不在索引中的路径只有在父文件夹已经记录时才认为是文件，
+ * 父文件夹不在索引中的路径（不在数据库中的路径、所在文件夹已经被删除的路径）返回TYPE_UNKNOWN
+ * 只有建立完成（ready）的磁盘返回TYPE_FILE或TYPE_DIRECTORY，其余磁盘返回TYPE_UNKNOWN，调用者需要回退到访问文件系统
+ * ngram_meta中TABLE_NAME为dir_hash的记录表示该磁盘的文件类型索引是否建立完成，与ngram索引一起失效
+ */
+public class FileTypeIndex {
+    public static final String TABLE_NAME = "dir_hash";
+    public static final int TYPE_UNKNOWN = 0;
+    public static final int TYPE_FILE = 1;
+    public static final int TYPE_DIRECTORY = 2;
+    private static volatile FileTypeIndex INSTANCE = null;
+
+    // key为盘符，value为该磁盘所有文件夹路径的hash
+    private final ConcurrentHashMap<Character, LongHashSet> dirHashes = new ConcurrentHashMap<>();
+    private final Set<Character> readyDisks = ConcurrentHashMap.newKeySet();
+
+    private FileTypeIndex() {
+    }
+
+    public static FileTypeIndex getInstance() {
+        if (INSTANCE == null) {
+            synchronized (FileTypeIndex.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new FileTypeIndex();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * 获取索引中记录的文件类型
+     *
+     * @param path 文件路径
+     * @return TYPE_FILE TYPE_DIRECTORY，磁盘的索引还未建立完成或父文件夹不在索引中时返回TYPE_UNKNOWN
+     */
+    public int getType(String path) {
+        if (path == null || path.isEmpty()) {
+            return TYPE_UNKNOWN;
+        }
+        final char disk = getDisk(path);
+        if (!readyDisks.contains(disk)) {
+            return TYPE_UNKNOWN;
+        }
+        LongHashSet hashes = dirHashes.get(disk);
+        if (hashes == null) {
+            return TYPE_UNKNOWN;
+        }
+        if (hashes.contains(hash(path, path.length()))) {
+            return TYPE_DIRECTORY;
+        }
+        // 根目录下的文件（例如 C:\a.txt）父路径为盘符，不在索引中，无法判断
+        final int separatorIndex = Math.max(path.lastIndexOf('\\'), path.lastIndexOf('/'));
+        return separatorIndex > 0 && hashes.contains(hash(path, separatorIndex)) ? TYPE_FILE : TYPE_UNKNOWN;
+    }
+
+    /**
+     * 判断是否为文件，索引还未建立完成时访问文件系统
+     */
+    public boolean isFile(String path) {
+        final int type = getType(path);
+        return type == TYPE_UNKNOWN ? Files.isRegularFile(Path.of(path)) : type == TYPE_FILE;
+    }
+
+    /**
+     * 判断是否为文件夹，索引还未建立完成时访问文件系统
+     */
+    public boolean isDirectory(String path) {
+        final int type = getType(path);
+        return type == TYPE_UNKNOWN ? Files.isDirectory(Path.of(path)) : type == TYPE_DIRECTORY;
+    }
+
+    /**
+     * 是否已经记录为文件夹，不检查磁盘的索引是否建立完成，用于写入数据库
+     */
+    public boolean isDirectoryRecorded(String path) {
+        LongHashSet hashes = dirHashes.get(getDisk(path));
+        return hashes != null && hashes.contains(hash(path, path.length()));
+    }
+
+    /**
+     * 记录文件夹
+     *
+     * @param path 文件夹路径
+     */
+    public void addDirectory(String path) {
+        addDirectory(path, path.length());
+    }
+
+    /**
+     * 记录path前length个字符组成的文件夹路径，用于记录父路径时不需要截取字符串
+     *
+     * @return false如果已经记录过
+     */
+    public boolean addDirectory(String path, int length) {
+        return getHashes(getDisk(path)).add(hash(path, length));
+    }
+
+    /**
+     * 删除记录，path不是文件夹时不做任何操作
+     *
+     * @param path 文件路径
+     */
+    public void remove(String path) {
+        LongHashSet hashes = dirHashes.get(getDisk(path));
+        if (hashes != null) {
+            hashes.remove(hash(path, path.length()));
+        }
+    }
+
+    public boolean isReady(String disk) {
+        return readyDisks.contains(getDisk(disk));
+    }
+
+    public void setReady(String disk) {
+        readyDisks.add(getDisk(disk));
+    }
+
+    /**
+     * 数据库被重新写入后清空该磁盘的索引
+     *
+     * @param disk 盘符
+     */
+    public void clear(String disk) {
+        final char diskChar = getDisk(disk);
+        readyDisks.remove(diskChar);
+        dirHashes.remove(diskChar);
+    }
+
+    /**
+     * 遍历磁盘中所有文件夹的hash，用于将重新建立的索引写入数据库
+     *
+     * @param disk     盘符
+     * @param consumer 回调
+     */
+    public void forEachDirectoryHash(String disk, HashConsumer consumer) throws SQLException {
+        LongHashSet hashes = dirHashes.get(getDisk(disk));
+        if (hashes == null) {
+            return;
+        }
+        for (long each : hashes.toArray()) {
+            consumer.accept(each);
+        }
+    }
+
+    @FunctionalInterface
+    public interface HashConsumer {
+        void accept(long hash) throws SQLException;
+    }
+
+    /**
+     * 从数据库中加载磁盘的文件夹记录，索引已经建立完成时将磁盘标记为ready
+     *
+     * @param disk 盘符
+     * @param stmt 该磁盘数据库的statement
+     * @return 加载的文件夹数量
+     */
+    @SuppressWarnings("SqlNoDataSourceInspection")
+    public int load(String disk, Statement stmt) throws SQLException {
+        final char diskChar = getDisk(disk);
+        LongHashSet hashes = getHashes(diskChar);
+        int count = 0;
+        try (ResultSet resultSet = stmt.executeQuery("SELECT HASH FROM " + TABLE_NAME + ";")) {
+            while (resultSet.next()) {
+                if (hashes.add(resultSet.getLong(1))) {
+                    ++count;
+                }
+            }
+        }
+        try (ResultSet resultSet = stmt.executeQuery("SELECT IS_READY FROM ngram_meta WHERE TABLE_NAME=\"" + TABLE_NAME + "\";")) {
+            if (resultSet.next() && resultSet.getInt(1) == 1) {
+                readyDisks.add(diskChar);
+            }
+        }
+        return count;
+    }
+
+    public static String getCreateTableSql() {
+        return "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + "(HASH INTEGER PRIMARY KEY);";
+    }
+
+    /**
+     * 记录文件夹，参数为 HASH
+     */
+    public static String getInsertSql() {
+        return "INSERT OR IGNORE INTO " + TABLE_NAME + " VALUES(?);";
+    }
+
+    /**
+     * 删除文件夹，参数为 HASH
+     */
+    public static String getDeleteSql() {
+        return "DELETE FROM " + TABLE_NAME + " WHERE HASH=?;";
+    }
+
+    /**
+     * 计算路径前length个字符的hash，忽略大小写，结果不会为0
+     * hash保存在数据库中，算法不能修改
+     *
+     * @param path   文件路径
+     * @param length 参与计算的字符数量
+     * @return 64位hash
+     */
+    public static long hash(String path, int length) {
+        // FNV-1a
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; ++i) {
+            h ^= Character.toLowerCase(path.charAt(i));
+            h *= 0x100000001b3L;
+        }
+        // murmur3 fmix64，使低位分布均匀
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    private LongHashSet getHashes(char disk) {
+        return dirHashes.computeIfAbsent(disk, k -> new LongHashSet());
+    }
+
+    private static char getDisk(String path) {
+        return Character.toUpperCase(path.charAt(0));
+    }
+
+    /**
+     * 开放寻址的long集合，0表示空位，删除时将后面的元素前移，不使用墓碑
+     * 读取使用乐观锁，不阻塞并发的匹配线程
+     */
+    private static class LongHashSet {
+        private static final int INITIAL_CAPACITY = 1024;
+        private final StampedLock lock = new StampedLock();
+        private long[] table = new long[INITIAL_CAPACITY];
+        private int size;
+
+        private boolean contains(long value) {
+            long stamp = lock.tryOptimisticRead();
+            boolean ret = indexOf(table, value) >= 0;
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    ret = indexOf(table, value) >= 0;
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return ret;
+        }
+
+        private boolean add(long value) {
+            long stamp = lock.writeLock();
+            try {
+                if (indexOf(table, value) >= 0) {
+                    return false;
+                }
+                // 负载因子不超过0.5
+                if ((size + 1) * 2 > table.length) {
+                    resize();
+                }
+                insert(table, value);
+                ++size;
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private void remove(long value) {
+            long stamp = lock.writeLock();
+            try {
+                int index = indexOf(table, value);
+                if (index < 0) {
+                    return;
+                }
+                final int mask = table.length - 1;
+                // 将后面同一探测链上的元素前移
+                int hole = index;
+                int next = (hole + 1) & mask;
+                while (table[next] != 0) {
+                    int home = slot(table[next], mask);
+                    if (((next - home) & mask) >= ((next - hole) & mask)) {
+                        table[hole] = table[next];
+                        hole = next;
+                    }
+                    next = (next + 1) & mask;
+                }
+                table[hole] = 0;
+                --size;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private long[] toArray() {
+            long stamp = lock.readLock();
+            try {
+                long[] ret = new long[size];
+                int i = 0;
+                for (long each : table) {
+                    if (each != 0) {
+                        ret[i++] = each;
+                    }
+                }
+                return ret;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private void resize() {
+            long[] newTable = new long[table.length * 2];
+            for (long each : table) {
+                if (each != 0) {
+                    insert(newTable, each);
+                }
+            }
+            table = newTable;
+        }
+
+        private static void insert(long[] table, long value) {
+            final int mask = table.length - 1;
+            int index = slot(value, mask);
+            while (table[index] != 0) {
+                index = (index + 1) & mask;
+            }
+            table[index] = value;
+        }
+
+        /**
+         * 乐观读取时table可能正在被修改，最多探测table.length次
+         */
+        private static int indexOf(long[] table, long value) {
+            final int mask = table.length - 1;
+            int index = slot(value, mask);
+            for (int i = 0; i < table.length; ++i) {
+                long each = table[index];
+                if (each == value) {
+                    return index;
+                }
+                if (each == 0) {
+                    return -1;
+                }
+                index = (index + 1) & mask;
+            }
+            return -1;
+        }
+
+        private static int slot(long value, int mask) {
+            return (int) (value ^ (value >>> 32)) & mask;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package file.engine.services.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 每个(磁盘, 表, 优先级)的文件名gram摘要，用于在搜索前跳过不可能包含关键字的表
+ * 摘要为文件名gram（与ngram索引相同，包括拼音和拼音首字母）的布隆过滤器，key与databaseResultsCount相同，例如 [C,list10,-1]
+ * <p>
+ * 写入记录时同时写入摘要，删除记录时不修改摘要，只会增加误判，不会跳过包含结果的表，重新建立摘要时清除已经删除的记录
+ * 只有建立完成（ready）的摘要可以用于跳过，不存在或未建立完成的摘要视为可能包含任何关键字
+ */
+public class GramSummaryIndex {
+    // 每个gram占用的bit数，k=3时误判率约为5%
+    private static final int BITS_PER_GRAM = 10;
+    // 每条记录平均的gram数量，用于估算过滤器大小
+    private static final int GRAMS_PER_RECORD = 12;
+    private static final int MIN_BITS = 1 << 9;
+    private static final int MAX_BITS = 1 << 19;
+    private static final int HASH_NUM = 3;
+    private static volatile GramSummaryIndex INSTANCE = null;
+
+    private final ConcurrentHashMap<String, Summary> summaries = new ConcurrentHashMap<>();
+
+    private GramSummaryIndex() {
+    }
+
+    public static GramSummaryIndex getInstance() {
+        if (INSTANCE == null) {
+            synchronized (GramSummaryIndex.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new GramSummaryIndex();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * 判断表中是否可能有文件名包含所有关键字的记录
+     *
+     * @param key   查询key，例如 [C,list10,-1]
+     * @param grams 所有关键字的gram
+     * @return false如果摘要已经建立完成并且至少有一个gram不存在
+     * @see NGramUtil#getQueryGrams(String[], boolean[])
+     */
+    public boolean mayContain(String key, long[] grams) {
+        if (grams.length == 0) {
+            return true;
+        }
+        Summary summary = summaries.get(key);
+        if (summary == null || !summary.isReady) {
+            return true;
+        }
+        for (long gram : grams) {
+            if (!summary.contains(gram)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 添加记录和执行写入记录的sql时将文件名的gram写入摘要，摘要不存在时不做任何操作
+     *
+     * @param key      key，例如 [C,list10,-1]
+     * @param fileName 文件名
+     */
+    public void add(String key, String fileName) {
+        Summary summary = summaries.get(key);
+        if (summary == null) {
+            return;
+        }
+        for (long gram : NGramUtil.getGrams(fileName)) {
+            summary.add(gram);
+        }
+    }
+
+    /**
+     * 开始重新建立一个表的摘要，替换之前的摘要，返回的摘要在调用ready之前不会用于跳过
+     * 替换之后写入的记录会直接写入新的摘要，调用者需要保证替换之前写入的记录都已经提交，之后再遍历表中的记录
+     *
+     * @param disk            盘符
+     * @param tableName       表名 listN
+     * @param countByPriority 每个优先级的记录数量，用于估算过滤器大小
+     * @param priorities      所有的优先级
+     * @return key为优先级，value为新的摘要
+     */
+    public Map<Integer, Summary> rebuild(String disk, String tableName, Map<Integer, Integer> countByPriority, Iterable<Integer> priorities) {
+        ConcurrentHashMap<Integer, Summary> ret = new ConcurrentHashMap<>();
+        for (int priority : priorities) {
+            Summary summary = new Summary(countByPriority.getOrDefault(priority, 0));
+            ret.put(priority, summary);
+            summaries.put(disk + "," + tableName + "," + priority, summary);
+        }
+        return ret;
+    }
+
+    /**
+     * 迁移分表方式或数据库被重新写入后删除该磁盘的所有摘要
+     *
+     * @param disk 盘符
+     */
+    public void clear(String disk) {
+        summaries.keySet().removeIf(each -> each.startsWith(disk + ","));
+    }
+
+    public void clearAll() {
+        summaries.clear();
+    }
+
+    /**
+     * 布隆过滤器，使用double hashing计算HASH_NUM个位置，位数组为2的幂
+     */
+    public static class Summary {
+        private final AtomicLongArray bits;
+        private final int mask;
+        private volatile boolean isReady = false;
+
+        private Summary(int recordNum) {
+            long expectedBits = (long) recordNum * GRAMS_PER_RECORD * BITS_PER_GRAM;
+            int bitNum = MIN_BITS;
+            while (bitNum < expectedBits && bitNum < MAX_BITS) {
+                bitNum <<= 1;
+            }
+            bits = new AtomicLongArray(bitNum >>> 6);
+            mask = bitNum - 1;
+        }
+
+        public void add(long gram) {
+            final long h = mix(gram);
+            final int h1 = (int) h;
+            final int h2 = (int) (h >>> 32) | 1;
+            for (int i = 0; i < HASH_NUM; ++i) {
+                final int index = (h1 + i * h2) & mask;
+                final long bit = 1L << index;
+                final int word = index >>> 6;
+                long value = bits.get(word);
+                while ((value & bit) == 0 && !bits.compareAndSet(word, value, value | bit)) {
+                    value = bits.get(word);
+                }
+            }
+        }
+
+        private boolean contains(long gram) {
+            final long h = mix(gram);
+            final int h1 = (int) h;
+            final int h2 = (int) (h >>> 32) | 1;
+            for (int i = 0; i < HASH_NUM; ++i) {
+                final int index = (h1 + i * h2) & mask;
+                if ((bits.get(index >>> 6) & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public void ready() {
+            isReady = true;
+        }
+
+        /**
+         * murmur3 fmix64
+         */
+        private static long mix(long h) {
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package file.engine.services.utils;
+
+import file.engine.services.utils.transliteration.Transliteration;
+import file.engine.services.utils.transliteration.TransliterationIndex;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * 文件名n-gram倒排索引工具
+ * 每一个listN表对应一个ngram_listN表，保存 (GRAM, ROW_ID)，GRAM为文件名中连续三个字符（小写）编码后的long值，ROW_ID为listN中记录的rowid
+ * 搜索时通过关键字的gram求交集得到候选记录，只对候选记录执行PathMatchUtil.check，关键字长度小于GRAM_SIZE时回退到全表扫描
+ */
+public class NGramUtil {
+    public static final int GRAM_SIZE = 3;
+    // 每个关键字最多使用的gram数量，防止生成的sql过长
+    private static final int MAX_GRAMS_PER_KEYWORD = 4;
+
+    /**
+     * 计算文件名所有的gram，包括文件名的转写结果，如中文文件名的拼音和拼音首字母
+     *
+     * @param fileName 文件名
+     * @return gram集合
+     * @see PathMatchUtil#check(String, String[], boolean, String, String[], String[], boolean[])
+     */
+    public static Set<Long> getGrams(String fileName) {
+        Set<Long> grams = new LinkedHashSet<>();
+        if (fileName == null || fileName.isEmpty()) {
+            return grams;
+        }
+        String lowerCaseName = fileName.toLowerCase();
+        addGrams(lowerCaseName, grams);
+        for (Transliteration transliteration : TransliterationIndex.getInstance().get(fileName)) {
+            addGrams(transliteration.full(), grams);
+            addGrams(transliteration.initials(), grams);
+        }
+        return grams;
+    }
+
+    private static void addGrams(String str, Set<Long> grams) {
+        final int length = str.length();
+        for (int i = 0; i + GRAM_SIZE <= length; ++i) {
+            grams.add(encodeGram(str, i));
+        }
+    }
+
+    /**
+     * 将str从start开始的三个字符编码为一个long
+     */
+    private static long encodeGram(String str, int start) {
+        return ((long) str.charAt(start) << 32) | ((long) str.charAt(start + 1) << 16) | str.charAt(start + 2);
+    }
+
+    /**
+     * 获取关键字用于查询的gram，均匀选取最多MAX_GRAMS_PER_KEYWORD个
+     *
+     * @param keywordLowerCase 小写关键字
+     * @return gram列表，关键字过短则返回空列表
+     */
+    private static ArrayList<Long> getKeywordGrams(String keywordLowerCase) {
+        ArrayList<Long> grams = new ArrayList<>();
+        final int gramCount = keywordLowerCase.length() - GRAM_SIZE + 1;
+        if (gramCount <= 0) {
+            return grams;
+        }
+        final int step = Math.max(1, gramCount / MAX_GRAMS_PER_KEYWORD);
+        for (int i = 0; i < gramCount && grams.size() < MAX_GRAMS_PER_KEYWORD; i += step) {
+            grams.add(encodeGram(keywordLowerCase, i));
+        }
+        final long last = encodeGram(keywordLowerCase, gramCount - 1);
+        if (!grams.contains(last)) {
+            grams.add(last);
+        }
+        return grams;
+    }
+
+    /**
+     * 获取所有关键字的全部gram，用于判断表的gram摘要中是否可能有匹配的记录
+     * 与getCandidateSql相同，路径关键字和长度小于GRAM_SIZE的关键字不参与判断
+     *
+     * @param keywordsLowerCase 小写关键字
+     * @param isKeywordPath     关键字是否为路径
+     * @return gram数组，没有关键字可以判断时返回空数组
+     * @see GramSummaryIndex#mayContain(String, long[])
+     */
+    public static long[] getQueryGrams(String[] keywordsLowerCase, boolean[] isKeywordPath) {
+        if (keywordsLowerCase == null) {
+            return new long[0];
+        }
+        Set<Long> grams = new LinkedHashSet<>();
+        for (int i = 0; i < keywordsLowerCase.length; ++i) {
+            String keyword = keywordsLowerCase[i];
+            if (keyword == null || isKeywordPath[i]) {
+                continue;
+            }
+            addGrams(keyword, grams);
+        }
+        return grams.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * 生成通过ngram索引查询候选记录的sql
+     *
+     * @param tableName         表名 listN
+     * @param priority          优先级
+     * @param keywordsLowerCase 小写关键字
+     * @param isKeywordPath     关键字是否为路径
+     * @return sql，若没有关键字可以使用索引则返回null，此时应该回退到全表扫描
+     */
+    public static String getCandidateSql(String tableName, String priority, String[] keywordsLowerCase, boolean[] isKeywordPath) {
+        if (keywordsLowerCase == null) {
+            return null;
+        }
+        StringBuilder subQuery = new StringBuilder();
+        for (int i = 0; i < keywordsLowerCase.length; ++i) {
+            String keyword = keywordsLowerCase[i];
+            // 路径关键字匹配的是父路径，不在文件名索引中
+            if (keyword == null || isKeywordPath[i]) {
+                continue;
+            }
+            for (long gram : getKeywordGrams(keyword)) {
+                if (!subQuery.isEmpty()) {
+                    subQuery.append(" INTERSECT ");
+                }
+                subQuery.append("SELECT ROW_ID FROM ngram_").append(tableName).append(" WHERE GRAM=").append(gram);
+            }
+        }
+        if (subQuery.isEmpty()) {
+            return null;
+        }
+        return "SELECT PATH FROM " + tableName + " WHERE PRIORITY=" + priority + " AND rowid IN (" + subQuery + ");";
+    }
+
+    /**
+     * 生成将某一条记录的一个gram写入索引的PreparedStatement模板，rowid通过主键(ASCII, PATH, PRIORITY)查询
+     * 参数依次为 GRAM, ASCII, PATH, PRIORITY
+     *
+     * @param tableName 表名 listN
+     * @return sql
+     */
+    public static String getInsertSql(String tableName) {
+        return "INSERT OR IGNORE INTO ngram_" + tableName + " SELECT ?, rowid FROM " + tableName +
+                " WHERE ASCII=? AND PATH=? AND PRIORITY=?;";
+    }
+
+    /**
+     * 创建索引表，索引记录随listN中记录的删除通过触发器自动删除
+     *
+     * @param tableName 表名 listN
+     * @return sql
+     */
+    public static String[] getCreateTableSql(String tableName) {
+        return getCreateTableSql(tableName, tableName);
+    }
+
+    /**
+     * 创建索引表，数据库结构为v2时记录保存在files_listN中，触发器需要建立在files_listN上
+     *
+     * @param tableName     表名 listN
+     * @param dataTableName 实际保存记录的表名
+     * @return sql
+     * @see file.engine.services.utils.connection.SchemaUtil
+     */
+    public static String[] getCreateTableSql(String tableName, String dataTableName) {
+        return new String[]{
+                "CREATE TABLE IF NOT EXISTS ngram_" + tableName + "(GRAM INT, ROW_ID INT, PRIMARY KEY(\"GRAM\",\"ROW_ID\")) WITHOUT ROWID;",
+                "CREATE INDEX IF NOT EXISTS ngram_" + tableName + "_row_index ON ngram_" + tableName + "(ROW_ID);",
+                "CREATE TRIGGER IF NOT EXISTS ngram_" + tableName + "_delete AFTER DELETE ON " + dataTableName +
+                        " BEGIN DELETE FROM ngram_" + tableName + " WHERE ROW_ID=old.rowid; END;"
+        };
+    }
+}
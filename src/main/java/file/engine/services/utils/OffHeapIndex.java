@@ -0,0 +1,951 @@
+package file.engine.services.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * 堆外列式文件名索引，启用后搜索直接扫描该索引，SQLite只作为持久化存储
+ * 每一个key（[盘符,表名,优先级]，与DatabaseService中的缓存key相同）对应一个Segment，Segment由多个Block组成
+ * Block按列保存 父文件夹id(int) 文件名偏移(int) 文件名长度(short) 标志(byte) 以及文件名的UTF-8字节
+ * 文件夹路径在每个盘符的DirectoryDictionary中只保存一次，记录中只保存id
+ * 每个Segment有一个 (父文件夹id,文件名) -> 记录位置 的哈希表，添加时去重，删除记录时不需要扫描整个Segment
+ * 删除的记录过多时整理Segment，旧的Block在没有搜索读取后归还给内存映射文件，由之后的分配复用
+ * 所有内存都从内存映射文件中分配，不占用堆内存，也不受MaxDirectMemorySize限制
+ * <p>
+ * 加载一个盘符时先调用beginLoad，加载期间文件变化产生的添加和删除按顺序缓存，finishLoad时在已加载的记录上重放
+ * <p>
+ * 索引只用于过滤，通过过滤的记录会拼接为完整路径交给调用者进行最终的匹配(PathMatchUtil.check)
+ */
+public class OffHeapIndex {
+    private static final String INDEX_DIR = "data/offHeapIndex";
+    private static final int MIN_BLOCK_RECORDS = 256;
+    private static final int MAX_BLOCK_RECORDS = 16 * 1024;
+    private static final int AVERAGE_NAME_BYTES = 32;
+    private static final int MAX_NAME_LENGTH = 0xFFFF;
+    // 列宽度 父文件夹id + 文件名偏移 + 文件名长度 + 标志
+    private static final int META_BYTES_PER_RECORD = 4 + 4 + 2 + 1;
+    private static final byte FLAG_DELETED = 1;
+    private static final byte FLAG_DIRECTORY = 1 << 1;
+    private static final byte FLAG_NON_ASCII = 1 << 2;
+    // 每扫描多少条记录检查一次是否需要停止
+    private static final int CHECK_STOP_INTERVAL = 1024;
+    // 删除的记录超过总数的1/COMPACT_RATIO时整理
+    private static final int COMPACT_RATIO = 4;
+    private static final int MIN_COMPACT_TOMBSTONES = 64;
+    private static final ThreadLocal<byte[]> nameBytesCopy = ThreadLocal.withInitial(() -> new byte[MAX_BLOCK_RECORDS * AVERAGE_NAME_BYTES]);
+
+    private final ConcurrentHashMap<String, Segment> segments = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, DirectoryDictionary> dictionaries = new ConcurrentHashMap<>();
+    // 已经加载完成的盘符，未加载完成的盘符回退到SQLite
+    private final Set<String> readyDisks = ConcurrentHashMap.newKeySet();
+    // 正在加载的盘符，以及加载期间缓存的文件变化
+    private final ConcurrentHashMap<String, ConcurrentLinkedQueue<Change>> loadingDisks = new ConcurrentHashMap<>();
+    private volatile MappedArena arena;
+
+    public OffHeapIndex() {
+        // 删除上次运行留下的索引文件，Windows下映射中的文件无法删除，所以只能在下次启动时删除
+        File[] oldFiles = new File(INDEX_DIR).listFiles();
+        if (oldFiles != null) {
+            for (File each : oldFiles) {
+                if (!each.delete()) {
+                    System.err.println("删除旧索引文件失败 " + each.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    /**
+     * 盘符的所有记录是否已经加载完成
+     *
+     * @param disk 盘符，如C
+     * @return true如果可以使用该索引进行搜索
+     */
+    public boolean isReady(String disk) {
+        return readyDisks.contains(disk);
+    }
+
+    /**
+     * 开始加载盘符，之后的add和remove都会缓存到finishLoad时再执行，加载线程使用load写入记录
+     *
+     * @param disk 盘符
+     */
+    public void beginLoad(String disk) {
+        loadingDisks.put(disk, new ConcurrentLinkedQueue<>());
+    }
+
+    /**
+     * 加载一条已经写入数据库的记录，只能由加载线程在beginLoad和finishLoad之间调用
+     *
+     * @param key  [盘符,表名,优先级]
+     * @param path 文件路径
+     */
+    public void load(String key, String path) {
+        addRecord(key, path);
+    }
+
+    /**
+     * 按顺序重放加载期间缓存的文件变化，完成后该盘符可以用于搜索
+     *
+     * @param disk 盘符
+     * @return false如果加载期间索引被清空
+     */
+    public boolean finishLoad(String disk) {
+        ConcurrentLinkedQueue<Change> changes = loadingDisks.get(disk);
+        if (changes == null) {
+            return false;
+        }
+        synchronized (changes) {
+            Change change;
+            while ((change = changes.poll()) != null) {
+                if (change.isAdd) {
+                    addRecord(change.key, change.path);
+                } else {
+                    removeRecord(change.key, change.path);
+                }
+            }
+            if (!loadingDisks.remove(disk, changes)) {
+                return false;
+            }
+            readyDisks.add(disk);
+        }
+        return true;
+    }
+
+    /**
+     * 加载失败，丢弃缓存的文件变化，之后的变化直接写入，盘符保持未加载完成
+     *
+     * @param disk 盘符
+     */
+    public void abortLoad(String disk) {
+        ConcurrentLinkedQueue<Change> changes = loadingDisks.get(disk);
+        if (changes == null) {
+            return;
+        }
+        synchronized (changes) {
+            loadingDisks.remove(disk, changes);
+            changes.clear();
+        }
+    }
+
+    /**
+     * 清空索引，数据库重建后需要重新加载
+     */
+    public void clear() {
+        readyDisks.clear();
+        loadingDisks.clear();
+        segments.clear();
+        dictionaries.clear();
+        synchronized (this) {
+            if (arena != null) {
+                arena.close();
+                arena = null;
+            }
+        }
+    }
+
+    /**
+     * 已经映射的内存大小
+     *
+     * @return 字节数
+     */
+    public long getMappedBytes() {
+        MappedArena currentArena = arena;
+        return currentArena == null ? 0 : currentArena.mappedBytes.get();
+    }
+
+    private synchronized MappedArena getArena() throws IOException {
+        if (arena == null) {
+            Path indexDir = Path.of(INDEX_DIR);
+            Files.createDirectories(indexDir);
+            arena = new MappedArena(indexDir.resolve("index_" + System.nanoTime() + ".dat"));
+        }
+        return arena;
+    }
+
+    /**
+     * 添加一条记录，记录已经存在时忽略
+     *
+     * @param key  [盘符,表名,优先级]
+     * @param path 文件路径
+     */
+    public void add(String key, String path) {
+        if (!bufferIfLoading(key, path, true)) {
+            addRecord(key, path);
+        }
+    }
+
+    /**
+     * 删除一条记录
+     *
+     * @param key  [盘符,表名,优先级]
+     * @param path 文件路径
+     */
+    public void remove(String key, String path) {
+        if (!bufferIfLoading(key, path, false)) {
+            removeRecord(key, path);
+        }
+    }
+
+    /**
+     * 盘符正在加载时缓存文件变化，加载线程读取数据库时这些变化可能还没有写入，也可能已经写入
+     *
+     * @return true如果已经缓存
+     */
+    private boolean bufferIfLoading(String key, String path, boolean isAdd) {
+        final String disk = key.substring(0, key.indexOf(','));
+        ConcurrentLinkedQueue<Change> changes = loadingDisks.get(disk);
+        if (changes == null) {
+            return false;
+        }
+        synchronized (changes) {
+            // finishLoad已经重放完成
+            if (loadingDisks.get(disk) != changes) {
+                return false;
+            }
+            changes.add(new Change(key, path, isAdd));
+            return true;
+        }
+    }
+
+    private void addRecord(String key, String path) {
+        try {
+            MappedArena currentArena = getArena();
+            String disk = key.substring(0, key.indexOf(','));
+            DirectoryDictionary dictionary = dictionaries.computeIfAbsent(disk, k -> new DirectoryDictionary(currentArena));
+            final int separatorIndex = path.lastIndexOf(File.separatorChar);
+            final int parentId = separatorIndex == -1 ? -1 : dictionary.getOrAdd(path.substring(0, separatorIndex));
+            byte[] name = path.substring(separatorIndex + 1).getBytes(StandardCharsets.UTF_8);
+            if (name.length > MAX_NAME_LENGTH) {
+                return;
+            }
+            Segment segment = segments.computeIfAbsent(key, k -> new Segment(currentArena, k.endsWith(",-1")));
+            segment.add(parentId, name);
+        } catch (IOException e) {
+            e.printStackTrace();
+            // 索引已经不完整，所有搜索回退到SQLite
+            readyDisks.clear();
+        }
+    }
+
+    private void removeRecord(String key, String path) {
+        Segment segment = segments.get(key);
+        DirectoryDictionary dictionary = dictionaries.get(key.substring(0, key.indexOf(',')));
+        if (segment == null || dictionary == null) {
+            return;
+        }
+        final int separatorIndex = path.lastIndexOf(File.separatorChar);
+        final int parentId = separatorIndex == -1 ? -1 : dictionary.find(path.substring(0, separatorIndex));
+        if (separatorIndex != -1 && parentId == -1) {
+            return;
+        }
+        try {
+            segment.remove(parentId, path.substring(separatorIndex + 1).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            e.printStackTrace();
+            // 整理失败，索引已经不完整，所有搜索回退到SQLite
+            readyDisks.clear();
+        }
+    }
+
+    /**
+     * 创建查询，一次搜索只需要创建一次
+     *
+     * @param isIgnoreCase      是否忽略大小写
+     * @param keywords          搜索关键字
+     * @param keywordsLowerCase 搜索关键字（小写）
+     * @param isKeywordPath     关键字是否为路径
+     * @return query
+     */
+    public static Query newQuery(boolean isIgnoreCase, String[] keywords, String[] keywordsLowerCase, boolean[] isKeywordPath) {
+        final int length = keywords == null ? 0 : keywords.length;
+        byte[][] nameKeywords = new byte[length][];
+        String[] pathKeywords = new String[length];
+        boolean hasPathKeyword = false;
+        for (int i = 0; i < length; ++i) {
+            String keyword = isIgnoreCase ? keywordsLowerCase[i] : keywords[i];
+            if (keyword == null || keyword.isEmpty()) {
+                continue;
+            }
+            if (isKeywordPath[i]) {
+                pathKeywords[i] = keyword;
+                hasPathKeyword = true;
+            } else {
+                nameKeywords[i] = keyword.getBytes(StandardCharsets.UTF_8);
+            }
+        }
+        return new Query(isIgnoreCase, nameKeywords, pathKeywords, hasPathKeyword);
+    }
+
+    /**
+     * 搜索一个key中的所有记录
+     *
+     * @param key       [盘符,表名,优先级]
+     * @param query     查询
+     * @param collector 通过过滤的完整路径，返回true表示最终匹配成功
+     * @param isStop    是否停止搜索
+     * @return 匹配成功的数量
+     */
+    public long search(String key, Query query, Predicate<String> collector, Supplier<Boolean> isStop) {
+        Segment segment = segments.get(key);
+        if (segment == null) {
+            return 0;
+        }
+        String disk = key.substring(0, key.indexOf(','));
+        DirectoryDictionary dictionary = dictionaries.get(disk);
+        if (dictionary == null) {
+            return 0;
+        }
+        MatchedDirs matchedDirs = null;
+        if (query.hasPathKeyword) {
+            matchedDirs = query.matchedDirsMap.computeIfAbsent(disk, k -> dictionary.match(query));
+        }
+        final MatchedDirs finalMatchedDirs = matchedDirs;
+        // 先增加读取数量再读取blocks，整理后的旧Block在读取数量为0之前不会被复用
+        segment.readers.incrementAndGet();
+        try {
+            ArrayList<Block> blocks = new ArrayList<>(segment.blocks);
+            Stream<Block> blockStream = blocks.size() > 1 ? blocks.parallelStream() : blocks.stream();
+            return blockStream.mapToLong(block -> searchBlock(block, dictionary, finalMatchedDirs, query, collector, isStop)).sum();
+        } finally {
+            segment.readers.decrementAndGet();
+        }
+    }
+
+    private static long searchBlock(Block block,
+                                    DirectoryDictionary dictionary,
+                                    MatchedDirs matchedDirs,
+                                    Query query,
+                                    Predicate<String> collector,
+                                    Supplier<Boolean> isStop) {
+        final int count = block.count;
+        byte[] names = nameBytesCopy.get();
+        if (names.length < block.names.capacity()) {
+            names = new byte[block.names.capacity()];
+            nameBytesCopy.set(names);
+        }
+        block.names.get(0, names, 0, block.namesUsed);
+        long matchedNum = 0;
+        for (int i = 0; i < count; ++i) {
+            if (i % CHECK_STOP_INTERVAL == 0 && isStop.get()) {
+                break;
+            }
+            final byte flag = block.flag(i);
+            if ((flag & FLAG_DELETED) != 0) {
+                continue;
+            }
+            final int parentId = block.parentId(i);
+            // 查询过程中新加入的文件夹不在范围内，不进行过滤
+            if (matchedDirs != null && parentId >= 0 && parentId < matchedDirs.dirCount && !matchedDirs.bits.get(parentId)) {
+                continue;
+            }
+            final int nameOffset = block.nameOffset(i);
+            final int nameLength = block.nameLength(i);
+            if (!isNameMatched(names, nameOffset, nameLength, (flag & FLAG_NON_ASCII) == 0, query)) {
+                continue;
+            }
+            String name = new String(names, nameOffset, nameLength, StandardCharsets.UTF_8);
+            String path = parentId == -1 ? name : dictionary.getPath(parentId) + File.separator + name;
+            if (collector.test(path)) {
+                ++matchedNum;
+            }
+        }
+        return matchedNum;
+    }
+
+    /**
+     * 过滤文件名，只在确定不匹配时返回false
+     * 非ASCII文件名可能通过拼音匹配，ASCII文件名不可能包含非ASCII关键字
+     */
+    private static boolean isNameMatched(byte[] names, int nameOffset, int nameLength, boolean isAsciiName, Query query) {
+        if (!isAsciiName) {
+            return true;
+        }
+        final byte[][] nameKeywords = query.nameKeywords;
+        for (int i = 0; i < nameKeywords.length; ++i) {
+            byte[] keyword = nameKeywords[i];
+            if (keyword == null) {
+                continue;
+            }
+            if (!query.isAsciiNameKeyword[i] || !contains(names, nameOffset, nameOffset + nameLength, keyword, query.isIgnoreCase)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAscii(byte[] bytes, int length) {
+        for (int i = 0; i < length; ++i) {
+            if (bytes[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBytesEquals(ByteBuffer buffer, int offset, byte[] bytes) {
+        for (int i = 0; i < bytes.length; ++i) {
+            if (buffer.get(offset + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 在data的[from, to)中查找ASCII关键字，忽略大小写时关键字必须为小写
+     */
+    private static boolean contains(byte[] data, int from, int to, byte[] keyword, boolean isIgnoreCase) {
+        final int lastStart = to - keyword.length;
+        out:
+        for (int i = from; i <= lastStart; ++i) {
+            for (int j = 0; j < keyword.length; ++j) {
+                byte b = data[i + j];
+                if (isIgnoreCase && b >= 'A' && b <= 'Z') {
+                    b += 'a' - 'A';
+                }
+                if (b != keyword[j]) {
+                    continue out;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 一次搜索的查询条件，保存每个盘符中父路径匹配的文件夹，同一次搜索的所有key共用
+     */
+    public static class Query {
+        private final boolean isIgnoreCase;
+        private final byte[][] nameKeywords;
+        private final boolean[] isAsciiNameKeyword;
+        private final String[] pathKeywords;
+        private final boolean hasPathKeyword;
+        private final ConcurrentHashMap<String, MatchedDirs> matchedDirsMap = new ConcurrentHashMap<>();
+
+        private Query(boolean isIgnoreCase, byte[][] nameKeywords, String[] pathKeywords, boolean hasPathKeyword) {
+            this.isIgnoreCase = isIgnoreCase;
+            this.nameKeywords = nameKeywords;
+            this.isAsciiNameKeyword = new boolean[nameKeywords.length];
+            for (int i = 0; i < nameKeywords.length; ++i) {
+                isAsciiNameKeyword[i] = nameKeywords[i] != null && isAscii(nameKeywords[i], nameKeywords[i].length);
+            }
+            this.pathKeywords = pathKeywords;
+            this.hasPathKeyword = hasPathKeyword;
+        }
+    }
+
+    /**
+     * 加载期间缓存的文件变化
+     */
+    private record Change(String key, String path, boolean isAdd) {
+    }
+
+    /**
+     * 父路径匹配所有路径关键字的文件夹
+     *
+     * @param bits     下标为文件夹id
+     * @param dirCount 计算时的文件夹数量
+     */
+    private record MatchedDirs(BitSet bits, int dirCount) {
+    }
+
+    /**
+     * 从内存映射文件中分配内存，每次映射一个区域，再从区域中切分，减少映射的数量
+     * 释放的内存按大小保存，之后分配相同大小的内存时清零后复用，Block和哈希表的大小种类很少
+     */
+    private static class MappedArena {
+        private static final int REGION_SIZE = 4 * 1024 * 1024;
+        private final FileChannel channel;
+        private final AtomicLong mappedBytes = new AtomicLong();
+        private final HashMap<Integer, ArrayDeque<ByteBuffer>> freeBuffers = new HashMap<>();
+        private long fileSize;
+        private MappedByteBuffer region;
+        private int regionPosition;
+
+        private MappedArena(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            file.toFile().deleteOnExit();
+        }
+
+        private synchronized ByteBuffer allocate(int size) throws IOException {
+            ArrayDeque<ByteBuffer> freed = freeBuffers.get(size);
+            if (freed != null && !freed.isEmpty()) {
+                return clearBuffer(freed.poll());
+            }
+            if (size > REGION_SIZE) {
+                return map(size);
+            }
+            if (region == null || regionPosition + size > REGION_SIZE) {
+                region = map(REGION_SIZE);
+                regionPosition = 0;
+            }
+            ByteBuffer buffer = region.slice(regionPosition, size);
+            // 按8字节对齐
+            regionPosition += (size + 7) & ~7;
+            return buffer;
+        }
+
+        /**
+         * 释放内存，调用者需要保证已经没有线程读取
+         */
+        private synchronized void free(ByteBuffer buffer) {
+            if (buffer != null) {
+                freeBuffers.computeIfAbsent(buffer.capacity(), k -> new ArrayDeque<>()).add(buffer);
+            }
+        }
+
+        private static ByteBuffer clearBuffer(ByteBuffer buffer) {
+            final int capacity = buffer.capacity();
+            int i = 0;
+            for (; i + 8 <= capacity; i += 8) {
+                buffer.putLong(i, 0);
+            }
+            for (; i < capacity; ++i) {
+                buffer.put(i, (byte) 0);
+            }
+            return buffer;
+        }
+
+        private MappedByteBuffer map(int size) throws IOException {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, fileSize, size);
+            fileSize += size;
+            mappedBytes.addAndGet(size);
+            return buffer;
+        }
+
+        /**
+         * 关闭文件，已经映射的内存在被GC回收前仍然有效
+         */
+        private synchronized void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 按列保存的一块记录，只追加，删除时只设置标志位，整理Segment时整块替换
+     */
+    private static class Block {
+        private final int capacity;
+        private final ByteBuffer meta;
+        private final ByteBuffer names;
+        private volatile int count;
+        private volatile int namesUsed;
+
+        private Block(MappedArena arena, int capacity) throws IOException {
+            this.capacity = capacity;
+            this.meta = arena.allocate(capacity * META_BYTES_PER_RECORD);
+            this.names = arena.allocate(capacity * AVERAGE_NAME_BYTES);
+        }
+
+        private int parentId(int index) {
+            return meta.getInt(index * 4);
+        }
+
+        private int nameOffset(int index) {
+            return meta.getInt(capacity * 4 + index * 4);
+        }
+
+        private int nameLength(int index) {
+            return meta.getShort(capacity * 8 + index * 2) & 0xFFFF;
+        }
+
+        private byte flag(int index) {
+            return meta.get(capacity * 10 + index);
+        }
+
+        private void setFlag(int index, byte flag) {
+            meta.put(capacity * 10 + index, flag);
+        }
+
+        private void free(MappedArena arena) {
+            arena.free(meta);
+            arena.free(names);
+        }
+
+        private boolean hasRoom(int nameLength) {
+            return count < capacity && namesUsed + nameLength <= names.capacity();
+        }
+
+        /**
+         * 写入记录，写入完成后再增加count，扫描线程读取到的记录都是完整的
+         */
+        private void append(int parentId, byte[] name, byte flag) {
+            final int index = count;
+            final int nameOffset = namesUsed;
+            names.put(nameOffset, name);
+            meta.putInt(index * 4, parentId);
+            meta.putInt(capacity * 4 + index * 4, nameOffset);
+            meta.putShort(capacity * 8 + index * 2, (short) name.length);
+            setFlag(index, flag);
+            namesUsed = nameOffset + name.length;
+            count = index + 1;
+        }
+    }
+
+    /**
+     * 一个key的所有记录
+     * 哈希表使用开放寻址，每个槽为 (Block下标 << 32 | 记录下标) + 1，0表示空槽
+     * 删除的记录只设置标志位，槽在下次扩容时才会清除，查找时跳过
+     * 删除的记录过多时将未删除的记录复制到新的Block中，旧的Block在没有搜索读取时归还给MappedArena
+     */
+    private static class Segment {
+        private static final int MIN_HASH_TABLE_CAPACITY = 1024;
+        private final MappedArena arena;
+        private final boolean isDirectory;
+        // 正在读取blocks的搜索数量
+        private final AtomicInteger readers = new AtomicInteger();
+        // 整理后还可能被搜索读取的Block
+        private final ArrayList<Block> retiredBlocks = new ArrayList<>();
+        private volatile CopyOnWriteArrayList<Block> blocks = new CopyOnWriteArrayList<>();
+        private ByteBuffer hashTable;
+        private int hashTableCapacity;
+        // 哈希表中的记录数量，包括已经删除的记录
+        private int hashedCount;
+        private int liveCount;
+        private int deletedCount;
+
+        private Segment(MappedArena arena, boolean isDirectory) {
+            this.arena = arena;
+            this.isDirectory = isDirectory;
+        }
+
+        private synchronized void add(int parentId, byte[] name) throws IOException {
+            freeRetiredBlocks();
+            final int hash = hash(parentId, ByteBuffer.wrap(name), 0, name.length);
+            if (find(hash, parentId, name) != 0) {
+                return;
+            }
+            // 在写入之前扩容，扩容时不会把这条记录加入哈希表
+            if ((hashedCount + 1) * 2 > hashTableCapacity) {
+                rehash();
+            }
+            byte flag = isDirectory ? FLAG_DIRECTORY : 0;
+            if (!isAscii(name, name.length)) {
+                flag |= FLAG_NON_ASCII;
+            }
+            Block block = getBlockWithRoom(blocks, name.length);
+            block.append(parentId, name, flag);
+            insertToHashTable(hash, blocks.size() - 1, block.count - 1);
+            ++hashedCount;
+            ++liveCount;
+        }
+
+        /**
+         * 删除父文件夹id和文件名相同的记录，删除的记录过多时整理
+         */
+        private synchronized void remove(int parentId, byte[] name) throws IOException {
+            freeRetiredBlocks();
+            final long value = find(hash(parentId, ByteBuffer.wrap(name), 0, name.length), parentId, name);
+            if (value == 0) {
+                return;
+            }
+            Block block = blocks.get((int) ((value - 1) >>> 32));
+            final int i = (int) (value - 1);
+            block.setFlag(i, (byte) (block.flag(i) | FLAG_DELETED));
+            --liveCount;
+            ++deletedCount;
+            if (deletedCount >= MIN_COMPACT_TOMBSTONES && deletedCount * COMPACT_RATIO > liveCount + deletedCount) {
+                compact();
+            }
+        }
+
+        /**
+         * 查找未删除的记录
+         *
+         * @return 哈希表中的槽，不存在时为0
+         */
+        private long find(int hash, int parentId, byte[] name) {
+            if (hashTable == null) {
+                return 0;
+            }
+            final int mask = hashTableCapacity - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                final long value = hashTable.getLong(slot * 8);
+                if (value == 0) {
+                    return 0;
+                }
+                Block block = blocks.get((int) ((value - 1) >>> 32));
+                final int i = (int) (value - 1);
+                if (block.parentId(i) == parentId &&
+                        block.nameLength(i) == name.length &&
+                        (block.flag(i) & FLAG_DELETED) == 0 &&
+                        isBytesEquals(block.names, block.nameOffset(i), name)) {
+                    return value;
+                }
+            }
+        }
+
+        /**
+         * 获取最后一个Block，放不下时创建新的Block
+         */
+        private Block getBlockWithRoom(List<Block> blockList, int nameLength) throws IOException {
+            Block block = blockList.isEmpty() ? null : blockList.get(blockList.size() - 1);
+            if (block == null || !block.hasRoom(nameLength)) {
+                int capacity = block == null ? MIN_BLOCK_RECORDS : Math.min(MAX_BLOCK_RECORDS, block.capacity * 2);
+                // 文件名超长时保证至少能放下一条记录
+                capacity = Math.max(capacity, (nameLength + AVERAGE_NAME_BYTES - 1) / AVERAGE_NAME_BYTES);
+                block = new Block(arena, capacity);
+                blockList.add(block);
+            }
+            return block;
+        }
+
+        /**
+         * 重新建立哈希表，只保留没有删除的记录，容量至少为记录数量的4倍
+         */
+        private void rehash() throws IOException {
+            ByteBuffer oldHashTable = hashTable;
+            allocateHashTable(liveCount);
+            List<Block> blockList = blocks;
+            for (int blockIndex = 0; blockIndex < blockList.size(); ++blockIndex) {
+                Block block = blockList.get(blockIndex);
+                final int count = block.count;
+                for (int i = 0; i < count; ++i) {
+                    if ((block.flag(i) & FLAG_DELETED) == 0) {
+                        insertToHashTable(hash(block.parentId(i), block.names, block.nameOffset(i), block.nameLength(i)), blockIndex, i);
+                    }
+                }
+            }
+            hashedCount = liveCount;
+            // 哈希表只在持有锁时读取，可以直接释放
+            arena.free(oldHashTable);
+        }
+
+        /**
+         * 将未删除的记录复制到新的Block中并重新建立哈希表，复制完成后才替换blocks，整理期间搜索仍然读取旧的Block
+         */
+        private void compact() throws IOException {
+            ByteBuffer oldHashTable = hashTable;
+            List<Block> oldBlocks = blocks;
+            CopyOnWriteArrayList<Block> newBlocks = new CopyOnWriteArrayList<>();
+            allocateHashTable(liveCount);
+            byte[] name = new byte[0];
+            for (Block block : oldBlocks) {
+                final int count = block.count;
+                for (int i = 0; i < count; ++i) {
+                    final byte flag = block.flag(i);
+                    if ((flag & FLAG_DELETED) != 0) {
+                        continue;
+                    }
+                    final int nameLength = block.nameLength(i);
+                    if (name.length != nameLength) {
+                        name = new byte[nameLength];
+                    }
+                    block.names.get(block.nameOffset(i), name);
+                    Block newBlock = getBlockWithRoom(newBlocks, nameLength);
+                    newBlock.append(block.parentId(i), name, flag);
+                    insertToHashTable(hash(block.parentId(i), block.names, block.nameOffset(i), nameLength), newBlocks.size() - 1, newBlock.count - 1);
+                }
+            }
+            blocks = newBlocks;
+            hashedCount = liveCount;
+            deletedCount = 0;
+            arena.free(oldHashTable);
+            retiredBlocks.addAll(oldBlocks);
+            freeRetiredBlocks();
+        }
+
+        /**
+         * 没有搜索正在读取时释放整理前的Block，在替换blocks之后检查，之后开始的搜索只会读取新的Block
+         */
+        private void freeRetiredBlocks() {
+            if (retiredBlocks.isEmpty() || readers.get() != 0) {
+                return;
+            }
+            for (Block block : retiredBlocks) {
+                block.free(arena);
+            }
+            retiredBlocks.clear();
+        }
+
+        private void allocateHashTable(int recordCount) throws IOException {
+            int newCapacity = MIN_HASH_TABLE_CAPACITY;
+            while (newCapacity < (recordCount + 1) * 4) {
+                newCapacity <<= 1;
+            }
+            hashTable = arena.allocate(newCapacity * 8);
+            hashTableCapacity = newCapacity;
+        }
+
+        private void insertToHashTable(int hash, int blockIndex, int index) {
+            final int mask = hashTableCapacity - 1;
+            int slot = hash & mask;
+            while (hashTable.getLong(slot * 8) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            hashTable.putLong(slot * 8, (((long) blockIndex << 32) | index) + 1);
+        }
+
+        private static int hash(int parentId, ByteBuffer buffer, int offset, int length) {
+            int hash = parentId;
+            for (int i = 0; i < length; ++i) {
+                hash = 31 * hash + buffer.get(offset + i);
+            }
+            // 打散低位，线性探测只使用低位
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    /**
+     * 文件夹路径字典，每个路径只保存一次
+     * 路径以[长度(2字节)][UTF-8字节]的格式保存在路径块中，id到路径位置的映射保存在位置块中
+     * 查找id使用开放寻址的哈希表，只在添加和删除记录时使用
+     */
+    private static class DirectoryDictionary {
+        private static final int PATH_CHUNK_SIZE = 1024 * 1024;
+        private static final int POSITIONS_PER_BLOCK = 64 * 1024;
+        private final MappedArena arena;
+        private final CopyOnWriteArrayList<ByteBuffer> pathChunks = new CopyOnWriteArrayList<>();
+        private final CopyOnWriteArrayList<ByteBuffer> positionBlocks = new CopyOnWriteArrayList<>();
+        private ByteBuffer hashTable;
+        private int hashTableCapacity;
+        private int pathChunkUsed;
+        private volatile int size;
+
+        private DirectoryDictionary(MappedArena arena) {
+            this.arena = arena;
+        }
+
+        private synchronized int find(String dirPath) {
+            if (hashTable == null) {
+                return -1;
+            }
+            byte[] bytes = dirPath.getBytes(StandardCharsets.UTF_8);
+            final int mask = hashTableCapacity - 1;
+            for (int slot = dirPath.hashCode() & mask; ; slot = (slot + 1) & mask) {
+                final int value = hashTable.getInt(slot * 4);
+                if (value == 0) {
+                    return -1;
+                }
+                if (isPathEquals(value - 1, bytes)) {
+                    return value - 1;
+                }
+            }
+        }
+
+        private synchronized int getOrAdd(String dirPath) throws IOException {
+            final int existId = find(dirPath);
+            if (existId != -1) {
+                return existId;
+            }
+            byte[] bytes = dirPath.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_NAME_LENGTH) {
+                throw new IOException("path too long " + dirPath);
+            }
+            final int id = size;
+            final int recordSize = bytes.length + 2;
+            ByteBuffer chunk = pathChunks.isEmpty() ? null : pathChunks.get(pathChunks.size() - 1);
+            if (chunk == null || pathChunkUsed + recordSize > chunk.capacity()) {
+                chunk = arena.allocate(Math.max(PATH_CHUNK_SIZE, recordSize));
+                pathChunks.add(chunk);
+                pathChunkUsed = 0;
+            }
+            chunk.putShort(pathChunkUsed, (short) bytes.length);
+            chunk.put(pathChunkUsed + 2, bytes);
+            if (id % POSITIONS_PER_BLOCK == 0) {
+                positionBlocks.add(arena.allocate(POSITIONS_PER_BLOCK * 8));
+            }
+            positionBlocks.get(id / POSITIONS_PER_BLOCK).putLong((id % POSITIONS_PER_BLOCK) * 8,
+                    ((long) (pathChunks.size() - 1) << 32) | pathChunkUsed);
+            pathChunkUsed += recordSize;
+            if ((id + 1) * 2 > hashTableCapacity) {
+                rehash(Math.max(1024, hashTableCapacity * 2), id);
+            }
+            insertToHashTable(dirPath.hashCode(), id);
+            size = id + 1;
+            return id;
+        }
+
+        private void rehash(int newCapacity, int idCount) throws IOException {
+            ByteBuffer oldHashTable = hashTable;
+            hashTable = arena.allocate(newCapacity * 4);
+            hashTableCapacity = newCapacity;
+            for (int i = 0; i < idCount; ++i) {
+                insertToHashTable(getPath(i).hashCode(), i);
+            }
+            arena.free(oldHashTable);
+        }
+
+        private void insertToHashTable(int hash, int id) {
+            final int mask = hashTableCapacity - 1;
+            int slot = hash & mask;
+            while (hashTable.getInt(slot * 4) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            hashTable.putInt(slot * 4, id + 1);
+        }
+
+        private boolean isPathEquals(int id, byte[] bytes) {
+            final long position = getPosition(id);
+            ByteBuffer chunk = pathChunks.get((int) (position >>> 32));
+            final int offset = (int) position;
+            return (chunk.getShort(offset) & 0xFFFF) == bytes.length && isBytesEquals(chunk, offset + 2, bytes);
+        }
+
+        private long getPosition(int id) {
+            return positionBlocks.get(id / POSITIONS_PER_BLOCK).getLong((id % POSITIONS_PER_BLOCK) * 8);
+        }
+
+        private String getPath(int id) {
+            final long position = getPosition(id);
+            ByteBuffer chunk = pathChunks.get((int) (position >>> 32));
+            final int offset = (int) position;
+            byte[] bytes = new byte[chunk.getShort(offset) & 0xFFFF];
+            chunk.get(offset + 2, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * 计算父路径匹配所有路径关键字的文件夹
+         *
+         * @return 匹配的文件夹
+         */
+        private MatchedDirs match(Query query) {
+            final int dirCount = size;
+            BitSet matched = new BitSet(dirCount);
+            for (int id = 0; id < dirCount; ++id) {
+                String dirPath = getPath(id);
+                if (query.isIgnoreCase) {
+                    dirPath = dirPath.toLowerCase();
+                }
+                boolean isMatched = true;
+                for (String pathKeyword : query.pathKeywords) {
+                    if (pathKeyword != null && !dirPath.contains(pathKeyword)) {
+                        isMatched = false;
+                        break;
+                    }
+                }
+                if (isMatched) {
+                    matched.set(id);
+                }
+            }
+            return new MatchedDirs(matched, dirCount);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package file.engine.services.utils;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 预读最常搜索的表，使搜索时需要的数据库页保持在页缓存中，代替之前使用随机关键字执行完整搜索的预热
+ * key为磁盘和表名，例如 [C,list10]，由调用者按照搜索记录和表权重排序
+ * <p>
+ * 每次预读时按rowid顺序读取每个表的所有记录，所有表读取的UTF-8字节数之和不超过预算
+ * 已经预读过的表先在整个rowid范围内随机抽样读取少量记录（探测），耗时与预读完成时的探测耗时接近时认为仍然在页缓存中，不再重复读取，
+ * 探测耗时明显变长时认为已经被换出，记录从预读完成到最后一次探测仍然命中的时间作为驻留时间，之后重新预读
+ * 每次探测的位置都不同，探测本身不会使固定的几个页一直保持在页缓存中
+ */
+public class PagePrefetcher {
+    // 探测时抽样的位置数量
+    private static final int PROBE_SAMPLES = 16;
+    // 每个抽样位置读取的rowid数量
+    private static final int PROBE_ROWS_PER_SAMPLE = 4;
+    // 探测耗时超过预读完成时的倍数时认为已经被换出
+    private static final int EVICTED_RATIO = 4;
+    // 探测耗时小于该值时不计算倍数，避免计时误差
+    private static final long MIN_PROBE_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+    // 驻留时间的指数移动平均权重
+    private static final double RESIDENCY_ALPHA = 0.2;
+
+    private final ConcurrentHashMap<String, WarmState> warmStates = new ConcurrentHashMap<>();
+    private final AtomicLong runCount = new AtomicLong();
+    private final AtomicLong skippedRunCount = new AtomicLong();
+    private final AtomicLong prefetchedBytes = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private volatile double averageResidencyMills = 0;
+
+    /**
+     * 读取表中的记录
+     */
+    public interface PageReader {
+        /**
+         * 获取表中最小和最大的rowid
+         *
+         * @param key 磁盘和表名
+         * @return [最小rowid, 最大rowid]，表为空时返回null
+         */
+        long[] getRowIdRange(String key) throws Exception;
+
+        /**
+         * 不使用索引，按rowid顺序读取[fromRowId, toRowId)中的记录
+         *
+         * @param key       磁盘和表名
+         * @param fromRowId 起始rowid，包含
+         * @param toRowId   结束rowid，不包含
+         * @param maxBytes  最多读取的字节数
+         * @return 读取的UTF-8字节数
+         */
+        long read(String key, long fromRowId, long toRowId, long maxBytes) throws Exception;
+    }
+
+    /**
+     * 预读一次
+     *
+     * @param rankedKeys  需要预读的表，按照优先程度从高到低排列
+     * @param budgetBytes 本次最多读取的字节数
+     * @param reader      读取记录
+     * @param isStop      是否停止，每个表读取前检查一次
+     * @return 本次读取的字节数
+     */
+    public long prefetch(List<String> rankedKeys, long budgetBytes, PageReader reader, Supplier<Boolean> isStop) {
+        runCount.incrementAndGet();
+        long remaining = budgetBytes;
+        for (String key : rankedKeys) {
+            if (remaining <= 0 || isStop.get()) {
+                break;
+            }
+            try {
+                final long[] rowIdRange = reader.getRowIdRange(key);
+                if (rowIdRange == null) {
+                    continue;
+                }
+                WarmState state = warmStates.get(key);
+                if (state != null) {
+                    final long probeStart = System.nanoTime();
+                    remaining -= probe(key, rowIdRange, reader);
+                    final long probeNanos = System.nanoTime() - probeStart;
+                    if (!isEvicted(state, probeNanos)) {
+                        state.lastResidentMills = System.currentTimeMillis();
+                        continue;
+                    }
+                    recordEviction(state);
+                }
+                final long readBytes = reader.read(key, rowIdRange[0], rowIdRange[1] + 1, remaining);
+                remaining -= readBytes;
+                prefetchedBytes.addAndGet(readBytes);
+                if (remaining <= 0) {
+                    // 只读取了一部分，下次重新预读
+                    warmStates.remove(key);
+                    break;
+                }
+                // 预读完成后的探测耗时作为该表在页缓存中的基准
+                final long probeStart = System.nanoTime();
+                probe(key, rowIdRange, reader);
+                warmStates.put(key, new WarmState(System.currentTimeMillis(), System.nanoTime() - probeStart));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        return budgetBytes - remaining;
+    }
+
+    /**
+     * 将rowid范围分为PROBE_SAMPLES段，在每一段中随机选择一个位置读取少量记录
+     *
+     * @return 读取的字节数
+     */
+    private static long probe(String key, long[] rowIdRange, PageReader reader) throws Exception {
+        final long span = rowIdRange[1] - rowIdRange[0] + 1;
+        final int samples = (int) Math.min(PROBE_SAMPLES, span);
+        final long segment = span / samples;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long readBytes = 0;
+        for (int i = 0; i < samples; ++i) {
+            final long from = rowIdRange[0] + segment * i + random.nextLong(segment);
+            readBytes += reader.read(key, from, from + PROBE_ROWS_PER_SAMPLE, Long.MAX_VALUE);
+        }
+        return readBytes;
+    }
+
+    /**
+     * 机器繁忙时跳过预读
+     */
+    public void recordSkippedRun() {
+        skippedRunCount.incrementAndGet();
+    }
+
+    /**
+     * 数据库被重新写入或表被迁移后之前的预读状态无效
+     */
+    public void clear() {
+        warmStates.clear();
+    }
+
+    /**
+     * 预读后在页缓存中平均驻留的时间
+     *
+     * @return 毫秒，还没有被换出过时为0
+     */
+    public long getAverageResidencyMills() {
+        return (long) averageResidencyMills;
+    }
+
+    private static boolean isEvicted(WarmState state, long probeNanos) {
+        return probeNanos > MIN_PROBE_NANOS && probeNanos > Math.max(state.baselineProbeNanos, MIN_PROBE_NANOS) * EVICTED_RATIO;
+    }
+
+    private synchronized void recordEviction(WarmState state) {
+        evictedCount.incrementAndGet();
+        final long residencyMills = state.lastResidentMills - state.warmedMills;
+        averageResidencyMills = averageResidencyMills == 0 ? residencyMills :
+                averageResidencyMills * (1 - RESIDENCY_ALPHA) + residencyMills * RESIDENCY_ALPHA;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("runs: %d skipped: %d prefetched: %dKB evicted: %d average residency: %ds warm keys: %d",
+                runCount.get(), skippedRunCount.get(), prefetchedBytes.get() / 1024, evictedCount.get(),
+                getAverageResidencyMills() / 1000, warmStates.size());
+    }
+
+    private static class WarmState {
+        private final long warmedMills;
+        private final long baselineProbeNanos;
+        // 最后一次探测时仍然在页缓存中的时间
+        private volatile long lastResidentMills;
+
+        private WarmState(long warmedMills, long baselineProbeNanos) {
+            this.warmedMills = warmedMills;
+            this.baselineProbeNanos = baselineProbeNanos;
+            this.lastResidentMills = warmedMills;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package file.engine.services.utils;
+
+import org.sqlite.Function;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 注册到SQLite中的匹配函数，用法为 SELECT PATH FROM list0 WHERE PRIORITY=0 AND PATH_MATCH(PATH, [matchId]);
+ * 匹配规则与PathMatchUtil.check相同（f d规则除外），不匹配的记录不会被转换为Java字符串返回
+ * 注册时将匹配规则编译为PathMatcher，每条记录只需要一次扫描
+ * 每一个搜索任务在开始前通过register获得matchId，搜索完成后调用unregister
+ *
+ * @see PathMatchUtil#checkKeywords(String, String[], boolean, String, String[], String[], boolean[])
+ */
+public class PathMatchSqlFunction extends Function {
+    public static final String FUNCTION_NAME = "PATH_MATCH";
+    private static final ConcurrentHashMap<Integer, PathMatcher> matchInfoMap = new ConcurrentHashMap<>();
+    private static final AtomicInteger matchIdGenerator = new AtomicInteger();
+
+    /**
+     * 注册到数据库连接，连接重新打开后需要重新注册
+     *
+     * @param connection 数据库连接
+     * @throws SQLException 失败
+     */
+    public static void registerTo(Connection connection) throws SQLException {
+        Function.create(connection, FUNCTION_NAME, new PathMatchSqlFunction());
+    }
+
+    /**
+     * 添加匹配规则
+     *
+     * @return matchId，作为PATH_MATCH函数的第二个参数
+     */
+    public static int register(String[] searchCase,
+                               boolean isIgnoreCase,
+                               String searchText,
+                               String[] keywords,
+                               String[] keywordsLowerCase,
+                               boolean[] isKeywordPath) {
+        int matchId = matchIdGenerator.incrementAndGet();
+        matchInfoMap.put(matchId, PathMatcher.compile(searchCase, isIgnoreCase, searchText, keywords, keywordsLowerCase, isKeywordPath));
+        return matchId;
+    }
+
+    /**
+     * 删除匹配规则
+     *
+     * @param matchId matchId
+     */
+    public static void unregister(int matchId) {
+        matchInfoMap.remove(matchId);
+    }
+
+    /**
+     * 向sql中添加匹配条件
+     *
+     * @param sql     SELECT PATH FROM list[num] WHERE PRIORITY=[priority];
+     * @param matchId matchId
+     * @return SELECT PATH FROM list[num] WHERE PRIORITY=[priority] AND PATH_MATCH(PATH, [matchId]);
+     */
+    public static String appendMatchCondition(String sql, int matchId) {
+        String sqlWithoutEnd = sql.endsWith(";") ? sql.substring(0, sql.length() - 1) : sql;
+        return sqlWithoutEnd + " AND " + FUNCTION_NAME + "(PATH, " + matchId + ");";
+    }
+
+    @Override
+    protected void xFunc() throws SQLException {
+        if (args() != 2) {
+            throw new SQLException(FUNCTION_NAME + "(PATH, MATCH_ID) requires 2 arguments");
+        }
+        PathMatcher pathMatcher = matchInfoMap.get(value_int(1));
+        String path = value_text(0);
+        if (pathMatcher == null || path == null) {
+            result(0);
+            return;
+        }
+        result(pathMatcher.checkKeywords(path) ? 1 : 0);
+    }
+}
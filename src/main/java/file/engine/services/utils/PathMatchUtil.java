@@ -1,11 +1,8 @@
 package file.engine.services.utils;
 
-import file.engine.utils.PinyinUtil;
-import file.engine.utils.RegexUtil;
+import file.engine.services.utils.transliteration.TransliterationIndex;
 import file.engine.utils.file.FileUtil;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
 
 @SuppressWarnings({"IndexOfReplaceableByContains"})
 public class PathMatchUtil {
@@ -33,25 +30,10 @@ public class PathMatchUtil {
             if (eachKeyword == null || eachKeyword.isEmpty()) {
                 continue;
             }
-            //开始匹配
-            if (matcherStrFromFilePath.indexOf(eachKeyword) == -1) {
-                if (isPath || !PinyinUtil.isStringContainChinese(matcherStrFromFilePath)) {
-                    return true;
-                } else {
-                    String pinyin = PinyinUtil.toPinyin(matcherStrFromFilePath, ",");
-                    String[] pinyinList = RegexUtil.comma.split(pinyin);
-                    StringBuilder pinyinInitials = new StringBuilder();
-                    for (String eachPinyin : pinyinList) {
-                        if (eachPinyin.isEmpty()) {
-                            continue;
-                        }
-                        pinyinInitials.append(eachPinyin.charAt(0));
-                    }
-                    pinyin = RegexUtil.comma.matcher(pinyin).replaceAll("");
-                    if (pinyin.indexOf(eachKeyword) == -1 && pinyinInitials.indexOf(eachKeyword) == -1) {
-                        return true;
-                    }
-                }
+            //开始匹配，文件名不包含关键字时再匹配文件名的转写结果（如拼音和拼音首字母）
+            if (matcherStrFromFilePath.indexOf(eachKeyword) == -1 &&
+                    (isPath || !TransliterationIndex.getInstance().isMatched(FileUtil.getFileName(path), eachKeyword))) {
+                return true;
             }
         }
         return false;
@@ -85,12 +67,12 @@ public class PathMatchUtil {
         for (String eachCase : searchCase) {
             switch (eachCase) {
                 case SearchCase.F -> {
-                    if (!Files.isRegularFile(Path.of(path))) {
+                    if (!FileTypeIndex.getInstance().isFile(path)) {
                         return false;
                     }
                 }
                 case SearchCase.D -> {
-                    if (!Files.isDirectory(Path.of(path))) {
+                    if (!FileTypeIndex.getInstance().isDirectory(path)) {
                         return false;
                     }
                 }
@@ -107,6 +89,34 @@ public class PathMatchUtil {
         return true;
     }
 
+    /**
+     * 只检查关键字以及全字匹配规则，不访问文件系统，f d规则需要调用者再次检查
+     * 用于在SQLite中注册的匹配函数，使不匹配的记录不需要转换为Java字符串
+     *
+     * @see #check(String, String[], boolean, String, String[], String[], boolean[])
+     * @see PathMatchSqlFunction
+     */
+    public static boolean checkKeywords(String path,
+                                        String[] searchCase,
+                                        boolean isIgnoreCase,
+                                        String searchText,
+                                        String[] keywords,
+                                        String[] keywordsLowerCase,
+                                        boolean[] isKeywordPath) {
+        if (notMatched(path, isIgnoreCase, keywords, keywordsLowerCase, isKeywordPath)) {
+            return false;
+        }
+        if (searchCase == null) {
+            return true;
+        }
+        for (String eachCase : searchCase) {
+            if (SearchCase.FULL.equals(eachCase) && !searchText.equalsIgnoreCase(FileUtil.getFileName(path))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public static class SearchCase {
         public static final String D = "d";
         public static final String F = "f";
@@ -0,0 +1,405 @@
+package file.engine.services.utils;
+
+import file.engine.services.utils.transliteration.Transliteration;
+import file.engine.services.utils.transliteration.TransliterationIndex;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 预编译的路径匹配器，匹配结果与PathMatchUtil.check相同
+ * 每个搜索任务编译一次，所有文件名关键字和所有路径关键字分别编译为一个Aho-Corasick自动机
+ * 匹配时直接在原字符串的偏移上逐字符转换小写并扫描，一次扫描即可找到所有关键字，不分配子字符串和小写副本
+ * <p>
+ * 以下情况回退到PathMatchUtil.check，保证结果完全相同：
+ * 忽略大小写时路径中包含String.toLowerCase与Character.toLowerCase结果不同的字符（U+0130、U+03A3、代理对），
+ * 默认语言的小写规则特殊（tr az lt），有效关键字超过63个，有路径关键字但路径中没有分隔符
+ * 文件名中没有找到关键字且文件名包含非ASCII字符时，与PathMatchUtil相同，再查找文件名的转写结果
+ *
+ * @see PathMatchUtil#check(String, String[], boolean, String, String[], String[], boolean[])
+ */
+public final class PathMatcher {
+    private static final int MAX_KEYWORDS = 63;
+    private static final long FALLBACK = -1L;
+    private static final Set<String> SPECIAL_LOWER_CASE_LANGUAGES = Set.of("tr", "az", "lt");
+
+    private final String[] searchCase;
+    private final boolean isIgnoreCase;
+    private final String searchText;
+    private final String[] keywords;
+    private final String[] keywordsLowerCase;
+    private final boolean[] isKeywordPath;
+    private final boolean isFallbackOnly;
+    private final boolean isFullMatch;
+    private final boolean isFileOnly;
+    private final boolean isDirOnly;
+    private final Automaton nameAutomaton;
+    private final Automaton pathAutomaton;
+    // 文件名关键字在nameAutomaton中的序号对应的关键字，用于查找转写结果
+    private final String[] nameKeywords;
+
+    private PathMatcher(String[] searchCase,
+                        boolean isIgnoreCase,
+                        String searchText,
+                        String[] keywords,
+                        String[] keywordsLowerCase,
+                        boolean[] isKeywordPath) {
+        this.searchCase = searchCase;
+        this.isIgnoreCase = isIgnoreCase;
+        this.searchText = searchText;
+        this.keywords = keywords;
+        this.keywordsLowerCase = keywordsLowerCase;
+        this.isKeywordPath = isKeywordPath;
+        boolean full = false, file = false, dir = false;
+        if (searchCase != null) {
+            for (String eachCase : searchCase) {
+                switch (eachCase) {
+                    case PathMatchUtil.SearchCase.FULL -> full = true;
+                    case PathMatchUtil.SearchCase.F -> file = true;
+                    case PathMatchUtil.SearchCase.D -> dir = true;
+                    default -> {
+                    }
+                }
+            }
+        }
+        this.isFullMatch = full;
+        this.isFileOnly = file;
+        this.isDirOnly = dir;
+        ArrayList<String> namePatterns = new ArrayList<>();
+        ArrayList<String> pathPatterns = new ArrayList<>();
+        final int length = keywords == null ? 0 : keywords.length;
+        for (int i = 0; i < length; ++i) {
+            String eachKeyword = isIgnoreCase ? keywordsLowerCase[i] : keywords[i];
+            if (eachKeyword == null || eachKeyword.isEmpty()) {
+                continue;
+            }
+            (isKeywordPath[i] ? pathPatterns : namePatterns).add(eachKeyword);
+        }
+        this.isFallbackOnly = namePatterns.size() > MAX_KEYWORDS || pathPatterns.size() > MAX_KEYWORDS ||
+                (isIgnoreCase && SPECIAL_LOWER_CASE_LANGUAGES.contains(Locale.getDefault().getLanguage()));
+        this.nameKeywords = namePatterns.toArray(new String[0]);
+        this.nameAutomaton = isFallbackOnly || namePatterns.isEmpty() ? null : new Automaton(namePatterns);
+        this.pathAutomaton = isFallbackOnly || pathPatterns.isEmpty() ? null : new Automaton(pathPatterns);
+    }
+
+    /**
+     * 编译匹配器，参数与PathMatchUtil.check相同
+     */
+    public static PathMatcher compile(String[] searchCase,
+                                      boolean isIgnoreCase,
+                                      String searchText,
+                                      String[] keywords,
+                                      String[] keywordsLowerCase,
+                                      boolean[] isKeywordPath) {
+        return new PathMatcher(searchCase, isIgnoreCase, searchText, keywords, keywordsLowerCase, isKeywordPath);
+    }
+
+    /**
+     * 检查文件路径是否匹配所有输入规则
+     *
+     * @see PathMatchUtil#check(String, String[], boolean, String, String[], String[], boolean[])
+     */
+    public boolean check(String path) {
+        final int result = matchKeywordsAndFullName(path);
+        if (result == MatchResult.FALLBACK) {
+            return PathMatchUtil.check(path, searchCase, isIgnoreCase, searchText, keywords, keywordsLowerCase, isKeywordPath);
+        }
+        if (result == MatchResult.NOT_MATCHED) {
+            return false;
+        }
+        if (isFileOnly && !FileTypeIndex.getInstance().isFile(path)) {
+            return false;
+        }
+        return !isDirOnly || FileTypeIndex.getInstance().isDirectory(path);
+    }
+
+    /**
+     * 只检查关键字以及全字匹配规则，不访问文件系统
+     *
+     * @see PathMatchUtil#checkKeywords(String, String[], boolean, String, String[], String[], boolean[])
+     */
+    public boolean checkKeywords(String path) {
+        final int result = matchKeywordsAndFullName(path);
+        if (result == MatchResult.FALLBACK) {
+            return PathMatchUtil.checkKeywords(path, searchCase, isIgnoreCase, searchText, keywords, keywordsLowerCase, isKeywordPath);
+        }
+        return result == MatchResult.MATCHED;
+    }
+
+    /**
+     * 在路径的UTF-8字节上预先过滤，返回false时check和checkKeywords一定不匹配，返回true时仍然需要解码后调用check
+     * 只判断全部为ASCII字符的父路径和文件名：ASCII字节不会出现在多字节字符中，逐字节扫描与逐字符扫描的结果相同，
+     * ASCII文件名也没有转写结果，包含非ASCII字符的部分不判断
+     *
+     * @param bytes 路径的UTF-8字节
+     * @param from  起始位置，包含
+     * @param to    结束位置，不包含
+     * @return 是否可能匹配
+     */
+    public boolean mayMatch(byte[] bytes, int from, int to) {
+        if (isFallbackOnly) {
+            return true;
+        }
+        int separatorIndex = -1;
+        for (int i = to - 1; i >= from; --i) {
+            if (bytes[i] == File.separatorChar) {
+                separatorIndex = i;
+                break;
+            }
+        }
+        if (pathAutomaton != null) {
+            if (separatorIndex == -1) {
+                return true;
+            }
+            long found = pathAutomaton.scan(bytes, from, separatorIndex, isIgnoreCase);
+            if (found != FALLBACK && found != pathAutomaton.allPatternsMask) {
+                return false;
+            }
+        }
+        if (nameAutomaton != null) {
+            long found = nameAutomaton.scan(bytes, separatorIndex == -1 ? from : separatorIndex + 1, to, isIgnoreCase);
+            return found == FALLBACK || found == nameAutomaton.allPatternsMask;
+        }
+        return true;
+    }
+
+    private static final class MatchResult {
+        private static final int MATCHED = 0;
+        private static final int NOT_MATCHED = 1;
+        private static final int FALLBACK = 2;
+    }
+
+    private int matchKeywordsAndFullName(String path) {
+        if (isFallbackOnly) {
+            return MatchResult.FALLBACK;
+        }
+        final int separatorIndex = path.lastIndexOf(File.separatorChar);
+        final int nameStart = separatorIndex + 1;
+        final int pathLength = path.length();
+        if (pathAutomaton != null) {
+            // 与FileUtil.getParentPath相同，没有分隔符时由PathMatchUtil抛出相同的异常
+            if (separatorIndex == -1) {
+                return MatchResult.FALLBACK;
+            }
+            long found = pathAutomaton.scan(path, 0, separatorIndex, isIgnoreCase);
+            if (found == FALLBACK) {
+                return MatchResult.FALLBACK;
+            }
+            if (found != pathAutomaton.allPatternsMask) {
+                return MatchResult.NOT_MATCHED;
+            }
+        }
+        if (nameAutomaton != null) {
+            long found = nameAutomaton.scan(path, nameStart, pathLength, isIgnoreCase);
+            if (found == FALLBACK) {
+                return MatchResult.FALLBACK;
+            }
+            if (found != nameAutomaton.allPatternsMask && !isMissingKeywordsTransliterated(path, nameStart, found)) {
+                return MatchResult.NOT_MATCHED;
+            }
+        }
+        if (isFullMatch) {
+            final int nameLength = pathLength - nameStart;
+            if (nameLength != searchText.length() || !path.regionMatches(true, nameStart, searchText, 0, nameLength)) {
+                return MatchResult.NOT_MATCHED;
+            }
+        }
+        return MatchResult.MATCHED;
+    }
+
+    /**
+     * 文件名中没有找到的关键字是否都能在文件名的转写结果中找到，只有包含非ASCII字符的文件名才有转写结果
+     */
+    private boolean isMissingKeywordsTransliterated(String path, int nameStart, long found) {
+        if (isAscii(path, nameStart, path.length())) {
+            return false;
+        }
+        Transliteration[] transliterations = TransliterationIndex.getInstance().get(path.substring(nameStart));
+        for (int i = 0; i < nameKeywords.length; ++i) {
+            if ((found & (1L << i)) == 0 && !isTransliterationMatched(transliterations, nameKeywords[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isTransliterationMatched(Transliteration[] transliterations, String keyword) {
+        for (Transliteration each : transliterations) {
+            if (each.contains(keyword)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isAscii(String str, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            if (str.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 字符集上的Aho-Corasick自动机，ASCII字符使用完整的转移表，其他字符使用有序的稀疏转移加失败指针
+     * 每个状态的output为到达该状态时匹配到的所有关键字的位掩码
+     */
+    private static final class Automaton {
+        private static final int ASCII_SIZE = 128;
+        private final int[] asciiTransitions;
+        private final char[][] sparseChars;
+        private final int[][] sparseTargets;
+        private final int[] fail;
+        private final long[] output;
+        private final long allPatternsMask;
+
+        private Automaton(ArrayList<String> patterns) {
+            ArrayList<HashMap<Character, Integer>> children = new ArrayList<>();
+            ArrayList<Long> outputs = new ArrayList<>();
+            children.add(new HashMap<>());
+            outputs.add(0L);
+            long mask = 0;
+            for (int i = 0; i < patterns.size(); ++i) {
+                String pattern = patterns.get(i);
+                int state = 0;
+                for (int j = 0; j < pattern.length(); ++j) {
+                    Integer next = children.get(state).get(pattern.charAt(j));
+                    if (next == null) {
+                        next = children.size();
+                        children.add(new HashMap<>());
+                        outputs.add(0L);
+                        children.get(state).put(pattern.charAt(j), next);
+                    }
+                    state = next;
+                }
+                outputs.set(state, outputs.get(state) | (1L << i));
+                mask |= 1L << i;
+            }
+            final int stateNum = children.size();
+            this.allPatternsMask = mask;
+            this.asciiTransitions = new int[stateNum * ASCII_SIZE];
+            this.sparseChars = new char[stateNum][];
+            this.sparseTargets = new int[stateNum][];
+            this.fail = new int[stateNum];
+            this.output = new long[stateNum];
+            for (int state = 0; state < stateNum; ++state) {
+                output[state] = outputs.get(state);
+                ArrayList<Character> nonAscii = new ArrayList<>();
+                for (char c : children.get(state).keySet()) {
+                    if (c >= ASCII_SIZE) {
+                        nonAscii.add(c);
+                    }
+                }
+                nonAscii.sort(null);
+                sparseChars[state] = new char[nonAscii.size()];
+                sparseTargets[state] = new int[nonAscii.size()];
+                for (int i = 0; i < nonAscii.size(); ++i) {
+                    sparseChars[state][i] = nonAscii.get(i);
+                    sparseTargets[state][i] = children.get(state).get(nonAscii.get(i));
+                }
+            }
+            // 按层遍历计算失败指针，ASCII转移表同时补全为完整的DFA
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            for (int c = 0; c < ASCII_SIZE; ++c) {
+                Integer child = children.get(0).get((char) c);
+                asciiTransitions[c] = child == null ? 0 : child;
+            }
+            for (Map.Entry<Character, Integer> entry : children.get(0).entrySet()) {
+                fail[entry.getValue()] = 0;
+                queue.add(entry.getValue());
+            }
+            while (!queue.isEmpty()) {
+                final int state = queue.poll();
+                output[state] |= output[fail[state]];
+                for (int c = 0; c < ASCII_SIZE; ++c) {
+                    Integer child = children.get(state).get((char) c);
+                    asciiTransitions[state * ASCII_SIZE + c] = child == null ?
+                            asciiTransitions[fail[state] * ASCII_SIZE + c] : child;
+                }
+                for (Map.Entry<Character, Integer> entry : children.get(state).entrySet()) {
+                    final int child = entry.getValue();
+                    fail[child] = next(fail[state], entry.getKey());
+                    queue.add(child);
+                }
+            }
+        }
+
+        private int next(int state, char c) {
+            if (c < ASCII_SIZE) {
+                return asciiTransitions[state * ASCII_SIZE + c];
+            }
+            while (true) {
+                final int index = Arrays.binarySearch(sparseChars[state], c);
+                if (index >= 0) {
+                    return sparseTargets[state][index];
+                }
+                if (state == 0) {
+                    return 0;
+                }
+                state = fail[state];
+            }
+        }
+
+        /**
+         * 扫描UTF-8字节的[from, to)，找到所有关键字后立即返回
+         *
+         * @return 找到的关键字位掩码，遇到非ASCII字节时返回FALLBACK
+         */
+        private long scan(byte[] bytes, int from, int to, boolean isIgnoreCase) {
+            long found = 0;
+            int state = 0;
+            for (int i = from; i < to; ++i) {
+                int c = bytes[i];
+                if (c < 0) {
+                    return FALLBACK;
+                }
+                if (isIgnoreCase && c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                }
+                state = asciiTransitions[state * ASCII_SIZE + c];
+                found |= output[state];
+                if (found == allPatternsMask) {
+                    return found;
+                }
+            }
+            return found;
+        }
+
+        /**
+         * 扫描str的[from, to)，找到所有关键字后立即返回
+         *
+         * @return 找到的关键字位掩码，需要回退时返回FALLBACK
+         */
+        private long scan(String str, int from, int to, boolean isIgnoreCase) {
+            long found = 0;
+            int state = 0;
+            for (int i = from; i < to; ++i) {
+                char c = str.charAt(i);
+                if (isIgnoreCase) {
+                    if (c < ASCII_SIZE) {
+                        if (c >= 'A' && c <= 'Z') {
+                            c += 'a' - 'A';
+                        }
+                    } else if (c == '\u0130' || c == '\u03A3' || Character.isSurrogate(c)) {
+                        return FALLBACK;
+                    } else {
+                        c = Character.toLowerCase(c);
+                    }
+                }
+                state = next(state, c);
+                found |= output[state];
+                if (found == allPatternsMask) {
+                    return found;
+                }
+            }
+            return found;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package file.engine.services.utils;
+
+import file.engine.utils.RegexUtil;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 搜索记录，保存最近的搜索关键字、有结果的key（例如 [C,list10,-1]）和搜索耗时，保存在weight数据库的query_telemetry表中
+ * 每个key的分数为所有包含该key的搜索的次数之和，次数按照距离上次搜索的时间衰减，用于决定缓存和预读哪些表
+ * <p>
+ * 最多保存MAX_QUERY_NUM条搜索，超过时删除分数最低的搜索，修改只保存在内存中，由调用者定期调用save批量写入
+ */
+public class QueryTelemetry {
+    public static final String TABLE_NAME = "query_telemetry";
+    private static final int MAX_QUERY_NUM = 512;
+    // 每条搜索最多保存的key数量
+    private static final int MAX_MATCHED_KEYS = 64;
+    // 搜索次数每过HALF_LIFE_MILLS衰减一半
+    private static final long HALF_LIFE_MILLS = 24L * 60 * 60 * 1000;
+    // 耗时的指数移动平均权重
+    private static final double LATENCY_ALPHA = 0.2;
+
+    private final HashMap<String, QueryRecord> queries = new HashMap<>();
+    private final HashSet<String> changedQueries = new HashSet<>();
+    private final HashSet<String> removedQueries = new HashSet<>();
+
+    public static String getCreateTableSql() {
+        return "CREATE TABLE IF NOT EXISTS " + TABLE_NAME +
+                "(QUERY text unique, SEARCH_COUNT INT, LAST_SEARCH_TIME INT, AVERAGE_LATENCY INT, MATCHED_KEYS text);";
+    }
+
+    /**
+     * 记录一次搜索
+     *
+     * @param query        搜索关键字
+     * @param matchedKeys  有结果的key
+     * @param latencyMills 从开始搜索到搜索完成的耗时
+     */
+    public synchronized void record(String query, Collection<String> matchedKeys, long latencyMills) {
+        QueryRecord record = queries.get(query);
+        if (record == null) {
+            if (queries.size() >= MAX_QUERY_NUM) {
+                removeLowestScoreQuery();
+            }
+            record = new QueryRecord();
+            record.averageLatencyMills = latencyMills;
+            queries.put(query, record);
+        } else {
+            record.averageLatencyMills = (long) (record.averageLatencyMills * (1 - LATENCY_ALPHA) + latencyMills * LATENCY_ALPHA);
+        }
+        ++record.searchCount;
+        record.lastSearchTimeMills = System.currentTimeMillis();
+        for (String key : matchedKeys) {
+            if (record.matchedKeys.size() >= MAX_MATCHED_KEYS) {
+                break;
+            }
+            record.matchedKeys.add(key);
+        }
+        changedQueries.add(query);
+        removedQueries.remove(query);
+    }
+
+    /**
+     * 计算每个key的分数
+     *
+     * @return key为 [盘符,表名,优先级]，value为衰减后的搜索次数之和
+     */
+    public synchronized Map<String, Double> getKeyScores() {
+        final long now = System.currentTimeMillis();
+        HashMap<String, Double> scores = new HashMap<>();
+        queries.values().forEach(record -> {
+            final double score = record.getScore(now);
+            for (String key : record.matchedKeys) {
+                scores.merge(key, score, Double::sum);
+            }
+        });
+        return scores;
+    }
+
+    /**
+     * 读取保存的搜索记录
+     *
+     * @param stmt weight数据库的statement
+     */
+    @SuppressWarnings("SqlNoDataSourceInspection")
+    public synchronized void load(Statement stmt) throws SQLException {
+        try (ResultSet resultSet = stmt.executeQuery("SELECT QUERY, SEARCH_COUNT, LAST_SEARCH_TIME, AVERAGE_LATENCY, MATCHED_KEYS FROM " + TABLE_NAME + ";")) {
+            while (resultSet.next()) {
+                QueryRecord record = new QueryRecord();
+                record.searchCount = resultSet.getInt(2);
+                record.lastSearchTimeMills = resultSet.getLong(3);
+                record.averageLatencyMills = resultSet.getLong(4);
+                String matchedKeys = resultSet.getString(5);
+                if (matchedKeys != null && !matchedKeys.isEmpty()) {
+                    record.matchedKeys.addAll(RegexUtil.semicolon.splitAsStream(matchedKeys).toList());
+                }
+                queries.put(resultSet.getString(1), record);
+            }
+        }
+    }
+
+    /**
+     * 写入上次保存之后修改的搜索记录，调用者负责开始和提交事务
+     *
+     * @param stmt weight数据库的statement
+     */
+    @SuppressWarnings("SqlNoDataSourceInspection")
+    public synchronized void save(Statement stmt) throws SQLException {
+        if (!hasChanges()) {
+            return;
+        }
+        try (PreparedStatement pStmt = stmt.getConnection().prepareStatement("DELETE FROM " + TABLE_NAME + " WHERE QUERY=?;")) {
+            for (String query : removedQueries) {
+                pStmt.setString(1, query);
+                pStmt.addBatch();
+            }
+            pStmt.executeBatch();
+        }
+        try (PreparedStatement pStmt = stmt.getConnection().prepareStatement("INSERT OR REPLACE INTO " + TABLE_NAME + " VALUES(?, ?, ?, ?, ?);")) {
+            for (String query : changedQueries) {
+                QueryRecord record = queries.get(query);
+                if (record == null) {
+                    continue;
+                }
+                pStmt.setString(1, query);
+                pStmt.setInt(2, record.searchCount);
+                pStmt.setLong(3, record.lastSearchTimeMills);
+                pStmt.setLong(4, record.averageLatencyMills);
+                pStmt.setString(5, String.join(";", record.matchedKeys));
+                pStmt.addBatch();
+            }
+            pStmt.executeBatch();
+        }
+        changedQueries.clear();
+        removedQueries.clear();
+    }
+
+    /**
+     * 数据库被重新写入或分表方式被迁移后key对应的表已经改变，只保留搜索次数和耗时
+     */
+    public synchronized void clearMatchedKeys() {
+        queries.forEach((query, record) -> {
+            record.matchedKeys.clear();
+            changedQueries.add(query);
+        });
+    }
+
+    /**
+     * 是否有上次保存之后修改的搜索记录
+     */
+    public synchronized boolean hasChanges() {
+        return !changedQueries.isEmpty() || !removedQueries.isEmpty();
+    }
+
+    public synchronized int size() {
+        return queries.size();
+    }
+
+    private void removeLowestScoreQuery() {
+        final long now = System.currentTimeMillis();
+        String lowest = null;
+        double lowestScore = Double.MAX_VALUE;
+        for (var entry : queries.entrySet()) {
+            final double score = entry.getValue().getScore(now);
+            if (score < lowestScore) {
+                lowestScore = score;
+                lowest = entry.getKey();
+            }
+        }
+        if (lowest != null) {
+            queries.remove(lowest);
+            changedQueries.remove(lowest);
+            removedQueries.add(lowest);
+        }
+    }
+
+    private static class QueryRecord {
+        private int searchCount;
+        private long lastSearchTimeMills;
+        private long averageLatencyMills;
+        private final Set<String> matchedKeys = new LinkedHashSet<>();
+
+        private double getScore(long now) {
+            return searchCount * Math.pow(0.5, (double) Math.max(0, now - lastSearchTimeMills) / HALF_LIFE_MILLS);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package file.engine.services.utils;
 
 import oshi.SystemInfo;
+import oshi.hardware.CentralProcessor;
 import oshi.hardware.GlobalMemory;
 import oshi.hardware.HardwareAbstractionLayer;
 import oshi.util.GlobalConfig;
@@ -9,6 +10,8 @@ public class SystemInfoUtil {
     private static final SystemInfo si = new SystemInfo();
     private static final HardwareAbstractionLayer hal = si.getHardware();
     private static final GlobalMemory memory = hal.getMemory();
+    private static final CentralProcessor processor = hal.getProcessor();
+    private static long[] prevCpuTicks = processor.getSystemCpuLoadTicks();
 
     static {
         GlobalConfig.set(GlobalConfig.OSHI_OS_WINDOWS_PERFOS_DIABLED, false);
@@ -21,4 +24,15 @@ public class SystemInfoUtil {
         long availableMemory = memory.getAvailable();
         return (totalByte - availableMemory) * 1.0 / totalByte;
     }
+
+    /**
+     * 距离上次调用期间的CPU使用率
+     *
+     * @return 0-1
+     */
+    public static synchronized double getCpuLoad() {
+        double load = processor.getSystemCpuLoadBetweenTicks(prevCpuTicks);
+        prevCpuTicks = processor.getSystemCpuLoadTicks();
+        return load;
+    }
 }
@@ -0,0 +1,223 @@
+package file.engine.services.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 数据表缓存的管理策略，决定哪些表需要缓存，哪些表需要释放，不直接读取数据库
+ * key与DatabaseService中的缓存key相同，例如 [C,list10,-1]
+ * <p>
+ * 每个表的分数为衰减后的访问次数加上表权重的加成（0-1，只用于区分访问次数相同的表），访问次数每次调整时乘以DECAY_FACTOR
+ * 每次调整时：
+ * 1. 已缓存的大小超过预算时按分数从低到高释放，内存紧张时释放到预算的一半，不会一次释放所有缓存
+ * 2. 内存不紧张时按分数从高到低加入最近被访问过的表，空间不足时释放分数明显更低的表，每次加入的总大小不超过MAX_ADMIT_BYTES_PER_STEP
+ */
+public class TableCacheGovernor {
+    private static final double DECAY_FACTOR = 0.9;
+    // 新加入的表的分数需要超过被释放的表的分数的倍数，防止两个表反复交换
+    private static final double REPLACE_RATIO = 1.5;
+    // 每次调整最多加入的字节数，缓存逐步建立，不会长时间占用数据库
+    private static final long MAX_ADMIT_BYTES_PER_STEP = 16L * 1024 * 1024;
+    // 记录太少的表直接查询数据库也很快，不需要缓存
+    private static final int MIN_CACHE_RECORD_NUM = 100;
+    // 缓存中每条记录除路径外的额外占用，见ChunkedPathStore
+    private static final int RECORD_OVERHEAD_BYTES = 16;
+
+    private final ConcurrentHashMap<String, TableStat> tableStats = new ConcurrentHashMap<>();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final AtomicLong admissionCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * 搜索时从缓存中读取
+     */
+    public void recordHit(String key) {
+        hitCount.increment();
+        getStat(key).accessNum.increment();
+    }
+
+    /**
+     * 搜索时表没有缓存，需要查询数据库
+     */
+    public void recordMiss(String key) {
+        missCount.increment();
+        getStat(key).accessNum.increment();
+    }
+
+    /**
+     * 更新表的记录数量和所有路径的长度之和
+     */
+    public void updateTableSize(String key, int recordNum, long pathBytes) {
+        TableStat stat = getStat(key);
+        stat.recordNum = recordNum;
+        stat.pathBytes = pathBytes;
+    }
+
+    /**
+     * 衰减后的访问次数，包括上次调整之后的访问
+     */
+    public double getAccessFrequency(String key) {
+        TableStat stat = tableStats.get(key);
+        return stat == null ? 0 : stat.frequency + stat.accessNum.sum();
+    }
+
+    /**
+     * 使用保存的搜索记录作为启动时的访问次数，只会增加表的访问次数
+     *
+     * @param frequencies key和衰减后的搜索次数
+     */
+    public void seedAccessFrequency(Map<String, Double> frequencies) {
+        frequencies.forEach((key, frequency) -> {
+            TableStat stat = getStat(key);
+            stat.frequency = Math.max(stat.frequency, frequency);
+        });
+    }
+
+    /**
+     * 估算缓存表需要的内存
+     *
+     * @return 字节数，还未统计过大小时返回-1
+     */
+    public long estimateBytes(String key) {
+        TableStat stat = tableStats.get(key);
+        if (stat == null || stat.recordNum < 0) {
+            return -1;
+        }
+        return stat.pathBytes + (long) stat.recordNum * RECORD_OVERHEAD_BYTES;
+    }
+
+    /**
+     * 数据库被重新写入后所有表的大小都需要重新统计，访问次数保留
+     */
+    public void clearTableSize() {
+        tableStats.values().forEach(each -> {
+            each.recordNum = -1;
+            each.pathBytes = 0;
+        });
+    }
+
+    /**
+     * 计算需要释放和加入的表
+     *
+     * @param cachedBytes     已经缓存的表和占用的内存
+     * @param budget          缓存预算
+     * @param isUnderPressure 内存是否紧张
+     * @param tableWeights    表名和权重，例如 [list10, 100]
+     * @return 调整计划
+     */
+    public Plan plan(Map<String, Long> cachedBytes, long budget, boolean isUnderPressure, Map<String, Long> tableWeights) {
+        final long maxWeight = tableWeights.values().stream().mapToLong(Long::longValue).max().orElse(0);
+        HashMap<String, Double> scores = new HashMap<>();
+        tableStats.forEach((key, stat) -> {
+            stat.frequency = stat.frequency * DECAY_FACTOR + stat.accessNum.sumThenReset();
+            String tableName = key.substring(key.indexOf(',') + 1, key.lastIndexOf(','));
+            scores.put(key, stat.frequency + tableWeights.getOrDefault(tableName, 0L) / (maxWeight + 1.0));
+        });
+        final Comparator<String> byScore = Comparator.comparingDouble(key -> scores.getOrDefault(key, 0.0));
+        ArrayList<String> cached = new ArrayList<>(cachedBytes.keySet());
+        cached.sort(byScore);
+        final long target = isUnderPressure ? budget / 2 : budget;
+        long used = cachedBytes.values().stream().mapToLong(Long::longValue).sum();
+        ArrayList<String> evict = new ArrayList<>();
+        int victimIndex = 0;
+        while (used > target && victimIndex < cached.size()) {
+            String victim = cached.get(victimIndex++);
+            evict.add(victim);
+            used -= cachedBytes.get(victim);
+        }
+        ArrayList<String> admit = new ArrayList<>();
+        if (isUnderPressure) {
+            return new Plan(evict, admit);
+        }
+        ArrayList<String> candidates = new ArrayList<>();
+        tableStats.forEach((key, stat) -> {
+            if (!cachedBytes.containsKey(key) && stat.frequency >= 1 && stat.recordNum >= MIN_CACHE_RECORD_NUM &&
+                    estimateBytes(key) <= budget / 4) {
+                candidates.add(key);
+            }
+        });
+        candidates.sort(byScore.reversed());
+        long admitBytes = 0;
+        for (String candidate : candidates) {
+            final long need = estimateBytes(candidate);
+            if (admitBytes + need > MAX_ADMIT_BYTES_PER_STEP) {
+                continue;
+            }
+            final double score = scores.get(candidate);
+            // 空间不足时释放分数明显更低的表
+            while (used + need > target && victimIndex < cached.size() &&
+                    scores.getOrDefault(cached.get(victimIndex), 0.0) * REPLACE_RATIO < score) {
+                String victim = cached.get(victimIndex++);
+                evict.add(victim);
+                used -= cachedBytes.get(victim);
+            }
+            if (used + need > target) {
+                continue;
+            }
+            admit.add(candidate);
+            used += need;
+            admitBytes += need;
+        }
+        return new Plan(evict, admit);
+    }
+
+    public void recordAdmission() {
+        admissionCount.incrementAndGet();
+    }
+
+    public void recordEviction() {
+        evictionCount.incrementAndGet();
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getAdmissionCount() {
+        return admissionCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    @Override
+    public String toString() {
+        final long hit = getHitCount();
+        final long miss = getMissCount();
+        return String.format("hit: %d miss: %d hit rate: %.1f%% admission: %d eviction: %d",
+                hit, miss, hit + miss == 0 ? 0 : hit * 100.0 / (hit + miss), getAdmissionCount(), getEvictionCount());
+    }
+
+    private TableStat getStat(String key) {
+        return tableStats.computeIfAbsent(key, k -> new TableStat());
+    }
+
+    /**
+     * 调整计划，先释放再加入
+     *
+     * @param evict 需要释放的表
+     * @param admit 需要加入的表，按分数从高到低排列
+     */
+    public record Plan(List<String> evict, List<String> admit) {
+    }
+
+    private static class TableStat {
+        private final LongAdder accessNum = new LongAdder();
+        // 只在调整时由同一个线程修改
+        private volatile double frequency;
+        private volatile int recordNum = -1;
+        private volatile long pathBytes;
+    }
+}
@@ -0,0 +1,124 @@
+package file.engine.services.utils;
+
+import file.engine.configs.Constants;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 每个(表, 优先级)的记录数量和所有路径的长度之和，保存在每个磁盘数据库的table_stats表中
+ * 文件记录增删时在同一个事务中更新，启动时直接读取，不需要对每个表执行COUNT(*)
+ * <p>
+ * ngram_meta中TABLE_NAME为table_stats的记录表示统计是否准确，数据库被fileSearcherUSN重新写入后与ngram索引一起失效，
+ * 失效后遍历一次所有表重新统计
+ */
+public class TableStats {
+    public static final String TABLE_NAME = "table_stats";
+
+    /**
+     * 统计结果
+     *
+     * @param recordNum 记录数量
+     * @param pathBytes 所有路径的长度之和（字符数，与SQLite的LENGTH相同）
+     */
+    public record Stat(int recordNum, long pathBytes) {
+    }
+
+    public static String getCreateTableSql() {
+        return "CREATE TABLE IF NOT EXISTS " + TABLE_NAME +
+                "(TABLE_NAME TEXT, PRIORITY INT, RECORD_NUM INT, PATH_BYTES INT, PRIMARY KEY(\"TABLE_NAME\",\"PRIORITY\")) WITHOUT ROWID;";
+    }
+
+    /**
+     * 保存统计，参数为 TABLE_NAME, PRIORITY, RECORD_NUM, PATH_BYTES
+     */
+    public static String getUpsertSql() {
+        return "INSERT OR REPLACE INTO " + TABLE_NAME + " VALUES(?, ?, ?, ?);";
+    }
+
+    /**
+     * 统计是否准确
+     *
+     * @param stmt 该磁盘数据库的statement
+     */
+    @SuppressWarnings("SqlNoDataSourceInspection")
+    public static boolean isReady(Statement stmt) throws SQLException {
+        try (ResultSet resultSet = stmt.executeQuery("SELECT IS_READY FROM ngram_meta WHERE TABLE_NAME=\"" + TABLE_NAME + "\";")) {
+            return resultSet.next() && resultSet.getInt(1) == 1;
+        }
+    }
+
+    /**
+     * 将统计标记为不准确，迁移分表方式等批量移动记录之前调用
+     */
+    @SuppressWarnings("SqlNoDataSourceInspection")
+    public static void invalidate(Statement stmt) throws SQLException {
+        stmt.execute("INSERT OR REPLACE INTO ngram_meta VALUES(\"" + TABLE_NAME + "\", 0);");
+    }
+
+    /**
+     * 读取保存的统计
+     *
+     * @param stmt 该磁盘数据库的statement
+     * @return key为 [表名,优先级]，例如 [list10,-1]
+     */
+    @SuppressWarnings("SqlNoDataSourceInspection")
+    public static Map<String, Stat> load(Statement stmt) throws SQLException {
+        HashMap<String, Stat> stats = new HashMap<>();
+        try (ResultSet resultSet = stmt.executeQuery("SELECT TABLE_NAME, PRIORITY, RECORD_NUM, PATH_BYTES FROM " + TABLE_NAME + ";")) {
+            while (resultSet.next()) {
+                stats.put(resultSet.getString(1) + "," + resultSet.getInt(2), new Stat(resultSet.getInt(3), resultSet.getLong(4)));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * 遍历所有表重新统计并保存，完成后标记为准确，调用者需要保证统计期间没有其他线程写入记录
+     *
+     * @param stmt 该磁盘数据库的statement
+     * @return key为 [表名,优先级]，例如 [list10,-1]
+     */
+    @SuppressWarnings("SqlNoDataSourceInspection")
+    public static Map<String, Stat> rebuild(Statement stmt) throws SQLException {
+        HashMap<String, Stat> stats = new HashMap<>();
+        for (int i = 0; i <= Constants.MAX_TABLE_NUM; i++) {
+            String tableName = "list" + i;
+            try (ResultSet resultSet = stmt.executeQuery("SELECT PRIORITY, COUNT(*), SUM(LENGTH(PATH)) FROM " + tableName + " GROUP BY PRIORITY;")) {
+                while (resultSet.next()) {
+                    stats.put(tableName + "," + resultSet.getInt(1), new Stat(resultSet.getInt(2), resultSet.getLong(3)));
+                }
+            }
+        }
+        stmt.execute("BEGIN;");
+        try {
+            stmt.execute("DELETE FROM " + TABLE_NAME + ";");
+            try (PreparedStatement pStmt = stmt.getConnection().prepareStatement(getUpsertSql())) {
+                for (var entry : stats.entrySet()) {
+                    String[] info = entry.getKey().split(",");
+                    setParams(pStmt, info[0], Integer.parseInt(info[1]), entry.getValue());
+                    pStmt.addBatch();
+                }
+                pStmt.executeBatch();
+            }
+            stmt.execute("INSERT OR REPLACE INTO ngram_meta VALUES(\"" + TABLE_NAME + "\", 1);");
+        } finally {
+            stmt.execute("COMMIT;");
+        }
+        return stats;
+    }
+
+    /**
+     * 设置getUpsertSql的参数
+     */
+    public static void setParams(PreparedStatement pStmt, String tableName, int priority, Stat stat) throws SQLException {
+        pStmt.setString(1, tableName);
+        pStmt.setInt(2, priority);
+        pStmt.setInt(3, stat.recordNum());
+        pStmt.setLong(4, stat.pathBytes());
+    }
+}
@@ -0,0 +1,153 @@
+package file.engine.services.utils.connection;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.function.IntConsumer;
+
+/**
+ * 将同一个数据库的写操作合并为PreparedStatement批量执行，事务由调用者开启和提交
+ * 相同sql模板的操作放入同一个batch。某个路径已经在未执行的batch中时，先执行所有batch，保证同一个路径的操作顺序不变
+ * dependent操作（如ngram索引）依赖普通操作写入的记录，总是在普通操作之后执行
+ */
+public class BatchSqlWriter implements AutoCloseable {
+    private static final int MAX_BATCH_SIZE = 10000;
+    private final Statement statement;
+    private final PreparedStatementFactory preparedStatementFactory;
+    private final LinkedHashMap<String, Batch> batches = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Batch> dependentBatches = new LinkedHashMap<>();
+    private final HashSet<String> pendingPaths = new HashSet<>();
+    private int pendingNum;
+
+    @FunctionalInterface
+    public interface PreparedStatementFactory {
+        PreparedStatement prepare(String sql) throws SQLException;
+    }
+
+    /**
+     * @param statement                执行普通sql的statement，同时用于开启和提交事务
+     * @param preparedStatementFactory 创建PreparedStatement，必须与statement属于同一个数据库连接
+     */
+    public BatchSqlWriter(Statement statement, PreparedStatementFactory preparedStatementFactory) {
+        this.statement = statement;
+        this.preparedStatementFactory = preparedStatementFactory;
+    }
+
+    /**
+     * 添加一个批量操作
+     *
+     * @param sql           PreparedStatement模板
+     * @param params        参数
+     * @param path          操作的文件路径，用于保证同一路径的操作顺序
+     * @param updateCounter 执行后回调影响的行数，可以为null
+     */
+    public void add(String sql, Object[] params, String path, IntConsumer updateCounter) throws SQLException {
+        if (!pendingPaths.add(path)) {
+            flush();
+            pendingPaths.add(path);
+        }
+        addToBatch(batches, sql, params, updateCounter);
+    }
+
+    /**
+     * 添加一个依赖普通操作的批量操作，在所有普通操作之后执行
+     *
+     * @param sql    PreparedStatement模板
+     * @param params 参数
+     */
+    public void addDependent(String sql, Object[] params) throws SQLException {
+        addToBatch(dependentBatches, sql, params, null);
+    }
+
+    /**
+     * 执行一条完整的sql，在此之前添加的批量操作会先执行
+     *
+     * @param sql           sql
+     * @param updateCounter 执行后回调影响的行数，可以为null
+     */
+    public void execute(String sql, IntConsumer updateCounter) throws SQLException {
+        flush();
+        if (!statement.execute(sql) && updateCounter != null) {
+            updateCounter.accept(statement.getUpdateCount());
+        }
+    }
+
+    /**
+     * 执行所有未执行的批量操作
+     */
+    public void flush() throws SQLException {
+        for (Batch batch : batches.values()) {
+            batch.execute();
+        }
+        for (Batch batch : dependentBatches.values()) {
+            batch.execute();
+        }
+        pendingPaths.clear();
+        pendingNum = 0;
+    }
+
+    private void addToBatch(LinkedHashMap<String, Batch> batchMap, String sql, Object[] params, IntConsumer updateCounter) throws SQLException {
+        Batch batch = batchMap.get(sql);
+        if (batch == null) {
+            batch = new Batch(preparedStatementFactory.prepare(sql));
+            batchMap.put(sql, batch);
+        }
+        batch.add(params, updateCounter);
+        if (++pendingNum >= MAX_BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * 关闭所有PreparedStatement，不关闭statement，未执行的批量操作将被丢弃，需要在提交事务之前调用flush
+     */
+    @Override
+    public void close() throws SQLException {
+        for (Batch batch : batches.values()) {
+            batch.preparedStatement.close();
+        }
+        for (Batch batch : dependentBatches.values()) {
+            batch.preparedStatement.close();
+        }
+        batches.clear();
+        dependentBatches.clear();
+        pendingPaths.clear();
+    }
+
+    private static class Batch {
+        private final PreparedStatement preparedStatement;
+        private final ArrayList<IntConsumer> updateCounters = new ArrayList<>();
+
+        private Batch(PreparedStatement preparedStatement) {
+            this.preparedStatement = preparedStatement;
+        }
+
+        private void add(Object[] params, IntConsumer updateCounter) throws SQLException {
+            for (int i = 0; i < params.length; ++i) {
+                preparedStatement.setObject(i + 1, params[i]);
+            }
+            preparedStatement.addBatch();
+            updateCounters.add(updateCounter);
+        }
+
+        private void execute() throws SQLException {
+            if (updateCounters.isEmpty()) {
+                return;
+            }
+            try {
+                int[] updateCounts = preparedStatement.executeBatch();
+                for (int i = 0; i < updateCounts.length && i < updateCounters.size(); ++i) {
+                    IntConsumer updateCounter = updateCounters.get(i);
+                    if (updateCounter != null) {
+                        updateCounter.accept(updateCounts[i]);
+                    }
+                }
+            } finally {
+                updateCounters.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package file.engine.services.utils.connection;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 查找或创建v2数据库中文件夹路径对应的DIR_ID，每个磁盘一个实例，最近使用的文件夹缓存在实例中
+ * 只在写入线程中使用，不是线程安全的
+ *
+ * @see SchemaUtil
+ */
+public class DirectoryIdResolver {
+    private static final int MAX_CACHED_DIRS = 64 * 1024;
+    private final LinkedHashMap<String, Integer> dirIdCache = new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > MAX_CACHED_DIRS;
+        }
+    };
+    private PreparedStatement selectDir;
+    private PreparedStatement insertDir;
+
+    /**
+     * 获取文件夹id
+     *
+     * @param dirPath                  以分隔符结尾的文件夹路径
+     * @param isCreate                 不存在时是否创建
+     * @param preparedStatementFactory 创建PreparedStatement，需要与写入文件记录使用同一个连接
+     * @return 文件夹id，不存在且isCreate为false时返回-1，空路径返回0
+     */
+    public int getDirId(String dirPath, boolean isCreate, BatchSqlWriter.PreparedStatementFactory preparedStatementFactory) throws SQLException {
+        if (dirPath.isEmpty()) {
+            return 0;
+        }
+        Integer dirId = dirIdCache.get(dirPath);
+        if (dirId != null) {
+            return dirId;
+        }
+        final int parentId = getDirId(SchemaUtil.getParentDirPath(dirPath), isCreate, preparedStatementFactory);
+        if (parentId == -1) {
+            return -1;
+        }
+        final String dirName = SchemaUtil.getDirName(dirPath);
+        int id = selectDirId(parentId, dirName, preparedStatementFactory);
+        if (id == -1) {
+            if (!isCreate) {
+                return -1;
+            }
+            if (insertDir == null) {
+                insertDir = preparedStatementFactory.prepare("INSERT OR IGNORE INTO dirs(PARENT_ID, NAME) VALUES(?, ?);");
+            }
+            insertDir.setInt(1, parentId);
+            insertDir.setString(2, dirName);
+            insertDir.executeUpdate();
+            id = selectDirId(parentId, dirName, preparedStatementFactory);
+            if (id == -1) {
+                throw new SQLException("create dir failed: " + dirPath);
+            }
+        }
+        dirIdCache.put(dirPath, id);
+        return id;
+    }
+
+    private int selectDirId(int parentId, String dirName, BatchSqlWriter.PreparedStatementFactory preparedStatementFactory) throws SQLException {
+        if (selectDir == null) {
+            selectDir = preparedStatementFactory.prepare("SELECT ID FROM dirs WHERE PARENT_ID=? AND NAME=?;");
+        }
+        selectDir.setInt(1, parentId);
+        selectDir.setString(2, dirName);
+        try (ResultSet resultSet = selectDir.executeQuery()) {
+            return resultSet.next() ? resultSet.getInt(1) : -1;
+        }
+    }
+
+    /**
+     * 关闭PreparedStatement，每次写入完成后调用，缓存保留
+     */
+    public void closeStatements() {
+        try {
+            if (selectDir != null) {
+                selectDir.close();
+            }
+            if (insertDir != null) {
+                insertDir.close();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            selectDir = null;
+            insertDir = null;
+        }
+    }
+
+    /**
+     * 切换数据库后缓存的id失效
+     */
+    public void clear() {
+        closeStatements();
+        dirIdCache.clear();
+    }
+}
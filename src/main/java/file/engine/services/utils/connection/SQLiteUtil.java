@@ -5,6 +5,13 @@ import file.engine.configs.Constants;
 import file.engine.dllInterface.IsLocalDisk;
 import file.engine.event.handler.EventManagement;
 import file.engine.event.handler.impl.stop.RestartEvent;
+import file.engine.services.utils.FileTypeIndex;
+import file.engine.services.utils.QueryTelemetry;
+import file.engine.services.utils.TableStats;
+import file.engine.services.utils.NGramUtil;
+import file.engine.services.utils.DirPathSqlFunction;
+import file.engine.services.utils.PathMatchSqlFunction;
+import file.engine.services.utils.transliteration.TransliterationIndex;
 import file.engine.utils.ThreadPoolUtil;
 import file.engine.utils.RegexUtil;
 import file.engine.utils.file.FileUtil;
@@ -92,7 +99,7 @@ public class SQLiteUtil {
                 try {
                     conn.lock.lock();
                     if (conn.connection.isClosed()) {
-                        conn.connection = DriverManager.getConnection(conn.url, sqLiteConfig.toProperties());
+                        conn.connection = openConnection(conn.url);
                     }
                     conn.usingTimeMills = System.currentTimeMillis();
                 } catch (SQLException e) {
@@ -104,6 +111,20 @@ public class SQLiteUtil {
         });
     }
 
+    /**
+     * 打开连接并注册自定义函数
+     *
+     * @param url 数据库url
+     * @return 连接
+     * @throws SQLException 失败
+     */
+    private static Connection openConnection(String url) throws SQLException {
+        Connection connection = DriverManager.getConnection(url, sqLiteConfig.toProperties());
+        PathMatchSqlFunction.registerTo(connection);
+        DirPathSqlFunction.registerTo(connection);
+        return connection;
+    }
+
     private static ConnectionWrapper getFromConnectionPool(String key) throws SQLException {
         ConnectionWrapper connectionWrapper = connectionPool.get(key);
         if (connectionWrapper == null) {
@@ -112,7 +133,7 @@ public class SQLiteUtil {
         try {
             connectionWrapper.lock.lock();
             if (connectionWrapper.connection.isClosed()) {
-                connectionWrapper.connection = DriverManager.getConnection(connectionWrapper.url, sqLiteConfig.toProperties());
+                connectionWrapper.connection = openConnection(connectionWrapper.url);
                 System.out.println("已恢复连接 " + connectionWrapper.url);
             }
             connectionWrapper.usingTimeMills = System.currentTimeMillis();
@@ -383,6 +404,9 @@ public class SQLiteUtil {
         try (var pStmt = getPreparedStatement("CREATE TABLE IF NOT EXISTS weight(TABLE_NAME text unique, TABLE_WEIGHT INT);", "weight")) {
             pStmt.executeUpdate();
         }
+        try (var pStmt = getPreparedStatement(QueryTelemetry.getCreateTableSql(), "weight")) {
+            pStmt.executeUpdate();
+        }
         try (Statement stmt = getStatement("weight")) {
             for (int i = 0; i < 41; i++) {
                 String tableName = "list" + i;
@@ -399,9 +423,21 @@ public class SQLiteUtil {
      */
     private static void initTables(String disk) {
         try (Statement stmt = getStatement(disk)) {
+            stmt.executeUpdate(TransliterationIndex.getCreateTableSql());
+            stmt.executeUpdate(FileTypeIndex.getCreateTableSql());
+            stmt.executeUpdate(TableStats.getCreateTableSql());
+            // v2数据库中listN为视图，表已经在迁移时创建
+            if (SchemaUtil.getVersion(stmt) >= SchemaUtil.VERSION_2) {
+                return;
+            }
             for (int i = 0; i < 41; i++) {
                 stmt.executeUpdate("CREATE TABLE IF NOT EXISTS list" + i + "(ASCII INT, PATH TEXT, PRIORITY INT, PRIMARY KEY(\"ASCII\",\"PATH\",\"PRIORITY\"));");
+                for (String ngramSql : NGramUtil.getCreateTableSql("list" + i)) {
+                    stmt.executeUpdate(ngramSql);
+                }
             }
+            // 记录每个表的ngram索引是否已经建立完成
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS ngram_meta(TABLE_NAME text unique, IS_READY INT);");
         } catch (SQLException exception) {
             exception.printStackTrace();
         }
@@ -475,7 +511,7 @@ public class SQLiteUtil {
 
         private ConnectionWrapper(String url) throws SQLException {
             this.url = url;
-            this.connection = DriverManager.getConnection(url, sqLiteConfig.toProperties());
+            this.connection = openConnection(url);
             this.usingTimeMills = System.currentTimeMillis();
             this.randomTimeMills = random.nextInt(300000) + 30000; //随机添加超时时间，从30秒到5秒，防止所有连接同时关闭
         }
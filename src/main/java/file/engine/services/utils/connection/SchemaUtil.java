@@ -0,0 +1,272 @@
+package file.engine.services.utils.connection;
+
+import file.engine.configs.Constants;
+import file.engine.services.utils.NGramUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+
+/**
+ * 数据库结构版本
+ * v1：listN(ASCII, PATH, PRIORITY)，每条记录保存完整路径，fileSearcherUSN写入的就是该结构
+ * v2：文件夹只在dirs(ID, PARENT_ID, NAME)中保存一次，文件保存在files_listN(DIR_ID, NAME, PRIORITY, ASCII)中
+ * listN变为视图，通过DIR_PATH函数还原完整路径，rowid为files_listN的rowid，所有读取listN的sql不需要修改
+ * 版本号保存在PRAGMA user_version中
+ *
+ * @see file.engine.services.utils.DirPathSqlFunction
+ */
+public class SchemaUtil {
+    public static final int VERSION_1 = 0;
+    public static final int VERSION_2 = 2;
+    private static final int MIGRATE_BATCH_SIZE = 10000;
+    private static final int USER_VERSION_OFFSET = 60;
+
+    /**
+     * 获取数据库结构版本
+     *
+     * @param stmt statement
+     * @return VERSION_1或VERSION_2
+     */
+    public static int getVersion(Statement stmt) throws SQLException {
+        try (ResultSet resultSet = stmt.executeQuery("PRAGMA user_version;")) {
+            return resultSet.next() ? resultSet.getInt(1) : VERSION_1;
+        }
+    }
+
+    /**
+     * 不打开连接，直接从数据库文件头读取结构版本，user_version保存在文件头第60字节开始的4个字节中
+     *
+     * @param dbFile 数据库文件
+     * @return VERSION_1或VERSION_2，文件不完整时返回VERSION_1
+     */
+    public static int getVersion(Path dbFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(dbFile, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
+            if (channel.read(buffer, USER_VERSION_OFFSET) != Integer.BYTES) {
+                return VERSION_1;
+            }
+            return buffer.flip().getInt();
+        }
+    }
+
+    public static String getFilesTableName(String tableName) {
+        return "files_" + tableName;
+    }
+
+    /**
+     * 插入文件记录，参数依次为 DIR_ID, NAME, PRIORITY, ASCII
+     */
+    public static String getInsertSql(String tableName) {
+        return "INSERT OR IGNORE INTO " + getFilesTableName(tableName) + " VALUES(?, ?, ?, ?);";
+    }
+
+    /**
+     * 删除文件记录，参数依次为 DIR_ID, NAME
+     */
+    public static String getDeleteSql(String tableName) {
+        return "DELETE FROM " + getFilesTableName(tableName) + " WHERE DIR_ID=? AND NAME=?;";
+    }
+
+    /**
+     * 写入ngram索引，参数依次为 GRAM, DIR_ID, NAME, PRIORITY
+     */
+    public static String getNGramInsertSql(String tableName) {
+        return "INSERT OR IGNORE INTO ngram_" + tableName + " SELECT ?, rowid FROM " + getFilesTableName(tableName) +
+                " WHERE DIR_ID=? AND NAME=? AND PRIORITY=?;";
+    }
+
+    /**
+     * 查询文件夹id，参数依次为 PARENT_ID, NAME
+     */
+    public static String getSelectDirIdSql() {
+        return "SELECT ID FROM dirs WHERE PARENT_ID=? AND NAME=?;";
+    }
+
+    /**
+     * 查询文件夹以及所有子文件夹中的文件记录，参数为文件夹id
+     * 子文件夹通过dirs(PARENT_ID, NAME)上的唯一索引递归查找，文件记录通过files_listN的主键查找，不需要扫描整个表
+     */
+    public static String getSelectPathsUnderDirSql(String tableName) {
+        return "WITH RECURSIVE sub(ID) AS (SELECT ? UNION ALL SELECT d.ID FROM dirs d JOIN sub ON d.PARENT_ID=sub.ID) " +
+                "SELECT DIR_PATH(f.DIR_ID) || f.NAME FROM " + getFilesTableName(tableName) + " f WHERE f.DIR_ID IN (SELECT ID FROM sub);";
+    }
+
+    /**
+     * 逐级查找文件夹id，不创建不存在的文件夹
+     *
+     * @param selectDir 使用getSelectDirIdSql创建的PreparedStatement
+     * @param dirPath   以分隔符结尾的文件夹路径
+     * @return 文件夹id，不存在时返回-1，空路径返回0
+     */
+    public static int findDirId(PreparedStatement selectDir, String dirPath) throws SQLException {
+        if (dirPath.isEmpty()) {
+            return 0;
+        }
+        final int parentId = findDirId(selectDir, getParentDirPath(dirPath));
+        if (parentId == -1) {
+            return -1;
+        }
+        selectDir.setInt(1, parentId);
+        selectDir.setString(2, getDirName(dirPath));
+        try (ResultSet resultSet = selectDir.executeQuery()) {
+            return resultSet.next() ? resultSet.getInt(1) : -1;
+        }
+    }
+
+    /**
+     * 获取文件所在文件夹的路径，以分隔符结尾，如 C:\Windows\
+     */
+    public static String getDirPath(String path) {
+        return path.substring(0, lastSeparatorIndex(path) + 1);
+    }
+
+    /**
+     * 获取文件名，与getDirPath拼接后为完整路径
+     */
+    public static String getName(String path) {
+        return path.substring(lastSeparatorIndex(path) + 1);
+    }
+
+    /**
+     * 获取文件夹的上级文件夹路径
+     *
+     * @param dirPath 以分隔符结尾的文件夹路径
+     * @return 上级文件夹路径，已经是根目录时返回空字符串
+     */
+    static String getParentDirPath(String dirPath) {
+        return getDirPath(dirPath.substring(0, dirPath.length() - 1));
+    }
+
+    /**
+     * 获取文件夹名
+     *
+     * @param dirPath 以分隔符结尾的文件夹路径
+     * @return 文件夹名，根目录为盘符，如 C:
+     */
+    static String getDirName(String dirPath) {
+        return getName(dirPath.substring(0, dirPath.length() - 1));
+    }
+
+    private static int lastSeparatorIndex(String path) {
+        return Math.max(path.lastIndexOf('\\'), path.lastIndexOf('/'));
+    }
+
+    /**
+     * 将v1数据库迁移到v2，已经是v2时不做任何操作
+     * ngram索引的rowid会改变，迁移后所有表需要重新建立ngram索引
+     *
+     * @param connection 数据库连接，需要已经注册DIR_PATH函数
+     */
+    @SuppressWarnings("SqlNoDataSourceInspection")
+    public static void migrateToV2(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            if (getVersion(stmt) >= VERSION_2) {
+                return;
+            }
+            stmt.execute("BEGIN;");
+            try {
+                stmt.execute("CREATE TABLE IF NOT EXISTS dirs(ID INTEGER PRIMARY KEY, PARENT_ID INT, NAME TEXT, UNIQUE(\"PARENT_ID\",\"NAME\"));");
+                HashMap<String, Integer> dirIds = new HashMap<>();
+                try (PreparedStatement insertDir = connection.prepareStatement("INSERT INTO dirs VALUES(?, ?, ?);")) {
+                    for (int i = 0; i <= Constants.MAX_TABLE_NUM; ++i) {
+                        String tableName = "list" + i;
+                        if (isTable(stmt, tableName)) {
+                            migrateTable(connection, stmt, tableName, dirIds, insertDir);
+                        }
+                    }
+                    insertDir.executeBatch();
+                }
+                if (isTable(stmt, "ngram_meta")) {
+                    stmt.execute("UPDATE ngram_meta SET IS_READY=0;");
+                }
+                stmt.execute("PRAGMA user_version=" + VERSION_2 + ";");
+                stmt.execute("COMMIT;");
+            } catch (SQLException e) {
+                stmt.execute("ROLLBACK;");
+                throw e;
+            }
+            // 释放旧表占用的空间
+            stmt.execute("VACUUM;");
+        }
+    }
+
+    @SuppressWarnings("SqlNoDataSourceInspection")
+    private static void migrateTable(Connection connection,
+                                     Statement stmt,
+                                     String tableName,
+                                     HashMap<String, Integer> dirIds,
+                                     PreparedStatement insertDir) throws SQLException {
+        final String filesTableName = getFilesTableName(tableName);
+        stmt.execute("CREATE TABLE IF NOT EXISTS " + filesTableName + "(DIR_ID INT, NAME TEXT, PRIORITY INT, ASCII INT, PRIMARY KEY(\"DIR_ID\",\"NAME\",\"PRIORITY\"));");
+        try (PreparedStatement insertFile = connection.prepareStatement(getInsertSql(tableName));
+             Statement selectStmt = connection.createStatement();
+             ResultSet resultSet = selectStmt.executeQuery("SELECT ASCII, PATH, PRIORITY FROM " + tableName + ";")) {
+            int batchSize = 0;
+            while (resultSet.next()) {
+                String path = resultSet.getString(2);
+                insertFile.setInt(1, getOrCreateDirId(getDirPath(path), dirIds, insertDir));
+                insertFile.setString(2, getName(path));
+                insertFile.setInt(3, resultSet.getInt(3));
+                insertFile.setInt(4, resultSet.getInt(1));
+                insertFile.addBatch();
+                if (++batchSize >= MIGRATE_BATCH_SIZE) {
+                    insertDir.executeBatch();
+                    insertFile.executeBatch();
+                    batchSize = 0;
+                }
+            }
+            insertDir.executeBatch();
+            insertFile.executeBatch();
+        }
+        // 删除旧表时同时删除旧表上的索引和ngram触发器
+        stmt.execute("DROP TABLE " + tableName + ";");
+        for (String ngramSql : NGramUtil.getCreateTableSql(tableName, filesTableName)) {
+            stmt.execute(ngramSql);
+        }
+        stmt.execute("DELETE FROM ngram_" + tableName + ";");
+        stmt.execute("CREATE INDEX IF NOT EXISTS " + filesTableName + "_index ON " + filesTableName + "(PRIORITY);");
+        stmt.execute("CREATE VIEW IF NOT EXISTS " + tableName + " AS SELECT f.rowid AS rowid, f.ASCII AS ASCII, " +
+                "DIR_PATH(f.DIR_ID) || f.NAME AS PATH, f.PRIORITY AS PRIORITY FROM " + filesTableName + " f;");
+    }
+
+    private static int getOrCreateDirId(String dirPath, HashMap<String, Integer> dirIds, PreparedStatement insertDir) throws SQLException {
+        if (dirPath.isEmpty()) {
+            return 0;
+        }
+        Integer dirId = dirIds.get(dirPath);
+        if (dirId != null) {
+            return dirId;
+        }
+        final int parentId = getOrCreateDirId(getParentDirPath(dirPath), dirIds, insertDir);
+        dirId = dirIds.size() + 1;
+        insertDir.setInt(1, dirId);
+        insertDir.setInt(2, parentId);
+        insertDir.setString(3, getDirName(dirPath));
+        insertDir.addBatch();
+        dirIds.put(dirPath, dirId);
+        return dirId;
+    }
+
+    private static boolean isTable(Statement stmt, String tableName) throws SQLException {
+        try (ResultSet resultSet = stmt.executeQuery("SELECT 1 FROM sqlite_master WHERE type='table' AND name='" + tableName + "';")) {
+            return resultSet.next();
+        }
+    }
+
+    /**
+     * 将文件名与文件夹路径拼接为完整路径，DIR_PATH函数使用
+     */
+    public static String joinDirPath(String parentDirPath, String dirName) {
+        return parentDirPath + dirName + File.separatorChar;
+    }
+}
@@ -0,0 +1,53 @@
+package file.engine.services.utils.monitor;
+
+/**
+ * 文件变化来源，DatabaseService通过该接口获取新增和删除的文件
+ */
+public interface FileChangeSource {
+
+    /**
+     * 是否可以在当前环境中使用
+     *
+     * @return true如果可以开始监控
+     */
+    boolean isAvailable();
+
+    /**
+     * 开始监控文件变化，不阻塞，已经在监控时重新开始
+     *
+     * @param root 磁盘路径，如C:\
+     */
+    void startMonitor(String root);
+
+    /**
+     * 停止监控文件变化
+     *
+     * @param root 磁盘路径
+     */
+    void stopMonitor(String root);
+
+    /**
+     * 文件变化
+     *
+     * @param path        文件路径
+     * @param isAdd       true为新增，false为删除
+     * @param isDirectory 删除的是否为文件夹，文件夹被删除或移动时不会产生其中文件的变化，需要同时删除文件夹下的所有记录
+     */
+    record Change(String path, boolean isAdd, boolean isDirectory) {
+    }
+
+    /**
+     * 按发生的顺序获取一个文件变化
+     *
+     * @return 文件变化，没有新的变化时返回null
+     */
+    Change pollChange();
+
+    /**
+     * 设置在程序退出时删除文件变化日志，只有USN日志需要
+     *
+     * @param root 磁盘路径
+     */
+    default void deleteChangeLogOnExit(String root) {
+    }
+}
@@ -0,0 +1,63 @@
+package file.engine.services.utils.monitor;
+
+import file.engine.dllInterface.FileMonitor;
+import file.engine.services.utils.AdminUtil;
+import file.engine.utils.ThreadPoolUtil;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 通过fileMonitor.dll读取NTFS USN日志获取文件变化，需要管理员权限
+ */
+public class UsnFileChangeSource implements FileChangeSource {
+    private boolean isPollAddNext = true;
+
+    @Override
+    public boolean isAvailable() {
+        return AdminUtil.isAdmin();
+    }
+
+    @Override
+    public void startMonitor(String root) {
+        FileMonitor.INSTANCE.stop_monitor(root);
+        while (!FileMonitor.INSTANCE.is_monitor_stopped(root)) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(100);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            FileMonitor.INSTANCE.stop_monitor(root);
+        }
+        ThreadPoolUtil.getInstance().executeTask(() -> {
+            FileMonitor.INSTANCE.monitor(root);
+            System.out.println("停止监听 " + root + " 的文件变化");
+        }, false);
+    }
+
+    @Override
+    public void stopMonitor(String root) {
+        FileMonitor.INSTANCE.stop_monitor(root);
+    }
+
+    /**
+     * USN日志的新增和删除在dll中分别保存，无法得到两者之间的顺序，与之前一样交替取出新增和删除
+     * 只由文件变化流水线的drain线程调用
+     */
+    @Override
+    public Change pollChange() {
+        for (int i = 0; i < 2; ++i) {
+            final boolean isAdd = isPollAddNext;
+            isPollAddNext = !isPollAddNext;
+            String path = isAdd ? FileMonitor.INSTANCE.pop_add_file() : FileMonitor.INSTANCE.pop_del_file();
+            if (path != null) {
+                return new Change(path, isAdd, false);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void deleteChangeLogOnExit(String root) {
+        FileMonitor.INSTANCE.delete_usn_on_exit(root);
+    }
+}
@@ -0,0 +1,225 @@
+package file.engine.services.utils.monitor;
+
+import file.engine.utils.ThreadPoolUtil;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 使用java.nio.file.WatchService递归监控文件夹，可以在非NTFS文件系统和Linux上运行
+ * 每个窗口期内的事件会先合并再发布：同一文件的多次变化只保留最后的结果，窗口期内新建又删除的文件不会发布
+ * 新建的文件夹会立即注册监控，注册之前已经在其中创建的文件由文件变化处理流水线遍历文件夹时添加
+ * 已经注册监控的文件夹被删除或移动时只会产生文件夹本身的删除，发布时标记为文件夹，由调用者删除其中的记录
+ * 事件溢出时重新注册该文件夹下的所有子文件夹，并将该文件夹作为新增发布，由流水线重新遍历添加丢失的新建文件
+ * 丢失的删除无法恢复，这些记录在搜索结果显示前检查文件是否存在时删除
+ * 所有变化按照发生的顺序放入同一个队列
+ */
+public class WatchServiceFileChangeSource implements FileChangeSource {
+    private static final long COALESCE_WINDOW_MILLS = 50;
+    // 已发布但还未取走的变化数量上限，超过后监控线程等待，未读取的事件由WatchService缓存
+    private static final int MAX_PUBLISHED_CHANGES = 100_000;
+
+    private final ConcurrentHashMap<String, Watcher> watchers = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Change> changes = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger publishedChanges = new AtomicInteger();
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public void startMonitor(String root) {
+        stopMonitor(root);
+        Watcher watcher;
+        try {
+            watcher = new Watcher(Path.of(root));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        watchers.put(root, watcher);
+        ThreadPoolUtil.getInstance().executeTask(() -> {
+            watcher.run();
+            System.out.println("停止监听 " + root + " 的文件变化");
+        }, false);
+    }
+
+    @Override
+    public void stopMonitor(String root) {
+        Watcher watcher = watchers.remove(root);
+        if (watcher != null) {
+            watcher.isRunning = false;
+        }
+    }
+
+    @Override
+    public Change pollChange() {
+        Change change = changes.poll();
+        if (change != null) {
+            publishedChanges.decrementAndGet();
+        }
+        return change;
+    }
+
+    private class Watcher {
+        private final Path root;
+        private final WatchService watchService;
+        private final HashMap<WatchKey, Path> watchedDirs = new HashMap<>();
+        private final HashMap<Path, WatchKey> watchKeys = new HashMap<>();
+        // key为文件路径，value为该文件在窗口期内最后的变化
+        private final LinkedHashMap<Path, Change> coalescedChanges = new LinkedHashMap<>();
+        private volatile boolean isRunning = true;
+
+        private Watcher(Path root) throws IOException {
+            this.root = root;
+            this.watchService = root.getFileSystem().newWatchService();
+        }
+
+        private void run() {
+            try (watchService) {
+                registerAll(root);
+                long windowStart = System.currentTimeMillis();
+                while (isRunning) {
+                    WatchKey watchKey = watchService.poll(COALESCE_WINDOW_MILLS, TimeUnit.MILLISECONDS);
+                    if (watchKey != null) {
+                        handleEvents(watchKey);
+                    }
+                    if (coalescedChanges.isEmpty()) {
+                        windowStart = System.currentTimeMillis();
+                    } else if (watchKey == null || System.currentTimeMillis() - windowStart >= COALESCE_WINDOW_MILLS) {
+                        publish();
+                        windowStart = System.currentTimeMillis();
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (InterruptedException ignored) {
+                // ignore interrupt exception
+            } catch (ClosedWatchServiceException ignored) {
+                // watch service closed
+            }
+        }
+
+        private void handleEvents(WatchKey watchKey) throws InterruptedException {
+            Path dir = watchedDirs.get(watchKey);
+            for (WatchEvent<?> event : watchKey.pollEvents()) {
+                WatchEvent.Kind<?> kind = event.kind();
+                if (kind == StandardWatchEventKinds.OVERFLOW) {
+                    Path rescanDir = dir == null ? root : dir;
+                    System.err.println("文件变化过多，部分变化已丢失，重新遍历 " + rescanDir);
+                    registerAll(rescanDir);
+                    if (!coalescedChanges.containsKey(rescanDir)) {
+                        coalescedChanges.put(rescanDir, new Change(rescanDir.toAbsolutePath().toString(), true, false));
+                    }
+                    continue;
+                }
+                if (dir == null) {
+                    continue;
+                }
+                Path child = dir.resolve((Path) event.context());
+                Change pending = coalescedChanges.get(child);
+                if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+                    if (pending != null && pending.isDirectory()) {
+                        // 文件夹被删除后又新建，先发布删除，否则原来文件夹中的记录不会被删除
+                        publish();
+                    } else {
+                        coalescedChanges.remove(child);
+                    }
+                    coalescedChanges.put(child, new Change(child.toAbsolutePath().toString(), true, false));
+                    if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                        registerAll(child);
+                    }
+                } else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+                    final boolean isDirectory = unregisterAll(child);
+                    if (pending != null && pending.isAdd()) {
+                        // 窗口期内新建又删除，相互抵消
+                        coalescedChanges.remove(child);
+                    } else {
+                        coalescedChanges.put(child, new Change(child.toAbsolutePath().toString(), false,
+                                isDirectory || (pending != null && pending.isDirectory())));
+                    }
+                }
+            }
+            if (!watchKey.reset()) {
+                Path removed = watchedDirs.remove(watchKey);
+                if (removed != null) {
+                    watchKeys.remove(removed, watchKey);
+                }
+            }
+        }
+
+        private void publish() throws InterruptedException {
+            while (publishedChanges.get() > MAX_PUBLISHED_CHANGES && isRunning) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            for (Change change : coalescedChanges.values()) {
+                changes.add(change);
+                publishedChanges.incrementAndGet();
+            }
+            coalescedChanges.clear();
+        }
+
+        /**
+         * 取消文件夹及其所有子文件夹的监控
+         *
+         * @return true如果该路径是已经注册监控的文件夹
+         */
+        private boolean unregisterAll(Path start) {
+            if (!watchKeys.containsKey(start)) {
+                return false;
+            }
+            var iterator = watchKeys.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Path, WatchKey> entry = iterator.next();
+                if (entry.getKey().startsWith(start)) {
+                    entry.getValue().cancel();
+                    watchedDirs.remove(entry.getValue());
+                    iterator.remove();
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 注册文件夹及其所有子文件夹，无法访问的文件夹将被跳过
+         */
+        private void registerAll(Path start) {
+            try {
+                Files.walkFileTree(start, new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        if (!isRunning) {
+                            return FileVisitResult.TERMINATE;
+                        }
+                        try {
+                            WatchKey watchKey = dir.register(watchService,
+                                    StandardWatchEventKinds.ENTRY_CREATE,
+                                    StandardWatchEventKinds.ENTRY_DELETE);
+                            watchedDirs.put(watchKey, dir);
+                            watchKeys.put(dir, watchKey);
+                        } catch (IOException e) {
+                            return FileVisitResult.SKIP_SUBTREE;
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
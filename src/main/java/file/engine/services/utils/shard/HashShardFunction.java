@@ -0,0 +1,33 @@
+package file.engine.services.utils.shard;
+
+/**
+ * 按照文件名的hash分表，忽略大小写，记录均匀分布在所有表中
+ */
+public class HashShardFunction implements ShardFunction {
+
+    @Override
+    public String getName() {
+        return "hash";
+    }
+
+    @Override
+    public int getId() {
+        return 1;
+    }
+
+    @Override
+    public int getShard(String fileName, int shardCount) {
+        // FNV-1a
+        int h = 0x811c9dc5;
+        final int length = fileName.length();
+        for (int i = 0; i < length; ++i) {
+            h ^= Character.toLowerCase(fileName.charAt(i));
+            h *= 0x01000193;
+        }
+        // 混合高位，使取模结果不只取决于最后几个字符
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return Math.floorMod(h, shardCount);
+    }
+}
@@ -0,0 +1,24 @@
+package file.engine.services.utils.shard;
+
+/**
+ * 按照文件名的字符数量分表，每个长度一个表，超过表数量的长度全部放在最后一个表中
+ * 与字符的编码无关，中文文件名同样可以均匀分布
+ */
+public class LengthShardFunction implements ShardFunction {
+
+    @Override
+    public String getName() {
+        return "length";
+    }
+
+    @Override
+    public int getId() {
+        return 2;
+    }
+
+    @Override
+    public int getShard(String fileName, int shardCount) {
+        final int length = fileName.codePointCount(0, fileName.length());
+        return Math.max(0, Math.min(length - 1, shardCount - 1));
+    }
+}
@@ -0,0 +1,41 @@
+package file.engine.services.utils.shard;
+
+import java.util.Arrays;
+
+/**
+ * 一个磁盘中每个表的记录数量
+ *
+ * @param counts 下标为表的序号
+ */
+public record ShardDistribution(long[] counts) {
+
+    public long getTotal() {
+        return Arrays.stream(counts).sum();
+    }
+
+    public long getMax() {
+        return Arrays.stream(counts).max().orElse(0);
+    }
+
+    public int getNonEmptyCount() {
+        return (int) Arrays.stream(counts).filter(each -> each > 0).count();
+    }
+
+    /**
+     * 最大的表与平均值的比值，1表示完全均匀，越大说明记录越集中
+     *
+     * @param shardCount 参与计算平均值的表数量
+     */
+    public double getSkew(int shardCount) {
+        final long total = getTotal();
+        if (total == 0) {
+            return 1;
+        }
+        return getMax() / ((double) total / shardCount);
+    }
+
+    @Override
+    public String toString() {
+        return "total=" + getTotal() + ", max=" + getMax() + ", nonEmpty=" + getNonEmptyCount() + ", counts=" + Arrays.toString(counts);
+    }
+}
@@ -0,0 +1,69 @@
+package file.engine.services.utils.shard;
+
+import java.util.List;
+
+/**
+ * 分表函数，根据文件名决定记录写入list0到listN中的哪个表
+ * 实现需要是线程安全且无状态的，同一个文件名必须总是得到同一个结果
+ *
+ * @see ShardRouter
+ */
+public interface ShardFunction {
+    ShardFunction UTF8_SUM = new Utf8SumShardFunction();
+    ShardFunction HASH = new HashShardFunction();
+    ShardFunction LENGTH = new LengthShardFunction();
+    List<ShardFunction> ALL = List.of(UTF8_SUM, HASH, LENGTH);
+
+    /**
+     * 函数名称，用于设置
+     *
+     * @return 名称，如hash
+     */
+    String getName();
+
+    /**
+     * 函数id，保存在数据库文件头中，不能修改
+     *
+     * @return id，0到255
+     */
+    int getId();
+
+    /**
+     * 计算文件名所在的表
+     *
+     * @param fileName   文件名
+     * @param shardCount 表的数量
+     * @return 0到shardCount-1
+     */
+    int getShard(String fileName, int shardCount);
+
+    /**
+     * 根据名称获取分表函数
+     *
+     * @param name 名称
+     * @return 分表函数，找不到时返回UTF8_SUM
+     */
+    static ShardFunction getByName(String name) {
+        for (ShardFunction each : ALL) {
+            if (each.getName().equals(name)) {
+                return each;
+            }
+        }
+        return UTF8_SUM;
+    }
+
+    /**
+     * 根据id获取分表函数
+     *
+     * @param id id
+     * @return 分表函数，找不到时返回null
+     */
+    static ShardFunction getById(int id) {
+        for (ShardFunction each : ALL) {
+            if (each.getId() == id) {
+                return each;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,82 @@
+package file.engine.services.utils.shard;
+
+import file.engine.configs.Constants;
+
+/**
+ * 数据库的分表方式，由分表函数和表的数量组成
+ * 表的数量不超过Constants.MAX_TABLE_NUM + 1，list0到list40始终存在，超过shardCount的表为空
+ * <p>
+ * 保存在数据库文件头的application_id中，0表示fileSearcherUSN写入的默认分表方式
+ *
+ * @param function   分表函数
+ * @param shardCount 表的数量
+ */
+public record ShardLayout(ShardFunction function, int shardCount) {
+    public static final ShardLayout LEGACY = new ShardLayout(ShardFunction.UTF8_SUM, Constants.MAX_TABLE_NUM + 1);
+    private static final int APPLICATION_ID_MAGIC = 0x5348;
+
+    public ShardLayout {
+        if (shardCount < 1 || shardCount > Constants.MAX_TABLE_NUM + 1) {
+            throw new IllegalArgumentException("shardCount out of range: " + shardCount);
+        }
+    }
+
+    /**
+     * 根据设置创建分表方式，表的数量超出范围时使用最大值
+     *
+     * @param functionName 分表函数名称
+     * @param shardCount   表的数量
+     * @return 分表方式
+     */
+    public static ShardLayout of(String functionName, int shardCount) {
+        if (shardCount < 1 || shardCount > Constants.MAX_TABLE_NUM + 1) {
+            shardCount = Constants.MAX_TABLE_NUM + 1;
+        }
+        ShardLayout layout = new ShardLayout(ShardFunction.getByName(functionName), shardCount);
+        return LEGACY.equals(layout) ? LEGACY : layout;
+    }
+
+    /**
+     * 计算文件名所在的表
+     *
+     * @param fileName 文件名
+     * @return 表的序号
+     */
+    public int getTableIndex(String fileName) {
+        return function.getShard(fileName, shardCount);
+    }
+
+    public String getTableName(String fileName) {
+        return "list" + getTableIndex(fileName);
+    }
+
+    /**
+     * 转换为保存在数据库文件头中的application_id
+     */
+    public int toApplicationId() {
+        if (LEGACY.equals(this)) {
+            return 0;
+        }
+        return APPLICATION_ID_MAGIC << 16 | function.getId() << 8 | shardCount;
+    }
+
+    /**
+     * 从application_id还原分表方式，无法识别时认为是默认分表方式
+     */
+    public static ShardLayout fromApplicationId(int applicationId) {
+        if (applicationId >>> 16 != APPLICATION_ID_MAGIC) {
+            return LEGACY;
+        }
+        ShardFunction function = ShardFunction.getById(applicationId >>> 8 & 0xff);
+        final int shardCount = applicationId & 0xff;
+        if (function == null || shardCount < 1 || shardCount > Constants.MAX_TABLE_NUM + 1) {
+            return LEGACY;
+        }
+        return new ShardLayout(function, shardCount);
+    }
+
+    @Override
+    public String toString() {
+        return function.getName() + "/" + shardCount;
+    }
+}
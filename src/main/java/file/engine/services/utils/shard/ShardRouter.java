@@ -0,0 +1,245 @@
+package file.engine.services.utils.shard;
+
+import file.engine.configs.Constants;
+import file.engine.services.utils.connection.SchemaUtil;
+import file.engine.utils.file.FileUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 决定文件记录所在的表
+ * <p>
+ * 新写入的记录总是使用设置中的分表方式，数据库当前的分表方式与设置不同时需要迁移，
+ * 迁移完成之前删除记录需要同时删除按照旧分表方式计算的表中的记录
+ * <p>
+ * 迁移时每次移动一个表中的一批记录，可以在搜索的同时进行，中断后重新迁移即可，已经在正确的表中的记录不会被移动
+ */
+public class ShardRouter {
+    private static final int APPLICATION_ID_OFFSET = 68;
+    private static volatile ShardRouter INSTANCE = null;
+
+    // key为盘符，value为数据库当前的分表方式
+    private final ConcurrentHashMap<String, ShardLayout> diskLayouts = new ConcurrentHashMap<>();
+    private volatile ShardLayout targetLayout = ShardLayout.LEGACY;
+
+    private ShardRouter() {
+    }
+
+    public static ShardRouter getInstance() {
+        if (INSTANCE == null) {
+            synchronized (ShardRouter.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new ShardRouter();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    public ShardLayout getTargetLayout() {
+        return targetLayout;
+    }
+
+    public void setTargetLayout(ShardLayout targetLayout) {
+        this.targetLayout = targetLayout;
+    }
+
+    /**
+     * 获取数据库当前的分表方式
+     *
+     * @param disk 盘符
+     * @return 未加载时返回默认分表方式
+     */
+    public ShardLayout getLayout(String disk) {
+        return diskLayouts.getOrDefault(disk, ShardLayout.LEGACY);
+    }
+
+    /**
+     * 新写入的记录所在的表
+     *
+     * @param fileName 文件名
+     * @return 表的序号
+     */
+    public int getTableIndex(String fileName) {
+        return targetLayout.getTableIndex(fileName);
+    }
+
+    /**
+     * 迁移未完成时记录可能还在旧分表方式计算的表中
+     *
+     * @param disk     盘符
+     * @param fileName 文件名
+     * @return 旧表的序号，不需要迁移或与新表相同时返回-1
+     */
+    public int getPreviousTableIndex(String disk, String fileName) {
+        final ShardLayout layout = getLayout(disk);
+        final ShardLayout target = targetLayout;
+        if (layout.equals(target)) {
+            return -1;
+        }
+        final int previous = layout.getTableIndex(fileName);
+        return previous == target.getTableIndex(fileName) ? -1 : previous;
+    }
+
+    /**
+     * 数据库当前的分表方式是否与设置不同
+     */
+    public boolean isMigrating(String disk) {
+        return !getLayout(disk).equals(targetLayout);
+    }
+
+    /**
+     * 从数据库中读取当前的分表方式
+     *
+     * @param disk 盘符
+     * @param stmt 该磁盘数据库的statement
+     * @return 分表方式
+     */
+    public ShardLayout load(String disk, Statement stmt) throws SQLException {
+        try (ResultSet resultSet = stmt.executeQuery("PRAGMA application_id;")) {
+            ShardLayout layout = resultSet.next() ? ShardLayout.fromApplicationId(resultSet.getInt(1)) : ShardLayout.LEGACY;
+            diskLayouts.put(disk, layout);
+            return layout;
+        }
+    }
+
+    /**
+     * 迁移完成后保存数据库的分表方式
+     *
+     * @param disk   盘符
+     * @param stmt   该磁盘数据库的statement
+     * @param layout 分表方式
+     */
+    public void save(String disk, Statement stmt, ShardLayout layout) throws SQLException {
+        stmt.execute("PRAGMA application_id=" + layout.toApplicationId() + ";");
+        diskLayouts.put(disk, layout);
+    }
+
+    /**
+     * 不打开连接，直接从数据库文件头读取分表方式，application_id保存在文件头第68字节开始的4个字节中
+     *
+     * @param dbFile 数据库文件
+     * @return 分表方式，文件不完整时返回默认分表方式
+     */
+    public static ShardLayout readLayout(Path dbFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(dbFile, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
+            if (channel.read(buffer, APPLICATION_ID_OFFSET) != Integer.BYTES) {
+                return ShardLayout.LEGACY;
+            }
+            return ShardLayout.fromApplicationId(buffer.flip().getInt());
+        }
+    }
+
+    /**
+     * 将一个表中rowid大于afterRowId的一批记录移动到新分表方式计算的表中，需要在事务中调用
+     * 移动后的记录没有ngram索引，迁移前需要将ngram索引标记为未建立
+     *
+     * @param connection 数据库连接
+     * @param target     新的分表方式
+     * @param tableIndex 表的序号
+     * @param isV2       是否为v2数据库结构
+     * @param afterRowId 从该rowid之后开始
+     * @param batchSize  读取的记录数量
+     * @return 读取和移动的数量，以及最后一条记录的rowid
+     */
+    @SuppressWarnings("SqlNoDataSourceInspection")
+    public static MigrateResult migrateBatch(Connection connection,
+                                             ShardLayout target,
+                                             int tableIndex,
+                                             boolean isV2,
+                                             long afterRowId,
+                                             int batchSize) throws SQLException {
+        final String sourceTable = getPhysicalTableName(tableIndex, isV2);
+        ArrayList<long[]> moves = new ArrayList<>();
+        int scanned = 0;
+        long lastRowId = afterRowId;
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT rowid, " + (isV2 ? "NAME" : "PATH") + " FROM " + sourceTable + " WHERE rowid>? ORDER BY rowid LIMIT ?;")) {
+            select.setLong(1, afterRowId);
+            select.setInt(2, batchSize);
+            try (ResultSet resultSet = select.executeQuery()) {
+                while (resultSet.next()) {
+                    ++scanned;
+                    lastRowId = resultSet.getLong(1);
+                    String name = isV2 ? resultSet.getString(2) : FileUtil.getFileName(resultSet.getString(2));
+                    final int targetIndex = target.getTableIndex(name);
+                    if (targetIndex != tableIndex) {
+                        moves.add(new long[]{lastRowId, targetIndex});
+                    }
+                }
+            }
+        }
+        if (moves.isEmpty()) {
+            return new MigrateResult(scanned, 0, lastRowId);
+        }
+        final String columns = isV2 ? "DIR_ID, NAME, PRIORITY, ASCII" : "ASCII, PATH, PRIORITY";
+        HashMap<Integer, PreparedStatement> inserts = new HashMap<>();
+        try (PreparedStatement delete = connection.prepareStatement("DELETE FROM " + sourceTable + " WHERE rowid=?;")) {
+            for (long[] move : moves) {
+                final int targetIndex = (int) move[1];
+                PreparedStatement insert = inserts.get(targetIndex);
+                if (insert == null) {
+                    insert = connection.prepareStatement("INSERT OR IGNORE INTO " + getPhysicalTableName(targetIndex, isV2) +
+                            "(" + columns + ") SELECT " + columns + " FROM " + sourceTable + " WHERE rowid=?;");
+                    inserts.put(targetIndex, insert);
+                }
+                insert.setLong(1, move[0]);
+                insert.executeUpdate();
+                delete.setLong(1, move[0]);
+                delete.executeUpdate();
+            }
+        } finally {
+            for (PreparedStatement each : inserts.values()) {
+                each.close();
+            }
+        }
+        return new MigrateResult(scanned, moves.size(), lastRowId);
+    }
+
+    /**
+     * 统计每个表的记录数量
+     *
+     * @param stmt 该磁盘数据库的statement
+     * @param isV2 是否为v2数据库结构
+     * @return 记录分布
+     */
+    @SuppressWarnings("SqlNoDataSourceInspection")
+    public static ShardDistribution countRecords(Statement stmt, boolean isV2) throws SQLException {
+        long[] counts = new long[Constants.MAX_TABLE_NUM + 1];
+        for (int i = 0; i <= Constants.MAX_TABLE_NUM; ++i) {
+            try (ResultSet resultSet = stmt.executeQuery("SELECT COUNT(*) FROM " + getPhysicalTableName(i, isV2) + ";")) {
+                counts[i] = resultSet.next() ? resultSet.getLong(1) : 0;
+            }
+        }
+        return new ShardDistribution(counts);
+    }
+
+    /**
+     * v2结构中listN是视图，记录保存在files_listN中
+     */
+    private static String getPhysicalTableName(int tableIndex, boolean isV2) {
+        final String tableName = "list" + tableIndex;
+        return isV2 ? SchemaUtil.getFilesTableName(tableName) : tableName;
+    }
+
+    /**
+     * @param scanned   读取的记录数量
+     * @param moved     移动到其他表的记录数量
+     * @param lastRowId 最后一条记录的rowid，下一批从该rowid之后开始
+     */
+    public record MigrateResult(int scanned, int moved, long lastRowId) {
+    }
+}
@@ -0,0 +1,25 @@
+package file.engine.services.utils.shard;
+
+import file.engine.services.utils.StringUtf8SumUtil;
+
+/**
+ * 按照文件名utf8编码中正数字节的和分表，每100为一个表，fileSearcherUSN写入时使用的就是该规则
+ * 非ASCII字符的字节都是负数，不参与计算，记录集中在中间的少数几个表中
+ */
+public class Utf8SumShardFunction implements ShardFunction {
+
+    @Override
+    public String getName() {
+        return "utf8sum";
+    }
+
+    @Override
+    public int getId() {
+        return 0;
+    }
+
+    @Override
+    public int getShard(String fileName, int shardCount) {
+        return Math.min(StringUtf8SumUtil.getStringSum(fileName) / 100, shardCount - 1);
+    }
+}
@@ -0,0 +1,35 @@
+package file.engine.services.utils.transliteration;
+
+import file.engine.utils.PinyinUtil;
+import file.engine.utils.RegexUtil;
+
+/**
+ * 将中文转为拼音和拼音首字母
+ */
+public class PinyinTransliterator implements Transliterator {
+
+    @Override
+    public String getName() {
+        return "pinyin";
+    }
+
+    @Override
+    public boolean isApplicable(String fileName) {
+        return PinyinUtil.isStringContainChinese(fileName);
+    }
+
+    @Override
+    public Transliteration transliterate(String fileName) {
+        String pinyin = PinyinUtil.toPinyin(fileName, ",");
+        StringBuilder full = new StringBuilder(pinyin.length());
+        StringBuilder initials = new StringBuilder();
+        for (String eachPinyin : RegexUtil.comma.split(pinyin)) {
+            if (eachPinyin.isEmpty()) {
+                continue;
+            }
+            full.append(eachPinyin);
+            initials.append(eachPinyin.charAt(0));
+        }
+        return new Transliteration(getName(), full.toString(), initials.toString());
+    }
+}
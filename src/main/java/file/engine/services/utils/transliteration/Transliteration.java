@@ -0,0 +1,15 @@
+package file.engine.services.utils.transliteration;
+
+/**
+ * 文件名的转写结果，均为小写，匹配时对两个字符串进行子字符串查找
+ *
+ * @param transliterator 转写器名称
+ * @param full           完整转写，如 文件 -> wenjian
+ * @param initials       每个字的首字母，如 文件 -> wj
+ */
+public record Transliteration(String transliterator, String full, String initials) {
+
+    public boolean contains(String keyword) {
+        return full.contains(keyword) || initials.contains(keyword);
+    }
+}
@@ -0,0 +1,264 @@
+package file.engine.services.utils.transliteration;
+
+import file.engine.configs.Constants;
+import file.engine.services.utils.connection.SchemaUtil;
+import file.engine.utils.file.FileUtil;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 文件名转写索引，文件名的转写结果在写入数据库时计算一次，同时保存到数据库的transliteration表中，启动时重新加载
+ * 已经不存在的文件名的转写结果在VACUUM和数据库被重新写入之后清理
+ * 匹配时直接查找转写结果，不再对每一条记录重复转写
+ * 所有转写器都只处理非ASCII字符，纯ASCII文件名直接跳过
+ * <p>
+ * 内存中的结果分为新旧两代，新一代已满时整体变为旧一代，旧一代中被再次使用的文件名移动到新一代，
+ * 长时间没有使用的文件名随旧一代一起淘汰，每一代的容量至少能放下数据库中保存的所有文件名
+ */
+public class TransliterationIndex {
+    public static final String TABLE_NAME = "transliteration";
+    // 每一代最少缓存的文件名数量
+    private static final int MAX_CACHED_NAMES = 512 * 1024;
+    private static final Transliteration[] EMPTY = new Transliteration[0];
+    private static volatile TransliterationIndex INSTANCE = null;
+
+    private final CopyOnWriteArrayList<Transliterator> transliterators = new CopyOnWriteArrayList<>();
+    // key为文件名，value为所有适用的转写器的结果
+    private volatile ConcurrentHashMap<String, Transliteration[]> recentTransliterations = new ConcurrentHashMap<>();
+    private volatile ConcurrentHashMap<String, Transliteration[]> previousTransliterations = new ConcurrentHashMap<>();
+    private volatile int generationCapacity = MAX_CACHED_NAMES;
+
+    private TransliterationIndex() {
+        transliterators.add(new PinyinTransliterator());
+    }
+
+    public static TransliterationIndex getInstance() {
+        if (INSTANCE == null) {
+            synchronized (TransliterationIndex.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new TransliterationIndex();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * 添加转写器，已经缓存的结果会被清空
+     *
+     * @param transliterator 转写器
+     */
+    public void register(Transliterator transliterator) {
+        for (Transliterator each : transliterators) {
+            if (each.getName().equals(transliterator.getName())) {
+                throw new IllegalArgumentException("transliterator " + transliterator.getName() + " already registered");
+            }
+        }
+        transliterators.add(transliterator);
+        synchronized (this) {
+            recentTransliterations = new ConcurrentHashMap<>();
+            previousTransliterations = new ConcurrentHashMap<>();
+        }
+    }
+
+    /**
+     * 获取文件名的转写结果，没有缓存或已经被淘汰时重新计算并缓存
+     *
+     * @param fileName 文件名
+     * @return 所有适用的转写器的结果，没有需要转写的字符时返回空数组
+     */
+    public Transliteration[] get(String fileName) {
+        if (isAscii(fileName)) {
+            return EMPTY;
+        }
+        Transliteration[] cached = recentTransliterations.get(fileName);
+        if (cached != null) {
+            return cached;
+        }
+        cached = previousTransliterations.get(fileName);
+        if (cached != null) {
+            cache(fileName, cached);
+            return cached;
+        }
+        ArrayList<Transliteration> results = new ArrayList<>(transliterators.size());
+        for (Transliterator each : transliterators) {
+            if (each.isApplicable(fileName)) {
+                results.add(each.transliterate(fileName));
+            }
+        }
+        Transliteration[] ret = results.isEmpty() ? EMPTY : results.toArray(EMPTY);
+        cache(fileName, ret);
+        return ret;
+    }
+
+    /**
+     * 放入新一代，新一代已满时先淘汰旧一代
+     */
+    private void cache(String fileName, Transliteration[] transliteration) {
+        ConcurrentHashMap<String, Transliteration[]> recent = recentTransliterations;
+        if (recent.size() >= generationCapacity) {
+            synchronized (this) {
+                if (recentTransliterations == recent) {
+                    previousTransliterations = recent;
+                    recentTransliterations = new ConcurrentHashMap<>();
+                }
+            }
+        }
+        recentTransliterations.put(fileName, transliteration);
+    }
+
+    /**
+     * 判断文件名的任意一个转写结果是否包含关键字
+     *
+     * @param fileName 文件名
+     * @param keyword  关键字
+     * @return true如果包含
+     */
+    public boolean isMatched(String fileName, String keyword) {
+        for (Transliteration each : get(fileName)) {
+            if (each.contains(keyword)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 从数据库中加载转写结果，只加载包含所有适用转写器结果的文件名，其余文件名在使用时重新计算
+     *
+     * @param stmt 数据库statement
+     * @return 加载的文件名数量
+     */
+    @SuppressWarnings("SqlNoDataSourceInspection")
+    public int load(Statement stmt) throws SQLException {
+        HashMap<String, List<Transliteration>> loaded = new HashMap<>();
+        try (ResultSet resultSet = stmt.executeQuery("SELECT NAME, TRANSLITERATOR, FULL, INITIALS FROM " + TABLE_NAME + ";")) {
+            while (resultSet.next()) {
+                loaded.computeIfAbsent(resultSet.getString(1), k -> new ArrayList<>(1))
+                        .add(new Transliteration(resultSet.getString(2), resultSet.getString(3), resultSet.getString(4)));
+            }
+        }
+        // 多个磁盘的表依次加载，每一代的容量增加到能放下所有已经加载的文件名
+        int count = 0;
+        synchronized (this) {
+            ConcurrentHashMap<String, Transliteration[]> recent = recentTransliterations;
+            generationCapacity = Math.max(generationCapacity, recent.size() + loaded.size());
+            for (var entry : loaded.entrySet()) {
+                Transliteration[] ordered = orderByTransliterators(entry.getKey(), entry.getValue());
+                if (ordered != null && recent.putIfAbsent(entry.getKey(), ordered) == null) {
+                    ++count;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 将数据库中的结果按照当前转写器的顺序排列
+     *
+     * @return null如果有适用的转写器没有结果
+     */
+    private Transliteration[] orderByTransliterators(String fileName, List<Transliteration> loaded) {
+        ArrayList<Transliteration> ordered = new ArrayList<>(loaded.size());
+        for (Transliterator each : transliterators) {
+            if (!each.isApplicable(fileName)) {
+                continue;
+            }
+            Transliteration found = null;
+            for (Transliteration eachLoaded : loaded) {
+                if (eachLoaded.transliterator().equals(each.getName())) {
+                    found = eachLoaded;
+                    break;
+                }
+            }
+            if (found == null) {
+                return null;
+            }
+            ordered.add(found);
+        }
+        return ordered.toArray(EMPTY);
+    }
+
+    /**
+     * 删除数据库中已经没有对应文件的文件名的转写结果，在VACUUM和数据库被重新写入之后执行
+     * 写入记录时只添加转写结果，删除记录时不删除，不清理时load会在启动时读取越来越多已经不存在的文件名
+     * 调用者需要保证执行期间没有写入记录
+     *
+     * @param stmt 数据库statement
+     * @param isV2 数据库是否为第二版表结构
+     * @return 删除的文件名数量
+     */
+    @SuppressWarnings("SqlNoDataSourceInspection")
+    public static int prune(Statement stmt, boolean isV2) throws SQLException {
+        HashSet<String> staleNames = new HashSet<>();
+        try (ResultSet resultSet = stmt.executeQuery("SELECT DISTINCT NAME FROM " + TABLE_NAME + ";")) {
+            while (resultSet.next()) {
+                staleNames.add(resultSet.getString(1));
+            }
+        }
+        for (int i = 0; i <= Constants.MAX_TABLE_NUM && !staleNames.isEmpty(); i++) {
+            final String sql = isV2 ? "SELECT NAME FROM " + SchemaUtil.getFilesTableName("list" + i) + ";" : "SELECT PATH FROM list" + i + ";";
+            try (ResultSet resultSet = stmt.executeQuery(sql)) {
+                while (resultSet.next()) {
+                    String fileName = FileUtil.getFileName(resultSet.getString(1));
+                    // 纯ASCII文件名没有转写结果
+                    if (!isAscii(fileName) && staleNames.remove(fileName) && staleNames.isEmpty()) {
+                        break;
+                    }
+                }
+            }
+        }
+        if (staleNames.isEmpty()) {
+            return 0;
+        }
+        stmt.execute("BEGIN;");
+        try (PreparedStatement pStmt = stmt.getConnection().prepareStatement("DELETE FROM " + TABLE_NAME + " WHERE NAME=?;")) {
+            for (String each : staleNames) {
+                pStmt.setString(1, each);
+                pStmt.addBatch();
+            }
+            pStmt.executeBatch();
+        } finally {
+            stmt.execute("COMMIT;");
+        }
+        return staleNames.size();
+    }
+
+    public static String getCreateTableSql() {
+        return "CREATE TABLE IF NOT EXISTS " + TABLE_NAME +
+                "(NAME TEXT, TRANSLITERATOR TEXT, FULL TEXT, INITIALS TEXT, PRIMARY KEY(\"NAME\",\"TRANSLITERATOR\")) WITHOUT ROWID;";
+    }
+
+    /**
+     * 保存转写结果，参数依次为 NAME, TRANSLITERATOR, FULL, INITIALS
+     */
+    public static String getInsertSql() {
+        return "INSERT OR IGNORE INTO " + TABLE_NAME + " VALUES(?, ?, ?, ?);";
+    }
+
+    /**
+     * 生成getInsertSql的参数
+     */
+    public static Object[] getInsertParams(String fileName, Transliteration transliteration) {
+        return new Object[]{fileName, transliteration.transliterator(), transliteration.full(), transliteration.initials()};
+    }
+
+    private static boolean isAscii(String str) {
+        final int length = str.length();
+        for (int i = 0; i < length; ++i) {
+            if (str.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,33 @@
+package file.engine.services.utils.transliteration;
+
+/**
+ * 将文件名转写为拉丁字母，使用户可以通过转写后的字符串搜索文件，如中文转为拼音
+ * 实现需要是线程安全的
+ *
+ * @see TransliterationIndex
+ */
+public interface Transliterator {
+
+    /**
+     * 转写器名称，用于在数据库中区分不同转写器的结果，不能重复
+     *
+     * @return 名称，如pinyin
+     */
+    String getName();
+
+    /**
+     * 文件名中是否有需要转写的字符
+     *
+     * @param fileName 文件名
+     * @return true如果需要转写
+     */
+    boolean isApplicable(String fileName);
+
+    /**
+     * 转写文件名
+     *
+     * @param fileName 文件名，isApplicable返回true时才会调用
+     * @return 转写结果
+     */
+    Transliteration transliterate(String fileName);
+}
@@ -0,0 +1,17 @@
+package file.engine.utils.system.properties;
+
+/**
+ * 不加载dll，用于在没有dll或非Windows系统上运行测试工具，磁盘只检查是否存在，不检查是否为NTFS，GPU加速不可用
+ */
+public class IsNativeDisabled {
+    private static final boolean isNativeDisabledVar;
+
+    static {
+        String res = System.getProperty("File_Engine_Disable_Native");
+        isNativeDisabledVar = "true".equalsIgnoreCase(res);
+    }
+
+    public static boolean isNativeDisabled() {
+        return isNativeDisabledVar;
+    }
+}
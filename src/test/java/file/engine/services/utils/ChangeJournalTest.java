@@ -0,0 +1,117 @@
+package file.engine.services.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertIterableEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChangeJournalTest {
+    private static final int CAPACITY = 256;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void replayInOrderAcrossWraparound() throws IOException {
+        ChangeJournal journal = new ChangeJournal(tempDir.resolve("journal"), CAPACITY);
+        Random random = new Random(8);
+        ArrayList<String> expected = new ArrayList<>();
+        // 记录长度不固定，环尾剩余空间小于4字节和不小于4字节的情况都会出现
+        for (int round = 0; round < 200; ++round) {
+            final int num = 1 + random.nextInt(4);
+            for (int i = 0; i < num; ++i) {
+                String path = "C:\\" + "a".repeat(random.nextInt(20)) + "\\文件" + round + "_" + i;
+                assertTrue(journal.append(ChangeJournal.OP_ADD, path));
+                expected.add(ChangeJournal.OP_ADD + path);
+            }
+            final long to = journal.getWritePosition();
+            assertIterableEquals(expected, replay(journal, to));
+            journal.checkpoint(to);
+            assertFalse(journal.hasPendingRecords());
+            expected.clear();
+        }
+        assertTrue(journal.getWritePosition() > CAPACITY * 10L);
+        journal.close();
+    }
+
+    @Test
+    public void appendFailsWhenFull() throws IOException {
+        ChangeJournal journal = new ChangeJournal(tempDir.resolve("journal"), CAPACITY);
+        ArrayList<String> expected = new ArrayList<>();
+        long firstHalf = 0;
+        int i = 0;
+        while (journal.append(ChangeJournal.OP_DELETE, "C:\\path" + i)) {
+            expected.add(ChangeJournal.OP_DELETE + "C:\\path" + i);
+            if (journal.getWritePosition() <= CAPACITY / 2) {
+                firstHalf = journal.getWritePosition();
+            }
+            ++i;
+        }
+        assertTrue(journal.getWritePosition() <= CAPACITY);
+        // 日志已满时已经写入的记录不能被覆盖
+        assertIterableEquals(expected, replay(journal, journal.getWritePosition()));
+
+        // 移动检查点后新的记录写到环的开头，检查点之后的记录不受影响
+        journal.checkpoint(firstHalf);
+        ArrayList<String> pending = replay(journal, journal.getWritePosition());
+        assertEquals(expected.subList(expected.size() - pending.size(), expected.size()), pending);
+        assertTrue(journal.append(ChangeJournal.OP_DELETE_DIRECTORY, "C:\\new"));
+        pending.add(ChangeJournal.OP_DELETE_DIRECTORY + "C:\\new");
+        assertIterableEquals(pending, replay(journal, journal.getWritePosition()));
+        journal.close();
+    }
+
+    @Test
+    public void pendingRecordsSurviveReopen() throws IOException {
+        Path file = tempDir.resolve("journal");
+        ChangeJournal journal = new ChangeJournal(file, CAPACITY);
+        ArrayList<String> expected = new ArrayList<>();
+        for (int i = 0; i < 43; ++i) {
+            final String path = "C:\\dir\\" + i;
+            assertTrue(journal.append(ChangeJournal.OP_ADD, path));
+            if (i % 8 == 7) {
+                journal.checkpoint(journal.getWritePosition());
+                expected.clear();
+            } else {
+                expected.add(ChangeJournal.OP_ADD + path);
+            }
+        }
+        final long writePosition = journal.getWritePosition();
+        journal.close();
+
+        ChangeJournal reopened = new ChangeJournal(file, CAPACITY);
+        assertEquals(writePosition, reopened.getWritePosition());
+        assertTrue(reopened.hasPendingRecords());
+        assertIterableEquals(expected, replay(reopened, reopened.getWritePosition()));
+        reopened.clear();
+        assertFalse(reopened.hasPendingRecords());
+        reopened.close();
+    }
+
+    @Test
+    public void recreateWhenCapacityChanged() throws IOException {
+        Path file = tempDir.resolve("journal");
+        ChangeJournal journal = new ChangeJournal(file, CAPACITY);
+        assertTrue(journal.append(ChangeJournal.OP_ADD, "C:\\a"));
+        journal.close();
+
+        ChangeJournal reopened = new ChangeJournal(file, CAPACITY * 2);
+        assertEquals(0, reopened.getWritePosition());
+        assertFalse(reopened.hasPendingRecords());
+        reopened.close();
+    }
+
+    private static ArrayList<String> replay(ChangeJournal journal, long to) {
+        ArrayList<String> records = new ArrayList<>();
+        journal.replay(to, (op, path) -> records.add(op + path));
+        return records;
+    }
+}
@@ -0,0 +1,108 @@
+package file.engine.services.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChunkedPathStoreTest {
+
+    /**
+     * 随机增删并与HashSet对比，删除索引中的元素后同一探测链上后面的元素必须仍然能够找到
+     */
+    @Test
+    public void randomAddAndRemove() {
+        ChunkedPathStore store = new ChunkedPathStore();
+        HashSet<String> expected = new HashSet<>();
+        ArrayList<String> candidates = new ArrayList<>();
+        for (int i = 0; i < 3000; ++i) {
+            candidates.add((i % 3 == 0 ? "C:\\文件夹\\" : "D:\\dir\\") + Integer.toString(i, 36));
+        }
+        Random random = new Random(20);
+        long allocatedBytes = 0;
+        for (int i = 0; i < 100000; ++i) {
+            final String path = candidates.get(random.nextInt(candidates.size()));
+            if (random.nextInt(3) == 0) {
+                allocatedBytes += store.remove(path);
+                expected.remove(path);
+            } else {
+                final boolean isExisted = store.contains(path);
+                allocatedBytes += store.add(path);
+                assertEquals(expected.add(path), !isExisted);
+                assertTrue(store.contains(path), path);
+            }
+            if (i % 5000 == 0) {
+                assertSameRecords(expected, candidates, store);
+            }
+        }
+        assertSameRecords(expected, candidates, store);
+        assertEquals(store.getAllocatedBytes(), allocatedBytes);
+    }
+
+    /**
+     * 先填满索引形成长的探测链，再从链的中间开始删除
+     */
+    @Test
+    public void removeFromProbeChains() {
+        ChunkedPathStore store = new ChunkedPathStore();
+        HashSet<String> expected = new HashSet<>();
+        for (int i = 0; i < 1000; ++i) {
+            final String path = "C:\\" + i;
+            store.add(path);
+            expected.add(path);
+        }
+        for (int i = 1; i < 1000; i += 2) {
+            final String path = "C:\\" + i;
+            store.remove(path);
+            expected.remove(path);
+            assertFalse(store.contains(path));
+        }
+        for (String each : expected) {
+            assertTrue(store.contains(each), each);
+        }
+        assertEquals(expected.size(), store.size());
+        // 删除后重新添加不会重复
+        for (int i = 0; i < 1000; ++i) {
+            store.add("C:\\" + i);
+        }
+        assertEquals(1000, store.size());
+        assertEquals(1000, store.count(path -> true));
+    }
+
+    @Test
+    public void closedStoreIgnoresChanges() {
+        ChunkedPathStore store = new ChunkedPathStore();
+        assertTrue(store.add("C:\\a") > 0);
+        assertEquals(-store.getAllocatedBytes(), store.close());
+        assertEquals(0, store.add("C:\\b"));
+        assertEquals(0, store.size());
+        assertEquals(0, store.count(path -> true));
+    }
+
+    private static void assertSameRecords(HashSet<String> expected, ArrayList<String> candidates, ChunkedPathStore store) {
+        assertEquals(expected.size(), store.size());
+        for (String each : candidates) {
+            assertEquals(expected.contains(each), store.contains(each), each);
+        }
+        HashSet<String> actual = new HashSet<>();
+        store.forEach(path -> assertTrue(actual.add(path), path));
+        assertEquals(expected, actual);
+        assertEquals(expected.size(), store.count(path -> true));
+        final long startsWithC = expected.stream().filter(path -> path.startsWith("C:")).count();
+        assertEquals(startsWithC, store.count(path -> path.startsWith("C:")));
+        // 只有通过字节预先过滤的记录才会解码
+        Set<String> decoded = ConcurrentHashMap.newKeySet();
+        assertEquals(startsWithC, store.count((bytes, from, to) -> bytes[from] == 'C', path -> {
+            decoded.add(path);
+            return true;
+        }));
+        assertTrue(decoded.stream().allMatch(path -> path.startsWith("C:")));
+    }
+}
@@ -0,0 +1,337 @@
+package file.engine.services.utils;
+
+import file.engine.services.utils.transliteration.Transliteration;
+import file.engine.services.utils.transliteration.TransliterationIndex;
+import file.engine.services.utils.transliteration.Transliterator;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 对比PathMatcher与PathMatchUtil的匹配结果，两者必须完全相同
+ */
+public class PathMatcherTest {
+    private static final String SEPARATOR = File.separator;
+    private static final String[] ALPHABETS = {
+            "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 ._-",
+            "文件夹测试数据中文拼音搜索引擎",
+            "αβγδεσςΑΒΓΔΕΣΩω",
+            "İıIiŞşĞğÇçÖöÜü",
+            "😀𝒜𠀀"
+    };
+    private static final String[] SEARCH_CASES = {
+            PathMatchUtil.SearchCase.CASE,
+            PathMatchUtil.SearchCase.FULL,
+            PathMatchUtil.SearchCase.F,
+            PathMatchUtil.SearchCase.D
+    };
+
+    /**
+     * 将希腊字母转写为拉丁字母，用于测试转写结果的匹配，与拼音转写器互不影响
+     */
+    private static class GreekTransliterator implements Transliterator {
+        private static final String GREEK = "αβγδεσςω";
+        private static final String LATIN = "abgdessw";
+
+        @Override
+        public String getName() {
+            return "test-greek";
+        }
+
+        @Override
+        public boolean isApplicable(String fileName) {
+            for (int i = 0; i < fileName.length(); ++i) {
+                if (GREEK.indexOf(Character.toLowerCase(fileName.charAt(i))) != -1) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Transliteration transliterate(String fileName) {
+            StringBuilder full = new StringBuilder();
+            for (int i = 0; i < fileName.length(); ++i) {
+                final int index = GREEK.indexOf(Character.toLowerCase(fileName.charAt(i)));
+                if (index != -1) {
+                    full.append(LATIN.charAt(index));
+                }
+            }
+            return new Transliteration(getName(), full.toString(), full.length() == 0 ? "" : full.substring(0, 1));
+        }
+    }
+
+    @BeforeAll
+    public static void registerTransliterator() {
+        TransliterationIndex.getInstance().register(new GreekTransliterator());
+    }
+
+    @Test
+    public void randomPathsMatchSameAsPathMatchUtil() {
+        assertRandomQueries(new Random(20231017L), 20000);
+    }
+
+    @Test
+    public void specialLowerCaseLocales() {
+        final Locale defaultLocale = Locale.getDefault();
+        try {
+            for (String language : new String[]{"tr", "az", "lt"}) {
+                Locale.setDefault(Locale.forLanguageTag(language));
+                assertRandomQueries(new Random(language.hashCode()), 3000);
+                assertSame(path("İSTANBUL", "DİZİN.txt"), null, "dizin");
+                assertSame(path("ISPARTA", "dosya.TXT"), null, "ısparta", "/ısparta");
+            }
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    public void charactersWithSpecialLowerCase() {
+        // U+0130的String.toLowerCase为两个字符，Σ在词尾时小写为ς，代理对需要按码点转换
+        assertSame(path("İstanbul", "belge.txt"), null, "i̇stanbul");
+        assertSame(path("data", "İi.txt"), null, "i̇i");
+        assertSame(path("data", "İi.txt"), null, "ii");
+        assertSame(path("ΟΔΥΣΣΕΑΣ"), null, "οδυσσεας");
+        assertSame(path("ΟΔΥΣΣΕΑΣ"), null, "οδυσσεaς");
+        assertSame(path("data", "ΣΟΦΙΑ ΣΑΣ.doc"), null, "σας");
+        assertSame(path("data", "𐐀.txt"), null, "𐐨");
+        assertSame(path("data", "😀 smile.png"), null, "😀 s");
+        assertSame(path("𝒜", "a.txt"), null, "𝒜", "/\uD835");
+    }
+
+    @Test
+    public void transliteratedNames() {
+        final String greekPath = path("docs", "αβγ δελτα.txt");
+        assertTrue(check(greekPath, null, "abg"));
+        assertTrue(check(greekPath, null, "abg", "δελτ"));
+        assertFalse(check(greekPath, null, "abgx"));
+        assertFalse(check(greekPath, new String[]{PathMatchUtil.SearchCase.CASE}, "ABG"));
+        // 路径关键字不匹配转写结果
+        assertFalse(check(path("αβγ", "a.txt"), null, "/abg"));
+    }
+
+    @Test
+    public void tooManyKeywords() {
+        final String path = path("keywords", "abcdefghijklmnopqrstuvwxyz0123456789.txt");
+        final String name = "abcdefghijklmnopqrstuvwxyz0123456789.txt";
+        ArrayList<String> keywords = new ArrayList<>();
+        for (int i = 0; keywords.size() < 70; ++i) {
+            final int start = i % name.length();
+            keywords.add(name.substring(start, Math.min(name.length(), start + 1 + i / name.length())));
+        }
+        for (int size : new int[]{62, 63, 64, 70}) {
+            String[] matched = keywords.subList(0, size).toArray(new String[0]);
+            assertTrue(check(path, null, matched), "keywords " + size);
+            String[] notMatched = Arrays.copyOf(matched, size + 1);
+            notMatched[size] = "not-found";
+            assertFalse(check(path, null, notMatched), "keywords " + (size + 1));
+        }
+    }
+
+    @Test
+    public void pathKeywordWithoutSeparator() {
+        assertSame("no-separator.txt", null, "no");
+        PathMatcher matcher = compile(null, "/no");
+        Class<? extends Throwable> matcherException = null;
+        Class<? extends Throwable> utilException = null;
+        try {
+            matcher.check("no-separator.txt");
+        } catch (RuntimeException e) {
+            matcherException = e.getClass();
+        }
+        try {
+            checkWithUtil("no-separator.txt", null, "/no");
+        } catch (RuntimeException e) {
+            utilException = e.getClass();
+        }
+        assertEquals(utilException, matcherException);
+    }
+
+    @Test
+    public void mayMatchRejectsAsciiPathsOnly() {
+        assertFalse(mayMatch(path("dir", "report.txt"), null, "invoice"));
+        assertFalse(mayMatch(path("dir", "report.txt"), null, "/invoice", "report"));
+        assertTrue(mayMatch(path("dir", "REPORT.txt"), null, "report"));
+        assertFalse(mayMatch(path("dir", "REPORT.txt"), new String[]{PathMatchUtil.SearchCase.CASE}, "report"));
+        // 包含非ASCII字符的文件名可能通过转写匹配，不能过滤
+        assertTrue(mayMatch(path("dir", "αβγ.txt"), null, "invoice"));
+        assertTrue(mayMatch(path("目录", "report.txt"), null, "/invoice", "report"));
+        assertTrue(mayMatch("no-separator.txt", null, "/no"));
+    }
+
+    private static boolean mayMatch(String path, String[] searchCase, String... queries) {
+        final byte[] bytes = ("#" + path + "#").getBytes(StandardCharsets.UTF_8);
+        return compile(searchCase, queries).mayMatch(bytes, 1, bytes.length - 1);
+    }
+
+    private static void assertRandomQueries(Random random, int times) {
+        for (int i = 0; i < times; ++i) {
+            final String path = randomPath(random);
+            String[] searchCase = randomSearchCase(random);
+            String[] queries = randomQueries(random, path, searchCase);
+            assertSame(path, searchCase, queries);
+        }
+    }
+
+    private static void assertSame(String path, String[] searchCase, String... queries) {
+        final String message = "path: " + path + " searchCase: " + Arrays.toString(searchCase) + " keywords: " + Arrays.toString(queries);
+        // f d规则通过FileTypeIndex访问文件系统，两者调用相同的方法，只对比不访问文件系统的部分
+        if (searchCase == null || !(Arrays.asList(searchCase).contains(PathMatchUtil.SearchCase.F) ||
+                Arrays.asList(searchCase).contains(PathMatchUtil.SearchCase.D))) {
+            assertEquals(checkWithUtil(path, searchCase, queries), check(path, searchCase, queries), message);
+        }
+        final boolean isMatched = checkKeywordsWithUtil(path, searchCase, queries);
+        assertEquals(isMatched, compile(searchCase, queries).checkKeywords(path), message);
+        // 字节上的预先过滤不能过滤掉匹配的路径
+        if (isMatched) {
+            final byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+            assertTrue(compile(searchCase, queries).mayMatch(bytes, 0, bytes.length), message);
+        }
+    }
+
+    private static boolean check(String path, String[] searchCase, String... queries) {
+        return compile(searchCase, queries).check(path);
+    }
+
+    /**
+     * 以/开头的查询为路径关键字，与搜索框的输入规则相同
+     */
+    private static PathMatcher compile(String[] searchCase, String... queries) {
+        Query query = new Query(searchCase, queries);
+        return PathMatcher.compile(searchCase, query.isIgnoreCase, query.searchText, query.keywords, query.keywordsLowerCase, query.isKeywordPath);
+    }
+
+    private static boolean checkWithUtil(String path, String[] searchCase, String... queries) {
+        Query query = new Query(searchCase, queries);
+        return PathMatchUtil.check(path, searchCase, query.isIgnoreCase, query.searchText, query.keywords, query.keywordsLowerCase, query.isKeywordPath);
+    }
+
+    private static boolean checkKeywordsWithUtil(String path, String[] searchCase, String... queries) {
+        Query query = new Query(searchCase, queries);
+        return PathMatchUtil.checkKeywords(path, searchCase, query.isIgnoreCase, query.searchText, query.keywords, query.keywordsLowerCase, query.isKeywordPath);
+    }
+
+    private static class Query {
+        private final boolean isIgnoreCase;
+        private final String searchText;
+        private final String[] keywords;
+        private final String[] keywordsLowerCase;
+        private final boolean[] isKeywordPath;
+
+        private Query(String[] searchCase, String[] queries) {
+            isIgnoreCase = searchCase == null || !Arrays.asList(searchCase).contains(PathMatchUtil.SearchCase.CASE);
+            searchText = String.join(";", queries);
+            keywords = new String[queries.length];
+            keywordsLowerCase = new String[queries.length];
+            isKeywordPath = new boolean[queries.length];
+            for (int i = 0; i < queries.length; ++i) {
+                String each = queries[i];
+                if (each.startsWith("/") || each.startsWith(File.separator)) {
+                    isKeywordPath[i] = true;
+                    each = each.substring(1).replace("/", File.separator);
+                }
+                keywords[i] = each;
+                keywordsLowerCase[i] = each.toLowerCase();
+            }
+        }
+    }
+
+    private static String path(String... names) {
+        return "C:" + SEPARATOR + String.join(SEPARATOR, names);
+    }
+
+    private static String randomPath(Random random) {
+        final int depth = 1 + random.nextInt(4);
+        String[] names = new String[depth];
+        for (int i = 0; i < depth; ++i) {
+            names[i] = randomString(random, 1 + random.nextInt(10));
+        }
+        if (random.nextInt(3) == 0) {
+            names[depth - 1] += "." + randomString(random, 1 + random.nextInt(3));
+        }
+        return path(names);
+    }
+
+    /**
+     * 从同一个字母表中取连续的几个字符，代理对作为一个整体
+     */
+    private static String randomString(Random random, int length) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < length; ++i) {
+            final String alphabet = ALPHABETS[random.nextInt(ALPHABETS.length)];
+            final int codePointCount = alphabet.codePointCount(0, alphabet.length());
+            builder.appendCodePoint(alphabet.codePointAt(alphabet.offsetByCodePoints(0, random.nextInt(codePointCount))));
+        }
+        return builder.toString();
+    }
+
+    private static String[] randomSearchCase(Random random) {
+        if (random.nextInt(3) == 0) {
+            return null;
+        }
+        ArrayList<String> searchCase = new ArrayList<>();
+        for (String each : SEARCH_CASES) {
+            if (random.nextInt(4) == 0) {
+                searchCase.add(each);
+            }
+        }
+        return searchCase.toArray(new String[0]);
+    }
+
+    /**
+     * 关键字大多从路径中截取并随机改变大小写，使匹配和不匹配的结果都能覆盖
+     */
+    private static String[] randomQueries(Random random, String path, String[] searchCase) {
+        final String name = path.substring(path.lastIndexOf(SEPARATOR) + 1);
+        if (searchCase != null && Arrays.asList(searchCase).contains(PathMatchUtil.SearchCase.FULL)) {
+            return new String[]{random.nextBoolean() ? randomCase(random, name) : randomString(random, name.length())};
+        }
+        final int count = random.nextInt(20) == 0 ? 60 + random.nextInt(10) : 1 + random.nextInt(4);
+        String[] queries = new String[count];
+        for (int i = 0; i < count; ++i) {
+            final boolean isPath = random.nextInt(4) == 0;
+            final String source = isPath ? path.substring(0, path.lastIndexOf(SEPARATOR)) : name;
+            String keyword;
+            switch (random.nextInt(6)) {
+                case 0 -> keyword = randomString(random, 1 + random.nextInt(3));
+                case 1 -> keyword = "";
+                default -> {
+                    int start = random.nextInt(source.length());
+                    int end = Math.min(source.length(), start + 1 + random.nextInt(5));
+                    if (Character.isLowSurrogate(source.charAt(start)) && start > 0) {
+                        --start;
+                    }
+                    if (end < source.length() && Character.isLowSurrogate(source.charAt(end))) {
+                        ++end;
+                    }
+                    keyword = randomCase(random, source.substring(start, end));
+                }
+            }
+            queries[i] = isPath ? "/" + keyword : keyword;
+        }
+        return queries;
+    }
+
+    private static String randomCase(Random random, String str) {
+        StringBuilder builder = new StringBuilder(str.length());
+        str.codePoints().forEach(codePoint -> {
+            switch (random.nextInt(3)) {
+                case 0 -> builder.appendCodePoint(Character.toUpperCase(codePoint));
+                case 1 -> builder.appendCodePoint(Character.toLowerCase(codePoint));
+                default -> builder.appendCodePoint(codePoint);
+            }
+        });
+        return builder.toString();
+    }
+}
@@ -0,0 +1,142 @@
+package file.engine.services.utils.connection;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 使用记录执行顺序的Statement检查BatchSqlWriter的执行顺序
+ */
+public class BatchSqlWriterTest {
+    private static final String INSERT = "INSERT OR IGNORE INTO list0 VALUES(?, ?)";
+    private static final String DELETE = "DELETE FROM list0 WHERE PATH=?";
+    private static final String INSERT_NGRAM = "INSERT OR IGNORE INTO ngram VALUES(?, ?)";
+
+    private final ArrayList<String> executed = new ArrayList<>();
+    private final ArrayList<String> closed = new ArrayList<>();
+
+    @Test
+    public void samePathKeepsOrder() throws Exception {
+        try (BatchSqlWriter writer = newWriter()) {
+            writer.add(INSERT, new Object[]{"C:\\a", 1}, "C:\\a", null);
+            writer.add(INSERT, new Object[]{"C:\\b", 1}, "C:\\b", null);
+            assertTrue(executed.isEmpty());
+            // 同一路径的第二个操作之前先执行所有batch
+            writer.add(DELETE, new Object[]{"C:\\a"}, "C:\\a", null);
+            assertEquals(List.of(INSERT + " [C:\\a, 1]", INSERT + " [C:\\b, 1]"), executed);
+            writer.add(INSERT, new Object[]{"C:\\a", 2}, "C:\\a", null);
+            writer.flush();
+        }
+        assertEquals(List.of(
+                INSERT + " [C:\\a, 1]",
+                INSERT + " [C:\\b, 1]",
+                DELETE + " [C:\\a]",
+                INSERT + " [C:\\a, 2]"), executed);
+    }
+
+    @Test
+    public void sameTemplateSharesBatch() throws Exception {
+        try (BatchSqlWriter writer = newWriter()) {
+            writer.add(INSERT, new Object[]{"C:\\a", 1}, "C:\\a", null);
+            writer.add(DELETE, new Object[]{"C:\\b"}, "C:\\b", null);
+            writer.add(INSERT, new Object[]{"C:\\c", 1}, "C:\\c", null);
+            writer.flush();
+        }
+        assertEquals(List.of(
+                INSERT + " [C:\\a, 1]",
+                INSERT + " [C:\\c, 1]",
+                DELETE + " [C:\\b]"), executed);
+        assertEquals(List.of(INSERT, DELETE), closed);
+    }
+
+    @Test
+    public void dependentBatchesAfterNormalBatches() throws Exception {
+        try (BatchSqlWriter writer = newWriter()) {
+            writer.addDependent(INSERT_NGRAM, new Object[]{"abc", "C:\\abc"});
+            writer.add(INSERT, new Object[]{"C:\\abc", 1}, "C:\\abc", null);
+            writer.flush();
+            writer.add(INSERT, new Object[]{"C:\\abcd", 1}, "C:\\abcd", null);
+            writer.addDependent(INSERT_NGRAM, new Object[]{"bcd", "C:\\abcd"});
+            writer.flush();
+        }
+        assertEquals(List.of(
+                INSERT + " [C:\\abc, 1]",
+                INSERT_NGRAM + " [abc, C:\\abc]",
+                INSERT + " [C:\\abcd, 1]",
+                INSERT_NGRAM + " [bcd, C:\\abcd]"), executed);
+    }
+
+    @Test
+    public void executeFlushesBatchesFirst() throws Exception {
+        ArrayList<Integer> updateCounts = new ArrayList<>();
+        try (BatchSqlWriter writer = newWriter()) {
+            writer.add(INSERT, new Object[]{"C:\\a", 1}, "C:\\a", updateCounts::add);
+            writer.add(INSERT, new Object[]{"C:\\b", 1}, "C:\\b", null);
+            writer.add(INSERT, new Object[]{"C:\\c", 1}, "C:\\c", updateCounts::add);
+            writer.execute("DELETE FROM list0 WHERE PATH LIKE 'C:\\%'", updateCounts::add);
+        }
+        assertEquals(List.of(
+                INSERT + " [C:\\a, 1]",
+                INSERT + " [C:\\b, 1]",
+                INSERT + " [C:\\c, 1]",
+                "DELETE FROM list0 WHERE PATH LIKE 'C:\\%'"), executed);
+        // batch中每个操作的影响行数为其序号，execute的影响行数为-2
+        assertEquals(List.of(0, 2, -2), updateCounts);
+    }
+
+    private BatchSqlWriter newWriter() {
+        Statement statement = (Statement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Statement.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "execute" -> {
+                        executed.add((String) args[0]);
+                        yield false;
+                    }
+                    case "getUpdateCount" -> -2;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+        return new BatchSqlWriter(statement, this::newPreparedStatement);
+    }
+
+    private PreparedStatement newPreparedStatement(String sql) {
+        ArrayList<Object> params = new ArrayList<>();
+        ArrayList<String> batch = new ArrayList<>();
+        return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{PreparedStatement.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "setObject" -> {
+                        final int index = (int) args[0];
+                        while (params.size() < index) {
+                            params.add(null);
+                        }
+                        params.set(index - 1, args[1]);
+                        yield null;
+                    }
+                    case "addBatch" -> {
+                        batch.add(sql + " " + Arrays.toString(params.toArray()));
+                        params.clear();
+                        yield null;
+                    }
+                    case "executeBatch" -> {
+                        int[] updateCounts = new int[batch.size()];
+                        for (int i = 0; i < updateCounts.length; ++i) {
+                            updateCounts[i] = i;
+                        }
+                        executed.addAll(batch);
+                        batch.clear();
+                        yield updateCounts;
+                    }
+                    case "close" -> {
+                        closed.add(sql);
+                        yield null;
+                    }
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}